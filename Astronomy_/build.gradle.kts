@@ -5,6 +5,24 @@ plugins {
 
 dependencies {
 	implementation(project(":ij"))
+
+    testImplementation("org.openjdk.jmh:jmh-core:1.37")
+    testAnnotationProcessor("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+}
+
+// Vector API fast paths, compiled on their own so the rest of the build and the launchers don't need the incubator
+// module. They are only loaded when it is present, see Astronomy.photometer.CircularApertureSums
+val vector by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output + sourceSets.main.get().compileClasspath
+}
+
+tasks.named<JavaCompile>(vector.compileJavaTaskName) {
+    // The incubating module warning has no lint category of its own
+    options.compilerArgs.addAll(listOf("--add-modules", "jdk.incubator.vector", "-Xlint:none"))
+}
+
+sourceSets.test {
+    runtimeClasspath += vector.output
 }
 
 artifacts {
@@ -13,6 +31,7 @@ artifacts {
 
 tasks.jar {
     archiveFileName = "Astronomy_.jar"
+    from(vector.output)
 }
 
 testing {
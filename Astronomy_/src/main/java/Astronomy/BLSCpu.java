@@ -0,0 +1,248 @@
+package Astronomy;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+
+/**
+ * CPU version of the phase-binned BLS periodogram in {@link BLSGpu}.
+ *
+ * <p>Each period runs the two stages of the {@code bls_compute} kernel in
+ * {@code bls_periodogram.cl}: fold the raw times into {@code nBins} phase bins,
+ * then slide a box of every trial duration around the phase circle with
+ * incremental in/out sums.  The arithmetic is the kernel's, operation for
+ * operation and in FP64, so the results equal the GPU's wherever the device
+ * does not contract multiply-adds into FMAs.
+ *
+ * <p>Periods are split over a fork-join pool in blocks.  Every worker keeps
+ * its bin arrays between blocks and calls, so the search allocates nothing
+ * per period.
+ */
+public class BLSCpu {
+
+    private static final int PERIOD_BLOCK = 32;
+    private static final ForkJoinPool POOL =
+            new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+                    new BLSWorkerThreadFactory(), null, false);
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    /**
+     * Runs the phase-binned BLS grid search on the CPU.
+     *
+     * @param t           Time array (days, any order)
+     * @param f           Flux array (normalised to ~1.0)
+     * @param periods     Pre-built period grid
+     * @param nDurations  Number of fractional-duration steps
+     * @param minFracDur  Minimum fractional duration (fraction of period)
+     * @param maxFracDur  Maximum fractional duration (fraction of period)
+     * @param nBins       Phase/duration bin count.  Resolution = period / nBins.
+     * @param progress    Called with the number of periods finished so far, from the worker threads; may be null
+     * @param cancelCheck Polled before each period; unprocessed periods are left as {@link Double#NaN}
+     * @return Per-period results: power, bestDuration, bestDepth, bestPhase
+     */
+    public static BLSGpu.BLSResult search(double[] t, double[] f, double[] periods,
+                                          int nDurations, double minFracDur, double maxFracDur,
+                                          int nBins, IntConsumer progress, BooleanSupplier cancelCheck) {
+        int nPeriods = periods.length;
+        double[] power    = new double[nPeriods];
+        double[] duration = new double[nPeriods];
+        double[] depth    = new double[nPeriods];
+        double[] phase    = new double[nPeriods];
+        Arrays.fill(power,    Double.NaN);
+        Arrays.fill(duration, Double.NaN);
+        Arrays.fill(depth,    Double.NaN);
+        Arrays.fill(phase,    Double.NaN);
+
+        var task = new PeriodBlock(t, f, periods, nDurations, minFracDur, maxFracDur, nBins,
+                new double[][]{power, duration, depth, phase}, progress, cancelCheck, new AtomicInteger(),
+                0, nPeriods);
+        POOL.invoke(task);
+        return new BLSGpu.BLSResult(power, duration, depth, phase);
+    }
+
+    /**
+     * Stage 1 of {@code bls_compute}: folds {@code t} at {@code period} into
+     * {@code binFlux.length} bins.  The bins are cleared first.
+     */
+    public static void fold(double[] t, double[] f, double period, double[] binFlux, int[] binN) {
+        int nBins = binFlux.length;
+        double invPeriod = 1.0 / period;
+        Arrays.fill(binFlux, 0.0);
+        Arrays.fill(binN, 0);
+        for (int j = 0; j < t.length; j++) {
+            double ph = t[j] * invPeriod;
+            ph -= Math.floor(ph);
+            int bin = (int) (ph * (double) nBins);
+            if (bin < 0 || bin >= nBins) bin = nBins - 1;
+            binFlux[bin] += f[j];
+            binN[bin]    += 1;
+        }
+    }
+
+    /**
+     * Stage 2 of {@code bls_compute}: the best box over all durations and
+     * phase offsets of one folded period.
+     *
+     * @param out receives the power, duration, depth and phase of the box centre, in days
+     */
+    public static void slide(double[] binFlux, int[] binN, double period, int nDurations,
+                             double minFracDur, double maxFracDur, double[] out) {
+        final int nBins = binFlux.length;
+        final double fracRange = maxFracDur - minFracDur;
+        final int nDurM1 = Math.max(1, nDurations - 1);
+
+        double maxPower  = 0.0;
+        double bestDur   = 0.0;
+        double bestDepth = 0.0;
+        double bestPhase = 0.0;
+
+        for (int d = 0; d < nDurations; d++) {
+            final double fracDur = minFracDur + (double) d * fracRange / (double) nDurM1;
+            int durBins = (int) (fracDur * (double) nBins + 0.5);
+            if (durBins < 1)      durBins = 1;
+            if (durBins >= nBins) durBins = nBins - 1;
+            final double boxDuration = fracDur * period;
+
+            double sumIn  = 0.0;
+            double sumOut = 0.0;
+            double nIn    = 0.0;
+            double nOut   = 0.0;
+            for (int k = 0; k < durBins; k++) {
+                sumIn += binFlux[k];
+                nIn   += (double) binN[k];
+            }
+            for (int k = durBins; k < nBins; k++) {
+                sumOut += binFlux[k];
+                nOut   += (double) binN[k];
+            }
+
+            for (int p = 0; p < nBins; p++) {
+                if (nIn >= 2.0 && nOut >= 2.0) {
+                    final double meanIn   = sumIn  / nIn;
+                    final double meanOut  = sumOut / nOut;
+                    final double boxDepth = meanOut - meanIn;
+                    final double boxPower = boxDepth * boxDepth * nIn * nOut / (nIn + nOut);
+                    if (boxPower > maxPower) {
+                        maxPower  = boxPower;
+                        bestDur   = boxDuration;
+                        bestDepth = boxDepth;
+                        bestPhase = ((double) p + (double) durBins * 0.5) / (double) nBins * period;
+                    }
+                }
+
+                int addBin = p + durBins;
+                if (addBin >= nBins) addBin -= nBins;
+
+                double fp = binFlux[p];          double fa = binFlux[addBin];
+                double np = (double) binN[p];    double na = (double) binN[addBin];
+                sumIn  -= fp;   nIn  -= np;
+                sumIn  += fa;   nIn  += na;
+                sumOut += fp;   nOut += np;
+                sumOut -= fa;   nOut -= na;
+            }
+        }
+
+        out[0] = maxPower;
+        out[1] = bestDur;
+        out[2] = bestDepth;
+        out[3] = bestPhase;
+    }
+
+    private static final class PeriodBlock extends RecursiveAction {
+        private final double[] t;
+        private final double[] f;
+        private final double[] periods;
+        private final int nDurations;
+        private final double minFracDur;
+        private final double maxFracDur;
+        private final int nBins;
+        private final double[][] out;
+        private final IntConsumer progress;
+        private final BooleanSupplier cancelCheck;
+        private final AtomicInteger done;
+        private final int from;
+        private final int to;
+
+        PeriodBlock(double[] t, double[] f, double[] periods, int nDurations, double minFracDur,
+                    double maxFracDur, int nBins, double[][] out, IntConsumer progress,
+                    BooleanSupplier cancelCheck, AtomicInteger done, int from, int to) {
+            this.t = t;
+            this.f = f;
+            this.periods = periods;
+            this.nDurations = nDurations;
+            this.minFracDur = minFracDur;
+            this.maxFracDur = maxFracDur;
+            this.nBins = nBins;
+            this.out = out;
+            this.progress = progress;
+            this.cancelCheck = cancelCheck;
+            this.done = done;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > PERIOD_BLOCK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(split(from, mid), split(mid, to));
+                return;
+            }
+
+            var scratch = SCRATCH.get().ensure(nBins);
+            var best = scratch.best;
+            int finished = 0;
+            for (int i = from; i < to; i++) {
+                if (cancelCheck.getAsBoolean()) {
+                    break;
+                }
+                fold(t, f, periods[i], scratch.binFlux, scratch.binN);
+                slide(scratch.binFlux, scratch.binN, periods[i], nDurations, minFracDur, maxFracDur, best);
+                out[0][i] = best[0];
+                out[1][i] = best[1];
+                out[2][i] = best[2];
+                out[3][i] = best[3];
+                finished++;
+            }
+            int total = done.addAndGet(finished);
+            if (progress != null) {
+                progress.accept(total);
+            }
+        }
+
+        private PeriodBlock split(int from, int to) {
+            return new PeriodBlock(t, f, periods, nDurations, minFracDur, maxFracDur, nBins, out, progress,
+                    cancelCheck, done, from, to);
+        }
+    }
+
+    private static final class Scratch {
+        private double[] binFlux = new double[0];
+        private int[] binN = new int[0];
+        private final double[] best = new double[4];
+
+        Scratch ensure(int nBins) {
+            if (binFlux.length != nBins) {
+                binFlux = new double[nBins];
+                binN = new int[nBins];
+            }
+            return this;
+        }
+    }
+
+    private static class BLSWorkerThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            var worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            worker.setName("BLS-CPU-" + threadNumber.getAndIncrement());
+            worker.setDaemon(true);
+            return worker;
+        }
+    }
+}
@@ -30,6 +30,7 @@ import static Astronomy.MultiPlot_.errcolumn;
 import static Astronomy.MultiPlot_.excluded;
 import static Astronomy.MultiPlot_.excludedHeadSamples;
 import static Astronomy.MultiPlot_.excludedTailSamples;
+import static Astronomy.MultiPlot_.fitBackendBase;
 import static Astronomy.MultiPlot_.fitLeft;
 import static Astronomy.MultiPlot_.fitMax;
 import static Astronomy.MultiPlot_.fitMin;
@@ -158,6 +159,8 @@ import java.util.stream.IntStream;
 
 import Astronomy.multiplot.KeplerSplineControl;
 import Astronomy.multiplot.modelling.FitLightCurveChi2;
+import Astronomy.multiplot.modelling.LevenbergMarquardt;
+import Astronomy.multiplot.settings.FitBackend;
 import Astronomy.multiplot.settings.MPOperator;
 import Jama.Matrix;
 import astroj.IJU;
@@ -193,6 +196,8 @@ public class CurveFitter {
     private double[][] initDetrendYD;
     private double[] initDetrendX;
     private boolean doInstancedDetrendCalculation = false;
+    // Each optimizer thread walks its own sequence of comp star states
+    private final ThreadLocal<Ensemble> ensembles;
     public static int[] detrendIndex;
     public static String[] detrendlabel;
 
@@ -205,6 +210,7 @@ public class CurveFitter {
 
         getStarData();
         setupData();
+        ensembles = ThreadLocal.withInitial(() -> new Ensemble(source, srcvar, targetStar));
         // todo add check for fitter running only on Tstar and other conditions
         //      extract star and filter from this "rel_flux_Txx"
     }
@@ -1000,13 +1006,20 @@ public class CurveFitter {
         var tot_C_err = new double[source[0].length];
         var rel_flux_snr = new double[source[0].length];
 
+        var ensemble = ap2reference == targetStar ? ensembles.get().update(localIsRefStar) : null;
+
         for (int i = 0; i < source[0].length; i++) {
             var compSum = 0.0;
             var compVar = 0.0;
-            for (int ap = 0; ap < localIsRefStar.length; ap++) {
-                if (localIsRefStar[ap] && ap2reference != ap) {
-                    compSum += source[ap][i];
-                    compVar += srcvar[ap][i];
+            if (ensemble != null && ensemble.isFinite(i)) {
+                compSum = ensemble.compSum[i];
+                compVar = ensemble.compVar[i];
+            } else {
+                for (int ap = 0; ap < localIsRefStar.length; ap++) {
+                    if (localIsRefStar[ap] && ap2reference != ap) {
+                        compSum += source[ap][i];
+                        compVar += srcvar[ap][i];
+                    }
                 }
             }
             if (compSum == 0) continue;
@@ -1599,23 +1612,34 @@ public class CurveFitter {
                             } else {
                                 var sortedX = Arrays.stream(x[curve]).limit(nn[curve]).filter(d -> !Double.isNaN(d)).sorted().toArray();
 
-                                var m = new Minimizer();
-                                // For maxRestarts >=1, sometimes it deadlocks eg when enabling an all nan param
-                                // seems to be an issue with the tolerence
-                                m.setMaxRestarts(0);
-                                m.setMaxIterations(maxFitSteps[curve]);
-                                m.setMaxError(tolerance[curve]);
-                                m.setFunction(new FitLightCurveChi2(curve, sortedX[0], sortedX[sortedX.length - 1],
-                                                nFitted == 0 && !useTransitFit[curve], detrendY, dof, bp,
-                                                detrendX, detrendYE, isFitted, detrendYAverage, priorCenter, detrendIndex,
-                                                maxFittedVars, detrendVars, index),
-                                        start.length);
-                                var result = m.minimize(start, step);
-
-                                nTries = m.getIterations();
-                                coeffs = Arrays.copyOf(m.getParams(), start.length); // more values can be returned
-                                chi2dof = m.getFunctionValue();
-                                converged = result == Minimizer.SUCCESS;
+                                var chi2Function = new FitLightCurveChi2(curve, sortedX[0], sortedX[sortedX.length - 1],
+                                        nFitted == 0 && !useTransitFit[curve], detrendY, dof, bp,
+                                        detrendX, detrendYE, isFitted, detrendYAverage, priorCenter, detrendIndex,
+                                        maxFittedVars, detrendVars, index);
+
+                                if (fitBackendBase.getOrCreateVariant(curve).get() == FitBackend.LEVENBERG_MARQUARDT) {
+                                    var lm = new LevenbergMarquardt(chi2Function::residuals,
+                                            chi2Function.residualCount(start.length), maxFitSteps[curve], tolerance[curve]);
+                                    converged = lm.minimize(start, step);
+
+                                    nTries = lm.getIterations();
+                                    coeffs = lm.getParams();
+                                    chi2dof = lm.getFunctionValue();
+                                } else {
+                                    var m = new Minimizer();
+                                    // For maxRestarts >=1, sometimes it deadlocks eg when enabling an all nan param
+                                    // seems to be an issue with the tolerence
+                                    m.setMaxRestarts(0);
+                                    m.setMaxIterations(maxFitSteps[curve]);
+                                    m.setMaxError(tolerance[curve]);
+                                    m.setFunction(chi2Function, start.length);
+                                    var result = m.minimize(start, step);
+
+                                    nTries = m.getIterations();
+                                    coeffs = Arrays.copyOf(m.getParams(), start.length); // more values can be returned
+                                    chi2dof = m.getFunctionValue();
+                                    converged = result == Minimizer.SUCCESS;
+                                }
                             }
 
                             fp = 0;
@@ -2045,6 +2069,118 @@ public class CurveFitter {
         }
     }
 
+    /**
+     * Running comparison ensemble of the target star, the per row sums of the flux and variance of the selected comp
+     * stars. Successive states of a comp star search differ by a star or two, so only the columns of the stars that
+     * changed are added or removed rather than summing every star for every row.
+     * <p>
+     * Rows where a selected star has a non-finite flux or variance are not kept, as they could not be removed again,
+     * and are summed directly. The sums are rebuilt from scratch when most of the stars change and after
+     * {@link #RESYNC_UPDATES} single star updates, to bound the rounding drift of the additions and removals.
+     */
+    private static final class Ensemble {
+        private static final int RESYNC_UPDATES = 1024;
+        private final double[][] source;
+        private final double[][] srcvar;
+        private final int targetStar;
+        private final boolean[] members;
+        private final double[] compSum;
+        private final double[] compVar;
+        private final int[] nonFinite;
+        private int memberCount;
+        private int updates;
+
+        private Ensemble(double[][] source, double[][] srcvar, int targetStar) {
+            this.source = source;
+            this.srcvar = srcvar;
+            this.targetStar = targetStar;
+            members = new boolean[source.length];
+            compSum = new double[source[0].length];
+            compVar = new double[source[0].length];
+            nonFinite = new int[source[0].length];
+        }
+
+        private Ensemble update(boolean[] isRefStar) {
+            var changed = 0;
+            for (int ap = 0; ap < members.length; ap++) {
+                if (isMember(isRefStar, ap) != members[ap]) changed++;
+            }
+            if (changed == 0) return this;
+
+            if (2 * changed > members.length || updates + changed > RESYNC_UPDATES) {
+                rebuild(isRefStar);
+                return this;
+            }
+
+            for (int ap = 0; ap < members.length; ap++) {
+                var member = isMember(isRefStar, ap);
+                if (member != members[ap]) {
+                    apply(ap, member ? 1 : -1);
+                    members[ap] = member;
+                    memberCount += member ? 1 : -1;
+                }
+            }
+            updates += changed;
+
+            if (memberCount == 0) {
+                // Nothing left to cancel against, so clear the rounding residue
+                Arrays.fill(compSum, 0);
+                Arrays.fill(compVar, 0);
+            }
+
+            return this;
+        }
+
+        private boolean isFinite(int row) {
+            return nonFinite[row] == 0;
+        }
+
+        private boolean isMember(boolean[] isRefStar, int ap) {
+            return ap < isRefStar.length && isRefStar[ap] && ap != targetStar;
+        }
+
+        private void apply(int ap, int sign) {
+            var flux = source[ap];
+            var variance = srcvar[ap];
+            for (int i = 0; i < compSum.length; i++) {
+                if (Double.isFinite(flux[i]) && Double.isFinite(variance[i])) {
+                    compSum[i] += sign * flux[i];
+                    compVar[i] += sign * variance[i];
+                } else {
+                    nonFinite[i] += sign;
+                }
+            }
+        }
+
+        private void rebuild(boolean[] isRefStar) {
+            memberCount = 0;
+            for (int ap = 0; ap < members.length; ap++) {
+                members[ap] = isMember(isRefStar, ap);
+                if (members[ap]) memberCount++;
+            }
+
+            for (int i = 0; i < compSum.length; i++) {
+                var sum = 0.0;
+                var variance = 0.0;
+                var bad = 0;
+                for (int ap = 0; ap < members.length; ap++) {
+                    if (!members[ap]) continue;
+                    if (Double.isFinite(source[ap][i]) && Double.isFinite(srcvar[ap][i])) {
+                        sum += source[ap][i];
+                        variance += srcvar[ap][i];
+                    } else {
+                        bad++;
+                    }
+                }
+                compSum[i] = sum;
+                compVar[i] = variance;
+                nonFinite[i] = bad;
+            }
+
+            updates = 0;
+        }
+    }
+
     private record FluxData(double[] flux, double[] err, double[] snr, double[] totalCCounts, double[] totalCCountErr) {
     }
 
@@ -29,16 +29,26 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.TimeZone;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Pattern;
 
 import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
@@ -75,6 +85,8 @@ import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import javax.swing.text.MaskFormatter;
 
+import Astronomy.calibration.CalibrationPipeline;
+import Astronomy.calibration.StreamingCombiner;
 import astroj.AstroCanvas;
 import astroj.AstroConverter;
 import astroj.AstroStackWindow;
@@ -90,7 +102,10 @@ import ij.ImagePlus;
 import ij.ImageStack;
 import ij.Prefs;
 import ij.WindowManager;
+import ij.astro.io.prefs.Property;
+import ij.astro.util.DirectoryWatcher;
 import ij.astro.util.FitsExtensionUtil;
+import ij.astro.util.SlicePrefetcher;
 import ij.astro.util.UIHelper;
 import ij.gui.GUI;
 import ij.gui.GenericDialog;
@@ -102,6 +117,7 @@ import ij.io.OpenDialog;
 import ij.plugin.Macro_Runner;
 import ij.plugin.PlugIn;
 import ij.plugin.filter.PlugInFilterRunner;
+import ij.plugin.filter.RankFilters;
 import ij.process.ImageProcessor;
 import util.prefs.RegionExclusion;
 
@@ -127,10 +143,18 @@ public class Data_Processor implements PlugIn, ActionListener, ChangeListener, /
     final static boolean CONVERTTOFLOAT = true;
     static public boolean active = false;  //used by MultiAperture to determine if runMultiPlot is valid
     static public boolean runMultiPlot = false;
+    private static final Property<StreamingCombiner.Method> AVERAGE_METHOD = new Property<>(StreamingCombiner.Method.MEAN, Data_Processor.class);
+    private static final Property<Boolean> PARALLEL_SCIENCE = new Property<>(false, Data_Processor.class);
+    private static final Property<Integer> PARALLEL_THREADS = new Property<>(0, Data_Processor.class);
     protected boolean ignoreAction = false;
     int pollingInterval = 0;        // IN SECONDS
     TimerTask task = null;
     Timer timer = null;
+    volatile SlicePrefetcher<ImagePlus> sciencePrefetcher = null;
+    volatile DirectoryWatcher scienceWatcher = null;
+    private final Map<String, Pattern> wildCards = new ConcurrentHashMap<>();
+    private final ThreadLocal<List<String>> frameLog = new ThreadLocal<>();
+    volatile Map<String, Integer> prefetchIndex = Map.of();
     boolean blocked = false;
     boolean onlyNew = false; // VERSION 1.1
     boolean firstRun = true;
@@ -195,7 +219,7 @@ public class Data_Processor implements PlugIn, ActionListener, ChangeListener, /
     JCheckBoxMenuItem autoRunAndCloseCB;
     JCheckBoxMenuItem onlyNewCB, usepreMacro1AutoLevelCB, showToolTipsCB, autoWildcardCB;
     JCheckBoxMenuItem rawCalCommonDirCB, masterCalCommonDirCB, postMacro1AutoLevelCB, postMacro2AutoLevelCB;
-    JMenuItem setFileSizeChangeWaitTimeMenuItem;
+    JMenuItem setFileSizeChangeWaitTimeMenuItem, setMasterCombineMenuItem, setParallelScienceMenuItem;
     JTextField dirText, filenamePatternText;
     JLabel remainingNumLabel, processedNumLabel, pollingIntervalLabel, minFileNumberLabel, maxFileNumberLabel;
     JLabel validTextFilteredFilesLabel, validNumFilteredFilesLabel;
@@ -1117,6 +1141,14 @@ public class Data_Processor implements PlugIn, ActionListener, ChangeListener, /
         });
         prefsMenu.add(setFileSizeChangeWaitTimeMenuItem);
 
+        setMasterCombineMenuItem = new JMenuItem("Set master calibration file combine options...");
+        setMasterCombineMenuItem.addActionListener(e -> setMasterCombineOptions());
+        prefsMenu.add(setMasterCombineMenuItem);
+
+        setParallelScienceMenuItem = new JMenuItem("Set parallel science file processing options...");
+        setParallelScienceMenuItem.addActionListener(e -> setParallelScienceOptions());
+        prefsMenu.add(setParallelScienceMenuItem);
+
         prefsMenu.addSeparator();
 
         autoRunAndCloseCB = new JCheckBoxMenuItem("Automatically run and close DP. Keep disabled. For macro processing only.", autoRunAndClose);
@@ -2826,6 +2858,7 @@ public class Data_Processor implements PlugIn, ActionListener, ChangeListener, /
         Prefs.set("dataproc.finished", true);
         if (timer != null) timer.cancel();
         if (task != null) task.cancel();
+        closeScienceWatcher();
         running = false;
         active = false;
         savePrefs();
@@ -4070,6 +4103,11 @@ public class Data_Processor implements PlugIn, ActionListener, ChangeListener, /
                 filenames = sortFileList(filenames);
             }
 
+            var frames = streamableFrames(biasPath, biasBase, filenames, null);
+            if (frames != null) {
+                return streamMasterBias(frames);
+            }
+
             for (int i = 0; i < files.length; i++) {
                 bias = filenames[i];
                 if (matchWildCard(biasBase, bias)) {
@@ -4130,62 +4168,15 @@ public class Data_Processor implements PlugIn, ActionListener, ChangeListener, /
                 if (requestStop) {
                     return false;
                 }
-                if (biasMedian) {
-                    IJ.showStatus("Calculating median...");
-                    mbiasHeader = FitsJ.addHistory("Median master bias created from " + count + " images", mbiasHeader);
-                    log("Calculating median master bias image \"" + mbiasPath + "\".");
-                    float[] values = new float[sliceCount];
-                    for (int y = 0; y < height; y++) {
-                        if (y % inc == 0) {
-                            IJ.showProgress(y, height - 1);
-                        }
-                        for (int x = 0; x < width; x++) {
-                            for (int i = 0; i < sliceCount; i++) {
-                                values[i] = slices[i].getPixelValue(x, y);
-                            }
-                            java.util.Arrays.sort(values);
-                            if ((sliceCount % 2) == 0)      // even
-                            {
-                                mbiasIp.putPixelValue(x, y, (values[sliceCount / 2] + values[sliceCount / 2 - 1]) / 2.0);
-                            } else                        //odd
-                            {
-                                mbiasIp.putPixelValue(x, y, values[sliceCount / 2]);
-                            }
-                        }
-
-                    }
-                } else {
-
-                    IJ.showStatus("Calculating average...");
-                    mbiasHeader = FitsJ.addHistory("Average master bias created from " + count + " images", mbiasHeader);
-                    log("Calculating average master bias image \"" + mbiasPath + "\".");
-                    double value;
-                    for (int y = 0; y < height; y++) {
-                        if (y % inc == 0) IJ.showProgress(y, height - 1);
-                        for (int x = 0; x < width; x++) {
-                            value = 0.0;
-                            for (int i = 0; i < sliceCount; i++)
-                                value += slices[i].getPixelValue(x, y);
-                            mbiasIp.putPixelValue(x, y, (float) (value / (double) sliceCount));
-                        }
-                    }
-                }
+                var method = combineMethod(biasMedian);
+                IJ.showStatus("Calculating " + combineName(method).toLowerCase() + "...");
+                mbiasHeader = FitsJ.addHistory(combineName(method) + " master bias created from " + count + " images", mbiasHeader);
+                log("Calculating " + combineName(method).toLowerCase() + " master bias image \"" + mbiasPath + "\".");
+                combineSlices(slices, mbiasIp, method, ImageProcessor::getPixelValue);
 
-//                mbiasImp = WindowManager.getImage(biasMaster.trim());
-//                if (mbiasImp != null) mbiasImp.close();
-                mbiasImp = new ImagePlus(biasMaster.trim(), mbiasIp);
-                mbiasHeader = FitsJ.addHistory("on " + f.format(new java.util.Date()) + " (YYYY-MM-DD hh:mm:ss UT)", mbiasHeader);
-                for (int i = 0; i < count; i++)
-                    mbiasHeader = FitsJ.addHistory("Image " + (i + 1) + " = " + biasPath + validFilenames[i], mbiasHeader);
-                //            mbiasHeader = FitsJ.removeCards("DATE", mbiasHeader);
-                //            mbiasHeader = FitsJ.setCard("DATE", f.format(new java.util.Date()), "file creation date (YYYY-MM-DD hh:mm:ss UT)", mbiasHeader);
-
-                FitsJ.putHeader(mbiasImp, mbiasHeader);
-                if (showMasters) IJU.replaceImageInWindow(mbiasImp.duplicate(), "DUP_" + biasMaster.trim());
-                if (requestStop) {
+                if (!saveMasterBias(mbiasIp, mbiasHeader, count, validFilenames)) {
                     return false;
                 }
-                saveProcessedFile(mbiasImp, biasMasterPath, mbiasPath, "master bias", "");
             } else {
                 error("ERROR: Bias stack is empty.");
                 return false;
@@ -4232,6 +4223,11 @@ public class Data_Processor implements PlugIn, ActionListener, ChangeListener, /
 
             if (sortNumerically) filenames = sortFileList(filenames);
 
+            var frames = streamableFrames(darkPath, darkBase, filenames, mbiasIp);
+            if (frames != null) {
+                return streamMasterDark(frames, mbiasIp);
+            }
+
             for (int i = 0; i < files.length; i++) {
                 dark = filenames[i];
                 if (matchWildCard(darkBase, dark)) {
@@ -4290,41 +4286,32 @@ public class Data_Processor implements PlugIn, ActionListener, ChangeListener, /
                 if (requestStop) {
                     return false;
                 }
-                if (darkMedian) {
-                    IJ.showStatus("Calculating median...");
-                    mdarkHeader = FitsJ.addHistory("Median master dark created from " + count + " images", mdarkHeader);
-                    log("Calculating median master dark image \"" + mdarkPath + "\".");
-                    double[] values = new double[sliceCount];
-                    double v2 = 0;
-                    for (int y = 0; y < height; y++) {
-                        if (y % inc == 0) IJ.showProgress(y, height - 1);
-                        for (int x = 0; x < width; x++) {
-                            for (int i = 0; i < sliceCount; i++) {
-                                if (!useBias) {
-                                    values[i] = slices[i].getPixelValue(x, y);
-                                } else if (useBias && useNLC) {
-                                    values[i] = (double) slices[i].getPixelValue(x, y) - (double) mbiasIp.getPixelValue(x, y);
-                                    if (values[i] > 0.0) {
-                                        v2 = values[i] * values[i];
-                                        values[i] = coeffA + values[i] * coeffB + v2 * coeffC + v2 * values[i] * coeffD;
-                                    }
-                                    if (!deBiasMasterDark) values[i] += mbiasIp.getPixelValue(x, y);
-                                } else //useBias && !useNLC
-                                {
-                                    if (deBiasMasterDark)
-                                        values[i] = (double) slices[i].getPixelValue(x, y) - (double) mbiasIp.getPixelValue(x, y);
-                                    else
-                                        values[i] = slices[i].getPixelValue(x, y);
-                                }
+                var method = combineMethod(darkMedian);
+                if (method != StreamingCombiner.Method.MEAN) {
+                    IJ.showStatus("Calculating " + combineName(method).toLowerCase() + "...");
+                    mdarkHeader = FitsJ.addHistory(combineName(method) + " master dark created from " + count + " images", mdarkHeader);
+                    log("Calculating " + combineName(method).toLowerCase() + " master dark image \"" + mdarkPath + "\".");
+                    var masterBiasIp = mbiasIp;
+                    combineSlices(slices, mdarkIp, method, (slice, x, y) -> {
+                        double value;
+                        if (!useBias) {
+                            value = slice.getPixelValue(x, y);
+                        } else if (useNLC) {
+                            value = (double) slice.getPixelValue(x, y) - (double) masterBiasIp.getPixelValue(x, y);
+                            if (value > 0.0) {
+                                double v2 = value * value;
+                                value = coeffA + value * coeffB + v2 * coeffC + v2 * value * coeffD;
                             }
-                            java.util.Arrays.sort(values);
-                            if ((sliceCount % 2) == 0)      // even
-                                mdarkIp.putPixelValue(x, y, (float) ((values[sliceCount / 2] + values[sliceCount / 2 - 1]) / 2.0));
-                            else                        //odd
-                                mdarkIp.putPixelValue(x, y, (float) values[sliceCount / 2]);
+                            if (!deBiasMasterDark) value += masterBiasIp.getPixelValue(x, y);
+                        } else //useBias && !useNLC
+                        {
+                            if (deBiasMasterDark)
+                                value = (double) slice.getPixelValue(x, y) - (double) masterBiasIp.getPixelValue(x, y);
+                            else
+                                value = slice.getPixelValue(x, y);
                         }
-
-                    }
+                        return value;
+                    });
                 } else {
                     IJ.showStatus("Calculating average...");
                     mdarkHeader = FitsJ.addHistory("Average master dark created from " + count + " images", mdarkHeader);
@@ -4357,36 +4344,9 @@ public class Data_Processor implements PlugIn, ActionListener, ChangeListener, /
                     }
                 }
 
-//                mdarkImp = WindowManager.getImage(darkMaster.trim());
-//                if (mdarkImp != null) mdarkImp.close();
-                mdarkImp = new ImagePlus(darkMaster.trim(), mdarkIp);
-                mdarkHeader = FitsJ.addHistory("on " + f.format(new java.util.Date()) + " (YYYY-MM-DD hh:mm:ss UT)", mdarkHeader);
-                if (useBias && deBiasMasterDark) {
-                    mdarkHeader = FitsJ.addHistory("Bias corrected with " + biasMaster.trim(), mdarkHeader);
-                    log("    Bias corrected with " + biasMaster.trim());
-                }
-                if (useNLC & useBias) {
-                    mdarkHeader = FitsJ.addHistory("Non-linear corrected with coefficients:", mdarkHeader);
-                    mdarkHeader = FitsJ.addHistory("a0 = " + coeffA, mdarkHeader);
-                    mdarkHeader = FitsJ.addHistory("a1 = " + coeffB, mdarkHeader);
-                    mdarkHeader = FitsJ.addHistory("a2 = " + coeffC, mdarkHeader);
-                    mdarkHeader = FitsJ.addHistory("a3 = " + coeffD, mdarkHeader);
-                    if (!deBiasMasterDark)
-                        mdarkHeader = FitsJ.addHistory("using master bias " + biasMaster.trim(), mdarkHeader);
-                    log("    Non-linear corrected with coefficients: a0=" + coeffA + " a1=" + coeffB + " a2=" + coeffC + " a3=" + coeffD);
-                    if (!deBiasMasterDark) log("        using master bias " + biasMaster.trim());
-                }
-                for (int i = 0; i < count; i++)
-                    mdarkHeader = FitsJ.addHistory("Image " + (i + 1) + " = " + darkPath + validFilenames[i], mdarkHeader);
-                //            mdarkHeader = FitsJ.removeCards("DATE", mdarkHeader);
-                //            mdarkHeader = FitsJ.setCard("DATE", f.format(new java.util.Date()), "file creation date (YYYY-MM-DD hh:mm:ss UT)", mdarkHeader);
-                FitsJ.putHeader(mdarkImp, mdarkHeader);
-
-                if (showMasters) IJU.replaceImageInWindow(mdarkImp.duplicate(), "DUP_" + darkMaster.trim());
-                if (requestStop) {
+                if (!saveMasterDark(mdarkIp, mdarkHeader, count, validFilenames)) {
                     return false;
                 }
-                saveProcessedFile(mdarkImp, darkMasterPath, mdarkPath, "master dark", "");
             } else {
                 error("ERROR: Dark stack is empty.");
                 return false;
@@ -4462,6 +4422,11 @@ public class Data_Processor implements PlugIn, ActionListener, ChangeListener, /
 
             if (sortNumerically) filenames = sortFileList(filenames);
 
+            var frames = streamableFrames(flatPath, flatBase, filenames, mbiasIp != null ? mbiasIp : mdarkIp);
+            if (frames != null && (mdarkIp == null || sameSize(frames.getFirst(), mdarkIp))) {
+                return streamMasterFlat(frames, mbiasIp, mdarkIp, dExpTime);
+            }
+
             for (int i = 0; i < files.length; i++) {
                 flat = filenames[i];
                 expTimeFactor[i] = 1;
@@ -4597,98 +4562,456 @@ public class Data_Processor implements PlugIn, ActionListener, ChangeListener, /
                 if (requestStop) {
                     return false;
                 }
-                if (flatMedian) {
-                    IJ.showStatus("Calculating median...");
-                    mflatHeader = FitsJ.addHistory("Median master flat created from " + count + " images", mflatHeader);
-                    log("Calculating median master flat image \"" + mflatPath + "\".");
-                    double[] values = new double[sliceCount];
-                    for (int y = 0; y < height; y++) {
-                        if (y % inc == 0) IJ.showProgress(y, height - 1);
-                        for (int x = 0; x < width; x++) {
-                            for (int i = 0; i < sliceCount; i++)
-                                values[i] = slices[i].getPixelValue(x, y);
-                            java.util.Arrays.sort(values);
-                            if ((sliceCount % 2) == 0)      // even
-                                mflatIp.putPixelValue(x, y, (float) ((values[sliceCount / 2] + values[sliceCount / 2 - 1]) / 2.0));
-                            else                        //odd
-                                mflatIp.putPixelValue(x, y, (float) values[sliceCount / 2]);
-                        }
+                var method = combineMethod(flatMedian);
+                IJ.showStatus("Calculating " + combineName(method).toLowerCase() + "...");
+                mflatHeader = FitsJ.addHistory(combineName(method) + " master flat created from " + count + " images", mflatHeader);
+                log("Calculating " + combineName(method).toLowerCase() + " master flat image \"" + mflatPath + "\".");
+                combineSlices(slices, mflatIp, method, ImageProcessor::getPixelValue);
 
-                    }
-                } else {
-                    IJ.showStatus("Calculating average...");
-                    mflatHeader = FitsJ.addHistory("Average master flat created from " + count + " images", mflatHeader);
-                    log("Calculating average master flat image \"" + mflatPath + "\".");
-                    double value;
-                    for (int y = 0; y < height; y++) {
-                        if (y % inc == 0) IJ.showProgress(y, height - 1);
-                        for (int x = 0; x < width; x++) {
-                            value = 0.0;
-                            for (int i = 0; i < sliceCount; i++)
-                                value += slices[i].getPixelValue(x, y);
-                            mflatIp.putPixelValue(x, y, (float) (value / (double) sliceCount));
-                        }
-                    }
+                if (!saveMasterFlat(mflatIp, mflatHeader, count, validFilenames)) {
+                    return false;
                 }
+            } else {
+                error("ERROR: Flat stack is empty.");
+                return false;
+            }
+            countValidFiles();
+        } catch (OutOfMemoryError e) {
+            IJ.outOfMemory("Flat Stack");
+            log("ERROR: Out of memory");
+            return false;
+        }
+        return true;
+    }
 
-                mflatImp = WindowManager.getImage(flatMaster.trim());
-                if (mflatImp != null) mflatImp.close();
-                mflatImp = new ImagePlus(flatMaster.trim(), mflatIp);
-                mflatHeader = FitsJ.addHistory("on " + f.format(new java.util.Date()) + " (YYYY-MM-DD hh:mm:ss UT)", mflatHeader);
-                if (useBias) {
-                    mflatHeader = FitsJ.addHistory("Bias corrected with " + biasMaster.trim(), mflatHeader);
-                    log("    Bias corrected with " + biasMaster.trim());
+
+    boolean saveMasterBias(ImageProcessor mbiasIp, FitsJ.Header mbiasHeader, int count, String[] validFilenames) {
+//        mbiasImp = WindowManager.getImage(biasMaster.trim());
+//        if (mbiasImp != null) mbiasImp.close();
+        mbiasImp = new ImagePlus(biasMaster.trim(), mbiasIp);
+        mbiasHeader = FitsJ.addHistory("on " + f.format(new java.util.Date()) + " (YYYY-MM-DD hh:mm:ss UT)", mbiasHeader);
+        for (int i = 0; i < count; i++)
+            mbiasHeader = FitsJ.addHistory("Image " + (i + 1) + " = " + biasPath + validFilenames[i], mbiasHeader);
+        //            mbiasHeader = FitsJ.removeCards("DATE", mbiasHeader);
+        //            mbiasHeader = FitsJ.setCard("DATE", f.format(new java.util.Date()), "file creation date (YYYY-MM-DD hh:mm:ss UT)", mbiasHeader);
+
+        FitsJ.putHeader(mbiasImp, mbiasHeader);
+        if (showMasters) IJU.replaceImageInWindow(mbiasImp.duplicate(), "DUP_" + biasMaster.trim());
+        if (requestStop) {
+            return false;
+        }
+        saveProcessedFile(mbiasImp, biasMasterPath, mbiasPath, "master bias", "");
+        return true;
+    }
+
+    boolean saveMasterDark(ImageProcessor mdarkIp, FitsJ.Header mdarkHeader, int count, String[] validFilenames) {
+//        mdarkImp = WindowManager.getImage(darkMaster.trim());
+//        if (mdarkImp != null) mdarkImp.close();
+        mdarkImp = new ImagePlus(darkMaster.trim(), mdarkIp);
+        mdarkHeader = FitsJ.addHistory("on " + f.format(new java.util.Date()) + " (YYYY-MM-DD hh:mm:ss UT)", mdarkHeader);
+        if (useBias && deBiasMasterDark) {
+            mdarkHeader = FitsJ.addHistory("Bias corrected with " + biasMaster.trim(), mdarkHeader);
+            log("    Bias corrected with " + biasMaster.trim());
+        }
+        if (useNLC & useBias) {
+            mdarkHeader = FitsJ.addHistory("Non-linear corrected with coefficients:", mdarkHeader);
+            mdarkHeader = FitsJ.addHistory("a0 = " + coeffA, mdarkHeader);
+            mdarkHeader = FitsJ.addHistory("a1 = " + coeffB, mdarkHeader);
+            mdarkHeader = FitsJ.addHistory("a2 = " + coeffC, mdarkHeader);
+            mdarkHeader = FitsJ.addHistory("a3 = " + coeffD, mdarkHeader);
+            if (!deBiasMasterDark)
+                mdarkHeader = FitsJ.addHistory("using master bias " + biasMaster.trim(), mdarkHeader);
+            log("    Non-linear corrected with coefficients: a0=" + coeffA + " a1=" + coeffB + " a2=" + coeffC + " a3=" + coeffD);
+            if (!deBiasMasterDark) log("        using master bias " + biasMaster.trim());
+        }
+        for (int i = 0; i < count; i++)
+            mdarkHeader = FitsJ.addHistory("Image " + (i + 1) + " = " + darkPath + validFilenames[i], mdarkHeader);
+        //            mdarkHeader = FitsJ.removeCards("DATE", mdarkHeader);
+        //            mdarkHeader = FitsJ.setCard("DATE", f.format(new java.util.Date()), "file creation date (YYYY-MM-DD hh:mm:ss UT)", mdarkHeader);
+        FitsJ.putHeader(mdarkImp, mdarkHeader);
+
+        if (showMasters) IJU.replaceImageInWindow(mdarkImp.duplicate(), "DUP_" + darkMaster.trim());
+        if (requestStop) {
+            return false;
+        }
+        saveProcessedFile(mdarkImp, darkMasterPath, mdarkPath, "master dark", "");
+        return true;
+    }
+
+    boolean saveMasterFlat(ImageProcessor mflatIp, FitsJ.Header mflatHeader, int count, String[] validFilenames) {
+        mflatImp = WindowManager.getImage(flatMaster.trim());
+        if (mflatImp != null) mflatImp.close();
+        mflatImp = new ImagePlus(flatMaster.trim(), mflatIp);
+        mflatHeader = FitsJ.addHistory("on " + f.format(new java.util.Date()) + " (YYYY-MM-DD hh:mm:ss UT)", mflatHeader);
+        if (useBias) {
+            mflatHeader = FitsJ.addHistory("Bias corrected with " + biasMaster.trim(), mflatHeader);
+            log("    Bias corrected with " + biasMaster.trim());
+        }
+        if (useNLC & useBias) {
+            mflatHeader = FitsJ.addHistory("Non-linear corrected with coefficients:", mflatHeader);
+            mflatHeader = FitsJ.addHistory("a0 = " + coeffA, mflatHeader);
+            mflatHeader = FitsJ.addHistory("a1 = " + coeffB, mflatHeader);
+            mflatHeader = FitsJ.addHistory("a2 = " + coeffC, mflatHeader);
+            mflatHeader = FitsJ.addHistory("a3 = " + coeffD, mflatHeader);
+            log("    Non-linear corrected with coefficients: a0=" + coeffA + " a1=" + coeffB + " a2=" + coeffC + " a3=" + coeffD);
+        }
+        if (useDark) {
+            if (scaleExpTime && useBias) {
+                mflatHeader = FitsJ.addHistory("Dark corrected with " + (!deBiasMasterDark ? "(deBiased) " : "") + darkMaster.trim() + " with exposure time scaling", mflatHeader);
+                log("    Dark corrected with " + (!deBiasMasterDark ? "(deBiased) " : "") + darkMaster.trim() + " with exposure time scaling");
+            } else {
+                mflatHeader = FitsJ.addHistory("Dark corrected with " + (useBias && !deBiasMasterDark ? "(deBiased) " : "") + darkMaster.trim(), mflatHeader);
+                log("    Dark corrected with " + (useBias && !deBiasMasterDark ? "(deBiased) " : "") + darkMaster.trim());
+            }
+        }
+        if (useGradientRemoval) {
+            mflatHeader = FitsJ.addHistory("Gradient removed from calibrated flats", mflatHeader);
+            log("    Gradient removed from calibrated flats");
+        }
+
+        mflatHeader = FitsJ.addHistory("Normalized calibrated flats", mflatHeader);
+        log("    Normalized calibrated flats");
+
+        for (int i = 0; i < count; i++)
+            mflatHeader = FitsJ.addHistory("Image " + (i + 1) + " = " + flatPath + validFilenames[i], mflatHeader);
+        //            mflatHeader = FitsJ.removeCards("DATE", mflatHeader);
+        //            mflatHeader = FitsJ.setCard("DATE", f.format(new java.util.Date()), "file creation date (YYYY-MM-DD hh:mm:ss UT)", mflatHeader);
+        FitsJ.putHeader(mflatImp, mflatHeader);
+        IJ.showProgress(1.0);
+        if (showMasters) IJU.replaceImageInWindow(mflatImp.duplicate(), "DUP_" + flatMaster.trim());
+        if (requestStop) {
+            return false;
+        }
+        saveProcessedFile(mflatImp, flatMasterPath, mflatPath, "master flat", "");
+        return true;
+    }
+
+    /**
+     * Returns the raw calibration files matching {@code base} if they can be combined by {@link StreamingCombiner}
+     * without loading them into a stack, otherwise {@code null}.
+     *
+     * @param master a master frame the raw frames are corrected with, which must match their size, or null
+     */
+    List<StreamingCombiner.Frame> streamableFrames(String dir, String base, String[] filenames, ImageProcessor master) {
+        if (!StreamingCombiner.ENABLED.get() || showRawCals) return null;
+        var frames = new ArrayList<StreamingCombiner.Frame>();
+        try {
+            for (String filename : filenames) {
+                if (!matchWildCard(base, filename)) continue;
+                var frame = StreamingCombiner.probe(Path.of(dir + filename));
+                if (frame == null || !(frames.isEmpty() || sameSize(frame, frames.getFirst().width(), frames.getFirst().height()))) {
+                    return null;
                 }
-                if (useNLC & useBias) {
-                    mflatHeader = FitsJ.addHistory("Non-linear corrected with coefficients:", mflatHeader);
-                    mflatHeader = FitsJ.addHistory("a0 = " + coeffA, mflatHeader);
-                    mflatHeader = FitsJ.addHistory("a1 = " + coeffB, mflatHeader);
-                    mflatHeader = FitsJ.addHistory("a2 = " + coeffC, mflatHeader);
-                    mflatHeader = FitsJ.addHistory("a3 = " + coeffD, mflatHeader);
-                    log("    Non-linear corrected with coefficients: a0=" + coeffA + " a1=" + coeffB + " a2=" + coeffC + " a3=" + coeffD);
+                frames.add(frame);
+            }
+        } catch (IOException | InvalidPathException e) {
+            return null;
+        }
+        if (frames.isEmpty() || (master != null && !sameSize(frames.getFirst(), master))) return null;
+        return frames;
+    }
+
+    boolean sameSize(StreamingCombiner.Frame frame, ImageProcessor ip) {
+        return sameSize(frame, ip.getWidth(), ip.getHeight());
+    }
+
+    boolean sameSize(StreamingCombiner.Frame frame, int width, int height) {
+        return frame.width() == width && frame.height() == height;
+    }
+
+    StreamingCombiner.Method combineMethod(boolean median) {
+        if (median) return StreamingCombiner.Method.MEDIAN;
+        return AVERAGE_METHOD.get() == StreamingCombiner.Method.MEDIAN ? StreamingCombiner.Method.MEAN : AVERAGE_METHOD.get();
+    }
+
+    String combineName(StreamingCombiner.Method method) {
+        return method.toString();
+    }
+
+    /**
+     * Combines the in-memory calibration {@code slices} into {@code masterIp} pixel by pixel with {@code method},
+     * using {@code value} to get the (corrected) value of a slice pixel.
+     */
+    void combineSlices(ImageProcessor[] slices, ImageProcessor masterIp, StreamingCombiner.Method method, SliceValue value) {
+        int width = masterIp.getWidth();
+        int height = masterIp.getHeight();
+        int inc = Math.max(height / 30, 1);
+        var rejection = StreamingCombiner.Rejection.fromPreferences();
+        float[] values = new float[slices.length];
+        for (int y = 0; y < height; y++) {
+            if (y % inc == 0) IJ.showProgress(y, height - 1);
+            for (int x = 0; x < width; x++) {
+                for (int i = 0; i < slices.length; i++) {
+                    values[i] = (float) value.get(slices[i], x, y);
                 }
-                if (useDark) {
-                    if (scaleExpTime && useBias) {
-                        mflatHeader = FitsJ.addHistory("Dark corrected with " + (!deBiasMasterDark ? "(deBiased) " : "") + darkMaster.trim() + " with exposure time scaling", mflatHeader);
-                        log("    Dark corrected with " + (!deBiasMasterDark ? "(deBiased) " : "") + darkMaster.trim() + " with exposure time scaling");
-                    } else {
-                        mflatHeader = FitsJ.addHistory("Dark corrected with " + (useBias && !deBiasMasterDark ? "(deBiased) " : "") + darkMaster.trim(), mflatHeader);
-                        log("    Dark corrected with " + (useBias && !deBiasMasterDark ? "(deBiased) " : "") + darkMaster.trim());
+                masterIp.putPixelValue(x, y, (float) method.combine(values, slices.length, rejection));
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface SliceValue {
+        double get(ImageProcessor slice, int x, int y);
+    }
+
+    /**
+     * The PEDESTAL of each frame, to be added to its pixels, as done by {@link #getAdjustedIp}.
+     */
+    double[] pedestals(List<StreamingCombiner.Frame> frames) {
+        var pedestals = new double[frames.size()];
+        if (!removePedestal) return pedestals;
+        for (int i = 0; i < pedestals.length; i++) {
+            var frame = frames.get(i);
+            int cardnum = FitsJ.findCardWithKey("PEDESTAL", frame.header());
+            if (cardnum == -1) continue;
+            double pedestal = FitsJ.getCardDoubleValue(frame.header().cards()[cardnum]);
+            if (Double.isNaN(pedestal) || pedestal == 0.0) continue;
+            // Integer images are loaded as integer processors, which round the pedestal
+            pedestals[i] = frame.bitpix().getHeaderValue() > 0 ? (int) pedestal : pedestal;
+            log("    Removed pedestal value of " + (frame.bitpix().getHeaderValue() > 0 ? (int) pedestal : (float) pedestal) + " from image " + frame.path());
+        }
+        return pedestals;
+    }
+
+    /**
+     * The header for a master built from {@code frames}, the first frame's with the pedestal removed from it as
+     * {@link #getAdjustedIp} does, so loading the master does not add it again.
+     */
+    FitsJ.Header masterHeader(List<StreamingCombiner.Frame> frames, double[] pedestals, String history) {
+        var first = frames.getFirst();
+        var header = FitsJ.Header.build(first.header().cards().clone());
+        var pedestal = FitsJ.findDoubleValue("PEDESTAL", header);
+        // Even a pedestal that rounds to 0 for an integer frame would be added to the float master when it is loaded
+        if (removePedestal && !Double.isNaN(pedestal) && pedestal != 0) {
+            header = FitsJ.setCard("PEDESTAL", 0, null, header);
+            header = FitsJ.addHistory("Removed pedestal value of " + (first.bitpix().getHeaderValue() > 0 ? (int) pedestals[0] : (float) pedestals[0]) +
+                    " from image " + first.path().getFileName(), header);
+        }
+        return FitsJ.addHistory(history, header);
+    }
+
+    /**
+     * Builds the master bias from raw frames read band by band, see {@link StreamingCombiner}.
+     */
+    boolean streamMasterBias(List<StreamingCombiner.Frame> frames) {
+        var count = frames.size();
+        var validFilenames = frames.stream().map(frame -> frame.path().getFileName().toString()).toArray(String[]::new);
+        var pedestals = pedestals(frames);
+        var combiner = new StreamingCombiner(frames);
+        var method = combineMethod(biasMedian);
+
+        IJ.showStatus("Calculating " + combineName(method).toLowerCase() + "...");
+        var mbiasHeader = masterHeader(frames, pedestals, combineName(method) + " master bias created from " + count + " images");
+        log("Calculating " + combineName(method).toLowerCase() + " master bias image \"" + mbiasPath + "\" from " + count +
+                " raw bias files, " + combiner.bandRows() + " rows at a time.");
+        ImageProcessor mbiasIp;
+        try {
+            mbiasIp = combiner.combine(method, (frame, _, _, band) -> {
+                var pedestal = (float) pedestals[frame];
+                if (pedestal == 0) return;
+                for (int i = 0; i < band.length; i++) band[i] += pedestal;
+            }, () -> requestStop);
+        } catch (IOException e) {
+            error("ERROR: Unable to read raw bias files: " + e.getMessage());
+            return false;
+        }
+        if (mbiasIp == null || !saveMasterBias(mbiasIp, mbiasHeader, count, validFilenames)) {
+            return false;
+        }
+        countValidFiles();
+        return true;
+    }
+
+    /**
+     * Builds the master dark from raw frames read band by band, see {@link StreamingCombiner}.
+     */
+    boolean streamMasterDark(List<StreamingCombiner.Frame> frames, ImageProcessor mbiasIp) {
+        var count = frames.size();
+        var validFilenames = frames.stream().map(frame -> frame.path().getFileName().toString()).toArray(String[]::new);
+        var pedestals = pedestals(frames);
+        var combiner = new StreamingCombiner(frames);
+        var method = combineMethod(darkMedian);
+        var bias = useBias ? (float[]) mbiasIp.getPixels() : null;
+        var width = frames.getFirst().width();
+
+        IJ.showStatus("Calculating " + combineName(method).toLowerCase() + "...");
+        var mdarkHeader = masterHeader(frames, pedestals, combineName(method) + " master dark created from " + count + " images");
+        log("Calculating " + combineName(method).toLowerCase() + " master dark image \"" + mdarkPath + "\" from " + count +
+                " raw dark files, " + combiner.bandRows() + " rows at a time.");
+        ImageProcessor mdarkIp;
+        try {
+            mdarkIp = combiner.combine(method, (frame, y0, _, band) -> {
+                var pedestal = pedestals[frame];
+                var offset = y0 * width;
+                for (int i = 0; i < band.length; i++) {
+                    double value = band[i] + pedestal;
+                    if (useBias && useNLC) {
+                        double b = bias[offset + i];
+                        value -= b;
+                        if (value > 0.0) {
+                            double v2 = value * value;
+                            value = coeffA + value * coeffB + v2 * coeffC + v2 * value * coeffD;
+                        }
+                        if (!deBiasMasterDark) value += b;
+                    } else if (useBias && deBiasMasterDark) {
+                        value -= bias[offset + i];
                     }
+                    band[i] = (float) value;
                 }
-                if (useGradientRemoval) {
-                    mflatHeader = FitsJ.addHistory("Gradient removed from calibrated flats", mflatHeader);
-                    log("    Gradient removed from calibrated flats");
+            }, () -> requestStop);
+        } catch (IOException e) {
+            error("ERROR: Unable to read raw dark files: " + e.getMessage());
+            return false;
+        }
+        if (mdarkIp == null || !saveMasterDark(mdarkIp, mdarkHeader, count, validFilenames)) {
+            return false;
+        }
+        countValidFiles();
+        return true;
+    }
+
+    /**
+     * Builds the master flat from raw frames read band by band, see {@link StreamingCombiner}.
+     * <p>
+     * Gradient removal and normalization need statistics of each whole calibrated flat, so the frames are read twice:
+     * once to fit the gradient plane and mean of each frame, and once to apply them and combine.
+     */
+    boolean streamMasterFlat(List<StreamingCombiner.Frame> frames, ImageProcessor mbiasIp, ImageProcessor mdarkIp, double dExpTime) {
+        var count = frames.size();
+        var validFilenames = frames.stream().map(frame -> frame.path().getFileName().toString()).toArray(String[]::new);
+        var pedestals = pedestals(frames);
+        var combiner = new StreamingCombiner(frames);
+        var method = combineMethod(flatMedian);
+        var bias = useBias ? (float[]) mbiasIp.getPixels() : null;
+        var dark = useDark ? (float[]) mdarkIp.getPixels() : null;
+        var width = frames.getFirst().width();
+        var height = frames.getFirst().height();
+
+        var expTimeFactor = new double[count];
+        Arrays.fill(expTimeFactor, 1);
+        if (scaleExpTime && useBias && useDark) {
+            for (int i = 0; i < count; i++) {
+                var fExpTime = FitsJ.getExposureTime(frames.get(i).header());
+                if (Double.isNaN(fExpTime)) {
+                    error("ERROR: Cannot extract exposure time from flat image header!");
+                    return false;
                 }
+                expTimeFactor[i] = fExpTime / dExpTime;
+            }
+        }
+        if (useBias || useDark) {
+            log("Performing " + (useBias ? "Bias " : "") + (useBias && useNLC ? "Nonlinearity " : "") + (useDark ? "Dark " : "") + "Correction on:");
+            for (int i = 0; i < count; i++) {
+                log("    " + validFilenames[i] + " using dark exposure scaling factor = " + uptoFourPlaces.format(expTimeFactor[i]));
+            }
+        }
 
-                mflatHeader = FitsJ.addHistory("Normalized calibrated flats", mflatHeader);
-                log("    Normalized calibrated flats");
+        StreamingCombiner.Correction calibrate = (frame, y0, _, band) -> {
+            var pedestal = pedestals[frame];
+            var offset = y0 * width;
+            for (int i = 0; i < band.length; i++) {
+                double value = band[i] + pedestal;
+                if (useBias) value -= bias[offset + i];
+                if (useBias && useNLC) {
+                    double v2 = value * value;
+                    value = coeffA + value * coeffB + v2 * coeffC + v2 * value * coeffD;
+                }
+                if (useDark) value -= (double) dark[offset + i] * expTimeFactor[frame];
+                band[i] = (float) value;
+            }
+        };
 
-                for (int i = 0; i < count; i++)
-                    mflatHeader = FitsJ.addHistory("Image " + (i + 1) + " = " + flatPath + validFilenames[i], mflatHeader);
-                //            mflatHeader = FitsJ.removeCards("DATE", mflatHeader);
-                //            mflatHeader = FitsJ.setCard("DATE", f.format(new java.util.Date()), "file creation date (YYYY-MM-DD hh:mm:ss UT)", mflatHeader);
-                FitsJ.putHeader(mflatImp, mflatHeader);
-                IJ.showProgress(1.0);
-                if (showMasters) IJU.replaceImageInWindow(mflatImp.duplicate(), "DUP_" + flatMaster.trim());
-                if (requestStop) {
-                    return false;
+        // Sums of f, x*f and y*f per frame, with y the FITS row as in removeGradient
+        var sums = new double[count][3];
+        IJ.showStatus("Measuring calibrated flats...");
+        try {
+            if (!combiner.scan((frame, y0, rows, band) -> {
+                calibrate.apply(frame, y0, rows, band);
+                var sum = sums[frame];
+                for (int r = 0; r < rows; r++) {
+                    var yFits = height - 1 - (y0 + r);
+                    double sf = 0, sfx = 0;
+                    for (int x = 0; x < width; x++) {
+                        double value = band[r * width + x];
+                        sf += value;
+                        sfx += x * value;
+                    }
+                    sum[0] += sf;
+                    sum[1] += sfx;
+                    sum[2] += yFits * sf;
                 }
-                saveProcessedFile(mflatImp, flatMasterPath, mflatPath, "master flat", "");
-            } else {
-                error("ERROR: Flat stack is empty.");
+            }, () -> requestStop)) {
                 return false;
             }
-            countValidFiles();
-        } catch (OutOfMemoryError e) {
-            IJ.outOfMemory("Flat Stack");
-            log("ERROR: Out of memory");
+        } catch (IOException e) {
+            error("ERROR: Unable to read raw flat files: " + e.getMessage());
             return false;
         }
+
+        // Least squares plane a + b*x + c*y of each frame, the closed form of the fit in removeGradient
+        var totpix = (double) width * height;
+        var sx = (width - 1) / 2.0;
+        var sy = (height - 1) / 2.0;
+        var varX = (width * (double) width - 1) / 12.0;
+        var varY = (height * (double) height - 1) / 12.0;
+        var gradient = new double[count][3];
+        var means = new double[count];
+        for (int i = 0; i < count; i++) {
+            var sf = sums[i][0] / totpix;
+            var b = (sums[i][1] / totpix - sf * sx) / varX;
+            var c = (sums[i][2] / totpix - sf * sy) / varY;
+            gradient[i][0] = sf - b * sx - c * sy - sf;
+            gradient[i][1] = b;
+            gradient[i][2] = c;
+            // Removing the gradient keeps the mean
+            means[i] = sf;
+            if (useGradientRemoval) {
+                log("Removing gradient from calibrated flat " + validFilenames[i] + ".");
+                log("    with coefficients a=" + uptoFourPlaces.format(sf - b * sx - c * sy) +
+                        ", b=" + uptoFourPlaces.format(b) + ", c=" + uptoFourPlaces.format(c) +
+                        ", and mean=" + uptoFourPlaces.format(sf));
+            }
+            if (means[i] == 0) {
+                error("ERROR: image mean value = 0 for " + validFilenames[i] + ". Divide Error. Normalize Failed.");
+                return false;
+            }
+            if (Math.abs(1.0 - means[i]) > 0.001) {
+                log("Normalizing " + validFilenames[i] + " with mean = " + uptoFourPlaces.format(means[i]));
+            } else {
+                means[i] = 1;
+            }
+        }
+
+        IJ.showStatus("Calculating " + combineName(method).toLowerCase() + "...");
+        var mflatHeader = masterHeader(frames, pedestals, combineName(method) + " master flat created from " + count + " images");
+        log("Calculating " + combineName(method).toLowerCase() + " master flat image \"" + mflatPath + "\" from " + count +
+                " raw flat files, " + combiner.bandRows() + " rows at a time.");
+        ImageProcessor mflatIp;
+        try {
+            mflatIp = combiner.combine(method, (frame, y0, rows, band) -> {
+                calibrate.apply(frame, y0, rows, band);
+                var plane = gradient[frame];
+                var mean = means[frame];
+                for (int r = 0; r < rows; r++) {
+                    var yFits = height - 1 - (y0 + r);
+                    for (int x = 0; x < width; x++) {
+                        double value = band[r * width + x];
+                        if (useGradientRemoval) value -= plane[0] + plane[1] * x + plane[2] * yFits;
+                        band[r * width + x] = (float) (value / mean);
+                    }
+                }
+            }, () -> requestStop);
+        } catch (IOException e) {
+            error("ERROR: Unable to read raw flat files: " + e.getMessage());
+            return false;
+        }
+        if (mflatIp == null || !saveMasterFlat(mflatIp, mflatHeader, count, validFilenames)) {
+            return false;
+        }
+        countValidFiles();
         return true;
     }
 
-
     boolean loadMasterBiasFile() {
         if (requestStop) return false;
 //            mbiasImp = WindowManager.getImage(biasMaster.trim());
@@ -5176,6 +5499,43 @@ public class Data_Processor implements PlugIn, ActionListener, ChangeListener, /
             expTimeFactor = scienceExpTime / darkExpTime;
         }
 
+        calibratePixels(scienceIp, mbiasIp, mdarkIp, mflatIp, expTimeFactor);
+
+//        if (!saveFloatingPoint)
+//            {
+//            scienceIp = scienceIp.convertToShort(false);
+//            }
+
+        savePath = mainDir + saveDir.trim();
+        if (!savePath.endsWith(slash)) savePath += slash;
+        saveDirPath = savePath;
+        var processedName = processedName(s);
+        s = processedName.previous();
+        saveFileName = processedName.processed();
+        savePath += saveFileName;
+        if (scienceHeader != null) scienceHeader = FitsJ.addHistory("Previous Filename = " + s, scienceHeader);
+        s = saveFileName;
+        scienceImp.setProcessor(s, scienceIp);
+
+        if (scienceHeader != null) {
+            scienceHeader = addCalibrationHistory(scienceHeader, expTimeFactor, scienceExpTime, darkExpTime);
+
+
+            FitsJ.putHeader(scienceImp, scienceHeader);
+        }
+
+        IJ.wait(100);      //attempt to work around crash problem
+        return true;
+    }
+
+    /**
+     * Applies bias, non-linearity, dark and flat correction to {@code scienceIp} in place. Only reads the settings, so
+     * frames can be calibrated concurrently.
+     */
+    void calibratePixels(ImageProcessor scienceIp, ImageProcessor mbiasIp, ImageProcessor mdarkIp, ImageProcessor mflatIp, double expTimeFactor) {
+        double pixel;
+        int scienceHeight = scienceIp.getHeight();
+        int scienceWidth = scienceIp.getWidth();
         double pixel2;
         float flatValue;
         for (int y = 0; y < scienceHeight; y++) {
@@ -5211,16 +5571,45 @@ public class Data_Processor implements PlugIn, ActionListener, ChangeListener, /
                 scienceIp.putPixelValue(x, y, (float) pixel);
             }
         }
+    }
 
-//        if (!saveFloatingPoint)
-//            {
-//            scienceIp = scienceIp.convertToShort(false);
-//            }
+    /**
+     * Records the calibration of a science frame in its header history.
+     */
+    FitsJ.Header addCalibrationHistory(FitsJ.Header scienceHeader, double expTimeFactor, double scienceExpTime, double darkExpTime) {
+        if (useBias) {
+            scienceHeader = FitsJ.addHistory("Bias corrected with " + biasMaster.trim(), scienceHeader);
+            log("    Bias corrected with " + biasMaster.trim());
+        }
+        if (useNLC && (useBias || (!useDark && !useFlat))) {
+            scienceHeader = FitsJ.addHistory("Non-linear corrected with coefficients:", scienceHeader);
+            scienceHeader = FitsJ.addHistory("a0 = " + coeffA, scienceHeader);
+            scienceHeader = FitsJ.addHistory("a1 = " + coeffB, scienceHeader);
+            scienceHeader = FitsJ.addHistory("a2 = " + coeffC, scienceHeader);
+            scienceHeader = FitsJ.addHistory("a3 = " + coeffD, scienceHeader);
+            log("    Non-linear corrected with coefficients: a0=" + coeffA + " a1=" + coeffB + " a2=" + coeffC + " a3=" + coeffD);
+        }
+        if (useDark) {
+            scienceHeader = FitsJ.addHistory("Dark corrected with " + (useBias && !deBiasMasterDark ? "(deBiased) " : "") + darkMaster.trim(), scienceHeader);
+            if (useBias && scaleExpTime) {
+                scienceHeader = FitsJ.addHistory("and exposure time scaling factor = " + expTimeFactor, scienceHeader);
+                log("    Dark corrected with " + (!deBiasMasterDark ? "(deBiased) " : "") + darkMaster.trim() + " and exposure time scaling factor " + scienceExpTime + "/" + darkExpTime + "=" + expTimeFactor);
+            } else {
+                log("    Dark corrected with " + (useBias && !deBiasMasterDark ? "(deBiased) " : "") + darkMaster.trim());
+            }
+        }
+        if (useFlat) {
+            scienceHeader = FitsJ.addHistory("Flat corrected with " + flatMaster.trim(), scienceHeader);
+            log("    Flat corrected with " + flatMaster.trim());
+        }
+        return scienceHeader;
+    }
 
-        savePath = mainDir + saveDir.trim();
-        if (!savePath.endsWith(slash)) savePath += slash;
-        saveDirPath = savePath;
-        saveFileName = "Processed_" + s;
+    /**
+     * The name a processed science file is saved as, and the name recorded as its previous filename.
+     */
+    ProcessedName processedName(String s) {
+        String saveFileName = "Processed_" + s;
 
         if (saveProcessedData && (saveSuffix.trim().length() != 0 || saveDir.trim().length() != 0)) {
             if (FitsExtensionUtil.isFitsFile(s)) {
@@ -5239,44 +5628,207 @@ public class Data_Processor implements PlugIn, ActionListener, ChangeListener, /
                     saveFileName = s.concat("" + saveSuffix.trim() + ".fits");
             }
         }
-        savePath += saveFileName;
-        if (scienceHeader != null) scienceHeader = FitsJ.addHistory("Previous Filename = " + s, scienceHeader);
-        s = saveFileName;
-        scienceImp.setProcessor(s, scienceIp);
+        return new ProcessedName(s, saveFileName);
+    }
 
-        if (scienceHeader != null) {
-            if (useBias) {
-                scienceHeader = FitsJ.addHistory("Bias corrected with " + biasMaster.trim(), scienceHeader);
-                log("    Bias corrected with " + biasMaster.trim());
-            }
-            if (useNLC && (useBias || (!useDark && !useFlat))) {
-                scienceHeader = FitsJ.addHistory("Non-linear corrected with coefficients:", scienceHeader);
-                scienceHeader = FitsJ.addHistory("a0 = " + coeffA, scienceHeader);
-                scienceHeader = FitsJ.addHistory("a1 = " + coeffB, scienceHeader);
-                scienceHeader = FitsJ.addHistory("a2 = " + coeffC, scienceHeader);
-                scienceHeader = FitsJ.addHistory("a3 = " + coeffD, scienceHeader);
-                log("    Non-linear corrected with coefficients: a0=" + coeffA + " a1=" + coeffB + " a2=" + coeffC + " a3=" + coeffD);
-            }
-            if (useDark) {
-                scienceHeader = FitsJ.addHistory("Dark corrected with " + (useBias && !deBiasMasterDark ? "(deBiased) " : "") + darkMaster.trim(), scienceHeader);
-                if (useBias && scaleExpTime) {
-                    scienceHeader = FitsJ.addHistory("and exposure time scaling factor = " + expTimeFactor, scienceHeader);
-                    log("    Dark corrected with " + (!deBiasMasterDark ? "(deBiased) " : "") + darkMaster.trim() + " and exposure time scaling factor " + scienceExpTime + "/" + darkExpTime + "=" + expTimeFactor);
-                } else {
-                    log("    Dark corrected with " + (useBias && !deBiasMasterDark ? "(deBiased) " : "") + darkMaster.trim());
+    record ProcessedName(String previous, String processed) {}
+
+    /**
+     * Whether the science files can be calibrated in parallel: only the steps that depend on nothing but the frame
+     * and the master files are enabled, and there is no display or plate solving to keep in step with.
+     */
+    boolean canProcessInParallel() {
+        return PARALLEL_SCIENCE.get() && saveProcessedData && !showScience && !plateSolve && !calcHeaders &&
+                (useBias || useDark || useFlat || useNLC);
+    }
+
+    /**
+     * Calibrates the new science files in {@code filenames} concurrently with {@link CalibrationPipeline}, reporting
+     * each frame in file order. Does the same per-frame work as {@link #processData()} and the outlier removal and
+     * save steps of the polling loop.
+     *
+     * @return false if processing failed and should be paused
+     */
+    boolean processScienceInParallel(String[] filenames) {
+        // Science files are only marked as seen once their frame is reported, so a stop leaves the rest for CONTINUE
+        var names = new ArrayList<String>();
+        for (String filename : filenames) {
+            if (images.containsKey(filename)) continue;
+            if (isScienceFile(filename)) {
+                names.add(filename);
+            } else {
+                images.put(filename, null);
+                ignoredImages++;
+            }
+        }
+        if (names.isEmpty()) return true;
+
+        if (loadNewCals) {
+            if (!validateSelections()) return false;
+            if (useBias && !loadMasterBiasFile()) return false;
+            if (useDark && !loadMasterDarkFile()) return false;
+            if (useFlat && !loadMasterFlatFile()) return false;
+            loadNewCals = false;
+        }
+        var mbiasIp = useBias ? mbiasImp.getProcessor() : null;
+        var mdarkIp = useDark ? mdarkImp.getProcessor() : null;
+        var mflatIp = useFlat ? mflatImp.getProcessor() : null;
+
+        double darkExpTime = 1;
+        if (scaleExpTime && useBias && useDark) {
+            darkHeader = FitsJ.getHeader(mdarkImp);
+            if (darkHeader == null) {
+                error("ERROR: Cannot extract FITS header from master dark image \"" + mdarkPath + "\".");
+                return false;
+            }
+            darkExpTime = FitsJ.getExposureTime(darkHeader);
+            if (Double.isNaN(darkExpTime)) {
+                error("ERROR: Cannot extract exposure time from \"" + mdarkPath + "\" master dark header!");
+                return false;
+            }
+        }
+
+        // Create the output directory up front rather than racing to create it from each frame
+        var saveTo = mainDir + saveDir.trim();
+        var dir = saveTo.endsWith(slash) ? saveTo : saveTo + slash;
+        var saveDirectory = new File(dir);
+        if (saveDirectory.isFile()) {
+            error("ERROR: Save directory \"" + dir + "\" is a file, not a directory.");
+            return false;
+        }
+        if (!saveDirectory.isDirectory() && !saveDirectory.mkdirs()) {
+            error("ERROR: Could not create save-to directory \"" + dir + "\".");
+            return false;
+        }
+
+        var threads = PARALLEL_THREADS.get() > 0 ? PARALLEL_THREADS.get() : Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        var pipeline = new CalibrationPipeline(threads);
+        var total = names.size();
+        var failed = new boolean[1];
+        var finalDarkExpTime = darkExpTime;
+        log("Calibrating " + total + " science files on " + threads + " threads");
+        try {
+            pipeline.run(names, (name, index, laps) -> calibrateScienceFile(name, index, total, dir, mbiasIp, mdarkIp, mflatIp, finalDarkExpTime, laps), result -> {
+                result.log().forEach(IJ::log);
+                images.put(names.get(result.index()), null);
+                if (result.error() != null) {
+                    if (result.fatal()) {
+                        failed[0] = true;
+                        error(result.error());
+                        requestStop = true;
+                    } else {
+                        IJ.showMessage(result.error());
+                    }
+                    return;
+                }
+                foundImages++;
+                lastImageName = result.savedName();
+                remainingNumLabel.setText("" + (totalNumFilesInDir - ignoredImages - foundImages));
+                remainingNumLabel.repaint();
+                processedNumLabel.setText("" + foundImages);
+                processedNumLabel.repaint();
+                IJ.showProgress(result.index() + 1, total);
+            }, () -> requestStop || failed[0]);
+        } catch (ExecutionException e) {
+            error("ERROR: Calibration failed: " + e.getCause());
+            return false;
+        }
+        log(pipeline.timings().toString());
+        return !failed[0];
+    }
+
+    /**
+     * Calibrates, cleans and saves one science file. Runs on a pipeline thread: messages are collected for the frame
+     * and failures returned rather than shown.
+     */
+    ScienceResult calibrateScienceFile(String name, int index, int total, String dir, ImageProcessor mbiasIp,
+                                       ImageProcessor mdarkIp, ImageProcessor mflatIp, double darkExpTime,
+                                       CalibrationPipeline.Laps laps) {
+        var messages = new ArrayList<String>();
+        frameLog.set(messages);
+        try {
+            var path = mainDir + name;
+            log("Loading science file \"" + path + "\" (" + (index + 1) + " of " + total + ")");
+            var imp = IJ.openImage(path);
+            laps.lap(CalibrationPipeline.Stage.READ);
+            if (imp == null) {
+                return ScienceResult.failed(index, messages, "Unable to open image " + path, false);
+            }
+
+            var ip = getAdjustedIp(imp, path, removePedestal, CONVERTTOFLOAT);
+            var width = ip.getWidth();
+            var height = ip.getHeight();
+            for (var master : List.of(new Object[]{"bias", mbiasIp}, new Object[]{"dark", mdarkIp}, new Object[]{"flat", mflatIp})) {
+                if (master[1] instanceof ImageProcessor masterIp) {
+                    if (masterIp.getHeight() != height) {
+                        return ScienceResult.failed(index, messages, "ERROR: Master " + master[0] + " height is not equal to \"" + path + "\" height.", true);
+                    }
+                    if (masterIp.getWidth() != width) {
+                        return ScienceResult.failed(index, messages, "ERROR: Master " + master[0] + " width is not equal to \"" + path + "\" width.", true);
+                    }
                 }
             }
-            if (useFlat) {
-                scienceHeader = FitsJ.addHistory("Flat corrected with " + flatMaster.trim(), scienceHeader);
-                log("    Flat corrected with " + flatMaster.trim());
+
+            var header = FitsJ.getHeader(imp);
+            if (header == null) {
+                log("WARNING: Cannot extract FITS header from science image \"" + path + "\".");
+            }
+            double expTimeFactor = 1.0;
+            double scienceExpTime = 0;
+            if (scaleExpTime && useBias && useDark) {
+                scienceExpTime = FitsJ.getExposureTime(header);
+                if (Double.isNaN(scienceExpTime)) {
+                    return ScienceResult.failed(index, messages, "ERROR: Cannot extract exposure time from science image header!", true);
+                }
+                expTimeFactor = scienceExpTime / darkExpTime;
             }
 
+            calibratePixels(ip, mbiasIp, mdarkIp, mflatIp, expTimeFactor);
 
-            FitsJ.putHeader(scienceImp, scienceHeader);
+            var processedName = processedName(name);
+            if (header != null) {
+                header = FitsJ.addHistory("Previous Filename = " + processedName.previous(), header);
+                header = addCalibrationHistory(header, expTimeFactor, scienceExpTime, darkExpTime);
+            }
+            imp.setProcessor(processedName.processed(), ip);
+            if (header != null) FitsJ.putHeader(imp, header);
+            laps.lap(CalibrationPipeline.Stage.CALIBRATE);
+
+            if (useCosmicRemoval) {
+                if (removeBrightOutliers) {
+                    new RankFilters().rank(ip, outlierRadius, RankFilters.OUTLIERS, RankFilters.BRIGHT_OUTLIERS, outlierThreshold);
+                    if (header != null)
+                        header = FitsJ.addHistory("Bright outliers removed with radius=" + outlierRadius + " and threshold=" + outlierThreshold, header);
+                    log("    Bright outliers removed with radius=" + outlierRadius + " and threshold=" + outlierThreshold);
+                }
+                if (removeDarkOutliers) {
+                    new RankFilters().rank(ip, outlierRadius, RankFilters.OUTLIERS, RankFilters.DARK_OUTLIERS, outlierThreshold);
+                    if (header != null)
+                        header = FitsJ.addHistory("Dark outliers removed with radius=" + outlierRadius + " and threshold=" + outlierThreshold, header);
+                    log("    Dark outliers removed with radius=" + outlierRadius + " and threshold=" + outlierThreshold);
+                }
+                if (header != null) FitsJ.putHeader(imp, header);
+            }
+            laps.lap(CalibrationPipeline.Stage.COSMETIC);
+
+            if (!saveFloatingPoint) {
+                imp.setProcessor(imp.getProcessor().convertToShort(false));
+            }
+            if (!saveProcessedFile(imp, dir, dir + processedName.processed(), "processed science", saveFormat)) {
+                return ScienceResult.failed(index, messages, "ERROR: Could not save \"" + dir + processedName.processed() + "\".", true);
+            }
+            laps.lap(CalibrationPipeline.Stage.WRITE);
+
+            return new ScienceResult(index, messages, processedName.processed(), null, false);
+        } finally {
+            frameLog.remove();
         }
+    }
 
-        IJ.wait(100);      //attempt to work around crash problem
-        return true;
+    record ScienceResult(int index, List<String> log, String savedName, String error, boolean fatal) {
+        static ScienceResult failed(int index, List<String> log, String error, boolean fatal) {
+            return new ScienceResult(index, log, null, error, fatal);
+        }
     }
 
     boolean saveProcessedFile(ImagePlus impLocal, String dirPath, String filePath, String type, String format) {
@@ -5324,6 +5876,8 @@ public class Data_Processor implements PlugIn, ActionListener, ChangeListener, /
 
     void error(String message) {
         log(message);
+        // A pipeline thread returns its failure with the frame, and it is shown when the frame is reported
+        if (frameLog.get() != null) return;
         IJ.beep();
         IJ.showMessage(message);
     }
@@ -5331,8 +5885,15 @@ public class Data_Processor implements PlugIn, ActionListener, ChangeListener, /
     void log(String message) {
         if (showLog) {
             if (showLogDateTime) {
-                cal = Calendar.getInstance();
-                IJ.log("[" + sdf.format(cal.getTime()) + "]  " + message);
+                synchronized (sdf) {
+                    cal = Calendar.getInstance();
+                    message = "[" + sdf.format(cal.getTime()) + "]  " + message;
+                }
+            }
+            // Frames processed in parallel keep their messages until they are reported in order
+            var frameLog = this.frameLog.get();
+            if (frameLog != null) {
+                frameLog.add(message);
             } else {
                 IJ.log(message);
             }
@@ -5344,6 +5905,7 @@ public class Data_Processor implements PlugIn, ActionListener, ChangeListener, /
         requestStop = true;
         if (timer != null) timer.cancel();
         if (task != null) task.cancel();
+        closeScienceWatcher();
         if (running) {
             startButton.setText("CONTINUE");
             startButton.setForeground(Color.orange);
@@ -5360,6 +5922,7 @@ public class Data_Processor implements PlugIn, ActionListener, ChangeListener, /
         requestStop = true;
         if (timer != null) timer.cancel();
         if (task != null) task.cancel();
+        closeScienceWatcher();
         running = false;
         active = false;
         images.clear();
@@ -5389,11 +5952,11 @@ public class Data_Processor implements PlugIn, ActionListener, ChangeListener, /
         File sDir = new File(mainDir);
         if (useScienceProcessing && !onlyNew && sDir.isDirectory()) {
             String fileName;
-            File[] files = sDir.listFiles();
+            String[] files = listNames(sDir);
             if (files != null) {
                 if (files.length > 0) {
                     for (int i = 0; i < files.length; i++) {
-                        fileName = files[i].getName();
+                        fileName = files[i];
                         if (matchWildCard(filenamePattern, fileName)) {
                             validTextFilteredFiles++;
                             if (enableFileNumberFiltering && stringLongVal(fileName) >= minFileNumber && stringLongVal(fileName) <= maxFileNumber) {
@@ -5470,11 +6033,11 @@ public class Data_Processor implements PlugIn, ActionListener, ChangeListener, /
         int cnt = 0;
         File calDir = new File(calPath.trim());
         if (calDir.isDirectory()) {
-            File[] files = calDir.listFiles();
+            String[] files = listNames(calDir);
             if (files == null) return 0;
             if (files.length > 0) {
                 for (int i = 0; i < files.length; i++) {
-                    if (matchWildCard(fileBase, files[i].getName())) {
+                    if (matchWildCard(fileBase, files[i])) {
                         cnt++;
                     }
                 }
@@ -5556,16 +6119,59 @@ public class Data_Processor implements PlugIn, ActionListener, ChangeListener, /
                     {
                         countValidFiles();
                         // GET CURRENT LIST OF FILES IN DIRECTORY
-                        File[] files = scienceDir.listFiles();
-                        totalNumFilesInDir = files.length;
-                        String[] filenames = new String[files.length];
-                        for (int i = 0; i < files.length; i++) {
-                            filenames[i] = files[i].getName();
+                        String[] filenames;
+                        var watcher = scienceWatcher;
+                        var arrivals = new LinkedHashMap<String, DirectoryWatcher.Arrival>();
+                        if (watcher != null && onlyNew && firstRun) {
+                            // Everything already in the directory, right away, so it is all ignored
+                            filenames = watcher.names().toArray(String[]::new);
+                            totalNumFilesInDir = filenames.length;
+                        } else if (watcher != null) {
+                            // Only the files that have appeared since the last pass and finished being written,
+                            // waiting for the next one if there are none
+                            try {
+                                for (DirectoryWatcher.Arrival arrival : watcher.poll(pollingInterval * 1000L)) {
+                                    arrivals.put(arrival.name(), arrival);
+                                }
+                            } catch (InterruptedException e) {
+                                unlock();
+                                return;
+                            }
+                            if (watcher.failure() != null) {
+                                log("Stopped watching \"" + mainDir + "\" for new files, polling instead (" + watcher.failure().getMessage() + ")");
+                                closeScienceWatcher();
+                                pollFromNowOn(this);
+                            }
+                            totalNumFilesInDir = watcher.names().size();
+                            filenames = arrivals.keySet().toArray(String[]::new);
+                            if (!arrivals.isEmpty()) countValidFiles();
+                        } else {
+                            File[] files = scienceDir.listFiles();
+                            totalNumFilesInDir = files.length;
+                            filenames = new String[files.length];
+                            for (int i = 0; i < files.length; i++) {
+                                filenames[i] = files[i].getName();
+                            }
                         }
 
                         if (sortNumerically) filenames = sortFileList(filenames);
 
-                        for (int i = 0; i < files.length; i++) {
+                        // Without polling the file list is final, so the next science files can be read
+                        // while the current one is processed, or all of them calibrated in parallel
+                        boolean processedInParallel = false;
+                        if (pollingInterval == 0 && !(onlyNew && firstRun)) {
+                            if (canProcessInParallel()) {
+                                if (!processScienceInParallel(filenames)) {
+                                    pause();
+                                    return;
+                                }
+                                processedInParallel = true;
+                            } else {
+                                startSciencePrefetch(filenames);
+                            }
+                        }
+
+                        for (int i = 0; !processedInParallel && i < filenames.length; i++) {
                             s = filenames[i];
                             sOriginal = s;
 
@@ -5576,7 +6182,7 @@ public class Data_Processor implements PlugIn, ActionListener, ChangeListener, /
 
                                 // IF THE FILE LOOKS LIKE A GOOD NEW IMAGE
                                 reloadFilenames = false;
-                                if (matchWildCard(filenamePattern, s) && (!enableFileNumberFiltering || (stringLongVal(s) >= minFileNumber && stringLongVal(s) <= maxFileNumber))) {
+                                if (isScienceFile(s)) {
                                     if (useBeep) IJ.beep();
                                     if (onlyNew && firstRun)
                                         ignoredImages++;
@@ -5586,8 +6192,9 @@ public class Data_Processor implements PlugIn, ActionListener, ChangeListener, /
                                         /* IF POLLING:
                                          * CHECK THAT FILESIZE IS CONSTANT TO VERIFY THAT FILE WRITING HAS FINISHED.
                                          * IF FILESIZE IS NOT CONSTANT, THE TIMER IS EXITED
-                                         * AND A NEW TIMER IS SET UP TO TRY AGAIN */
-                                        if (pollingInterval > 0) {
+                                         * AND A NEW TIMER IS SET UP TO TRY AGAIN.
+                                         * THE WATCHER ONLY REPORTS FILES THAT HAVE FINISHED */
+                                        if (pollingInterval > 0 && watcher == null) {
                                             File file = new File(mainDir + slash + s);
 
                                             flen = file.length();
@@ -5622,7 +6229,7 @@ public class Data_Processor implements PlugIn, ActionListener, ChangeListener, /
                                             }
                                             sciencePath = mainDir + s;
                                             log("Loading science file \"" + sciencePath + "\" (" + foundImages + " of " + (onlyNew ? foundImages : validNumFilteredFiles) + ")");
-                                            scienceImp = IJ.openImage(sciencePath);
+                                            scienceImp = openScienceImage(s);
                                             if (Prefs.get("astrometry.DPSaveRawWithWCS", false)) {
                                                 rawScienceImp = scienceImp.duplicate();
                                             } else {
@@ -5914,6 +6521,13 @@ public class Data_Processor implements PlugIn, ActionListener, ChangeListener, /
                                                     saveStaticPlot();
                                                 }
 
+                                                var arrival = arrivals.get(sOriginal);
+                                                if (arrival != null) {
+                                                    log("    Processed %.0f ms after the file was written (%.0f ms to detect the write finishing)"
+                                                            .formatted(watcher.completed(arrival) / 1e6,
+                                                                    (arrival.readyNanos() - arrival.lastEventNanos()) / 1e6));
+                                                }
+
 
 //                                                    if (runMultiPlot && !MAcanceled)
 //                                                        {
@@ -5940,7 +6554,7 @@ public class Data_Processor implements PlugIn, ActionListener, ChangeListener, /
                                 }
                             }
                             countValidFiles();
-                            if (!useScienceProcessing || requestStop) i = files.length - 1;
+                            if (!useScienceProcessing || requestStop) i = filenames.length - 1;
                         }
                         firstRun = false;
                         unlock();
@@ -5955,7 +6569,9 @@ public class Data_Processor implements PlugIn, ActionListener, ChangeListener, /
             };
             if (!requestStop) {
                 timer = new Timer();
-                if (pollingInterval != 0) timer.schedule(task, 0, pollingInterval * 1000L);
+                // A watched directory is waited on by the task itself, so it runs again as soon as it returns
+                if (pollingInterval != 0 && openScienceWatcher()) timer.schedule(task, 0, 100);
+                else if (pollingInterval != 0) timer.schedule(task, 0, pollingInterval * 1000L);
                 else timer.schedule(task, 0, 5000);
             }
         } catch (Exception e) {
@@ -5964,6 +6580,22 @@ public class Data_Processor implements PlugIn, ActionListener, ChangeListener, /
         }
     }
 
+    /**
+     * Runs {@code watching}, which was scheduled to run as soon as it returned while it waited on the science
+     * directory watcher, at the polling interval from now on instead.
+     */
+    private void pollFromNowOn(TimerTask watching) {
+        watching.cancel();
+        if (requestStop) return;
+        var period = pollingInterval * 1000L;
+        task = new TimerTask() {
+            public void run() {
+                watching.run();
+            }
+        };
+        timer.schedule(task, period, period);
+    }
+
 //    boolean matchWildCard(String wildCard, String filename)
 //        {
 //        return filename.startsWith(wildCard.trim()) && filename.endsWith(".fits");
@@ -6194,11 +6826,60 @@ public class Data_Processor implements PlugIn, ActionListener, ChangeListener, /
         gd.addMessage("The default time is 500 milli-seconds.");
         gd.addNumericField("Wait time: ", fileSizeChangeWaitTime, 0, 10, "(milli-seconds)");
         gd.addMessage("");
+        gd.addMessage("When watching the science directory, new files are found as they are written, instead of");
+        gd.addMessage("listing the directory every polling interval, and are processed once they have not changed");
+        gd.addMessage("for the wait time. Some network drives do not report new files, in which case turn this off.");
+        gd.addCheckbox("Watch science directory for new files", DirectoryWatcher.ENABLED.get());
 
         gd.showDialog();
         if (gd.wasCanceled()) return;
         fileSizeChangeWaitTime = (int) gd.getNextNumber();
         Prefs.set("dataproc.fileSizeChangeWaitTime", fileSizeChangeWaitTime);
+        DirectoryWatcher.ENABLED.set(gd.getNextBoolean());
+    }
+
+    void setMasterCombineOptions() {
+        GenericDialog gd = new GenericDialog("Master calibration file combine options");
+
+        gd.addMessage("Raw calibration files can be read from disk in bands of rows while building master files,");
+        gd.addMessage("so that memory use is set by the band size rather than the number of raw files.");
+        gd.addMessage("Compressed files, and showing the raw calibration images, need all files in memory.");
+        gd.addCheckbox("Read raw calibration files in bands", StreamingCombiner.ENABLED.get());
+        gd.addNumericField("Memory for bands: ", StreamingCombiner.TILE_BUDGET_MB.get(), 0, 10, "(MB)");
+        gd.addMessage("");
+        var averages = Arrays.stream(StreamingCombiner.Method.values())
+                .filter(m -> m != StreamingCombiner.Method.MEDIAN).toArray(StreamingCombiner.Method[]::new);
+        var averageNames = Arrays.stream(averages).map(this::combineName).toArray(String[]::new);
+        gd.addChoice("Average combine method: ", averageNames, combineName(combineMethod(false)));
+        gd.addNumericField("Clip at: ", StreamingCombiner.CLIP_SIGMA.get(), 2, 10, "(sigma, or mean deviations for linear fit)");
+        gd.addNumericField("Clipping iterations: ", StreamingCombiner.CLIP_ITERATIONS.get(), 0, 10, "");
+        gd.addNumericField("Min/max rejection, lowest: ", StreamingCombiner.REJECT_LOW.get(), 0, 10, "(files)");
+        gd.addNumericField("Min/max rejection, highest: ", StreamingCombiner.REJECT_HIGH.get(), 0, 10, "(files)");
+
+        gd.showDialog();
+        if (gd.wasCanceled()) return;
+        StreamingCombiner.ENABLED.set(gd.getNextBoolean());
+        StreamingCombiner.TILE_BUDGET_MB.set(Math.max(1, (int) gd.getNextNumber()));
+        AVERAGE_METHOD.set(averages[gd.getNextChoiceIndex()]);
+        StreamingCombiner.CLIP_SIGMA.set(gd.getNextNumber());
+        StreamingCombiner.CLIP_ITERATIONS.set(Math.max(1, (int) gd.getNextNumber()));
+        StreamingCombiner.REJECT_LOW.set(Math.max(0, (int) gd.getNextNumber()));
+        StreamingCombiner.REJECT_HIGH.set(Math.max(0, (int) gd.getNextNumber()));
+    }
+
+    void setParallelScienceOptions() {
+        GenericDialog gd = new GenericDialog("Parallel science file processing");
+
+        gd.addMessage("When not polling, science files can be calibrated several at a time.");
+        gd.addMessage("This is used only when the processed files are saved, and science images are not shown,");
+        gd.addMessage("plate solved, or given astronomical header calculations, which are done one file at a time.");
+        gd.addCheckbox("Calibrate science files in parallel", PARALLEL_SCIENCE.get());
+        gd.addNumericField("Threads: ", PARALLEL_THREADS.get(), 0, 10, "(0 = automatic)");
+
+        gd.showDialog();
+        if (gd.wasCanceled()) return;
+        PARALLEL_SCIENCE.set(gd.getNextBoolean());
+        PARALLEL_THREADS.set(Math.max(0, (int) gd.getNextNumber()));
     }
 
     //extract the integer number within a string
@@ -6247,11 +6928,98 @@ public class Data_Processor implements PlugIn, ActionListener, ChangeListener, /
      */
     synchronized protected void unlock() {
         blocked = false;
+        stopSciencePrefetch();
+    }
+
+    boolean isScienceFile(String filename) {
+        return matchWildCard(filenamePattern, filename) && (!enableFileNumberFiltering ||
+                (stringLongVal(filename) >= minFileNumber && stringLongVal(filename) <= maxFileNumber));
+    }
+
+    /**
+     * Starts reading the new science files in {@code filenames} ahead of {@link #openScienceImage(String)}.
+     */
+    void startSciencePrefetch(String[] filenames) {
+        stopSciencePrefetch();
+        if (!SlicePrefetcher.ENABLED.get()) return;
+        var names = new ArrayList<String>();
+        var index = new HashMap<String, Integer>();
+        for (String filename : filenames) {
+            if (!images.containsKey(filename) && isScienceFile(filename)) {
+                index.put(filename, names.size());
+                names.add(filename);
+            }
+        }
+        if (names.size() < 2) return;
+        var dir = mainDir;
+        prefetchIndex = index;
+        sciencePrefetcher = new SlicePrefetcher<>(n -> IJ.openImage(dir + names.get(n)), 0, names.size() - 1,
+                imp -> (long) imp.getSizeInBytes());
+    }
+
+    ImagePlus openScienceImage(String filename) {
+        var prefetcher = sciencePrefetcher;
+        var index = prefetchIndex.get(filename);
+        if (prefetcher != null && index != null) {
+            return prefetcher.take(index);
+        }
+        return IJ.openImage(mainDir + filename);
+    }
+
+    void stopSciencePrefetch() {
+        var prefetcher = sciencePrefetcher;
+        if (prefetcher == null) return;
+        sciencePrefetcher = null;
+        prefetchIndex = Map.of();
+        prefetcher.close();
+        if (SlicePrefetcher.LOG_STATS.get()) log(prefetcher.stats().toString());
     }
 
     boolean matchWildCard(String pattern, String text) {
-        String regex = pattern.replace("?", "[\\w\\-]").replace("*", ".*").replace("-", "\\-");
-        return text.matches(regex);
+        return wildCards.computeIfAbsent(pattern, p -> {
+            String regex = p.replace("?", "[\\w\\-]").replace("*", ".*").replace("-", "\\-");
+            return Pattern.compile(regex);
+        }).matcher(text).matches();
+    }
+
+    /**
+     * Starts watching the science directory for new files, when processing new files as they are written.
+     *
+     * @return false if the directory is polled instead.
+     */
+    boolean openScienceWatcher() {
+        closeScienceWatcher();
+        if (!DirectoryWatcher.ENABLED.get()) return false;
+        try {
+            scienceWatcher = new DirectoryWatcher(new File(mainDir.trim()).toPath().toAbsolutePath().normalize(),
+                    fileSizeChangeWaitTime);
+            return true;
+        } catch (IOException | UnsupportedOperationException | InvalidPathException e) {
+            log("Unable to watch \"" + mainDir + "\" for new files, polling instead (" + e.getMessage() + ")");
+            return false;
+        }
+    }
+
+    void closeScienceWatcher() {
+        var watcher = scienceWatcher;
+        if (watcher == null) return;
+        scienceWatcher = null;
+        watcher.close();
+        if (watcher.stats().completed() > 0) log(watcher.stats().toString());
+    }
+
+    /**
+     * The names of the files in {@code dir}, from the index of the science directory watcher if it is watching it.
+     */
+    String[] listNames(File dir) {
+        var watcher = scienceWatcher;
+        try {
+            if (watcher != null && !watcher.isClosed() && watcher.dir().equals(dir.toPath().toAbsolutePath().normalize())) {
+                return watcher.names().toArray(String[]::new);
+            }
+        } catch (InvalidPathException ignored) {
+        }
+        return dir.list();
     }
 
     void getPrefs() {
@@ -46,11 +46,11 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.SynchronousQueue;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiFunction;
 import java.util.regex.Pattern;
 
@@ -96,6 +96,10 @@ public class FitOptimization implements AutoCloseable {
     private static final Property<Integer> maxThreads = new Property<>(getThreadCount(), FitOptimization.class);
     private static final Property<Long> minChunkSize = new Property<>(512L, FitOptimization.class);
     private static final Property<Boolean> autoMaxThreads = new Property<>(true, FitOptimization.class);
+    /**
+     * The average rate of the most recent optimization, for the threading panel.
+     */
+    private static volatile double statesPerSecond = Double.NaN;
     private final static Pattern apGetter = Pattern.compile("rel_flux_[ct]([0-9]+)");
     private static final HashSet<FitOptimization> INSTANCES = new HashSet<>();
     public static final ImageIcon UNDO_ICON = UIHelper.createImageIcon("astroj/images/icons/undo.png", 14, 14);
@@ -459,6 +463,9 @@ public class FitOptimization implements AutoCloseable {
         gd.addBoundedNumericField("Minimum Chunk Size:", new GenericSwingDialog.Bounds(1, Integer.MAX_VALUE),
                 minChunkSize.get(), 1, 7, "", true, d -> minChunkSize.set(d.longValue()));
         gd.addMessage("Default: " + 512);
+        if (!Double.isNaN(statesPerSecond)) {
+            gd.addMessage(String.format("Last optimization: %,.0f states/s", statesPerSecond));
+        }
         autoMaxThreads.addListener((k, b) -> {
             if (b) {
                 ((JSpinner) x.c1()).setValue((double)getThreadCount());
@@ -695,6 +702,13 @@ public class FitOptimization implements AutoCloseable {
 
         BigInteger initState = createBinaryRepresentation(selectable); //numAps has number of apertures
 
+        if (initState.bitLength() > CompStarFitting.GrayCodeSearch.MAX_OPTIONS) {
+            IJ.error("Exhaustive optimization supports at most " + CompStarFitting.GrayCodeSearch.MAX_OPTIONS +
+                    " comparison stars.");
+            finishOptimization(compOptiCards);
+            return;
+        }
+
         compCounter.setBasis(initState.subtract(BigInteger.ONE)); // Subtract 1 as 0-state is skipped
         scheduleIpsCounter(0);
 
@@ -744,7 +758,7 @@ public class FitOptimization implements AutoCloseable {
         scheduleIpsCounter(0);
 
         var finalState = divideTasksAndRun(new MinimumState(initState, Double.MAX_VALUE),
-                ($, end) -> new CompStarFitting(end, this, CompStarFitting.Mode.MODERATE), false);
+                ($, end) -> new CompStarFitting(end, this, CompStarFitting.Mode.MODERATE));
 
         setFinalRefStarState("RMS", finalState.stateArray);
         compCounter.setBasis(BigInteger.ZERO);
@@ -789,7 +803,7 @@ public class FitOptimization implements AutoCloseable {
         scheduleIpsCounter(0);
 
         var finalState = divideTasksAndRun(new MinimumState(initState, Double.MAX_VALUE),
-                ($, end) -> new CompStarFitting(end, this, CompStarFitting.Mode.QUICK), false);
+                ($, end) -> new CompStarFitting(end, this, CompStarFitting.Mode.QUICK));
 
         setFinalRefStarState("RMS", finalState.stateArray);
         compCounter.setBasis(BigInteger.ZERO);
@@ -864,7 +878,7 @@ public class FitOptimization implements AutoCloseable {
         scheduleIpsCounter(1);
 
         var finalState = divideTasksAndRun(new MinimumState(initState, Double.MAX_VALUE),
-                (start, end) -> new BicFitting(start, end, this), false);
+                (start, end) -> new BicFitting(start, end, this));
 
         if (finalState.outState instanceof int[] x) setFinalState(x);
 
@@ -900,18 +914,13 @@ public class FitOptimization implements AutoCloseable {
     }
 
     /**
+     * Runs the optimizer over the states {@code [1, initState]} on the work-stealing pool. Optimizers that search
+     * the range exhaustively split it into tasks of their own.
+     *
      * @return the final state array
      */
     private OutPair divideTasksAndRun(final MinimumState initState,
                                       BiFunction<BigInteger, BigInteger, Optimizer> optimizerBiFunction) {
-        return divideTasksAndRun(initState, optimizerBiFunction, true);
-    }
-
-    /**
-     * @return the final state array
-     */
-    private OutPair divideTasksAndRun(final MinimumState initState,
-                                      BiFunction<BigInteger, BigInteger, Optimizer> optimizerBiFunction, boolean multithreaded) {
         table.setLock(true);
         // Update table data - here we use full data, while on first open of a table MP will use truncated data
         MultiPlot_.updateTotals();
@@ -926,21 +935,8 @@ public class FitOptimization implements AutoCloseable {
         var state = minimumState.state;
         var count = 0;
 
-        if (multithreaded) {
-            var CHUNK_SIZE = state.divide(BigInteger.valueOf(maxThreads.get()))
-                    .max(BigInteger.valueOf(minChunkSize.get())).add(BigInteger.ONE);
-            for (BigInteger start = BigInteger.ONE; start.compareTo(state) < 0; ) {
-                var end = state.add(BigInteger.ONE).min(start.add(CHUNK_SIZE)).min(state);
-                evaluateStatesInRange(optimizerBiFunction.apply(start, end));
-                start = end;
-                count++;
-            }
-        } else {
-            evaluateStatesInRange(optimizerBiFunction.apply(BigInteger.ONE, state));
-            count++;
-        }
-
-        if (showOptLog) AIJLogger.log(String.format("Using %d threads", count));
+        evaluateStatesInRange(optimizerBiFunction.apply(BigInteger.ONE, state));
+        count++;
 
         Future<MinimumState> msf;
         var hasErrored = false;
@@ -1009,11 +1005,32 @@ public class FitOptimization implements AutoCloseable {
             }
         }
 
-        pool = new ThreadPoolExecutor(0, maxThreads.get(),
-                10L, TimeUnit.SECONDS, new SynchronousQueue<>());
+        pool = new ForkJoinPool(maxThreads.get());
         completionService = new ExecutorCompletionService<>(pool);
     }
 
+    public boolean[] setArrayToState(final long state) {
+        var stateArray = new boolean[selectable.length];
+        for (int i = 0; i < selectable.length; i++) {
+            stateArray[this.selectable2PrimaryIndex[i]] = (state & (1L << i)) != 0;
+        }
+        return stateArray;
+    }
+
+    /**
+     * @return the index in the state array of the option represented by {@code bit}.
+     */
+    public int getPrimaryIndex(int bit) {
+        return selectable2PrimaryIndex[bit];
+    }
+
+    /**
+     * @return the number of states an exhaustive search evaluates in one task.
+     */
+    public long getChunkSize() {
+        return minChunkSize.get();
+    }
+
     public boolean[] setArrayToState(final BigInteger state) {
         var stateArray = new boolean[selectable.length];
         for (int i = 0; i < selectable.length; i++) {
@@ -1086,6 +1103,7 @@ public class FitOptimization implements AutoCloseable {
 
         var avgIps = rollingAvg.getAverage(ips);
         if (avgIps.compareTo(BigDecimal.ZERO) == 0) return;
+        statesPerSecond = avgIps.doubleValue();
         var totalSecs = counter.getTotalCount().divide(rollingAvg.getAverage(ips).toBigInteger());
         var hours = totalSecs.divide(BigInteger.valueOf(3600));
         var minutes = (totalSecs.mod(BigInteger.valueOf(3600))).divide(BigInteger.valueOf(60));
@@ -1261,6 +1279,7 @@ public class FitOptimization implements AutoCloseable {
         JTextField textField;
         BigInteger basis, sum;
         Hashtable<Long, BigInteger> counters = new Hashtable<>(getThreadCount());
+        final LongAdder completed = new LongAdder();
         boolean isSpinner= false;
         private static final String[] spinner = new String[]{"⠋","⠙","⠚","⠓"/*,"⠖","⠛"*/};
         private static Font oldFont;
@@ -1274,12 +1293,24 @@ public class FitOptimization implements AutoCloseable {
         public void dynamicSet(BigInteger integer) {
             if (integer == null) return;
             setCounter(integer);
+            updateText(integer.longValue());
+        }
+
+        /**
+         * Counts states completed by tasks that may run on any thread of the pool.
+         */
+        public void add(long count) {
+            completed.add(count);
+            updateText(completed.sum());
+        }
+
+        private void updateText(long tick) {
             if (awaitingUpdates) {
                 return;
             }
             awaitingUpdates = true;
             SwingUtilities.invokeLater(() -> {
-                textField.setText(isSpinner ? spinner[(int) (integer.longValue() % spinner.length)] :
+                textField.setText(isSpinner ? spinner[(int) (tick % spinner.length)] :
                         getTotalCount().toString());
                 awaitingUpdates = false;
             });
@@ -1297,6 +1328,7 @@ public class FitOptimization implements AutoCloseable {
             basis = integer;
             sum = BigInteger.ZERO;
             counters.clear();
+            completed.reset();
             SwingUtilities.invokeLater(() -> textField.setText(integer.toString()));
         }
 
@@ -1315,7 +1347,7 @@ public class FitOptimization implements AutoCloseable {
         }
 
         private synchronized BigInteger getTotalCount() {
-            BigInteger total = basis;
+            BigInteger total = basis.subtract(BigInteger.valueOf(completed.sum()));
             for (BigInteger value : counters.values()) {
                 total = total.subtract(value);
             }
@@ -0,0 +1,183 @@
+package Astronomy;
+
+import Astronomy.multiaperture.PhotometryEngine;
+import astroj.Centroid;
+import astroj.MeasurementTable;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.Prefs;
+import ij.WindowManager;
+import ij.astro.io.ColumnarTable;
+import ij.gui.GenericDialog;
+import ij.macro.Interpreter;
+import ij.plugin.PlugIn;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs multi-aperture photometry on the current stack with {@link PhotometryEngine}, using the apertures and
+ * photometry settings last saved by Multi-Aperture. No image window is required, so this can be run from batch-mode
+ * macros and the command line, e.g.
+ * <pre>
+ * run("Headless Photometry", "first=1 last=20000 threads=0 table=Measurements save=/data/night.tbl");
+ * </pre>
+ * When saving to a {@link ColumnarTable}, rows are appended to the file while the photometry runs.
+ */
+public class Headless_Photometry implements PlugIn {
+    private static final String PREFS_THREADS = "headlessphotometry.threads";
+    private static final int APPEND_ROWS = 500;
+
+    @Override
+    public void run(String arg) {
+        var imp = WindowManager.getCurrentImage();
+        if (imp == null) {
+            IJ.noImage();
+            return;
+        }
+
+        var gd = new GenericDialog("Headless Photometry");
+        gd.addNumericField("First slice", 1, 0);
+        gd.addNumericField("Last slice", imp.getStackSize(), 0);
+        gd.addNumericField("Threads (0 = auto)", Prefs.get(PREFS_THREADS, 0), 0);
+        gd.addStringField("Table", MeasurementTable.PREFIX, 20);
+        gd.addStringField("Save", "", 30);
+        gd.showDialog();
+        if (gd.wasCanceled()) {
+            return;
+        }
+
+        var firstSlice = (int) gd.getNextNumber();
+        var lastSlice = (int) gd.getNextNumber();
+        var threads = (int) gd.getNextNumber();
+        var tableName = gd.getNextString();
+        var savePath = gd.getNextString().trim();
+        Prefs.set(PREFS_THREADS, threads);
+
+        var apertures = storedApertures(imp);
+        if (apertures.isEmpty()) {
+            IJ.error("Headless Photometry", "No stored apertures found, place apertures with Multi-Aperture first.");
+            return;
+        }
+
+        var engine = new PhotometryEngine(apertures, storedSettings(threads));
+        var table = MeasurementTable.getTable(tableName);
+        // Columnar tables grow on disk as the photometry runs
+        var appender = savePath.endsWith(ColumnarTable.EXTENSION) ?
+                new ColumnarTable.Appender(Path.of(savePath), APPEND_ROWS) : null;
+
+        var start = System.currentTimeMillis();
+        var total = Math.max(1, lastSlice - firstSlice + 1);
+        table.setLock(true);
+        try {
+            engine.process(imp, firstSlice, lastSlice, r -> {
+                engine.appendTo(table, r);
+                if (appender != null) {
+                    try {
+                        appender.accept(table);
+                    } catch (IOException e) {
+                        IJ.log("Headless Photometry: failed to append to " + savePath + ": " + e.getMessage());
+                    }
+                }
+                IJ.showProgress(r.slice() - firstSlice + 1, total);
+            }, IJ::escapePressed);
+        } finally {
+            table.setLock(false);
+            IJ.showProgress(1.0);
+        }
+
+        if (!savePath.isEmpty()) {
+            try {
+                if (appender != null) {
+                    appender.flush(table);
+                } else {
+                    table.saveAs(savePath);
+                }
+            } catch (IOException e) {
+                IJ.error("Headless Photometry", "Failed to save table: " + e.getMessage());
+            }
+        }
+
+        if (!Interpreter.isBatchMode()) {
+            table.show();
+        }
+
+        IJ.showStatus("Headless photometry took " + (System.currentTimeMillis() - start) / 1000D + " seconds");
+    }
+
+    /**
+     * Apertures as last saved by Multi-Aperture.
+     */
+    static List<PhotometryEngine.ApertureSpec> storedApertures(ImagePlus imp) {
+        var xs = Prefs.get(MultiAperture_.PREFS_XAPERTURES, "").split(",");
+        var ys = Prefs.get(MultiAperture_.PREFS_YAPERTURES, "").split(",");
+        var ras = Prefs.get(MultiAperture_.PREFS_RAAPERTURES, "").split(",");
+        var decs = Prefs.get(MultiAperture_.PREFS_DECAPERTURES, "").split(",");
+        var isRef = Prefs.get(MultiAperture_.PREFS_ISREFSTAR, "").split(",");
+        var centroid = Prefs.get(MultiAperture_.PREFS_CENTROIDSTAR, "").split(",");
+
+        var apertures = new ArrayList<PhotometryEngine.ApertureSpec>();
+        if (xs.length != ys.length) {
+            return apertures;
+        }
+
+        // Positions may be stored in FITS pixel coordinates
+        var isFits = xs[0].startsWith("FITS");
+        if (isFits) {
+            xs[0] = xs[0].substring(4);
+            ys[0] = ys[0].substring(4);
+        }
+
+        for (int ap = 0; ap < xs.length; ap++) {
+            double x, y;
+            try {
+                x = Double.parseDouble(xs[ap]);
+                y = Double.parseDouble(ys[ap]);
+            } catch (NumberFormatException e) {
+                return new ArrayList<>();
+            }
+            if (isFits) {
+                x -= Centroid.PIXELCENTER;
+                y = (double) imp.getHeight() - y + Centroid.PIXELCENTER;
+            }
+
+            var ra = ras.length == xs.length ? parseOrNaN(ras[ap]) : Double.NaN;
+            var dec = decs.length == xs.length ? parseOrNaN(decs[ap]) : Double.NaN;
+            var ref = ap < isRef.length ? isRef[ap].equalsIgnoreCase("true") : ap != 0;
+            var cen = ap >= centroid.length || centroid[ap].equalsIgnoreCase("true");
+
+            apertures.add(new PhotometryEngine.ApertureSpec(x, y, ra, dec, ref, cen));
+        }
+
+        return apertures;
+    }
+
+    /**
+     * Photometry settings as last saved by Aperture/Multi-Aperture.
+     */
+    static PhotometryEngine.Settings storedSettings(int threads) {
+        return new PhotometryEngine.Settings(
+                Prefs.get(Aperture_.AP_PREFS_RADIUS, 25),
+                Prefs.get(Aperture_.AP_PREFS_RBACK1, 40),
+                Prefs.get(Aperture_.AP_PREFS_RBACK2, 60),
+                Prefs.get(Aperture_.AP_PREFS_EXACT, true),
+                Prefs.get(Aperture_.AP_PREFS_BACKPLANE, false),
+                Prefs.get(Aperture_.AP_PREFS_REMOVEBACKSTARS, true),
+                Prefs.get(Aperture_.AP_PREFS_CCDGAIN, 1.0),
+                Prefs.get(Aperture_.AP_PREFS_CCDNOISE, 0.0),
+                Prefs.get(Aperture_.AP_PREFS_CCDDARK, 0.0),
+                Prefs.get(Aperture_.AP_PREFS_DARKKEYWORD, ""),
+                Prefs.get(MultiAperture_.PREFS_USEWCS, false),
+                threads);
+    }
+
+    private static double parseOrNaN(String s) {
+        try {
+            return Double.parseDouble(s);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+}
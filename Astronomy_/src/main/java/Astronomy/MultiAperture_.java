@@ -38,11 +38,11 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.TreeSet;
-import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
@@ -69,6 +69,7 @@ import javax.swing.SwingUtilities;
 import javax.swing.WindowConstants;
 import javax.swing.event.ChangeListener;
 
+import Astronomy.multiaperture.ApertureRegions;
 import Astronomy.multiaperture.FreeformPixelApertureHandler;
 import Astronomy.multiaperture.io.AperturesFileCodec;
 import Astronomy.multiaperture.io.Section;
@@ -84,6 +85,7 @@ import astroj.FitsJ;
 import astroj.FreeformPixelApertureRoi;
 import astroj.IJU;
 import astroj.MarkingRoi;
+import astroj.MaximaIndex;
 import astroj.MeasurementTable;
 import astroj.OverlayCanvas;
 import astroj.ShapedApertureRoi;
@@ -93,6 +95,7 @@ import astroj.WCS;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.Prefs;
+import ij.VirtualStack;
 import ij.WindowManager;
 import ij.astro.gui.GenericSwingDialog;
 import ij.astro.gui.RadioEnum;
@@ -101,11 +104,13 @@ import ij.astro.gui.nstate.NState;
 import ij.astro.io.prefs.Property;
 import ij.astro.logging.AIJLogger;
 import ij.astro.types.Pair;
+import ij.astro.util.SlicePrefetcher;
 import ij.gui.GUI;
 import ij.gui.GenericDialog;
 import ij.gui.PlotWindow;
 import ij.gui.Toolbar;
 import ij.measure.ResultsTable;
+import ij.plugin.FITS_Reader;
 import ij.plugin.frame.Recorder;
 import ij.process.ImageProcessor;
 import ij.util.ArrayUtil;
@@ -379,8 +384,21 @@ public class MultiAperture_ extends Aperture_ implements MouseListener, MouseMot
     private boolean suggestionRunning;
     private Seeing_Profile sp;
     private List<Seeing_Profile.ApRadii> stackRadii = new ArrayList<>();
+    /**
+     * The squares read of the current frame, or null when the whole frame is in memory.
+     */
+    private ApertureRegions regionsRead;
     private final HashSet<Component> singleStepListeners = new HashSet<>();
     protected static final Property<Boolean> updateImageDisplay = new Property<>(true, MultiAperture_.class);
+    /**
+     * Read only the pixels around the apertures of each frame, for circular apertures on a virtual stack of FITS
+     * files run without updating the display.
+     */
+    public static final Property<Boolean> regionReads = new Property<>(false, MultiAperture_.class);
+    /**
+     * How far past the sky annulus the pixels are read, to allow for drift and recentering between frames.
+     */
+    public static final Property<Integer> regionReadMargin = new Property<>(32, MultiAperture_.class);
     public static final Property<ApLoading> apLoading = new Property<>(ApLoading.ALL_NEW, MultiAperture_.class);
     protected static final Property<ApertureShape> apertureShape = new Property<>(ApertureShape.CIRCULAR, MultiAperture_.class);
     private static String lastRun = "<Not yet run>";
@@ -3316,8 +3334,16 @@ public class MultiAperture_ extends Aperture_ implements MouseListener, MouseMot
         final var radiusHalf = 0.25 * radius * radius;
         final var reversedSet = (TreeSet<StarFinder.CoordinateMaxima>) initialSet.descendingSet();
         final var toRemove = new HashSet<StarFinder.CoordinateMaxima>();
+        final var index = new MaximaIndex(initialSet, 2 * radius);
+        final var neighbors = new ArrayList<StarFinder.CoordinateMaxima>();
         for (StarFinder.CoordinateMaxima brighter : reversedSet) {
-            for (StarFinder.CoordinateMaxima fainter : reversedSet.tailSet(brighter, false)) {
+            // Only the fainter stars within reach, brightest first as in the set
+            neighbors.clear();
+            index.forEachWithin(brighter.x(), brighter.y(), 2 * radius, c -> {
+                if (c.compareTo(brighter) < 0) neighbors.add(c);
+            });
+            neighbors.sort(Comparator.reverseOrder());
+            for (StarFinder.CoordinateMaxima fainter : neighbors) {
                 if (brighter != fainter) {
                     if (brighter.value() < maxP && fainter.value() < maxP) {
                         if (toRemove.contains(brighter)) continue;
@@ -3441,14 +3467,15 @@ public class MultiAperture_ extends Aperture_ implements MouseListener, MouseMot
         }).filter(Objects::nonNull).collect(Collectors.toCollection(TreeSet::new));
 
         // Remove elements where the apertures would be identical
-        var m = new ConcurrentLinkedDeque<StarFinder.CoordinateMaxima>();
-        n.parallelStream().forEach(c -> {
-            if (m.contains(c)) return;
-            n.parallelStream().forEach(c2 -> {
-                if (c == c2) return;
-                if (c2.identicalRoi(c)) m.add(c2);
+        var m = new HashSet<StarFinder.CoordinateMaxima>();
+        var nIndex = new MaximaIndex(n, 2);
+        for (StarFinder.CoordinateMaxima c : n.descendingSet()) {
+            if (m.contains(c)) continue;
+            // Identical apertures are within a pixel diagonal
+            nIndex.forEachWithin(c.x(), c.y(), 1.5, c2 -> {
+                if (c != c2 && c2.identicalRoi(c)) m.add(c2);
             });
-        });
+        }
         n.removeAll(m);
 
         initialSet = n;
@@ -3470,8 +3497,15 @@ public class MultiAperture_ extends Aperture_ implements MouseListener, MouseMot
 
     private List<WeightedCoordinateMaxima> weightAndLimitPeaks(TreeSet<StarFinder.CoordinateMaxima> initialSet, final double t1Source, Pair.DoublePair t1Coord) {
         final Comparator<WeightedCoordinateMaxima> x = Comparator.comparingDouble(d -> d.weight);
-        final var out = initialSet.parallelStream().map(o -> calculateDistanceBrightnessFactor(t1Source, t1Coord, o)).sorted(x.reversed());
-        return out.limit(maxSuggestedStars).collect(Collectors.toList());
+        // Keep the heaviest few as we go, lightest on top, rather than sorting every peak
+        final var best = new PriorityQueue<>(Math.max(1, maxSuggestedStars + 1), x);
+        for (StarFinder.CoordinateMaxima o : initialSet) {
+            best.add(calculateDistanceBrightnessFactor(t1Source, t1Coord, o));
+            if (best.size() > maxSuggestedStars) best.poll();
+        }
+        final var out = new ArrayList<>(best);
+        out.sort(x.reversed());
+        return out;
     }
 
     private WeightedCoordinateMaxima calculateDistanceBrightnessFactor(double t1Source, Pair.DoublePair t1Coord, StarFinder.CoordinateMaxima coordinateMaxima) {
@@ -4492,76 +4526,111 @@ public class MultiAperture_ extends Aperture_ implements MouseListener, MouseMot
             showRemovedPixels = false;
             Prefs.set(AP_PREFS_SHOWREMOVEDPIXELS, false);
         }
-        for (int i = firstSlice; i <= lastSlice; i++) {
-            if (i == lastSlice) {
-                Prefs.set(AP_PREFS_SHOWREMOVEDPIXELS, Prefs.get("oldAperture.showRemovedPixels", Prefs.get(AP_PREFS_SHOWREMOVEDPIXELS, showRemovedPixels)));
-            }
-            slice = i;
-            imp.setSliceWithoutUpdate(i); //fixes scroll sync issue
-            // Fixes scrollbar not updating on mac
-            if (updateImageDisplay.get()) {
-                waitForEventQueue();
-            }
-            if (starOverlay || skyOverlay || valueOverlay || nameOverlay) {
-                ocanvas = OverlayCanvas.getOverlayCanvas(imp);
-                canvas = ocanvas;
-                ocanvas.clearRois();
-            }
-            if (imp.getWindow() instanceof AstroStackWindow) {
-                asw = (AstroStackWindow) imp.getWindow();
-                ac = (AstroCanvas) imp.getCanvas();
 
+        // Decode the next slices while the current one is measured
+        var virtualStack = imp.getStack() instanceof VirtualStack vs ? vs : null;
+        var readRegions = virtualStack != null && canReadRegions();
+        if (virtualStack != null && !readRegions) {
+            virtualStack.startPrefetching(firstSlice, lastSlice);
+        }
+
+        try {
+            for (int i = firstSlice; i <= lastSlice; i++) {
+                if (i == lastSlice) {
+                    Prefs.set(AP_PREFS_SHOWREMOVEDPIXELS, Prefs.get("oldAperture.showRemovedPixels", Prefs.get(AP_PREFS_SHOWREMOVEDPIXELS, showRemovedPixels)));
+                }
+                slice = i;
+                var regions = readRegions ? apertureRegions() : null;
+                regionsRead = regions;
+                if (regions != null) {
+                    int finalI = i;
+                    ScopedValue.where(FITS_Reader.REGIONS, regions.squares())
+                            .where(FITS_Reader.REGION_PIXELS, imp.getProcessor().getPixels())
+                            .run(() -> imp.setSliceWithoutUpdate(finalI));
+                } else {
+                    imp.setSliceWithoutUpdate(i); //fixes scroll sync issue
+                }
+                // Fixes scrollbar not updating on mac
                 if (updateImageDisplay.get()) {
-                    SwingUtilities.invokeLater(() -> {
-                        // This fixes the counter subtitle of the stack window not updating as the images progress
-                        asw.update(asw.getGraphics());
+                    waitForEventQueue();
+                }
+                if (starOverlay || skyOverlay || valueOverlay || nameOverlay) {
+                    ocanvas = OverlayCanvas.getOverlayCanvas(imp);
+                    canvas = ocanvas;
+                    ocanvas.clearRois();
+                }
+                if (imp.getWindow() instanceof AstroStackWindow) {
+                    asw = (AstroStackWindow) imp.getWindow();
+                    ac = (AstroCanvas) imp.getCanvas();
 
-                        // This fixes histogram not updating
-                        asw.updatePanelValues(false);
+                    if (updateImageDisplay.get()) {
+                        SwingUtilities.invokeLater(() -> {
+                            // This fixes the counter subtitle of the stack window not updating as the images progress
+                            asw.update(asw.getGraphics());
 
-                        asw.updateWCS();
+                            // This fixes histogram not updating
+                            asw.updatePanelValues(false);
 
-                        asw.updateCalibration();
-                        asw.setAstroProcessor(false);
+                            asw.updateWCS();
 
-                        // Fixes apertures not properly being drawn/cleared when autoNupEleft is disabled
-                        //KC: but I don't understand why
-                        asw.repaintAstroCanvas();
-                    });
+                            asw.updateCalibration();
+                            asw.setAstroProcessor(false);
 
-                    waitForEventQueue();
-                } else {
-                    if (useWCS) {
-                        asw.updateWCS();
+                            // Fixes apertures not properly being drawn/cleared when autoNupEleft is disabled
+                            //KC: but I don't understand why
+                            asw.repaintAstroCanvas();
+                        });
+
+                        waitForEventQueue();
+                    } else {
+                        if (useWCS) {
+                            asw.updateWCS();
+                        }
                     }
+
+                    hasWCS = asw.hasWCS();
+                    if (hasWCS) wcs = asw.getWCS();
+                    asw.setDisableShiftClick(true);
+                } else {
+                    ac = null;
+                    asw = null;
+                    hasWCS = false;
+                    wcs = null;
+                }
+                if (regions != null) {
+                    // Already read into the image by setSliceWithoutUpdate
+                    ip = imp.getProcessor();
+                } else {
+                    ip = imp.getStack().getProcessor(slice);
                 }
 
-                hasWCS = asw.hasWCS();
-                if (hasWCS) wcs = asw.getWCS();
-                asw.setDisableShiftClick(true);
-            } else {
-                ac = null;
-                asw = null;
-                hasWCS = false;
-                wcs = null;
+                try {
+                    processImage();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                if (cancelled || IJ.escapePressed()) {
+                    IJ.beep();
+                    Prefs.set(MultiAperture_.PREFS_CANCELED, "true");
+                    shutDown();
+                    Prefs.set(AP_PREFS_SHOWREMOVEDPIXELS, Prefs.get("oldAperture.showRemovedPixels", Prefs.get(AP_PREFS_SHOWREMOVEDPIXELS, showRemovedPixels)));
+                    if (win != null) {
+                        win.setVisible(false);
+                        win.dispose();
+                    }
+                    return;
+                }
             }
-            ip = imp.getStack().getProcessor(slice);
-
-            try {
-                processImage();
-            } catch (Exception e) {
-                e.printStackTrace();
+        } finally {
+            if (regionsRead != null) {
+                // Leave the whole of the last frame to be displayed
+                readWholeFrame();
             }
-            if (cancelled || IJ.escapePressed()) {
-                IJ.beep();
-                Prefs.set(MultiAperture_.PREFS_CANCELED, "true");
-                shutDown();
-                Prefs.set(AP_PREFS_SHOWREMOVEDPIXELS, Prefs.get("oldAperture.showRemovedPixels", Prefs.get(AP_PREFS_SHOWREMOVEDPIXELS, showRemovedPixels)));
-                if (win != null) {
-                    win.setVisible(false);
-                    win.dispose();
+            if (virtualStack != null) {
+                var stats = virtualStack.stopPrefetching();
+                if (stats != null && SlicePrefetcher.LOG_STATS.get()) {
+                    AIJLogger.log(stats);
                 }
-                return;
             }
         }
         Prefs.set(AP_PREFS_SHOWREMOVEDPIXELS, Prefs.get("oldAperture.showRemovedPixels", Prefs.get(AP_PREFS_SHOWREMOVEDPIXELS, showRemovedPixels)));
@@ -4683,6 +4752,60 @@ public class MultiAperture_ extends Aperture_ implements MouseListener, MouseMot
         return ArrayUtil.median(a);
     }
 
+    /**
+     * Whether this run can read just the pixels around the apertures, see {@link #regionReads}. Aperture positions
+     * taken from the WCS of each frame may land anywhere, and the display, stack alignment and freeform apertures
+     * need whole frames, as does the radial profile of variable apertures.
+     */
+    private boolean canReadRegions() {
+        return regionReads.get() && !updateImageDisplay.get() && !isInstanceOfStackAlign && !useWCS &&
+                !(useVarSizeAp && useRadialProfile) && apertureShape.get() == ApertureShape.CIRCULAR &&
+                imp.getStack().getClass() == VirtualStack.class;
+    }
+
+    /**
+     * Squares around the current aperture positions reaching {@link #regionReadMargin} pixels past the sky annuli,
+     * or null to read the whole frame.
+     */
+    private ApertureRegions apertureRegions() {
+        if (xPos == null || yPos == null || xPos.length < nApertures || yPos.length < nApertures) {
+            return null;
+        }
+
+        return ApertureRegions.around(xPos, yPos, nApertures, apertureReach() + regionReadMargin.get());
+    }
+
+    private double apertureReach() {
+        return Math.max(radius, rBack2);
+    }
+
+    /**
+     * Reads the whole frame, before centroiding or again after it, when the aperture is not inside the squares read
+     * for this frame, so that nothing is measured from the empty pixels outside them.
+     */
+    @Override
+    protected boolean adjustAperture(boolean updatePhotometry, boolean centroid) {
+        if (regionsRead != null && !regionsRead.covers(xCenter, yCenter, apertureReach())) {
+            readWholeFrame();
+        }
+        var x = xCenter;
+        var y = yCenter;
+        var found = super.adjustAperture(updatePhotometry, centroid);
+        if (regionsRead != null && !regionsRead.covers(xCenter, yCenter, apertureReach())) {
+            readWholeFrame();
+            xCenter = x;
+            yCenter = y;
+            found = super.adjustAperture(updatePhotometry, centroid);
+        }
+        return found;
+    }
+
+    private void readWholeFrame() {
+        imp.getProcessor().setPixels(imp.getStack().getProcessor(slice).getPixels());
+        ip = imp.getProcessor();
+        regionsRead = null;
+    }
+
     /**
      * Perform photometry on each aperture of current image.
      */
@@ -6749,6 +6872,10 @@ public class MultiAperture_ extends Aperture_ implements MouseListener, MouseMot
                     bottomChecks.subComponents().get(1).setToolTipText("This extra panel is useful to new users that need additional keyboard/mouse help when placing apertures.");
                     singleStepListeners.add(bottomChecks.subComponents().get(2));
                     bottomChecks.subComponents().get(2).setEnabled(!singleStep);
+                    d.addCheckbox("Read only the pixels around the apertures", regionReads)
+                            .setToolTipText("<html>Speeds up photometry of large FITS images opened as a virtual stack by reading<br>" +
+                                    "only the pixels near each aperture rather than the whole frame.<br>" +
+                                    "Applies to circular apertures placed by pixel position, with the image display not updated while running.</html>");
                 }
                 case FREEFORM -> {
                     final var list2 = new ArrayList<Consumer<Boolean>>();
@@ -122,6 +122,8 @@ import Astronomy.multiplot.gui.ConstantColSubset;
 import Astronomy.multiplot.macro.title.EditorArea;
 import Astronomy.multiplot.macro.title.PlotNameResolver;
 import Astronomy.multiplot.modelling.FitLightCurveChi2;
+import Astronomy.multiplot.modelling.LevenbergMarquardt;
+import Astronomy.multiplot.settings.FitBackend;
 import Astronomy.multiplot.settings.KeplerSplineSettings;
 import Astronomy.multiplot.settings.MPOperator;
 import Astronomy.multiplot.table.MeasurementsWindow;
@@ -149,6 +151,7 @@ import ij.astro.gui.ToolTipRenderer;
 import ij.astro.gui.nstate.BiState;
 import ij.astro.gui.nstate.NStateButton;
 import ij.astro.gui.nstate.TriState;
+import ij.astro.io.ColumnarTable;
 import ij.astro.io.prefs.Property;
 import ij.astro.io.prefs.PropertyKey;
 import ij.astro.logging.AIJLogger;
@@ -800,6 +803,7 @@ public class MultiPlot_ implements PlugIn, KeyListener {
     static int[] residualColorIndex;
     @PropertyKey(value = "plot.operatorIndex", ignoreAffixes = true)
     static final  Property<MPOperator> operatorBase = new Property<>(MPOperator.NONE, MultiPlot_.class);
+    static final Property<FitBackend> fitBackendBase = new Property<>(FitBackend.SIMPLEX, MultiPlot_.class);
     static String[] cblabels;
     static boolean[] moreOptions;
     static double[] autoScaleFactor;
@@ -3606,27 +3610,39 @@ public class MultiPlot_ implements PlugIn, KeyListener {
                                         } else {
                                             var sortedX = Arrays.stream(x[curve]).limit(nn[curve]).filter(d -> !Double.isNaN(d)).sorted().toArray();
 
-                                            var m = new Minimizer();
-                                            // For maxRestarts >=1, sometimes it deadlocks eg when enabling an all nan param
-                                            // seems to be an issue with the tolerence
-                                            //todo add button to abort?
-                                            m.setMaxRestarts(0);
-                                            m.setMaxIterations(maxFitSteps[curve]);
-                                            m.setMaxError(tolerance[curve]);
-                                            m.setFunction(new FitLightCurveChi2(curve, sortedX[0], sortedX[sortedX.length-1],
-                                                            nFitted == 0 && !useTransitFit[curve],
-                                                            detrendYs[curve], dof[curve], bp[curve], detrendXs[curve],
-                                                            detrendYEs[curve], isFitted[curve], detrendYAverage[curve],
-                                                            priorCenter[curve], detrendIndex[curve], maxFittedVars,
-                                                            detrendVars[curve], index[curve]),
-                                                    start[curve].length);
-                                            var result = m.minimize(start[curve], step[curve]);
-
-                                            nTries[curve] = m.getIterations();
-                                            coeffs[curve] = Arrays.copyOf(m.getParams(), start[curve].length); // more values can be returned
-                                            chi2dof[curve] = m.getFunctionValue();
+                                            var chi2Function = new FitLightCurveChi2(curve, sortedX[0], sortedX[sortedX.length-1],
+                                                    nFitted == 0 && !useTransitFit[curve],
+                                                    detrendYs[curve], dof[curve], bp[curve], detrendXs[curve],
+                                                    detrendYEs[curve], isFitted[curve], detrendYAverage[curve],
+                                                    priorCenter[curve], detrendIndex[curve], maxFittedVars,
+                                                    detrendVars[curve], index[curve]);
+
+                                            if (fitBackendBase.getOrCreateVariant(curve).get() == FitBackend.LEVENBERG_MARQUARDT) {
+                                                var lm = new LevenbergMarquardt(chi2Function::residuals,
+                                                        chi2Function.residualCount(start[curve].length),
+                                                        maxFitSteps[curve], tolerance[curve]);
+                                                converged[curve] = lm.minimize(start[curve], step[curve]);
+
+                                                nTries[curve] = lm.getIterations();
+                                                coeffs[curve] = lm.getParams();
+                                                chi2dof[curve] = lm.getFunctionValue();
+                                            } else {
+                                                var m = new Minimizer();
+                                                // For maxRestarts >=1, sometimes it deadlocks eg when enabling an all nan param
+                                                // seems to be an issue with the tolerence
+                                                //todo add button to abort?
+                                                m.setMaxRestarts(0);
+                                                m.setMaxIterations(maxFitSteps[curve]);
+                                                m.setMaxError(tolerance[curve]);
+                                                m.setFunction(chi2Function, start[curve].length);
+                                                var result = m.minimize(start[curve], step[curve]);
+
+                                                nTries[curve] = m.getIterations();
+                                                coeffs[curve] = Arrays.copyOf(m.getParams(), start[curve].length); // more values can be returned
+                                                chi2dof[curve] = m.getFunctionValue();
+                                                converged[curve] = result == Minimizer.SUCCESS;
+                                            }
                                             chi2[curve] = chi2dof[curve] * dof[curve];
-                                            converged[curve] = result == Minimizer.SUCCESS;
                                         }
 
                                         fp = 0;
@@ -14697,6 +14713,25 @@ public class MultiPlot_ implements PlugIn, KeyListener {
         SpringUtil.makeCompactGrid(fitControlPanel, 1, fitControlPanel.getComponentCount(), 2, 2, 4, 2);
         controlPanel.add(fitControlPanel);
 
+        JPanel fitBackendPanel = new JPanel(new SpringLayout());
+        fitBackendPanel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(subBorderColor, 1), "Fitter", TitledBorder.CENTER, TitledBorder.TOP, p11, Color.darkGray));
+
+        var fitBackendBox = new JComboBox<>(FitBackend.values());
+        fitBackendBox.setFont(p11);
+        fitBackendBox.setSelectedItem(fitBackendBase.getOrCreateVariant(c).get());
+        fitBackendBox.setToolTipText("<html>The minimizer for the fit.<br>" +
+                "Simplex is the Nelder-Mead minimizer and is the default.<br>" +
+                "Levenberg-Marquardt is a damped least squares fit that usually needs far fewer steps,<br>" +
+                "the steps allowed and taken count its iterations.</html>");
+        fitBackendBox.addActionListener(ae -> {
+            fitBackendBase.getOrCreateVariant(c).set((FitBackend) fitBackendBox.getSelectedItem());
+            if (autoUpdateFit[c]) updatePlot(updateOneFit(c));
+        });
+        fitBackendPanel.add(fitBackendBox);
+
+        SpringUtil.makeCompactGrid(fitBackendPanel, 1, fitBackendPanel.getComponentCount(), 2, 2, 4, 2);
+        controlPanel.add(fitBackendPanel);
+
         JPanel minimizationTolerancePanel = new JPanel(new SpringLayout());
         minimizationTolerancePanel.setBorder(BorderFactory.createTitledBorder(BorderFactory.createLineBorder(subBorderColor, 1), "Fit Tolerance", TitledBorder.CENTER, TitledBorder.TOP, p11, Color.darkGray));
 
@@ -16851,7 +16886,7 @@ public class MultiPlot_ implements PlugIn, KeyListener {
                 IJ.beep();
                 IJ.showMessage("DragAndDrop: Error reading RA/Dec file");
             }
-        } else if (files.length > 0 && files[0].isFile() && (files[0].getName().endsWith(Prefs.get("options.ext", ".xls")) || files[0].getName().endsWith(".txt") || files[0].getName().endsWith(".csv") || files[0].getName().endsWith(".prn") || files[0].getName().endsWith(".spc") || files[0].getName().endsWith(".xls") || files[0].getName().endsWith(".dat") || files[0].getName().endsWith(".tbl"))) {
+        } else if (files.length > 0 && files[0].isFile() && (files[0].getName().endsWith(Prefs.get("options.ext", ".xls")) || files[0].getName().endsWith(".txt") || files[0].getName().endsWith(".csv") || files[0].getName().endsWith(".prn") || files[0].getName().endsWith(".spc") || files[0].getName().endsWith(".xls") || files[0].getName().endsWith(".dat") || files[0].getName().endsWith(".tbl") || files[0].getName().endsWith(ColumnarTable.EXTENSION))) {
 
             Thread t = new Thread(() -> {
                 IJ.wait(100);
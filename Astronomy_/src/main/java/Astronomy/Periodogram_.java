@@ -432,139 +432,47 @@ public class Periodogram_ implements PlugIn {
                             }
                             IJ.showProgress(1.0);
                         } else {
-                            // CPU path
-                            int nThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 2);
-                            ExecutorService executor = Executors.newFixedThreadPool(nThreads);
-                            List<Future<double[]>> futures = new ArrayList<>();
-                            for (int i = 0; i < nPeriods; i++) {
-                                final int periodIdx = i;
-                                futures.add(executor.submit(() -> {
-                                    double period = periods[periodIdx];
-                                    final int nBins = nBinsUser;
-                                    final double invPeriod = 1.0 / period;
-
-                                    // Stage 1: phase-fold all points into nBins uniform bins.
-                                    // Each point is visited exactly once — O(nPoints).
-                                    double[] binFluxSum = new double[nBins];
-                                    int[]    binN       = new int[nBins];
-                                    for (int j = 0; j < t.length; j++) {
-                                        double ph = t[j] * invPeriod;
-                                        ph -= Math.floor(ph);          // fractional phase in [0, 1)
-                                        int bin = (int)(ph * nBins);
-                                        if (bin >= nBins) bin = nBins - 1;
-                                        binFluxSum[bin] += f[j];
-                                        binN[bin]++;
-                                    }
-
-                                    // Stage 2: sliding-window BLS on the binned data — O(nDurations × nBins).
-                                    // The data-point loop is gone; in/out sums update with 4 array ops per step.
-                                    double maxThisPower = 0, bestThisDuration = 0, bestThisDepth = 0, bestThisPhase = 0;
-                                    int nDurM1 = Math.max(1, nDurations - 1);
-                                    double fracRange = maxFracDur - minFracDur;
-
-                                    for (int d = 0; d < nDurations; d++) {
-                                        double fracDur  = minFracDur + (double) d * fracRange / nDurM1;
-                                        int    durBins  = Math.max(1, (int)(fracDur * nBins + 0.5));
-                                        if (durBins >= nBins) durBins = nBins - 1;
-                                        double duration = fracDur * period;
-
-                                        // Build initial window: bins [0, durBins) are "in-transit"
-                                        double sumIn  = 0, sumOut = 0;
-                                        double nIn    = 0, nOut  = 0;
-                                        for (int k = 0; k < durBins; k++) {
-                                            sumIn += binFluxSum[k];
-                                            nIn   += binN[k];
-                                        }
-                                        for (int k = durBins; k < nBins; k++) {
-                                            sumOut += binFluxSum[k];
-                                            nOut   += binN[k];
-                                        }
-
-                                        // Slide the window one bin at a time around the full circle
-                                        for (int p = 0; p < nBins; p++) {
-                                            if (nIn >= 2 && nOut >= 2) {
-                                                double meanIn  = sumIn  / nIn;
-                                                double meanOut = sumOut / nOut;
-                                                double depth   = meanOut - meanIn;
-                                                double thisPower = depth * depth * nIn * nOut / (nIn + nOut);
-                                                if (thisPower > maxThisPower) {
-                                                    maxThisPower     = thisPower;
-                                                    bestThisDuration = duration;
-                                                    bestThisDepth    = depth;
-                                                    // Phase = centre of the transit box
-                                                    bestThisPhase = ((double) p + durBins * 0.5) / nBins * period;
-                                                }
-                                            }
-                                            // Slide: bin p leaves, bin (p + durBins) % nBins enters
-                                            int addBin = p + durBins;
-                                            if (addBin >= nBins) addBin -= nBins;
-                                            sumIn  -= binFluxSum[p];       nIn  -= binN[p];
-                                            sumIn  += binFluxSum[addBin];  nIn  += binN[addBin];
-                                            sumOut += binFluxSum[p];       nOut += binN[p];
-                                            sumOut -= binFluxSum[addBin];  nOut -= binN[addBin];
-                                        }
-                                    }
-                                    return new double[]{maxThisPower, bestThisDuration, bestThisDepth, bestThisPhase};
-                                }));
-                            }
+                            // CPU path: the same phase-binned kernel as the GPU, over the fork-join pool
                             int progressStep = Math.max(1, nPeriods / 100);
                             int barLength = 50;
                             long startTime = System.currentTimeMillis();
+                            AtomicInteger lastReported = new AtomicInteger();
+                            final int planetNumber = planet + 1;
                             System.out.print("BLS Progress: [");
-                            for (int i = 0; i < nPeriods; i++) {
-                                if (blsCancelled.get()) {
-                                    executor.shutdownNow();
-                                    try {
-                                        executor.awaitTermination(1, TimeUnit.SECONDS);
-                                    } catch (InterruptedException e) {
-                                        // Ignore interruption
-                                    }
-                                    break;
-                                }
-                                try {
-                                    double[] result = futures.get(i).get();
-                                    power[i] = result[0];
-                                    bestDurations[i] = result[1];
-                                    bestDepths[i] = result[2];
-                                    bestPhases[i] = result[3];
-                                    if (result[0] > bestPower) {
-                                        bestPower    = result[0];
-                                        bestPeriod   = periods[i];
-                                        bestDuration = result[1];
-                                        bestDepth    = result[2];
-                                        bestPhase    = result[3];
-                                    }
-                                    if ((i + 1) % progressStep == 0 || i == nPeriods - 1) {
-                                        int percent = (int) Math.round(100.0 * (i + 1) / nPeriods);
-                                        int nStars = (int) Math.round(barLength * (i + 1) / (double) nPeriods);
+                            BLSGpu.BLSResult blsCpuResult = BLSCpu.search(t, f, periods, nDurations,
+                                    minFracDur, maxFracDur, nBinsUser, done -> {
+                                        int previous = lastReported.get();
+                                        if ((done - previous < progressStep && done != nPeriods)
+                                                || !lastReported.compareAndSet(previous, done)) {
+                                            return;
+                                        }
+                                        int percent = (int) Math.round(100.0 * done / nPeriods);
+                                        int nStars = (int) Math.round(barLength * done / (double) nPeriods);
                                         StringBuilder bar = new StringBuilder();
                                         bar.append("BLS Progress: [");
                                         for (int s = 0; s < nStars; s++) bar.append("*");
                                         for (int s = nStars; s < barLength; s++) bar.append(" ");
                                         long elapsed = System.currentTimeMillis() - startTime;
-                                        double fractionDone = (i + 1) / (double) nPeriods;
+                                        double fractionDone = done / (double) nPeriods;
                                         long estTotal = (long) (elapsed / (fractionDone > 0 ? fractionDone : 1e-6));
                                         long estRemaining = estTotal - elapsed;
                                         String timeStr = String.format(" | ETA: %ds", estRemaining / 1000);
                                         bar.append("] ").append(percent).append("%").append(timeStr);
                                         System.out.print("\r" + bar.toString());
-                                        IJ.showProgress((i + 1) / (double) nPeriods);
-                                        int totalLines = progressWin.getTextPanel().getLineCount();
-                                        progressWin.getTextPanel().setLine(progressLine, String.format("Planet %d: %s", planet + 1, bar.toString()));
-                                    }
-                                } catch (Exception e) {
-                                    power[i] = Double.NaN;
-                                    bestDurations[i] = Double.NaN;
-                                    bestDepths[i] = Double.NaN;
-                                    bestPhases[i] = Double.NaN;
-                                }
-                            }
-                            if (!executor.isShutdown()) {
-                                executor.shutdown();
-                                try {
-                                    executor.awaitTermination(5, TimeUnit.SECONDS);
-                                } catch (InterruptedException e) {
-                                    executor.shutdownNow();
+                                        IJ.showProgress(fractionDone);
+                                        progressWin.getTextPanel().setLine(progressLine, String.format("Planet %d: %s", planetNumber, bar.toString()));
+                                    }, blsCancelled::get);
+                            System.arraycopy(blsCpuResult.power,         0, power,         0, nPeriods);
+                            System.arraycopy(blsCpuResult.bestDurations, 0, bestDurations, 0, nPeriods);
+                            System.arraycopy(blsCpuResult.bestDepths,    0, bestDepths,    0, nPeriods);
+                            System.arraycopy(blsCpuResult.bestPhases,    0, bestPhases,    0, nPeriods);
+                            for (int i = 0; i < nPeriods; i++) {
+                                if (power[i] > bestPower) {
+                                    bestPower    = power[i];
+                                    bestPeriod   = periods[i];
+                                    bestDuration = bestDurations[i];
+                                    bestDepth    = bestDepths[i];
+                                    bestPhase    = bestPhases[i];
                                 }
                             }
                             IJ.showProgress(1.0);
@@ -2449,7 +2357,7 @@ public class Periodogram_ implements PlugIn {
      *   <li>{@code min == max}  \u2192 {@code [min]} * steps   (still fine, just redundant)</li>
      * </ul>
      */
-    static double[] buildLinearGrid(double min, double max, int steps) {
+    public static double[] buildLinearGrid(double min, double max, int steps) {
         if (steps <= 1) return new double[]{min};
         double[] g = new double[steps];
         double span = max - min;
@@ -1,5 +1,6 @@
 package Astronomy;// Set_Aperture.java
 
+import Astronomy.photometer.BackgroundEstimator;
 import astroj.Photometer;
 import ij.IJ;
 import ij.Prefs;
@@ -7,6 +8,7 @@ import ij.gui.GenericDialog;
 import ij.plugin.PlugIn;
 
 import java.awt.*;
+import java.util.Arrays;
 
 /**
  * Setup plug-in for Aperture_ which sets the following characteristics:
@@ -218,6 +220,8 @@ public class Set_Aperture implements PlugIn
                                   new boolean[]{reposition,useHowellCentroidMethod,backPlane,removeBackStars,showRemovedPixels});
         gd.addCheckbox ("Use exact partial pixel accounting in source apertures (if deselected, only pixels having centers inside the aperture radius are counted)", exact);
         gd.addCheckbox("Use multiple threads for photometry", Photometer.USE_PARALLEL_PIXEL_PROCESS.get());
+        gd.addChoice("Background level (when not fitted to a plane)", Arrays.stream(BackgroundEstimator.Statistic.values()).map(String::valueOf).toArray(String[]::new),
+                Photometer.BACKGROUND_STATISTIC.get().toString());
         gd.addCheckbox ("Prompt to enter ref star absolute mag (required if target star absolute mag is desired)", getMags);
         gd.addCheckbox ("List the following FITS keyword decimal values in measurements table:", showFits);
 		gd.addStringField ("Keywords (comma separated):",fitsKeywords,80);
@@ -275,6 +279,7 @@ public class Set_Aperture implements PlugIn
         showRemovedPixels = gd.getNextBoolean();
         exact = gd.getNextBoolean();
         Photometer.USE_PARALLEL_PIXEL_PROCESS.set(gd.getNextBoolean());
+        Photometer.BACKGROUND_STATISTIC.set(BackgroundEstimator.Statistic.values()[gd.getNextChoiceIndex()]);
         getMags = gd.getNextBoolean();
         if (oldGetMags != getMags)
             apertureChanged = true;        
@@ -101,6 +101,11 @@ public class TLS {
         final double tRef = time[0];
         final int nData = time.length;
 
+        // Templates depend on shape and fractional duration only, so one bank serves every period and thread.
+        final TLSTemplateBank bank = TLSTemplateBank.get(u1GridF, u2GridF, ingressGridF,
+                minDuration, maxDuration, nDurations, nBins);
+        final long templatesPerPeriod = (long) u1GridF.length * u2GridF.length * ingressGridF.length * nDurations;
+
         int nThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 2);
         ExecutorService executor = Executors.newFixedThreadPool(nThreads);
         AtomicInteger progress = new AtomicInteger(0);
@@ -149,9 +154,6 @@ public class TLS {
                         totalN       += binN[b];
                     }
 
-                    // Reusable model-profile buffer sized for the worst-case halfWin.
-                    double[] modelProfile = new double[nBins / 2 + 1];
-
                     double bestSNR         = 0.0;
                     double bestDuration    = 0.0;
                     double bestDepth       = 0.0;
@@ -164,6 +166,7 @@ public class TLS {
                     // only pay the O(nPoints) fold once per period; the inner
                     // (durations × phases) cost still dominates and is
                     // multiplied by totalCells.
+                    int cell = 0;
                     for (double u1v : u1GridF) {
                         for (double u2v : u2GridF) {
                             for (double ingressFrac : ingressGridF) {
@@ -193,38 +196,20 @@ public class TLS {
                                     }
                                     double fracDuration = minDuration + di * (maxDuration - minDuration) / Math.max(1, nDurations - 1);
                                     double duration = fracDuration * period;
-                                    double t14 = duration;
-                                    double t12 = t14 * ingressFrac;
-
-                                    int halfWin = (int) Math.round(0.5 * fracDuration * nBins);
-                                    if (halfWin < 0) halfWin = 0;
-                                    int maxHalfWin = (nBins - 1) / 2;
-                                    if (halfWin > maxHalfWin) halfWin = maxHalfWin;
 
-                                    // Precompute m(k) for bin offsets 0..halfWin.
                                     // m(k) = MandelAgol flux deficit at phase distance (k/nBins)*period
-                                    // under the linear-ingress/quadratic-LD-plateau approximation.
-                                    for (int k = 0; k <= halfWin; k++) {
-                                        double absPhaseTime = ((double) k / nBins) * period;
-                                        double m;
-                                        if (absPhaseTime > 0.5 * t14) {
-                                            m = 1.0;
-                                        } else if (absPhaseTime < 0.5 * t14 - t12) {
-                                            m = 1.0 - (1.0 - u1v / 3.0 - u2v / 6.0);
-                                        } else {
-                                            double x = (absPhaseTime - (0.5 * t14 - t12)) / t12;
-                                            double limb = 1.0 - u1v * (1.0 - x) - u2v * (1.0 - x) * (1.0 - x);
-                                            m = 1.0 - limb;
-                                        }
-                                        modelProfile[k] = m;
-                                    }
+                                    // under the linear-ingress/quadratic-LD-plateau approximation,
+                                    // from the shared bank.
+                                    int halfWin = bank.halfWin(di);
+                                    double[] modelProfile   = bank.profile(cell, di);
+                                    double[] modelProfileSq = bank.profileSquared(cell, di);
 
                                     for (int ph = 0; ph < nBins; ph++) {
                                         double inTransitFluxSum = binFluxSum[ph];
                                         int    nIn              = binN[ph];
                                         double m0               = modelProfile[0];
                                         double sumFM_in         = m0 * binFluxSum[ph];
-                                        double sumM2_in         = (m0 * m0) * binN[ph];
+                                        double sumM2_in         = modelProfileSq[0] * binN[ph];
 
                                         for (int k = 1; k <= halfWin; k++) {
                                             int b1 = ph + k; if (b1 >= nBins) b1 -= nBins;
@@ -235,7 +220,7 @@ public class TLS {
                                             inTransitFluxSum += f12;
                                             nIn              += n12;
                                             sumFM_in         += m * f12;
-                                            sumM2_in         += (m * m) * n12;
+                                            sumM2_in         += modelProfileSq[k] * n12;
                                         }
 
                                         double signal = inTransitFluxSum - nIn;
@@ -260,9 +245,11 @@ public class TLS {
                                         }
                                     }
                                 }
+                                cell++;
                             }
                         }
                     }
+                    bank.recordUses(templatesPerPeriod);
 
                     sde[periodIdx]            = bestSNR;
                     bestDurations[periodIdx]  = bestDuration;
@@ -325,6 +312,7 @@ public class TLS {
             executor.shutdown();
         }
         IJ.showProgress(1.0);
+        if (IJ.debugMode) IJ.log("[TLS CPU] Template bank: " + TLSTemplateBank.stats());
         // Find the index of the highest peak (needed for SDE normalization)
         int bestPeriodIdx = 0;
         for (int i = 1; i < nPeriods; i++) {
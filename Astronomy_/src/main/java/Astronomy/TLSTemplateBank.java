@@ -0,0 +1,176 @@
+package Astronomy;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Transit template profiles for the TLS blind search, built once per shape grid
+ * and shared by every period and worker thread.
+ *
+ * <p>The template of {@link TLS#search} at bin offset {@code k} compares the
+ * phase distance {@code (k / nBins) * period} with the duration
+ * {@code fracDuration * period} and ingress {@code ingressFrac * duration}.
+ * The period cancels out of every comparison and of the ingress fraction
+ * {@code x}, so a template only depends on (u1, u2, ingressFrac,
+ * fracDuration, nBins) and the bank is keyed by those grids alone.  The
+ * squared profile is stored alongside, since the SNR needs both.
+ *
+ * <p>The last few banks are kept for the life of the JVM, so repeated searches
+ * with the same grids — multi-planet iterations, batch runs over many light
+ * curves — skip even the one-off build.  {@link #stats()} reports how often a
+ * template was reused rather than built.
+ */
+public final class TLSTemplateBank {
+
+    private static final int MAX_BANKS = 4;
+    private static final Map<Key, TLSTemplateBank> BANKS = new LinkedHashMap<>(MAX_BANKS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, TLSTemplateBank> eldest) {
+            return size() > MAX_BANKS;
+        }
+    };
+    private static final LongAdder TEMPLATES_BUILT = new LongAdder();
+    private static final LongAdder TEMPLATES_USED  = new LongAdder();
+
+    private final int nDurations;
+    /** [cell][duration] → m(k) for k = 0..halfWin, cells ordered u1, u2, ingress as in the search loops. */
+    private final double[][][] profiles;
+    private final double[][][] profilesSquared;
+    private final int[] halfWins;
+
+    private TLSTemplateBank(Key key) {
+        int nBins = key.nBins;
+        nDurations = key.nDurations;
+        int nCells = key.u1Grid.length * key.u2Grid.length * key.ingressGrid.length;
+        profiles        = new double[nCells][nDurations][];
+        profilesSquared = new double[nCells][nDurations][];
+        halfWins        = new int[nDurations];
+
+        double[] fracDurations = new double[nDurations];
+        for (int di = 0; di < nDurations; di++) {
+            fracDurations[di] = key.minDuration + di * (key.maxDuration - key.minDuration) / Math.max(1, nDurations - 1);
+            int halfWin = (int) Math.round(0.5 * fracDurations[di] * nBins);
+            if (halfWin < 0) halfWin = 0;
+            int maxHalfWin = (nBins - 1) / 2;
+            if (halfWin > maxHalfWin) halfWin = maxHalfWin;
+            halfWins[di] = halfWin;
+        }
+
+        int cell = 0;
+        for (double u1v : key.u1Grid) {
+            for (double u2v : key.u2Grid) {
+                for (double ingressFrac : key.ingressGrid) {
+                    for (int di = 0; di < nDurations; di++) {
+                        // Durations and phase distances as fractions of the period
+                        double t14 = fracDurations[di];
+                        double t12 = t14 * ingressFrac;
+                        double[] m  = new double[halfWins[di] + 1];
+                        double[] m2 = new double[m.length];
+                        for (int k = 0; k < m.length; k++) {
+                            double absPhase = (double) k / nBins;
+                            if (absPhase > 0.5 * t14) {
+                                m[k] = 1.0;
+                            } else if (absPhase < 0.5 * t14 - t12) {
+                                m[k] = 1.0 - (1.0 - u1v / 3.0 - u2v / 6.0);
+                            } else {
+                                double x = (absPhase - (0.5 * t14 - t12)) / t12;
+                                double limb = 1.0 - u1v * (1.0 - x) - u2v * (1.0 - x) * (1.0 - x);
+                                m[k] = 1.0 - limb;
+                            }
+                            m2[k] = m[k] * m[k];
+                        }
+                        profiles[cell][di]        = m;
+                        profilesSquared[cell][di] = m2;
+                    }
+                    cell++;
+                }
+            }
+        }
+        TEMPLATES_BUILT.add((long) nCells * nDurations);
+    }
+
+    /**
+     * The bank for these grids, built on first use.
+     *
+     * @param minDuration Minimum fractional duration (0–1 of period)
+     * @param maxDuration Maximum fractional duration
+     * @param nBins       Phase bin count
+     */
+    public static TLSTemplateBank get(double[] u1Grid, double[] u2Grid, double[] ingressGrid,
+                                      double minDuration, double maxDuration, int nDurations, int nBins) {
+        var key = new Key(u1Grid.clone(), u2Grid.clone(), ingressGrid.clone(),
+                minDuration, maxDuration, nDurations, nBins);
+        synchronized (BANKS) {
+            return BANKS.computeIfAbsent(key, TLSTemplateBank::new);
+        }
+    }
+
+    /** m(k) of grid cell {@code cell} at duration index {@code di}, for k = 0..{@link #halfWin(int)}. */
+    public double[] profile(int cell, int di) {
+        return profiles[cell][di];
+    }
+
+    /** m(k)² of grid cell {@code cell} at duration index {@code di}. */
+    public double[] profileSquared(int cell, int di) {
+        return profilesSquared[cell][di];
+    }
+
+    /** Half width of the transit window in bins at duration index {@code di}. */
+    public int halfWin(int di) {
+        return halfWins[di];
+    }
+
+    /**
+     * Counts {@code count} template lookups, done in bulk by the search once
+     * per period so the hot loop stays free of shared counters.
+     */
+    public void recordUses(long count) {
+        TEMPLATES_USED.add(count);
+    }
+
+    public static Stats stats() {
+        return new Stats(TEMPLATES_BUILT.sum(), TEMPLATES_USED.sum());
+    }
+
+    /**
+     * @param built templates computed since start up
+     * @param used  templates looked up by searches since start up
+     */
+    public record Stats(long built, long used) {
+        /** Fraction of lookups served by a template built earlier. */
+        public double hitRate() {
+            return used > 0 ? Math.max(0, 1.0 - (double) built / used) : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d templates built, %d used, hit rate %.2f%%", built, used, 100 * hitRate());
+        }
+    }
+
+    private record Key(double[] u1Grid, double[] u2Grid, double[] ingressGrid,
+                       double minDuration, double maxDuration, int nDurations, int nBins) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key k
+                    && Arrays.equals(u1Grid, k.u1Grid) && Arrays.equals(u2Grid, k.u2Grid)
+                    && Arrays.equals(ingressGrid, k.ingressGrid)
+                    && Double.compare(minDuration, k.minDuration) == 0
+                    && Double.compare(maxDuration, k.maxDuration) == 0
+                    && nDurations == k.nDurations && nBins == k.nBins;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = Arrays.hashCode(u1Grid);
+            h = 31 * h + Arrays.hashCode(u2Grid);
+            h = 31 * h + Arrays.hashCode(ingressGrid);
+            h = 31 * h + Double.hashCode(minDuration);
+            h = 31 * h + Double.hashCode(maxDuration);
+            h = 31 * h + nDurations;
+            return 31 * h + nBins;
+        }
+    }
+}
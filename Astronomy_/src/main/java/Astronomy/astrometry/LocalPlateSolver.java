@@ -0,0 +1,638 @@
+package Astronomy.astrometry;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import Jama.Matrix;
+import astroj.FitsJ;
+import ij.astro.io.prefs.Property;
+
+/**
+ * Solves images against a {@link QuadIndex} without a network connection.
+ * <p>
+ * Quads are formed from the brightest detected stars as the index forms them from the catalog, in both parities,
+ * and looked up by code. Each match gives a similarity transform from the image to the sky, which is kept if the
+ * brightest catalog stars in the field it implies land on enough detected stars. The transform is then refined by
+ * least squares over all matched stars to a TAN, or TAN-SIP, solution centered on the image.
+ * <p>
+ * With a position hint only quads whose field center falls within the hint radius are verified, and with a scale
+ * range only those whose scale is in it, so hinted solves skip most of the work.
+ */
+public final class LocalPlateSolver {
+    public static final Property<Boolean> ENABLED = new Property<>(false, LocalPlateSolver.class);
+    public static final Property<String> INDEX_PATH = new Property<>("", LocalPlateSolver.class);
+
+    private static final int IMAGE_STARS = 20;
+    private static final int INNER_STARS = 4;
+    private static final int MIN_MATCHES = 8;
+    private static final double MATCH_RADIUS = 5;
+    private static final double REFINED_MATCH_RADIUS = 3;
+    private static final int REFINE_ITERATIONS = 4;
+    private static final long TIME_LIMIT_MILLIS = 120_000;
+    private static final double ARCSEC = Math.PI / 180 / 3600;
+
+    private static QuadIndex cached;
+    private static Path cachedPath;
+    private static FileTime cachedTime;
+
+    private LocalPlateSolver() {
+    }
+
+    /**
+     * The index at {@link #INDEX_PATH}, read once and kept until the file changes.
+     */
+    public static synchronized QuadIndex loadIndex() throws IOException {
+        var path = Path.of(INDEX_PATH.get().strip());
+        if (!Files.isRegularFile(path)) {
+            throw new IOException("Plate solve index not found: " + path);
+        }
+        var time = Files.getLastModifiedTime(path);
+        if (cached == null || !path.equals(cachedPath) || !time.equals(cachedTime)) {
+            cached = QuadIndex.read(path);
+            cachedPath = path;
+            cachedTime = time;
+        }
+        return cached;
+    }
+
+    /**
+     * @param x        star x positions in FITS pixels, brightest first
+     * @param y        star y positions in FITS pixels
+     * @param minScale the smallest plate scale, arcsec per pixel, 0 if unknown
+     * @param maxScale the largest plate scale, arcsec per pixel, infinite if unknown
+     * @param hint     the approximate field center, or null if unknown
+     * @param sipOrder the SIP distortion order to fit, below 2 for none
+     * @return the solution, or null if none was found
+     */
+    public static Solution solve(QuadIndex index, double[] x, double[] y, int width, int height, double minScale,
+                                 double maxScale, Hint hint, int sipOrder) {
+        var n = Math.min(IMAGE_STARS, x.length);
+        if (x.length < MIN_MATCHES || n < 4) {
+            return null;
+        }
+        var deadline = System.currentTimeMillis() + TIME_LIMIT_MILLIS;
+        var sMin = Math.max(0, minScale) * ARCSEC;
+        var sMax = Math.max(sMin, maxScale) * ARCSEC;
+        var crpix1 = (width + 1) / 2D;
+        var crpix2 = (height + 1) / 2D;
+
+        var px = new double[4];
+        var py = new double[4];
+        var abcd = new int[4];
+        var code = new double[4];
+        var w = new double[2];
+        var sky = new double[2];
+        var hits = new ArrayList<Integer>();
+
+        // Pairs in order of their fainter star, so the brightest quads are tried first
+        for (int j = 1; j < n; j++) {
+            for (int i = 0; i < j; i++) {
+                var size = Math.hypot(x[j] - x[i], y[j] - y[i]);
+                if (size * sMax < index.minQuad() || size * sMin > index.maxQuad()) {
+                    continue;
+                }
+                if (System.currentTimeMillis() > deadline) {
+                    return null;
+                }
+
+                var midX = (x[i] + x[j]) / 2;
+                var midY = (y[i] + y[j]) / 2;
+                var inner = new int[INNER_STARS];
+                var innerCount = 0;
+                for (int k = 0; k < n && innerCount < INNER_STARS; k++) {
+                    if (k != i && k != j && Math.hypot(x[k] - midX, y[k] - midY) < size / 2) {
+                        inner[innerCount++] = k;
+                    }
+                }
+
+                for (int c = 0; c < innerCount; c++) {
+                    for (int d = c + 1; d < innerCount; d++) {
+                        for (int parity = -1; parity <= 1; parity += 2) {
+                            abcd[0] = i;
+                            abcd[1] = j;
+                            abcd[2] = inner[c];
+                            abcd[3] = inner[d];
+                            for (int k = 0; k < 4; k++) {
+                                px[k] = parity * x[abcd[k]];
+                                py[k] = y[abcd[k]];
+                            }
+                            QuadIndex.code(px, py, abcd, code);
+
+                            hits.clear();
+                            index.search(code, hits::add);
+                            for (int quad : hits) {
+                                var a = index.star(quad, 0);
+                                var b = index.star(quad, 1);
+                                var ia = abcd[0];
+                                var ib = abcd[1];
+
+                                // Image to sky about catalog star A, then recentered on the image
+                                QuadIndex.project(index.ra(a), index.dec(a), index.ra(b), index.dec(b), w);
+                                var dzx = parity * (x[ib] - x[ia]);
+                                var dzy = y[ib] - y[ia];
+                                var dz2 = dzx * dzx + dzy * dzy;
+                                var kr = (w[0] * dzx + w[1] * dzy) / dz2;
+                                var ki = (w[1] * dzx - w[0] * dzy) / dz2;
+                                var scale = Math.hypot(kr, ki);
+                                if (scale < sMin || scale > sMax) {
+                                    continue;
+                                }
+                                var cx = parity * (crpix1 - x[ia]);
+                                var cy = crpix2 - y[ia];
+                                QuadIndex.deproject(index.ra(a), index.dec(a), kr * cx - ki * cy, ki * cx + kr * cy,
+                                        sky);
+                                if (hint != null && QuadIndex.distance(sky[0], sky[1], Math.toRadians(hint.ra()),
+                                        Math.toRadians(hint.dec())) > Math.toRadians(hint.radius())) {
+                                    continue;
+                                }
+
+                                var solution = verify(index, x, y, width, height, parity, sky[0], sky[1],
+                                        index.ra(a), index.dec(a), x[ia], y[ia], index.ra(b), index.dec(b), x[ib],
+                                        y[ib], sipOrder);
+                                if (solution != null) {
+                                    return solution;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Checks the similarity transform through stars A and B centered on {@code (ra0, dec0)} against the catalog, and
+     * refines it if enough stars match.
+     */
+    private static Solution verify(QuadIndex index, double[] x, double[] y, int width, int height, int parity,
+                                   double ra0, double dec0, double raA, double decA, double xA, double yA,
+                                   double raB, double decB, double xB, double yB, int sipOrder) {
+        var crpix1 = (width + 1) / 2D;
+        var crpix2 = (height + 1) / 2D;
+        var wA = new double[2];
+        var wB = new double[2];
+        QuadIndex.project(ra0, dec0, raA, decA, wA);
+        QuadIndex.project(ra0, dec0, raB, decB, wB);
+        var dzx = parity * (xB - xA);
+        var dzy = yB - yA;
+        var dz2 = dzx * dzx + dzy * dzy;
+        var dwx = wB[0] - wA[0];
+        var dwy = wB[1] - wA[1];
+        var kr = (dwx * dzx + dwy * dzy) / dz2;
+        var ki = (dwy * dzx - dwx * dzy) / dz2;
+        var scale = Math.hypot(kr, ki);
+
+        var wcs = new Model(Math.toDegrees(ra0), Math.toDegrees(dec0), crpix1, crpix2, Math.max(width, height) / 2D, new double[][]{
+                {Math.toDegrees(parity * kr), Math.toDegrees(-ki)},
+                {Math.toDegrees(parity * ki), Math.toDegrees(kr)}}, 1);
+        // The constant terms of the polynomial place star A at its image position
+        var residual = new double[2];
+        wcs.toPlane(xA, yA, residual);
+        wcs.xi[0] = Math.toDegrees(wA[0]) - residual[0];
+        wcs.eta[0] = Math.toDegrees(wA[1]) - residual[1];
+
+        var fieldRadius = 0.6 * Math.hypot(width, height) * scale;
+        var field = starsInField(index, ra0, dec0, fieldRadius);
+        var brightest = Arrays.copyOf(field, Math.min(field.length, 2 * x.length));
+        var matches = match(index, wcs, brightest, x, y, width, height, MATCH_RADIUS * Math.toDegrees(scale));
+        if (matches.count() < MIN_MATCHES) {
+            return null;
+        }
+
+        for (int iteration = 0; iteration < REFINE_ITERATIONS; iteration++) {
+            var order = iteration > 0 && sipOrder >= 2 && matches.count() >= 2 * terms(sipOrder) ? sipOrder : 1;
+            var refined = fit(index, wcs, matches, order);
+            if (refined == null) {
+                break;
+            }
+            wcs = refined;
+            matches = match(index, wcs, field, x, y, width, height,
+                    REFINED_MATCH_RADIUS * Math.toDegrees(scale));
+            if (matches.count() < MIN_MATCHES) {
+                return null;
+            }
+        }
+
+        return new Solution(wcs, matches, index);
+    }
+
+    /**
+     * Catalog stars within {@code radius} of the position, brightest first.
+     */
+    private static int[] starsInField(QuadIndex index, double ra0, double dec0, double radius) {
+        var list = new ArrayList<Integer>();
+        index.forEachStarNear(ra0, dec0, radius, list::add);
+        return list.stream().sorted(Comparator.comparingDouble(index::mag)).mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Pairs each catalog star that lands in the image with the nearest unpaired detected star within
+     * {@code radius} degrees, comparing on the tangent plane.
+     */
+    private static Matches match(QuadIndex index, Model wcs, int[] stars, double[] x, double[] y, int width,
+                                 int height, double radius) {
+        var planeX = new double[x.length];
+        var planeY = new double[x.length];
+        var p = new double[2];
+        for (int j = 0; j < x.length; j++) {
+            wcs.toPlane(x[j], y[j], p);
+            planeX[j] = p[0];
+            planeY[j] = p[1];
+        }
+
+        var used = new boolean[x.length];
+        var catalog = new int[Math.min(stars.length, x.length)];
+        var image = new int[catalog.length];
+        var count = 0;
+        var w = new double[2];
+        var margin = MATCH_RADIUS;
+        for (int s : stars) {
+            if (count == catalog.length) {
+                break;
+            }
+            if (!QuadIndex.project(Math.toRadians(wcs.crval1), Math.toRadians(wcs.crval2), index.ra(s), index.dec(s),
+                    w)) {
+                continue;
+            }
+            var xi = Math.toDegrees(w[0]);
+            var eta = Math.toDegrees(w[1]);
+            if (!wcs.inImage(xi, eta, width, height, margin)) {
+                continue;
+            }
+
+            var best = -1;
+            var bestDistance = radius * radius;
+            for (int j = 0; j < x.length; j++) {
+                if (used[j]) {
+                    continue;
+                }
+                var dx = planeX[j] - xi;
+                var dy = planeY[j] - eta;
+                var d = dx * dx + dy * dy;
+                if (d <= bestDistance) {
+                    best = j;
+                    bestDistance = d;
+                }
+            }
+            if (best >= 0) {
+                used[best] = true;
+                catalog[count] = s;
+                image[count++] = best;
+            }
+        }
+
+        return new Matches(Arrays.copyOf(catalog, count), Arrays.copyOf(image, count), x, y);
+    }
+
+    /**
+     * Least squares fit of the tangent plane positions of the matched catalog stars, in degrees, as polynomials in
+     * the normalized pixel offsets of the detected stars. The tangent point is moved to the fitted image center and
+     * the fit repeated, so the constant terms vanish.
+     */
+    private static Model fit(QuadIndex index, Model start, Matches matches, int order) {
+        var terms = terms(order);
+        var count = matches.count();
+        if (count < terms + 2) {
+            return null;
+        }
+        var norm = start.norm;
+        var crval1 = start.crval1;
+        var crval2 = start.crval2;
+        var w = new double[2];
+        var sky = new double[2];
+        double[] xi = null;
+        double[] eta = null;
+
+        for (int pass = 0; pass < 3; pass++) {
+            var design = new Matrix(count, terms);
+            var targetXi = new Matrix(count, 1);
+            var targetEta = new Matrix(count, 1);
+            for (int m = 0; m < count; m++) {
+                var s = matches.catalog()[m];
+                var j = matches.image()[m];
+                QuadIndex.project(Math.toRadians(crval1), Math.toRadians(crval2), index.ra(s), index.dec(s), w);
+                targetXi.set(m, 0, Math.toDegrees(w[0]));
+                targetEta.set(m, 0, Math.toDegrees(w[1]));
+                var u = (matches.x()[j] - start.crpix1) / norm;
+                var v = (matches.y()[j] - start.crpix2) / norm;
+                var t = 0;
+                for (int degree = 0; degree <= order; degree++) {
+                    for (int q = 0; q <= degree; q++) {
+                        design.set(m, t++, Math.pow(u, degree - q) * Math.pow(v, q));
+                    }
+                }
+            }
+
+            try {
+                xi = design.solve(targetXi).getColumnPackedCopy();
+                eta = design.solve(targetEta).getColumnPackedCopy();
+            } catch (RuntimeException e) {
+                // Rank deficient, the matched stars are too few or in a line
+                return null;
+            }
+            QuadIndex.deproject(Math.toRadians(crval1), Math.toRadians(crval2), Math.toRadians(xi[0]),
+                    Math.toRadians(eta[0]), sky);
+            crval1 = Math.toDegrees(sky[0]);
+            crval2 = Math.toDegrees(sky[1]);
+        }
+        xi[0] = 0;
+        eta[0] = 0;
+
+        var cd = new double[][]{{xi[1] / norm, xi[2] / norm}, {eta[1] / norm, eta[2] / norm}};
+        var model = new Model(crval1, crval2, start.crpix1, start.crpix2, norm, cd, order);
+        System.arraycopy(xi, 0, model.xi, 0, terms);
+        System.arraycopy(eta, 0, model.eta, 0, terms);
+        return model;
+    }
+
+    private static int terms(int order) {
+        return (order + 1) * (order + 2) / 2;
+    }
+
+    /**
+     * A position hint.
+     *
+     * @param ra     degrees
+     * @param dec    degrees
+     * @param radius degrees
+     */
+    public record Hint(double ra, double dec, double radius) {}
+
+    private record Matches(int[] catalog, int[] image, double[] x, double[] y) {
+        int count() {
+            return catalog.length;
+        }
+    }
+
+    /**
+     * Tangent plane position, degrees, as polynomials in the pixel offsets from CRPIX divided by {@code norm}, terms
+     * ordered by degree then by power of v.
+     */
+    private static final class Model {
+        private final double crval1;
+        private final double crval2;
+        private final double crpix1;
+        private final double crpix2;
+        private final double norm;
+        private final double[][] cd;
+        private final double[][] cdInverse;
+        private final int order;
+        private final double[] xi;
+        private final double[] eta;
+
+        private Model(double crval1, double crval2, double crpix1, double crpix2, double norm, double[][] cd,
+                      int order) {
+            this.crval1 = crval1;
+            this.crval2 = crval2;
+            this.crpix1 = crpix1;
+            this.crpix2 = crpix2;
+            this.norm = norm;
+            this.cd = cd;
+            this.order = order;
+            var det = cd[0][0] * cd[1][1] - cd[0][1] * cd[1][0];
+            cdInverse = new double[][]{{cd[1][1] / det, -cd[0][1] / det}, {-cd[1][0] / det, cd[0][0] / det}};
+            xi = new double[terms(order)];
+            eta = new double[terms(order)];
+            xi[1] = cd[0][0] * norm;
+            xi[2] = cd[0][1] * norm;
+            eta[1] = cd[1][0] * norm;
+            eta[2] = cd[1][1] * norm;
+        }
+
+        private void toPlane(double x, double y, double[] out) {
+            var u = (x - crpix1) / norm;
+            var v = (y - crpix2) / norm;
+            var sx = 0D;
+            var sy = 0D;
+            var t = 0;
+            for (int degree = 0; degree <= order; degree++) {
+                for (int q = 0; q <= degree; q++) {
+                    var term = Math.pow(u, degree - q) * Math.pow(v, q);
+                    sx += xi[t] * term;
+                    sy += eta[t++] * term;
+                }
+            }
+            out[0] = sx;
+            out[1] = sy;
+        }
+
+        /**
+         * If the tangent plane position is in the image, to within {@code margin} pixels, by the linear terms.
+         */
+        private boolean inImage(double xiDeg, double etaDeg, int width, int height, double margin) {
+            var dx = cdInverse[0][0] * (xiDeg - xi[0]) + cdInverse[0][1] * (etaDeg - eta[0]);
+            var dy = cdInverse[1][0] * (xiDeg - xi[0]) + cdInverse[1][1] * (etaDeg - eta[0]);
+            var px = crpix1 + dx;
+            var py = crpix2 + dy;
+            return px > 0.5 - margin && px < width + 0.5 + margin && py > 0.5 - margin && py < height + 0.5 + margin;
+        }
+
+        /**
+         * SIP coefficients {@code [p][q]} of the forward distortion, pixels, for axis 0 (A) or 1 (B).
+         */
+        private double[][] sip(int axis) {
+            var sip = new double[order + 1][order + 1];
+            var t = 0;
+            for (int degree = 0; degree <= order; degree++) {
+                for (int q = 0; q <= degree; q++, t++) {
+                    if (degree < 2) {
+                        continue;
+                    }
+                    var p = degree - q;
+                    sip[p][q] = (cdInverse[axis][0] * xi[t] + cdInverse[axis][1] * eta[t]) / Math.pow(norm, degree);
+                }
+            }
+            return sip;
+        }
+    }
+
+    /**
+     * A plate solution, with CRPIX at the image center.
+     */
+    public static final class Solution {
+        private final Model model;
+        private final int[] catalogStars;
+        private final double[] x;
+        private final double[] y;
+        private final String[] names;
+        private final double rms;
+
+        private Solution(Model model, Matches matches, QuadIndex index) {
+            this.model = model;
+            var count = matches.count();
+            catalogStars = matches.catalog();
+            x = new double[count];
+            y = new double[count];
+            names = new String[count];
+            var p = new double[2];
+            var w = new double[2];
+            var sum = 0D;
+            for (int m = 0; m < count; m++) {
+                var j = matches.image()[m];
+                var s = catalogStars[m];
+                x[m] = matches.x()[j];
+                y[m] = matches.y()[j];
+                names[m] = index.name(s);
+                model.toPlane(x[m], y[m], p);
+                QuadIndex.project(Math.toRadians(model.crval1), Math.toRadians(model.crval2), index.ra(s),
+                        index.dec(s), w);
+                var dx = p[0] - Math.toDegrees(w[0]);
+                var dy = p[1] - Math.toDegrees(w[1]);
+                sum += dx * dx + dy * dy;
+            }
+            rms = Math.sqrt(sum / count) * 3600;
+        }
+
+        public double crval1() {
+            return model.crval1;
+        }
+
+        public double crval2() {
+            return model.crval2;
+        }
+
+        /**
+         * Plate scale, arcsec per pixel.
+         */
+        public double scale() {
+            var cd = model.cd;
+            return Math.sqrt(Math.abs(cd[0][0] * cd[1][1] - cd[0][1] * cd[1][0])) * 3600;
+        }
+
+        public int matchCount() {
+            return catalogStars.length;
+        }
+
+        /**
+         * RMS distance between the matched stars and their catalog positions, arcsec.
+         */
+        public double rms() {
+            return rms;
+        }
+
+        /**
+         * FITS pixel x of matched star {@code m}.
+         */
+        public double x(int m) {
+            return x[m];
+        }
+
+        public double y(int m) {
+            return y[m];
+        }
+
+        /**
+         * Catalog name of matched star {@code m}, empty if it has none.
+         */
+        public String name(int m) {
+            return names[m];
+        }
+
+        /**
+         * The solution as the WCS cards of an astrometry.net solution.
+         */
+        public FitsJ.Header toHeader(int width, int height) {
+            var sip = model.order >= 2;
+            var hdr = FitsJ.Header.build(new String[]{FitsJ.pad("END", 80)});
+            hdr = FitsJ.setCard("WCSAXES", 2, "no comment", hdr);
+            hdr = FitsJ.setCard("CTYPE1", sip ? "RA---TAN-SIP" : "RA---TAN", "TAN (gnomic) projection", hdr);
+            hdr = FitsJ.setCard("CTYPE2", sip ? "DEC--TAN-SIP" : "DEC--TAN", "TAN (gnomic) projection", hdr);
+            hdr = FitsJ.setCard("CUNIT1", "deg", "X pixel scale units", hdr);
+            hdr = FitsJ.setCard("CUNIT2", "deg", "Y pixel scale units", hdr);
+            hdr = FitsJ.setCard("EQUINOX", 2000.0, "Equatorial coordinates definition (yr)", hdr);
+            hdr = FitsJ.setCard("LONPOLE", 180.0, "no comment", hdr);
+            hdr = FitsJ.setCard("LATPOLE", 0.0, "no comment", hdr);
+            hdr = FitsJ.setCard("CRVAL1", model.crval1, "RA  of reference point", hdr);
+            hdr = FitsJ.setCard("CRVAL2", model.crval2, "DEC of reference point", hdr);
+            hdr = FitsJ.setCard("CRPIX1", model.crpix1, "X reference pixel", hdr);
+            hdr = FitsJ.setCard("CRPIX2", model.crpix2, "Y reference pixel", hdr);
+            hdr = FitsJ.setCard("CD1_1", model.cd[0][0], "Transformation matrix", hdr);
+            hdr = FitsJ.setCard("CD1_2", model.cd[0][1], "no comment", hdr);
+            hdr = FitsJ.setCard("CD2_1", model.cd[1][0], "no comment", hdr);
+            hdr = FitsJ.setCard("CD2_2", model.cd[1][1], "no comment", hdr);
+            hdr = FitsJ.setCard("IMAGEW", width, "Image width,  in pixels.", hdr);
+            hdr = FitsJ.setCard("IMAGEH", height, "Image height, in pixels.", hdr);
+            if (!sip) {
+                return hdr;
+            }
+
+            var order = model.order;
+            var a = model.sip(0);
+            var b = model.sip(1);
+            var inverse = inverse(a, b, width, height);
+            hdr = FitsJ.setCard("A_ORDER", order, "Polynomial order, axis 1", hdr);
+            hdr = FitsJ.setCard("B_ORDER", order, "Polynomial order, axis 2", hdr);
+            hdr = FitsJ.setCard("AP_ORDER", order, "Inv polynomial order, axis 1", hdr);
+            hdr = FitsJ.setCard("BP_ORDER", order, "Inv polynomial order, axis 2", hdr);
+            for (int p = 0; p <= order; p++) {
+                for (int q = 0; p + q <= order; q++) {
+                    if (p + q >= 2) {
+                        hdr = FitsJ.setCard("A_" + p + "_" + q, a[p][q], "", hdr);
+                        hdr = FitsJ.setCard("B_" + p + "_" + q, b[p][q], "", hdr);
+                    }
+                    hdr = FitsJ.setCard("AP_" + p + "_" + q, inverse[0][p][q], "", hdr);
+                    hdr = FitsJ.setCard("BP_" + p + "_" + q, inverse[1][p][q], "", hdr);
+                }
+            }
+            return hdr;
+        }
+
+        /**
+         * Fits the inverse SIP polynomials AP and BP on a grid over the image.
+         */
+        private double[][][] inverse(double[][] a, double[][] b, int width, int height) {
+            var order = model.order;
+            var norm = model.norm;
+            var terms = terms(order);
+            var side = 20;
+            var design = new Matrix(side * side, terms);
+            var targetU = new Matrix(side * side, 1);
+            var targetV = new Matrix(side * side, 1);
+            var row = 0;
+            for (int gy = 0; gy < side; gy++) {
+                for (int gx = 0; gx < side; gx++, row++) {
+                    var u = 0.5 + width * gx / (side - 1D) - model.crpix1;
+                    var v = 0.5 + height * gy / (side - 1D) - model.crpix2;
+                    var f = 0D;
+                    var g = 0D;
+                    for (int p = 0; p <= order; p++) {
+                        for (int q = 0; p + q <= order; q++) {
+                            var term = Math.pow(u, p) * Math.pow(v, q);
+                            f += a[p][q] * term;
+                            g += b[p][q] * term;
+                        }
+                    }
+                    var uu = u + f;
+                    var vv = v + g;
+                    targetU.set(row, 0, -f);
+                    targetV.set(row, 0, -g);
+                    var t = 0;
+                    for (int p = 0; p <= order; p++) {
+                        for (int q = 0; p + q <= order; q++) {
+                            design.set(row, t++, Math.pow(uu / norm, p) * Math.pow(vv / norm, q));
+                        }
+                    }
+                }
+            }
+
+            var inverse = new double[2][order + 1][order + 1];
+            var ap = design.solve(targetU).getColumnPackedCopy();
+            var bp = design.solve(targetV).getColumnPackedCopy();
+            var t = 0;
+            for (int p = 0; p <= order; p++) {
+                for (int q = 0; p + q <= order; q++, t++) {
+                    inverse[0][p][q] = ap[t] / Math.pow(norm, p + q);
+                    inverse[1][p][q] = bp[t] / Math.pow(norm, p + q);
+                }
+            }
+            return inverse;
+        }
+    }
+}
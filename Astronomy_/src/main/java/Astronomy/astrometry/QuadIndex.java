@@ -0,0 +1,551 @@
+package Astronomy.astrometry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.DoubleConsumer;
+import java.util.function.IntConsumer;
+import java.util.regex.Pattern;
+
+/**
+ * Geometric hash index over a local star catalog, for {@link LocalPlateSolver}.
+ * <p>
+ * For each quad scale, doubling from the smallest to the largest, the catalog is thinned to the brightest few stars
+ * in cells the size of the scale, so the index covers the sky evenly. Each pair of these stars A, B whose separation
+ * is in the scale makes quads with each two C, D of the three brightest stars inside the circle with diameter AB. A quad is coded by the
+ * positions of C and D on the tangent plane in the frame where A is (0, 0) and B is (1, 1). The code does not change
+ * with position, rotation or scale, so the same quad found in an image has the same code. A and B, and C and D,
+ * are ordered so that the code is unique.
+ * <p>
+ * The file is:
+ * <pre>
+ * magic "AIJQIDX\n", version, smallest quad, largest quad (radians), star count, quad count
+ * stars: (ra, dec (radians), magnitude, name)*
+ * quads: (a, b, c, d star indices, code (4 floats))*
+ * </pre>
+ * written by {@link DataOutputStream}.
+ */
+public final class QuadIndex {
+    public static final String EXTENSION = ".qidx";
+    /**
+     * The largest distance between matching codes, also the width of the bins they are looked up by.
+     */
+    static final double CODE_TOLERANCE = 0.012;
+
+    private static final byte[] MAGIC = "AIJQIDX\n".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final int STARS_PER_CELL = 4;
+    private static final int INNER_STARS = 3;
+    private static final Pattern SEPARATOR = Pattern.compile("[\\s,;]+");
+
+    private final double[] ra;
+    private final double[] dec;
+    private final float[] mag;
+    private final String[] names;
+    private final double minQuad;
+    private final double maxQuad;
+    private final int[] quads;
+    private final float[] codes;
+    private final int[] keys;
+    private final int[] order;
+    private final SkyGrid grid;
+
+    private QuadIndex(double[] ra, double[] dec, float[] mag, String[] names, double minQuad, double maxQuad,
+                      int[] quads, float[] codes) {
+        this.ra = ra;
+        this.dec = dec;
+        this.mag = mag;
+        this.names = names;
+        this.minQuad = minQuad;
+        this.maxQuad = maxQuad;
+        this.quads = quads;
+        this.codes = codes;
+
+        var count = codes.length / 4;
+        var sorted = new long[count];
+        for (int q = 0; q < count; q++) {
+            sorted[q] = (long) key(codes[4 * q], codes[4 * q + 1], codes[4 * q + 2], codes[4 * q + 3]) << 32 | q;
+        }
+        Arrays.sort(sorted);
+        keys = new int[count];
+        order = new int[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = (int) (sorted[i] >> 32);
+            order[i] = (int) sorted[i];
+        }
+
+        var ids = new int[ra.length];
+        Arrays.setAll(ids, i -> i);
+        grid = new SkyGrid(ra, dec, ids, (minQuad + maxQuad) / 2);
+    }
+
+    /**
+     * Builds an index from a text catalog with right ascension and declination in degrees and a magnitude on each
+     * line, optionally followed by a name, separated by spaces, tabs or commas. Lines that do not start with three
+     * numbers, such as headings and comments, are skipped.
+     *
+     * @param minQuadArcmin the smallest quad, around a fifth of the smallest field to be solved
+     * @param maxQuadArcmin the largest quad, around the width of the largest field to be solved
+     * @param progress      called with the fraction done
+     */
+    public static QuadIndex build(Path catalog, double minQuadArcmin, double maxQuadArcmin, DoubleConsumer progress)
+            throws IOException {
+        var ras = new ArrayList<Double>();
+        var decs = new ArrayList<Double>();
+        var mags = new ArrayList<Float>();
+        var names = new ArrayList<String>();
+        try (var lines = Files.lines(catalog)) {
+            lines.forEach(line -> {
+                var fields = SEPARATOR.split(line.strip(), 4);
+                if (fields.length < 3) {
+                    return;
+                }
+                try {
+                    var r = Math.toRadians(Double.parseDouble(fields[0]));
+                    var d = Math.toRadians(Double.parseDouble(fields[1]));
+                    var m = Float.parseFloat(fields[2]);
+                    if (!Double.isFinite(r) || !(Math.abs(d) <= Math.PI / 2) || !Float.isFinite(m)) {
+                        return;
+                    }
+                    ras.add(r);
+                    decs.add(d);
+                    mags.add(m);
+                    names.add(fields.length > 3 ? fields[3].strip() : "");
+                } catch (NumberFormatException ignored) {
+                }
+            });
+        }
+        if (ras.isEmpty()) {
+            throw new IOException("No stars found in " + catalog);
+        }
+
+        return build(ras.stream().mapToDouble(Double::doubleValue).toArray(),
+                decs.stream().mapToDouble(Double::doubleValue).toArray(), toFloats(mags), names.toArray(String[]::new),
+                Math.toRadians(minQuadArcmin / 60), Math.toRadians(maxQuadArcmin / 60), progress);
+    }
+
+    static QuadIndex build(double[] ra, double[] dec, float[] mag, String[] names, double minQuad, double maxQuad,
+                           DoubleConsumer progress) {
+        if (!(minQuad > 0) || !(maxQuad > minQuad)) {
+            throw new IllegalArgumentException("The largest quad must be larger than the smallest");
+        }
+
+        var all = new int[ra.length];
+        Arrays.setAll(all, i -> i);
+        var selected = new boolean[ra.length];
+        var quadList = new IntArray();
+        var codeList = new IntArray();
+
+        var scales = (int) Math.ceil(Math.log(maxQuad / minQuad) / Math.log(2) - 1e-9);
+        for (int scale = 0; scale < scales; scale++) {
+            var lo = minQuad * Math.pow(2, scale);
+            var hi = Math.min(2 * lo, maxQuad);
+
+            // The brightest few in each cell
+            var bandList = new IntArray();
+            for (int[] cell : new SkyGrid(ra, dec, all, lo).cells()) {
+                var stars = Arrays.stream(cell).boxed().sorted(Comparator.comparingDouble(i -> mag[i]))
+                        .limit(STARS_PER_CELL).mapToInt(Integer::intValue).toArray();
+                for (int s : stars) {
+                    bandList.add(s);
+                    selected[s] = true;
+                }
+            }
+            var band = bandList.toArray();
+            var bandGrid = new SkyGrid(ra, dec, band, hi);
+
+            var x = new double[4];
+            var y = new double[4];
+            var abcd = new int[4];
+            var code = new double[4];
+            var xy = new double[2];
+            var mid = new double[2];
+            for (int n = 0; n < band.length; n++) {
+                var a = band[n];
+                if (progress != null && n % 1000 == 0) {
+                    progress.accept((scale + (double) n / band.length) / scales);
+                }
+
+                var partners = new IntArray();
+                bandGrid.forEachNear(ra[a], dec[a], hi, b -> {
+                    if (b > a) {
+                        var d = distance(ra[a], dec[a], ra[b], dec[b]);
+                        if (d >= lo && d <= hi) {
+                            partners.add(b);
+                        }
+                    }
+                });
+
+                for (int p = 0; p < partners.size(); p++) {
+                    var b = partners.get(p);
+                    midpoint(ra[a], dec[a], ra[b], dec[b], mid);
+                    var radius = distance(ra[a], dec[a], ra[b], dec[b]) / 2;
+                    var inner = new IntArray();
+                    bandGrid.forEachNear(mid[0], mid[1], radius, s -> {
+                        if (s != a && s != b && distance(mid[0], mid[1], ra[s], dec[s]) < radius) {
+                            inner.add(s);
+                        }
+                    });
+                    var brightest = Arrays.stream(inner.toArray()).boxed()
+                            .sorted(Comparator.comparingDouble(i -> mag[i])).limit(INNER_STARS)
+                            .mapToInt(Integer::intValue).toArray();
+
+                    for (int i = 0; i < brightest.length; i++) {
+                        for (int j = i + 1; j < brightest.length; j++) {
+                            abcd[0] = a;
+                            abcd[1] = b;
+                            abcd[2] = brightest[i];
+                            abcd[3] = brightest[j];
+                            for (int k = 0; k < 4; k++) {
+                                project(mid[0], mid[1], ra[abcd[k]], dec[abcd[k]], xy);
+                                x[k] = xy[0];
+                                y[k] = xy[1];
+                            }
+                            code(x, y, abcd, code);
+                            quadList.add(abcd[0]);
+                            quadList.add(abcd[1]);
+                            quadList.add(abcd[2]);
+                            quadList.add(abcd[3]);
+                            for (double c : code) {
+                                codeList.add(Float.floatToRawIntBits((float) c));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        // Keep only the stars used, renumbered
+        var renumber = new int[ra.length];
+        var count = 0;
+        for (int i = 0; i < ra.length; i++) {
+            renumber[i] = selected[i] ? count++ : -1;
+        }
+        var keptRa = new double[count];
+        var keptDec = new double[count];
+        var keptMag = new float[count];
+        var keptNames = new String[count];
+        for (int i = 0; i < ra.length; i++) {
+            if (selected[i]) {
+                keptRa[renumber[i]] = ra[i];
+                keptDec[renumber[i]] = dec[i];
+                keptMag[renumber[i]] = mag[i];
+                keptNames[renumber[i]] = names[i];
+            }
+        }
+        var quads = quadList.toArray();
+        for (int i = 0; i < quads.length; i++) {
+            quads[i] = renumber[quads[i]];
+        }
+        var codes = new float[codeList.size()];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = Float.intBitsToFloat(codeList.get(i));
+        }
+
+        if (progress != null) {
+            progress.accept(1);
+        }
+        return new QuadIndex(keptRa, keptDec, keptMag, keptNames, minQuad, maxQuad, quads, codes);
+    }
+
+    public static QuadIndex read(Path path) throws IOException {
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (!Arrays.equals(in.readNBytes(MAGIC.length), MAGIC)) {
+                throw new IOException("Not a plate solve index: " + path);
+            }
+            var version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported plate solve index version " + version + ": " + path);
+            }
+            var minQuad = in.readDouble();
+            var maxQuad = in.readDouble();
+            var starCount = in.readInt();
+            var quadCount = in.readInt();
+
+            var ra = new double[starCount];
+            var dec = new double[starCount];
+            var mag = new float[starCount];
+            var names = new String[starCount];
+            for (int i = 0; i < starCount; i++) {
+                ra[i] = in.readDouble();
+                dec[i] = in.readDouble();
+                mag[i] = in.readFloat();
+                names[i] = in.readUTF();
+            }
+
+            var quads = new int[4 * quadCount];
+            var codes = new float[4 * quadCount];
+            for (int q = 0; q < quadCount; q++) {
+                for (int k = 0; k < 4; k++) {
+                    quads[4 * q + k] = in.readInt();
+                }
+                for (int k = 0; k < 4; k++) {
+                    codes[4 * q + k] = in.readFloat();
+                }
+            }
+
+            return new QuadIndex(ra, dec, mag, names, minQuad, maxQuad, quads, codes);
+        }
+    }
+
+    public void write(Path path) throws IOException {
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16))) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeDouble(minQuad);
+            out.writeDouble(maxQuad);
+            out.writeInt(ra.length);
+            out.writeInt(quadCount());
+            for (int i = 0; i < ra.length; i++) {
+                out.writeDouble(ra[i]);
+                out.writeDouble(dec[i]);
+                out.writeFloat(mag[i]);
+                out.writeUTF(names[i]);
+            }
+            for (int q = 0; q < quadCount(); q++) {
+                for (int k = 0; k < 4; k++) {
+                    out.writeInt(quads[4 * q + k]);
+                }
+                for (int k = 0; k < 4; k++) {
+                    out.writeFloat(codes[4 * q + k]);
+                }
+            }
+        }
+    }
+
+    public int starCount() {
+        return ra.length;
+    }
+
+    public int quadCount() {
+        return codes.length / 4;
+    }
+
+    /**
+     * The smallest quad, radians.
+     */
+    public double minQuad() {
+        return minQuad;
+    }
+
+    /**
+     * The largest quad, radians.
+     */
+    public double maxQuad() {
+        return maxQuad;
+    }
+
+    double ra(int star) {
+        return ra[star];
+    }
+
+    double dec(int star) {
+        return dec[star];
+    }
+
+    float mag(int star) {
+        return mag[star];
+    }
+
+    String name(int star) {
+        return names[star];
+    }
+
+    /**
+     * Star {@code k}, 0 to 3 for A to D, of quad {@code quad}.
+     */
+    int star(int quad, int k) {
+        return quads[4 * quad + k];
+    }
+
+    /**
+     * Calls {@code action} with every star within {@code radius} of the position, all in radians.
+     */
+    void forEachStarNear(double ra0, double dec0, double radius, IntConsumer action) {
+        grid.forEachNear(ra0, dec0, radius, s -> {
+            if (distance(ra0, dec0, ra[s], dec[s]) <= radius) {
+                action.accept(s);
+            }
+        });
+    }
+
+    /**
+     * Calls {@code action} with every quad whose code is within {@link #CODE_TOLERANCE} of {@code code}.
+     */
+    void search(double[] code, IntConsumer action) {
+        var bins = new int[4];
+        for (int k = 0; k < 4; k++) {
+            bins[k] = bin(code[k]);
+        }
+        for (int n = 0; n < 81; n++) {
+            var b0 = bins[0] + n % 3 - 1;
+            var b1 = bins[1] + n / 3 % 3 - 1;
+            var b2 = bins[2] + n / 9 % 3 - 1;
+            var b3 = bins[3] + n / 27 - 1;
+            if ((b0 | b1 | b2 | b3) < 0 || Math.max(Math.max(b0, b1), Math.max(b2, b3)) > 255) {
+                continue;
+            }
+            var key = b0 << 24 | b1 << 16 | b2 << 8 | b3;
+            var i = Arrays.binarySearch(keys, key);
+            if (i < 0) {
+                continue;
+            }
+            while (i > 0 && keys[i - 1] == key) {
+                i--;
+            }
+            for (; i < keys.length && keys[i] == key; i++) {
+                var q = order[i];
+                var d = 0D;
+                for (int k = 0; k < 4; k++) {
+                    var c = codes[4 * q + k] - code[k];
+                    d += c * c;
+                }
+                if (d <= CODE_TOLERANCE * CODE_TOLERANCE) {
+                    action.accept(q);
+                }
+            }
+        }
+    }
+
+    /**
+     * Codes the quad with corners {@code (x[k], y[k])}, k = 0 to 3 for A to D, into {@code code}. A and B, and C and
+     * D, are swapped in {@code stars} where needed for the code to be unique.
+     */
+    static void code(double[] x, double[] y, int[] stars, double[] code) {
+        var bx = x[1] - x[0];
+        var by = y[1] - y[0];
+        var scale = bx * bx + by * by;
+        // Multiplying by (1 + i) / (B - A) takes B - A to (1, 1)
+        var mr = (bx + by) / scale;
+        var mi = (bx - by) / scale;
+        for (int k = 2; k < 4; k++) {
+            var dx = x[k] - x[0];
+            var dy = y[k] - y[0];
+            code[2 * k - 4] = dx * mr - dy * mi;
+            code[2 * k - 3] = dx * mi + dy * mr;
+        }
+
+        if (code[0] + code[2] > 1) {
+            for (int k = 0; k < 4; k++) {
+                code[k] = 1 - code[k];
+            }
+            swap(stars, 0, 1);
+        }
+        if (code[0] > code[2]) {
+            var cx = code[0];
+            var cy = code[1];
+            code[0] = code[2];
+            code[1] = code[3];
+            code[2] = cx;
+            code[3] = cy;
+            swap(stars, 2, 3);
+        }
+    }
+
+    /**
+     * Gnomonic projection of {@code (ra, dec)} onto the plane tangent at {@code (ra0, dec0)}, as (xi, eta) with xi
+     * to the east, all in radians.
+     *
+     * @return false if the point is not on the near hemisphere
+     */
+    static boolean project(double ra0, double dec0, double ra, double dec, double[] out) {
+        var cosDec = Math.cos(dec);
+        var sinDec = Math.sin(dec);
+        var cosDec0 = Math.cos(dec0);
+        var sinDec0 = Math.sin(dec0);
+        var cosDRa = Math.cos(ra - ra0);
+        var cosC = sinDec0 * sinDec + cosDec0 * cosDec * cosDRa;
+        out[0] = cosDec * Math.sin(ra - ra0) / cosC;
+        out[1] = (cosDec0 * sinDec - sinDec0 * cosDec * cosDRa) / cosC;
+        return cosC > 0;
+    }
+
+    /**
+     * The inverse of {@link #project}, into {@code out} as (ra, dec) in radians.
+     */
+    static void deproject(double ra0, double dec0, double xi, double eta, double[] out) {
+        var cosDec0 = Math.cos(dec0);
+        var sinDec0 = Math.sin(dec0);
+        var den = cosDec0 - eta * sinDec0;
+        var ra = ra0 + Math.atan2(xi, den);
+        out[0] = ra < 0 ? ra + 2 * Math.PI : ra % (2 * Math.PI);
+        out[1] = Math.atan2(sinDec0 + eta * cosDec0, Math.hypot(xi, den));
+    }
+
+    /**
+     * Angular distance, radians.
+     */
+    static double distance(double ra1, double dec1, double ra2, double dec2) {
+        var sinDDec = Math.sin((dec2 - dec1) / 2);
+        var sinDRa = Math.sin((ra2 - ra1) / 2);
+        var h = sinDDec * sinDDec + Math.cos(dec1) * Math.cos(dec2) * sinDRa * sinDRa;
+        return 2 * Math.asin(Math.min(1, Math.sqrt(h)));
+    }
+
+    private static void midpoint(double ra1, double dec1, double ra2, double dec2, double[] out) {
+        var x = Math.cos(dec1) * Math.cos(ra1) + Math.cos(dec2) * Math.cos(ra2);
+        var y = Math.cos(dec1) * Math.sin(ra1) + Math.cos(dec2) * Math.sin(ra2);
+        var z = Math.sin(dec1) + Math.sin(dec2);
+        var ra = Math.atan2(y, x);
+        out[0] = ra < 0 ? ra + 2 * Math.PI : ra;
+        out[1] = Math.atan2(z, Math.hypot(x, y));
+    }
+
+    private static int key(double c0, double c1, double c2, double c3) {
+        return bin(c0) << 24 | bin(c1) << 16 | bin(c2) << 8 | bin(c3);
+    }
+
+    private static int bin(double c) {
+        return Math.clamp((long) Math.floor((c + 1) / CODE_TOLERANCE), 0, 255);
+    }
+
+    private static void swap(int[] a, int i, int j) {
+        var t = a[i];
+        a[i] = a[j];
+        a[j] = t;
+    }
+
+    private static float[] toFloats(List<Float> list) {
+        var a = new float[list.size()];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = list.get(i);
+        }
+        return a;
+    }
+
+    /**
+     * A growable int array.
+     */
+    private static final class IntArray {
+        private int[] values = new int[16];
+        private int size;
+
+        void add(int v) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, 2 * size);
+            }
+            values[size++] = v;
+        }
+
+        int get(int i) {
+            return values[i];
+        }
+
+        int size() {
+            return size;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package Astronomy.astrometry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * Buckets stars into cells of roughly equal area, declination bands divided into right ascension cells, for finding
+ * the stars near a position without scanning a catalog.
+ */
+final class SkyGrid {
+    private final double cell;
+    private final int[] raCells;
+    private final Map<Long, int[]> members = new HashMap<>();
+
+    /**
+     * @param ra   right ascension of each star, radians
+     * @param dec  declination of each star, radians
+     * @param ids  the stars to include
+     * @param cell cell size, radians
+     */
+    SkyGrid(double[] ra, double[] dec, int[] ids, double cell) {
+        this.cell = cell;
+        var bands = Math.max(1, (int) Math.ceil(Math.PI / cell));
+        raCells = new int[bands];
+        for (int b = 0; b < bands; b++) {
+            // The edge of the band nearest the equator is the widest
+            var lo = -Math.PI / 2 + b * cell;
+            var hi = Math.min(Math.PI / 2, lo + cell);
+            var cos = lo <= 0 && hi >= 0 ? 1 : Math.max(Math.cos(lo), Math.cos(hi));
+            raCells[b] = Math.max(1, (int) Math.floor(2 * Math.PI * cos / cell));
+        }
+
+        var lists = new HashMap<Long, List<Integer>>();
+        for (int id : ids) {
+            lists.computeIfAbsent(key(ra[id], dec[id]), k -> new ArrayList<>()).add(id);
+        }
+        lists.forEach((k, v) -> members.put(k, v.stream().mapToInt(Integer::intValue).toArray()));
+    }
+
+    /**
+     * The stars in each cell.
+     */
+    Iterable<int[]> cells() {
+        return members.values();
+    }
+
+    /**
+     * Calls {@code action} with every star in the cells that overlap the circle, which may include stars outside it.
+     */
+    void forEachNear(double ra, double dec, double radius, IntConsumer action) {
+        var bLo = band(dec - radius);
+        var bHi = band(dec + radius);
+        for (int b = bLo; b <= bHi; b++) {
+            var n = raCells[b];
+            var maxAbsDec = Math.max(Math.abs(dec - radius), Math.abs(dec + radius));
+            int first, last;
+            if (maxAbsDec >= Math.PI / 2 - 1e-9 || radius / Math.cos(maxAbsDec) >= Math.PI) {
+                first = 0;
+                last = n - 1;
+            } else {
+                var dRa = radius / Math.cos(maxAbsDec);
+                first = (int) Math.floor(normalize(ra - dRa) / (2 * Math.PI) * n);
+                last = (int) Math.floor(normalize(ra + dRa) / (2 * Math.PI) * n);
+                if (last < first) {
+                    last += n;
+                }
+                if (last - first >= n) {
+                    first = 0;
+                    last = n - 1;
+                }
+            }
+            for (int c = first; c <= last; c++) {
+                var stars = members.get((long) b << 32 | (c % n));
+                if (stars != null) {
+                    for (int star : stars) {
+                        action.accept(star);
+                    }
+                }
+            }
+        }
+    }
+
+    private long key(double ra, double dec) {
+        var b = band(dec);
+        var n = raCells[b];
+        var c = Math.min(n - 1, (int) Math.floor(normalize(ra) / (2 * Math.PI) * n));
+        return (long) b << 32 | c;
+    }
+
+    private int band(double dec) {
+        var b = (int) Math.floor((dec + Math.PI / 2) / cell);
+        return Math.clamp(b, 0, raCells.length - 1);
+    }
+
+    private static double normalize(double ra) {
+        var r = ra % (2 * Math.PI);
+        return r < 0 ? r + 2 * Math.PI : r;
+    }
+}
@@ -0,0 +1,306 @@
+package Astronomy.astrometry;
+
+import java.util.Arrays;
+
+import Jama.Matrix;
+import astroj.FitsJ;
+import astroj.WCS;
+import ij.astro.io.prefs.Property;
+
+/**
+ * Carries a plate solution from one frame of a time series to the next.
+ * <p>
+ * After a frame is solved from scratch, the sky positions of its detected stars, from that solution, are kept as
+ * the reference. The next frame's stars are matched to where the last solution puts the reference stars, after
+ * finding the drift between them by voting on their offsets, and an affine correction on the tangent plane is
+ * fitted to the matches. That updates CRVAL and the CD matrix and keeps CRPIX and any SIP distortion. When too few
+ * stars match, or the residuals are over {@link #MAX_RMS}, tracking fails and the frame should be solved from
+ * scratch, which sets a new reference.
+ * <p>
+ * Positions are ImageJ pixel positions, as in {@link WCS#pixels2wcs(double[])}.
+ */
+public final class WcsTracker {
+    public static final Property<Boolean> ENABLED = new Property<>(false, WcsTracker.class);
+    /**
+     * The largest RMS distance between the matched stars and their reference positions, pixels, for a frame to be
+     * tracked.
+     */
+    public static final Property<Double> MAX_RMS = new Property<>(1.0, WcsTracker.class);
+
+    private static final int MIN_MATCHES = 8;
+    private static final int MAX_DRIFT = 64;
+    private static final int BIN = 2;
+    private static final double MATCH_RADIUS = 3;
+    private static final String[] CD_KEYS = {"CD1_1", "CD1_2", "CD2_1", "CD2_2"};
+
+    private double[] refRa;
+    private double[] refDec;
+    private FitsJ.Header header;
+    private int width;
+    private int height;
+    private int matchCount;
+    private double rms;
+
+    /**
+     * Drops the reference, so the next frame is solved from scratch.
+     */
+    public void reset() {
+        refRa = null;
+        refDec = null;
+        header = null;
+    }
+
+    /**
+     * If there is a reference for images of this size.
+     */
+    public boolean hasReference(int width, int height) {
+        return header != null && this.width == width && this.height == height;
+    }
+
+    /**
+     * Takes the stars detected in a frame solved from scratch as the reference.
+     *
+     * @param header the frame's header, with its solution
+     * @param x      ImageJ x positions of the detected stars
+     * @param y      ImageJ y positions of the detected stars
+     * @param count  the number of stars
+     */
+    public void setReference(FitsJ.Header header, double[] x, double[] y, int count, int width, int height) {
+        reset();
+        if (header == null || count < MIN_MATCHES || FitsJ.findCardWithKey("CD1_1", header) < 0) {
+            return;
+        }
+        var wcs = new WCS(header);
+        if (!wcs.hasWCS()) {
+            return;
+        }
+
+        var ra = new double[count];
+        var dec = new double[count];
+        for (int i = 0; i < count; i++) {
+            var sky = wcs.pixels2wcs(new double[]{x[i], y[i]});
+            if (sky == null) {
+                return;
+            }
+            ra[i] = sky[0];
+            dec[i] = sky[1];
+        }
+
+        refRa = ra;
+        refDec = dec;
+        this.header = copy(header);
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Solves a frame from the last solution.
+     *
+     * @param x     ImageJ x positions of the detected stars
+     * @param y     ImageJ y positions of the detected stars
+     * @param count the number of stars
+     * @return a copy of the reference header with the new solution, or null if the frame could not be tracked
+     */
+    public FitsJ.Header track(double[] x, double[] y, int count) {
+        matchCount = 0;
+        rms = Double.NaN;
+        if (header == null || count < MIN_MATCHES) {
+            return null;
+        }
+
+        var wcs = new WCS(header);
+        var predictedX = new double[refRa.length];
+        var predictedY = new double[refRa.length];
+        for (int i = 0; i < refRa.length; i++) {
+            var p = wcs.wcs2pixels(new double[]{refRa[i], refDec[i]});
+            if (p == null) {
+                return null;
+            }
+            predictedX[i] = p[0];
+            predictedY[i] = p[1];
+        }
+
+        // The drift is the offset most pairs agree on
+        var side = 2 * MAX_DRIFT / BIN + 1;
+        var votes = new int[side * side];
+        var best = -1;
+        for (int i = 0; i < refRa.length; i++) {
+            for (int j = 0; j < count; j++) {
+                var bx = (int) Math.round((x[j] - predictedX[i] + MAX_DRIFT) / BIN);
+                var by = (int) Math.round((y[j] - predictedY[i] + MAX_DRIFT) / BIN);
+                if (bx >= 0 && bx < side && by >= 0 && by < side) {
+                    var b = by * side + bx;
+                    votes[b]++;
+                    if (best < 0 || votes[b] > votes[best]) {
+                        best = b;
+                    }
+                }
+            }
+        }
+        if (best < 0) {
+            return null;
+        }
+        var driftX = (best % side) * BIN - MAX_DRIFT;
+        var driftY = (best / side) * BIN - MAX_DRIFT;
+
+        var matched = match(predictedX, predictedY, x, y, count, driftX, driftY, MATCH_RADIUS + BIN);
+        if (matched.length == 0) {
+            return null;
+        }
+        // Center the drift on the matches, then match again tightly
+        var dx = new double[matched.length / 2];
+        var dy = new double[matched.length / 2];
+        for (int m = 0; m < dx.length; m++) {
+            dx[m] = x[matched[2 * m + 1]] - predictedX[matched[2 * m]];
+            dy[m] = y[matched[2 * m + 1]] - predictedY[matched[2 * m]];
+        }
+        matched = match(predictedX, predictedY, x, y, count, median(dx), median(dy), MATCH_RADIUS);
+        if (matched.length / 2 < MIN_MATCHES) {
+            return null;
+        }
+
+        // Twice, as moving the tangent point by the fitted offset is only exact to first order
+        var result = header;
+        for (int pass = 0; pass < 2; pass++) {
+            result = refine(result, matched, x, y);
+            if (result == null) {
+                return null;
+            }
+        }
+
+        var fitted = new WCS(result);
+        var sum = 0D;
+        for (int m = 0; m < matched.length / 2; m++) {
+            var s = matched[2 * m];
+            var j = matched[2 * m + 1];
+            var p = fitted.wcs2pixels(new double[]{refRa[s], refDec[s]});
+            if (p == null) {
+                return null;
+            }
+            sum += (p[0] - x[j]) * (p[0] - x[j]) + (p[1] - y[j]) * (p[1] - y[j]);
+        }
+        matchCount = matched.length / 2;
+        rms = Math.sqrt(sum / matchCount);
+        if (!(rms <= MAX_RMS.get())) {
+            return null;
+        }
+
+        header = result;
+        return copy(result);
+    }
+
+    /**
+     * The number of stars matched by the last {@link #track}.
+     */
+    public int matchCount() {
+        return matchCount;
+    }
+
+    /**
+     * The RMS residual of the last {@link #track}, pixels.
+     */
+    public double rms() {
+        return rms;
+    }
+
+    /**
+     * Fits an affine correction on the tangent plane at CRVAL from where {@code hdr} puts the matched stars to their
+     * reference positions, and applies it to CRVAL and the CD matrix.
+     */
+    private FitsJ.Header refine(FitsJ.Header hdr, int[] matched, double[] x, double[] y) {
+        var wcs = new WCS(hdr);
+        var crval1 = Math.toRadians(FitsJ.findDoubleValue("CRVAL1", hdr));
+        var crval2 = Math.toRadians(FitsJ.findDoubleValue("CRVAL2", hdr));
+        var count = matched.length / 2;
+        var design = new Matrix(count, 3);
+        var targetXi = new Matrix(count, 1);
+        var targetEta = new Matrix(count, 1);
+        var w = new double[2];
+        for (int m = 0; m < count; m++) {
+            var s = matched[2 * m];
+            var j = matched[2 * m + 1];
+            var sky = wcs.pixels2wcs(new double[]{x[j], y[j]});
+            if (sky == null) {
+                return null;
+            }
+            QuadIndex.project(crval1, crval2, Math.toRadians(sky[0]), Math.toRadians(sky[1]), w);
+            design.set(m, 0, 1);
+            design.set(m, 1, Math.toDegrees(w[0]));
+            design.set(m, 2, Math.toDegrees(w[1]));
+            QuadIndex.project(crval1, crval2, Math.toRadians(refRa[s]), Math.toRadians(refDec[s]), w);
+            targetXi.set(m, 0, Math.toDegrees(w[0]));
+            targetEta.set(m, 0, Math.toDegrees(w[1]));
+        }
+
+        double[] a;
+        double[] b;
+        try {
+            a = design.solve(targetXi).getColumnPackedCopy();
+            b = design.solve(targetEta).getColumnPackedCopy();
+        } catch (RuntimeException e) {
+            // Rank deficient, the matched stars are in a line
+            return null;
+        }
+
+        var cd = new double[4];
+        for (int k = 0; k < 4; k++) {
+            cd[k] = FitsJ.findDoubleValue(CD_KEYS[k], hdr);
+        }
+        var sky = new double[2];
+        QuadIndex.deproject(crval1, crval2, Math.toRadians(a[0]), Math.toRadians(b[0]), sky);
+
+        var result = copy(hdr);
+        result = FitsJ.setCard("CRVAL1", Math.toDegrees(sky[0]), null, result);
+        result = FitsJ.setCard("CRVAL2", Math.toDegrees(sky[1]), null, result);
+        result = FitsJ.setCard("CD1_1", a[1] * cd[0] + a[2] * cd[2], null, result);
+        result = FitsJ.setCard("CD1_2", a[1] * cd[1] + a[2] * cd[3], null, result);
+        result = FitsJ.setCard("CD2_1", b[1] * cd[0] + b[2] * cd[2], null, result);
+        result = FitsJ.setCard("CD2_2", b[1] * cd[1] + b[2] * cd[3], null, result);
+        return result;
+    }
+
+    /**
+     * Pairs each predicted star with the nearest unpaired detected star within {@code radius} after the drift.
+     *
+     * @return reference and detected star indices, interleaved
+     */
+    private static int[] match(double[] predictedX, double[] predictedY, double[] x, double[] y, int count,
+                               double driftX, double driftY, double radius) {
+        var used = new boolean[count];
+        var pairs = new int[2 * Math.min(predictedX.length, count)];
+        var n = 0;
+        for (int i = 0; i < predictedX.length && n < pairs.length; i++) {
+            var px = predictedX[i] + driftX;
+            var py = predictedY[i] + driftY;
+            var best = -1;
+            var bestDistance = radius * radius;
+            for (int j = 0; j < count; j++) {
+                if (used[j]) {
+                    continue;
+                }
+                var d = (x[j] - px) * (x[j] - px) + (y[j] - py) * (y[j] - py);
+                if (d <= bestDistance) {
+                    best = j;
+                    bestDistance = d;
+                }
+            }
+            if (best >= 0) {
+                used[best] = true;
+                pairs[n++] = i;
+                pairs[n++] = best;
+            }
+        }
+        return Arrays.copyOf(pairs, n);
+    }
+
+    private static double median(double[] values) {
+        var sorted = values.clone();
+        Arrays.sort(sorted);
+        var n = sorted.length;
+        return n % 2 == 1 ? sorted[n / 2] : (sorted[n / 2 - 1] + sorted[n / 2]) / 2;
+    }
+
+    private static FitsJ.Header copy(FitsJ.Header header) {
+        return FitsJ.Header.build(header.cards().clone());
+    }
+}
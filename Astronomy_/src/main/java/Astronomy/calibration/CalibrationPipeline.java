@@ -0,0 +1,149 @@
+package Astronomy.calibration;
+
+import ij.astro.util.DaemonThreadFactory;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Runs the per-frame calibration chain for several frames at once, handing the results back in input order.
+ * <p>
+ * Each frame is processed entirely on one worker thread, so a frame's own output (file name, header history, log)
+ * only depends on the frame and the fixed settings, not on the scheduling. Results are passed to the consumer on the
+ * calling thread in the order of the inputs, with at most twice the thread count of frames in flight, which bounds
+ * memory to a few frames per thread.
+ * <p>
+ * Workers report where their time goes by calling {@link Laps#lap(Stage)} at the end of each stage, the totals
+ * are available from {@link #timings()}.
+ */
+public class CalibrationPipeline {
+    private final int threads;
+    private final EnumMap<Stage, LongAdder> stageNanos = new EnumMap<>(Stage.class);
+    private final LongAdder frames = new LongAdder();
+    private long wallNanos;
+
+    public CalibrationPipeline(int threads) {
+        this.threads = Math.max(1, threads);
+        for (Stage stage : Stage.values()) {
+            stageNanos.put(stage, new LongAdder());
+        }
+    }
+
+    /**
+     * Processes the inputs, calling {@code inOrder} with each result in input order.
+     *
+     * @param cancelled checked before each frame is started, frames already started are finished and handed out
+     * @return {@code false} if cancelled before all inputs were processed
+     */
+    public <T, R> boolean run(List<T> inputs, FrameTask<T, R> task, Consumer<R> inOrder, BooleanSupplier cancelled)
+            throws ExecutionException {
+        var start = System.nanoTime();
+        var pool = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("Calibration-Pipeline"));
+        var inFlight = new ArrayDeque<Future<R>>();
+        var next = 0;
+        try {
+            while (next < inputs.size() || !inFlight.isEmpty()) {
+                while (next < inputs.size() && inFlight.size() < 2 * threads && !cancelled.getAsBoolean()) {
+                    var index = next++;
+                    inFlight.add(pool.submit(() -> {
+                        var laps = new Laps();
+                        try {
+                            return task.process(inputs.get(index), index, laps);
+                        } finally {
+                            frames.increment();
+                        }
+                    }));
+                }
+                if (inFlight.isEmpty()) {
+                    break;
+                }
+                inOrder.accept(inFlight.removeFirst().get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            inFlight.forEach(f -> f.cancel(true));
+            pool.shutdownNow();
+            wallNanos += System.nanoTime() - start;
+        }
+
+        return next == inputs.size();
+    }
+
+    public Timings timings() {
+        var nanos = new EnumMap<Stage, Long>(Stage.class);
+        stageNanos.forEach((stage, adder) -> nanos.put(stage, adder.sum()));
+        return new Timings(nanos, frames.sum(), wallNanos, threads);
+    }
+
+    public enum Stage {
+        READ("read"),
+        CALIBRATE("calibrate"),
+        COSMETIC("cosmetic cleanup"),
+        WRITE("write");
+
+        private final String name;
+
+        Stage(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    @FunctionalInterface
+    public interface FrameTask<T, R> {
+        /**
+         * Processes one frame on a worker thread.
+         *
+         * @param index the position of the input, e.g. for "n of m" messages
+         */
+        R process(T input, int index, Laps laps) throws Exception;
+    }
+
+    /**
+     * Attributes the time of a frame to the stages of the chain.
+     */
+    public class Laps {
+        private long last = System.nanoTime();
+
+        private Laps() {
+        }
+
+        /**
+         * Adds the time since the previous lap, or since the frame was started, to {@code stage}.
+         */
+        public void lap(Stage stage) {
+            var now = System.nanoTime();
+            stageNanos.get(stage).add(now - last);
+            last = now;
+        }
+    }
+
+    /**
+     * Summed worker time per stage. With several threads the stage totals exceed the wall time.
+     */
+    public record Timings(EnumMap<Stage, Long> stageNanos, long frames, long wallNanos, int threads) {
+        @Override
+        public String toString() {
+            var sb = new StringBuilder("Processed %d frames in %.1f s on %d threads, time per stage:"
+                    .formatted(frames, wallNanos / 1e9, threads));
+            var total = stageNanos.values().stream().mapToLong(Long::longValue).sum();
+            stageNanos.forEach((stage, nanos) -> sb.append(" %s %.1f s (%.0f%%),".formatted(stage, nanos / 1e9,
+                    total > 0 ? 100.0 * nanos / total : 0)));
+            sb.setLength(sb.length() - 1);
+            return sb.toString();
+        }
+    }
+}
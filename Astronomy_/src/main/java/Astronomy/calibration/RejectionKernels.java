@@ -0,0 +1,249 @@
+package Astronomy.calibration;
+
+/**
+ * Per-pixel combine kernels for stacking calibration frames.
+ * <p>
+ * Each kernel combines the first {@code n} values of a column holding one pixel from every frame. The column is used
+ * as scratch space: values are reordered, and may be dropped or clamped, so nothing is allocated per pixel. Medians
+ * are found by selection rather than by sorting the column.
+ */
+public final class RejectionKernels {
+    private static final int OCTILES = 7;
+
+    private RejectionKernels() {
+    }
+
+    public static double mean(float[] values, int from, int to) {
+        var sum = 0D;
+        for (int i = from; i < to; i++) {
+            sum += values[i];
+        }
+        return sum / (to - from);
+    }
+
+    public static double median(float[] values, int n) {
+        var k = n / 2;
+        var upper = select(values, 0, n, k);
+        if ((n % 2) != 0) {
+            return upper;
+        }
+
+        // The lower middle value is the largest of the partition below k
+        var lower = values[0];
+        for (int i = 1; i < k; i++) {
+            if (values[i] > lower) {
+                lower = values[i];
+            }
+        }
+        return (upper + (double) lower) / 2.0;
+    }
+
+    /**
+     * Mean after dropping the {@code low} smallest and {@code high} largest values. If that would leave nothing, the
+     * median is returned instead.
+     */
+    public static double minMaxRejectedMean(float[] values, int n, int low, int high) {
+        low = Math.max(0, low);
+        high = Math.max(0, high);
+        if (low + high >= n) {
+            return median(values, n);
+        }
+        if (low > 0) {
+            select(values, 0, n, low);
+        }
+        if (high > 0) {
+            select(values, low, n, n - high);
+        }
+        return mean(values, low, n - high);
+    }
+
+    /**
+     * Mean of the values within {@code kappa} standard deviations of the median, iterated until no more values are
+     * rejected or {@code iterations} is reached.
+     */
+    public static double sigmaClippedMean(float[] values, int n, double kappa, int iterations) {
+        for (int iteration = 0; iteration < iterations && n > 2; iteration++) {
+            var center = median(values, n);
+            var sigma = standardDeviation(values, n);
+            if (sigma == 0) {
+                break;
+            }
+
+            var limit = kappa * sigma;
+            var kept = 0;
+            for (int i = 0; i < n; i++) {
+                if (Math.abs(values[i] - center) <= limit) {
+                    values[kept++] = values[i];
+                }
+            }
+            if (kept == n || kept == 0) {
+                break;
+            }
+            n = kept;
+        }
+        return mean(values, 0, n);
+    }
+
+    /**
+     * Mean after clamping values further than {@code kappa} standard deviations from the median to that distance,
+     * iterated until no more values are clamped or {@code iterations} is reached. Unlike clipping, every frame keeps
+     * its weight, which is steadier for small stacks.
+     */
+    public static double winsorizedMean(float[] values, int n, double kappa, int iterations) {
+        for (int iteration = 0; iteration < iterations && n > 2; iteration++) {
+            var center = median(values, n);
+            var sigma = standardDeviation(values, n);
+            if (sigma == 0) {
+                break;
+            }
+
+            var low = (float) (center - kappa * sigma);
+            var high = (float) (center + kappa * sigma);
+            var clamped = false;
+            for (int i = 0; i < n; i++) {
+                if (values[i] < low) {
+                    values[i] = low;
+                    clamped = true;
+                } else if (values[i] > high) {
+                    values[i] = high;
+                    clamped = true;
+                }
+            }
+            if (!clamped) {
+                break;
+            }
+        }
+        return mean(values, 0, n);
+    }
+
+    /**
+     * Mean of the values within {@code kappa} mean absolute deviations beyond the ends of a straight line fitted to
+     * the sorted values, iterated until no more values are rejected or {@code iterations} is reached. Fitting the
+     * trend of the sorted values rather than a single center copes better with large stacks whose pixel values drift,
+     * e.g. flats taken as the sky brightens.
+     * <p>
+     * The line is fitted through the octiles, found by selection, so the extremes being tested do not pull it and
+     * the column is never fully sorted. Only values below the start or above the end of the line can be rejected.
+     */
+    public static double linearFitClippedMean(float[] values, int n, double kappa, int iterations) {
+        if (n < 3) {
+            return mean(values, 0, n);
+        }
+
+        for (int iteration = 0; iteration < iterations && n > 3; iteration++) {
+            // Each selection leaves its value at its rank, and the larger values after it for the next
+            var from = 0;
+            for (int j = 0; j < OCTILES; j++) {
+                var rank = octileRank(j, n);
+                if (rank >= from) {
+                    select(values, from, n, rank);
+                    from = rank + 1;
+                }
+            }
+
+            // Least squares fit of value against rank
+            var meanX = 0D;
+            var meanY = 0D;
+            for (int j = 0; j < OCTILES; j++) {
+                var rank = octileRank(j, n);
+                meanX += rank;
+                meanY += values[rank];
+            }
+            meanX /= OCTILES;
+            meanY /= OCTILES;
+            var sxy = 0D;
+            var sxx = 0D;
+            for (int j = 0; j < OCTILES; j++) {
+                var rank = octileRank(j, n);
+                var dx = rank - meanX;
+                sxy += dx * (values[rank] - meanY);
+                sxx += dx * dx;
+            }
+            var slope = sxy / sxx;
+            var intercept = meanY - slope * meanX;
+
+            var deviation = 0D;
+            for (int j = 0; j < OCTILES; j++) {
+                var rank = octileRank(j, n);
+                deviation += Math.abs(values[rank] - (intercept + slope * rank));
+            }
+            deviation /= OCTILES;
+
+            // Values exactly on the line's ends are kept even when the octiles fit it exactly
+            var low = Math.nextDown((float) (intercept - kappa * deviation));
+            var high = Math.nextUp((float) (intercept + slope * (n - 1) + kappa * deviation));
+            var kept = 0;
+            for (int i = 0; i < n; i++) {
+                if (values[i] >= low && values[i] <= high) {
+                    values[kept++] = values[i];
+                }
+            }
+            if (kept == n || kept == 0) {
+                break;
+            }
+            n = kept;
+        }
+        return mean(values, 0, n);
+    }
+
+    /**
+     * Partially orders {@code values[from, to)} so that index {@code k} holds the value it would hold if the range
+     * were sorted, with no larger values before it and no smaller values after it.
+     *
+     * @return the value at {@code k}
+     */
+    public static float select(float[] values, int from, int to, int k) {
+        var left = from;
+        var right = to - 1;
+        while (right > left) {
+            // Median of three pivot, which also guards both scans below
+            var mid = (left + right) >>> 1;
+            if (values[mid] < values[left]) swap(values, mid, left);
+            if (values[right] < values[left]) swap(values, right, left);
+            if (values[right] < values[mid]) swap(values, right, mid);
+            var pivot = values[mid];
+
+            var i = left;
+            var j = right;
+            while (i <= j) {
+                while (values[i] < pivot) i++;
+                while (values[j] > pivot) j--;
+                if (i <= j) {
+                    swap(values, i++, j--);
+                }
+            }
+
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                break;
+            }
+        }
+        return values[k];
+    }
+
+    /**
+     * The rank of the {@code j}-th octile of the values between the smallest and the largest, which are left out.
+     */
+    private static int octileRank(int j, int n) {
+        return 1 + (int) Math.round((j + 1) * (n - 3) / (OCTILES + 1.0));
+    }
+
+    private static double standardDeviation(float[] values, int n) {
+        var mean = mean(values, 0, n);
+        var sum2 = 0D;
+        for (int i = 0; i < n; i++) {
+            var d = values[i] - mean;
+            sum2 += d * d;
+        }
+        return Math.sqrt(sum2 / n);
+    }
+
+    private static void swap(float[] values, int i, int j) {
+        var t = values[i];
+        values[i] = values[j];
+        values[j] = t;
+    }
+}
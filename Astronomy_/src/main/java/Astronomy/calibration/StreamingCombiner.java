@@ -0,0 +1,387 @@
+package Astronomy.calibration;
+
+import astroj.FitsJ;
+import ij.IJ;
+import ij.astro.io.prefs.Property;
+import ij.astro.util.DaemonThreadFactory;
+import ij.process.FloatProcessor;
+import nom.tam.fits.BasicHDU;
+import nom.tam.fits.Fits;
+import nom.tam.fits.FitsException;
+import nom.tam.fits.ImageHDU;
+import nom.tam.fits.header.Bitpix;
+import nom.tam.image.StandardImageTiler;
+import nom.tam.util.FitsFile;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Combines raw calibration frames into a master frame without holding the frames in memory.
+ * <p>
+ * The frames are read band by band directly from the FITS files, each band holding as many rows of every frame as fit
+ * in {@link #TILE_BUDGET_MB}. Each band is corrected and combined on all cores before the next one is read, so peak
+ * memory is the band plus the master, however many frames are combined.
+ * <p>
+ * Only plain, uncompressed 2D FITS images can be read this way, see {@link #probe(Path)}. Rows are handed out in
+ * ImageJ orientation (row 0 at the top) and in physical units, i.e. with BZERO and BSCALE applied, as they would be
+ * returned by {@link ij.process.ImageProcessor#getPixelValue(int, int)} for the opened image.
+ */
+public class StreamingCombiner {
+    public static final Property<Boolean> ENABLED = new Property<>(true, StreamingCombiner.class);
+    public static final Property<Integer> TILE_BUDGET_MB = new Property<>(256, StreamingCombiner.class);
+    public static final Property<Double> CLIP_SIGMA = new Property<>(3.0, StreamingCombiner.class);
+    public static final Property<Integer> CLIP_ITERATIONS = new Property<>(5, StreamingCombiner.class);
+    public static final Property<Integer> REJECT_LOW = new Property<>(1, StreamingCombiner.class);
+    public static final Property<Integer> REJECT_HIGH = new Property<>(1, StreamingCombiner.class);
+
+    private final List<Frame> frames;
+    private final int width;
+    private final int height;
+    private final int threads;
+    private final long budget;
+
+    /**
+     * @param frames the frames to combine, all of the same size, see {@link #probe(Path)}
+     */
+    public StreamingCombiner(List<Frame> frames) {
+        this(frames, Math.max(1, Runtime.getRuntime().availableProcessors() - 1),
+                TILE_BUDGET_MB.get() * 1024L * 1024L);
+    }
+
+    public StreamingCombiner(List<Frame> frames, int threads, long budget) {
+        if (frames.isEmpty()) {
+            throw new IllegalArgumentException("No frames to combine");
+        }
+        this.frames = List.copyOf(frames);
+        this.width = frames.getFirst().width();
+        this.height = frames.getFirst().height();
+        this.threads = Math.max(1, threads);
+        this.budget = budget;
+        for (Frame frame : frames) {
+            if (frame.width() != width || frame.height() != height) {
+                throw new IllegalArgumentException("Frame " + frame.path() + " is " + frame.width() + "x" +
+                        frame.height() + ", expected " + width + "x" + height);
+            }
+        }
+    }
+
+    /**
+     * Checks if {@code path} can be read in bands, returning its layout or {@code null} if it must be opened normally.
+     */
+    public static Frame probe(Path path) throws IOException {
+        var name = path.getFileName().toString().toLowerCase();
+        if (name.endsWith(".gz") || name.endsWith(".fz") || name.endsWith(".zip")) {
+            return null;
+        }
+
+        try (var fits = new Fits(path.toFile())) {
+            BasicHDU<?> hdu;
+            while ((hdu = fits.readHDU()) != null) {
+                if (!(hdu instanceof ImageHDU imageHDU) || hdu.getData().getSize() == 0) {
+                    continue;
+                }
+
+                // Same selection as the reader, the first image with data
+                var axes = imageHDU.getAxes();
+                if (axes.length != 2 && !(axes.length == 3 && axes[0] == 1)) {
+                    return null;
+                }
+
+                var cards = new ArrayList<String>();
+                var cursor = hdu.getHeader().iterator();
+                while (cursor.hasNext()) {
+                    cards.add(cursor.next().toString());
+                }
+
+                return new Frame(path, imageHDU.getData().getFileOffset(), axes[axes.length - 1],
+                        axes[axes.length - 2], imageHDU.getBitpix(), imageHDU.getBZero(), imageHDU.getBScale(),
+                        FitsJ.Header.build(cards.toArray(String[]::new)));
+            }
+        } catch (FitsException e) {
+            throw new IOException(e);
+        }
+
+        return null;
+    }
+
+    /**
+     * Passes every row band of every frame through {@code correction}, without combining. Used to gather
+     * per-frame statistics that the combination depends on, e.g. the normalization of flats.
+     *
+     * @return {@code false} if cancelled
+     */
+    public boolean scan(Correction correction, BooleanSupplier cancelled) throws IOException {
+        return run(correction, null, null, cancelled);
+    }
+
+    /**
+     * Combines the corrected frames pixel by pixel.
+     *
+     * @return the master frame, or {@code null} if cancelled
+     */
+    public FloatProcessor combine(Method method, Correction correction, BooleanSupplier cancelled) throws IOException {
+        var master = new float[width * height];
+        if (!run(correction, method, master, cancelled)) {
+            return null;
+        }
+        return new FloatProcessor(width, height, master);
+    }
+
+    /**
+     * Rows per band such that the band of every frame, plus a raw read buffer per thread, fit the budget.
+     */
+    public int bandRows() {
+        var bytesPerRow = (long) width * Float.BYTES * frames.size() +
+                (long) width * frames.getFirst().bitpix().byteSize() * threads;
+        return (int) Math.clamp(budget / bytesPerRow, 1, height);
+    }
+
+    private boolean run(Correction correction, Method method, float[] master, BooleanSupplier cancelled)
+            throws IOException {
+        var rows = bandRows();
+        var rejection = Rejection.fromPreferences();
+        var bands = new float[frames.size()][];
+        var pool = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("Master-Combiner"));
+        try {
+            for (int y0 = 0; y0 < height; y0 += rows) {
+                if (cancelled.getAsBoolean()) {
+                    return false;
+                }
+                IJ.showProgress(y0, height);
+
+                var bandRows = Math.min(rows, height - y0);
+                var start = y0;
+                var reads = new ArrayList<Callable<Void>>(frames.size());
+                for (int f = 0; f < frames.size(); f++) {
+                    var frame = f;
+                    reads.add(() -> {
+                        var band = bands[frame];
+                        if (band == null || band.length != bandRows * width) {
+                            band = new float[bandRows * width];
+                            bands[frame] = band;
+                        }
+                        frames.get(frame).readRows(start, bandRows, band);
+                        if (correction != null) {
+                            correction.apply(frame, start, bandRows, band);
+                        }
+                        return null;
+                    });
+                }
+                await(pool, reads);
+
+                if (method != null) {
+                    var combines = new ArrayList<Callable<Void>>();
+                    var chunk = Math.max(1, bandRows / threads);
+                    for (int r0 = 0; r0 < bandRows; r0 += chunk) {
+                        var from = r0 * width;
+                        var to = Math.min(bandRows, r0 + chunk) * width;
+                        combines.add(() -> {
+                            var values = new float[frames.size()];
+                            for (int i = from; i < to; i++) {
+                                for (int f = 0; f < bands.length; f++) {
+                                    values[f] = bands[f][i];
+                                }
+                                master[start * width + i] = (float) method.combine(values, values.length, rejection);
+                            }
+                            return null;
+                        });
+                    }
+                    await(pool, combines);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+            IJ.showProgress(1.0);
+        }
+
+        return true;
+    }
+
+    private static void await(ExecutorService pool, List<Callable<Void>> tasks) throws IOException {
+        try {
+            for (Future<Void> future : pool.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while combining frames", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Per-frame processing applied to each band before it is combined, e.g. bias subtraction.
+     */
+    @FunctionalInterface
+    public interface Correction {
+        /**
+         * @param frame index of the frame in the combiner's list
+         * @param y0    the ImageJ row of the first row in the band
+         * @param rows  number of rows in the band
+         * @param band  the pixels, row-major, to be corrected in place
+         */
+        void apply(int frame, int y0, int rows, float[] band);
+    }
+
+    public enum Method {
+        MEDIAN("Median") {
+            @Override
+            public double combine(float[] values, int n, Rejection rejection) {
+                return RejectionKernels.median(values, n);
+            }
+        },
+        MEAN("Average") {
+            @Override
+            public double combine(float[] values, int n, Rejection rejection) {
+                return RejectionKernels.mean(values, 0, n);
+            }
+        },
+        /**
+         * Mean without the {@link #REJECT_LOW} lowest and {@link #REJECT_HIGH} highest values.
+         */
+        MIN_MAX_REJECTED_MEAN("Min/max rejected average") {
+            @Override
+            public double combine(float[] values, int n, Rejection rejection) {
+                return RejectionKernels.minMaxRejectedMean(values, n, rejection.low(), rejection.high());
+            }
+        },
+        /**
+         * Mean of the values within {@link #CLIP_SIGMA} standard deviations of the median, iterated until no more
+         * values are rejected or {@link #CLIP_ITERATIONS} is reached.
+         */
+        SIGMA_CLIPPED_MEAN("Sigma-clipped average") {
+            @Override
+            public double combine(float[] values, int n, Rejection rejection) {
+                return RejectionKernels.sigmaClippedMean(values, n, rejection.kappa(), rejection.iterations());
+            }
+        },
+        /**
+         * Mean with values beyond {@link #CLIP_SIGMA} standard deviations of the median clamped to that distance.
+         */
+        WINSORIZED_MEAN("Winsorized average") {
+            @Override
+            public double combine(float[] values, int n, Rejection rejection) {
+                return RejectionKernels.winsorizedMean(values, n, rejection.kappa(), rejection.iterations());
+            }
+        },
+        /**
+         * Mean of the values within {@link #CLIP_SIGMA} mean deviations of a line fitted to the sorted values.
+         */
+        LINEAR_FIT_CLIPPED_MEAN("Linear fit clipped average") {
+            @Override
+            public double combine(float[] values, int n, Rejection rejection) {
+                return RejectionKernels.linearFitClippedMean(values, n, rejection.kappa(), rejection.iterations());
+            }
+        };
+
+        private final String name;
+
+        Method(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Combines the first {@code n} values, which may be reordered or modified.
+         */
+        public abstract double combine(float[] values, int n, Rejection rejection);
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * The rejection settings of the combine methods, read once per combine rather than per pixel.
+     *
+     * @param kappa      clipping limit in standard or mean deviations
+     * @param iterations maximum clipping iterations
+     * @param low        lowest values dropped by min/max rejection
+     * @param high       highest values dropped by min/max rejection
+     */
+    public record Rejection(double kappa, int iterations, int low, int high) {
+        public static Rejection fromPreferences() {
+            return new Rejection(CLIP_SIGMA.get(), CLIP_ITERATIONS.get(), REJECT_LOW.get(), REJECT_HIGH.get());
+        }
+    }
+
+    /**
+     * Location of the image data of a FITS file that can be read in bands.
+     *
+     * @param dataOffset file offset of the first pixel
+     * @param header     the image header, e.g. for the exposure time or pedestal
+     */
+    public record Frame(Path path, long dataOffset, int width, int height, Bitpix bitpix, double bzero,
+                        double bscale, FitsJ.Header header) {
+        /**
+         * Reads ImageJ rows {@code y0} to {@code y0 + rows - 1} into {@code out}, in physical units.
+         */
+        public void readRows(int y0, int rows, float[] out) throws IOException {
+            // FITS rows run bottom to top
+            var fitsRow = height - y0 - rows;
+            var dims = new int[]{height, width};
+            var raw = bitpix.getElementType().newArray(rows * width);
+            try (var file = new FitsFile(path.toFile(), "r")) {
+                new StandardImageTiler(file, dataOffset, dims, bitpix.getPrimitiveType()) {
+                    @Override
+                    protected Object getMemoryImage() {
+                        return null;
+                    }
+                }.getTile(raw, new int[]{fitsRow, 0}, new int[]{rows, width});
+            }
+
+            for (int r = 0; r < rows; r++) {
+                toPhysical(raw, (rows - 1 - r) * width, out, r * width);
+            }
+        }
+
+        private void toPhysical(Object raw, int in, float[] out, int o) {
+            switch (raw) {
+                case byte[] a -> {
+                    for (int x = 0; x < width; x++) {
+                        out[o + x] = (float) (bzero + bscale * Byte.toUnsignedInt(a[in + x]));
+                    }
+                }
+                case short[] a -> {
+                    for (int x = 0; x < width; x++) {
+                        out[o + x] = (float) (bzero + bscale * a[in + x]);
+                    }
+                }
+                case int[] a -> {
+                    for (int x = 0; x < width; x++) {
+                        out[o + x] = (float) (bzero + bscale * a[in + x]);
+                    }
+                }
+                case long[] a -> {
+                    for (int x = 0; x < width; x++) {
+                        out[o + x] = (float) (bzero + bscale * a[in + x]);
+                    }
+                }
+                case float[] a -> {
+                    for (int x = 0; x < width; x++) {
+                        out[o + x] = (float) (bzero + bscale * a[in + x]);
+                    }
+                }
+                case double[] a -> {
+                    for (int x = 0; x < width; x++) {
+                        out[o + x] = (float) (bzero + bscale * a[in + x]);
+                    }
+                }
+                default -> throw new IllegalStateException("Unexpected FITS data type " + raw.getClass());
+            }
+        }
+    }
+}
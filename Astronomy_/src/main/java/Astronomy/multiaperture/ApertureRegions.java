@@ -0,0 +1,60 @@
+package Astronomy.multiaperture;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The squares of a frame read around the apertures when multi-aperture photometry does not read whole frames.
+ * <p>
+ * The pixels outside the squares are left empty, 0 for integer images, so an aperture that has drifted or been
+ * recentered out of its square must not be measured until the whole frame is read.
+ */
+public class ApertureRegions {
+    private final List<Rectangle> squares;
+
+    private ApertureRegions(List<Rectangle> squares) {
+        this.squares = squares;
+    }
+
+    /**
+     * Squares around the first {@code count} aperture positions, each holding every pixel within {@code reach} of
+     * the position.
+     */
+    public static ApertureRegions around(double[] x, double[] y, int count, double reach) {
+        var squares = new ArrayList<Rectangle>(count);
+        for (int ap = 0; ap < count; ap++) {
+            squares.add(square(x[ap], y[ap], reach));
+        }
+        return new ApertureRegions(squares);
+    }
+
+    public List<Rectangle> squares() {
+        return squares;
+    }
+
+    /**
+     * Whether every pixel within {@code reach} of the position, the aperture and its sky annulus, was read.
+     */
+    public boolean covers(double x, double y, double reach) {
+        if (!Double.isFinite(x) || !Double.isFinite(y)) {
+            return false;
+        }
+
+        var needed = square(x, y, reach);
+        for (Rectangle square : squares) {
+            if (square.contains(needed)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The pixels within {@code reach} of the position, with one more for the pixels cut by the edge of a circle.
+     */
+    private static Rectangle square(double x, double y, double reach) {
+        var half = (int) Math.ceil(reach) + 1;
+        return new Rectangle((int) Math.floor(x) - half, (int) Math.floor(y) - half, 2 * half + 1, 2 * half + 1);
+    }
+}
@@ -0,0 +1,341 @@
+package Astronomy.multiaperture;
+
+import Astronomy.Aperture_;
+import Astronomy.MultiAperture_;
+import astroj.Centroid;
+import astroj.FitsJ;
+import astroj.IJU;
+import astroj.MeasurementTable;
+import astroj.Photometer;
+import astroj.WCS;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.astro.util.DaemonThreadFactory;
+import ij.process.ImageProcessor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Windowless multi-aperture photometry over a range of stack slices.
+ * <p>
+ * Unlike {@link MultiAperture_}, slices are measured concurrently on a bounded worker pool and the image window,
+ * canvas and event queue are never touched. Every slice is seeded from the configured aperture positions (or their
+ * RA/Dec when WCS positioning is enabled and the slice has a WCS) instead of the previous slice's centroids, which is
+ * what makes the slices independent of each other. Results are still delivered in slice order, so rows appended to a
+ * {@link MeasurementTable} are in the same order as a {@link MultiAperture_} run.
+ * <p>
+ * Only circular apertures are supported.
+ */
+public class PhotometryEngine {
+    private final List<ApertureSpec> apertures;
+    private final Settings settings;
+
+    public PhotometryEngine(List<ApertureSpec> apertures, Settings settings) {
+        if (apertures.isEmpty()) {
+            throw new IllegalArgumentException("At least one aperture is required");
+        }
+        this.apertures = List.copyOf(apertures);
+        this.settings = settings;
+    }
+
+    /**
+     * Measure all slices in {@code [firstSlice, lastSlice]} and return the results in slice order.
+     */
+    public List<SliceResult> process(ImagePlus imp, int firstSlice, int lastSlice) {
+        var results = new ArrayList<SliceResult>(Math.max(0, lastSlice - firstSlice + 1));
+        process(imp, firstSlice, lastSlice, results::add, () -> false);
+        return results;
+    }
+
+    /**
+     * Measure all slices in {@code [firstSlice, lastSlice]}, handing each result to {@code sink} in slice order.
+     * <p>
+     * The sink is always called on the calling thread. At most twice the worker count of slices are in flight at
+     * once, so memory use is bounded by the thread count rather than the stack size.
+     *
+     * @param cancelCheck polled before each slice is queued, remaining slices are dropped once it returns true.
+     */
+    public void process(ImagePlus imp, int firstSlice, int lastSlice, Consumer<SliceResult> sink,
+                        BooleanSupplier cancelCheck) {
+        var stack = imp.getStack();
+        firstSlice = Math.max(1, firstSlice);
+        lastSlice = Math.min(stack.getSize(), lastSlice);
+
+        var nThreads = settings.threads() > 0 ? settings.threads() :
+                Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        var maxInFlight = 2 * nThreads;
+        var executor = Executors.newFixedThreadPool(nThreads, new DaemonThreadFactory("Photometry-Engine"));
+        var inFlight = new ArrayDeque<Future<SliceResult>>(maxInFlight);
+
+        try {
+            for (int slice = firstSlice; slice <= lastSlice; slice++) {
+                if (cancelCheck.getAsBoolean()) {
+                    break;
+                }
+
+                final int s = slice;
+                inFlight.add(executor.submit(() -> measureSlice(imp, stack, s)));
+
+                if (inFlight.size() >= maxInFlight) {
+                    sink.accept(await(inFlight.poll()));
+                }
+            }
+
+            while (!inFlight.isEmpty()) {
+                sink.accept(await(inFlight.poll()));
+            }
+        } finally {
+            inFlight.forEach(f -> f.cancel(true));
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Measure every aperture on a single slice. Safe to call concurrently for different slices.
+     */
+    public SliceResult measureSlice(ImagePlus imp, ImageStack stack, int slice) {
+        ImageProcessor ip;
+        String headerString;
+        String label;
+        if (stack.isVirtual()) {
+            // Virtual stacks decode from disk through shared state
+            synchronized (stack) {
+                ip = stack.getProcessor(slice);
+                label = IJU.getSliceFilename(imp, slice);
+                headerString = FitsJ.getHeaderString(imp, slice);
+            }
+        } else {
+            ip = stack.getProcessor(slice);
+            label = IJU.getSliceFilename(imp, slice);
+            headerString = FitsJ.getHeaderString(imp, slice);
+        }
+
+        var sliceImp = new ImagePlus(label, ip);
+        sliceImp.setCalibration(imp.getCalibration());
+
+        var hdr = FitsJ.getHeader(headerString, false);
+        WCS wcs = null;
+        var darkPerPix = settings.ccdDark();
+        var mjd = Double.NaN;
+        if (hdr != null) {
+            if (settings.useWcs()) {
+                wcs = new WCS(hdr);
+                if (!wcs.hasRaDec()) {
+                    wcs = null;
+                }
+            }
+
+            var exptime = FitsJ.getExposureTime(hdr);
+            if (Double.isNaN(exptime)) exptime = 1.0;
+            darkPerPix *= exptime;
+            if (!settings.darkKeyword().isBlank()) {
+                try {
+                    darkPerPix = FitsJ.findDoubleValue(settings.darkKeyword(), hdr);
+                } catch (NumberFormatException e) {
+                    darkPerPix = settings.ccdDark() * exptime;
+                }
+            }
+
+            mjd = FitsJ.getMeanMJD(hdr);
+            if (Double.isNaN(mjd)) {
+                mjd = FitsJ.getMJD(hdr);
+            }
+        }
+
+        var measurements = new Measurement[apertures.size()];
+        double xShift = 0, yShift = 0;
+        for (int ap = 0; ap < apertures.size(); ap++) {
+            var spec = apertures.get(ap);
+
+            // GET POSITION ESTIMATE
+            double x, y;
+            if (wcs != null && spec.hasRaDec()) {
+                var xy = wcs.wcs2pixels(new double[]{spec.ra(), spec.dec()});
+                x = xy[0];
+                y = xy[1];
+            } else {
+                // Follow the motion of T1 within this slice
+                x = spec.x() + xShift;
+                y = spec.y() + yShift;
+            }
+
+            // MEASURE NEW POSITION AND RECENTER IF CENTROID ENABLED
+            var center = new Centroid();
+            var centroidFound = center.measure(sliceImp, x, y, settings.radius(), settings.rBack1(),
+                    settings.rBack2(), spec.centroid(), settings.backIsPlane(), settings.removeBackStars());
+            if (centroidFound) {
+                if (ap == 0) {
+                    xShift = center.x() - x;
+                    yShift = center.y() - y;
+                }
+                x = center.x();
+                y = center.y();
+            }
+
+            var photom = new Photometer(imp.getCalibration(), true);
+            photom.setCCD(settings.ccdGain(), settings.ccdNoise(), darkPerPix);
+            photom.setRemoveBackStars(settings.removeBackStars());
+            photom.setMarkRemovedPixels(false);
+            photom.setUsePlane(settings.backIsPlane());
+            photom.measure(sliceImp, settings.exact(), x, y, settings.radius(), settings.rBack1(), settings.rBack2());
+
+            var raDec = wcs != null ? wcs.pixels2wcs(new double[]{x, y}) : null;
+
+            measurements[ap] = new Measurement(x, y, raDec == null ? Double.NaN : raDec[0],
+                    raDec == null ? Double.NaN : raDec[1], photom.sourceBrightness(), photom.sourceError(),
+                    photom.backgroundBrightness(), photom.numberOfSourceAperturePixels(),
+                    photom.numberOfBackgroundAperturePixels(), photom.peakBrightness(), photom.meanBrightness(),
+                    center.width(), center.height(), centroidFound);
+        }
+
+        return new SliceResult(slice, label, ip.getHeight(), mjd, measurements);
+    }
+
+    /**
+     * Append a slice result as a new row of {@code table}, using the same column names as {@link MultiAperture_}.
+     */
+    public void appendTo(MeasurementTable table, SliceResult result) {
+        table.incrementCounter();
+        table.addLabel(Aperture_.AP_IMAGE, result.label());
+        table.addValue(Aperture_.AP_SLICE, result.slice(), 0);
+        if (!Double.isNaN(result.mjd())) {
+            table.addValue(Aperture_.AP_MJD, result.mjd(), 6);
+            table.addValue(Aperture_.AP_JDUTC, result.mjd() + 2400000.0, 6);
+        }
+        table.addValue(Aperture_.AP_RSOURCE, settings.radius(), 6);
+        table.addValue(Aperture_.AP_RBACK1, settings.rBack1(), 6);
+        table.addValue(Aperture_.AP_RBACK2, settings.rBack2(), 6);
+
+        var measurements = result.measurements();
+        int n = measurements.length;
+
+        // Total comparison flux, excluding the aperture itself
+        var tot = new double[n];
+        var totVar = new double[n];
+        var totCcntAP = -1;
+        for (int ap = 0; ap < n; ap++) {
+            if (!apertures.get(ap).isComparison() && totCcntAP < 0) {
+                totCcntAP = ap;
+            }
+            if (apertures.get(ap).isComparison()) {
+                var m = measurements[ap];
+                for (int i = 0; i < n; i++) {
+                    if (i != ap) {
+                        tot[i] += m.source();
+                        totVar[i] += m.sourceError() * m.sourceError();
+                    }
+                }
+            }
+        }
+
+        for (int ap = 0; ap < n; ap++) {
+            var m = measurements[ap];
+            var suffix = apertures.get(ap).suffix(ap);
+            table.addValue(Aperture_.AP_XCENTER + suffix, m.x(), 6);
+            table.addValue(Aperture_.AP_YCENTER + suffix, m.y(), 6);
+            table.addValue(Aperture_.AP_XCENTER_FITS + suffix, m.x() + Centroid.PIXELCENTER, 6);
+            table.addValue(Aperture_.AP_YCENTER_FITS + suffix, (double) result.imageHeight() - m.y() + Centroid.PIXELCENTER, 6);
+            if (!Double.isNaN(m.ra())) {
+                table.addValue(Aperture_.AP_RA + suffix, m.ra() / 15.0, 6);
+                table.addValue(Aperture_.AP_DEC + suffix, m.dec(), 6);
+            }
+            table.addValue(Aperture_.AP_SOURCE + suffix, m.source(), 6);
+            table.addValue(Aperture_.AP_NAPERPIX + suffix, m.nSourcePixels(), 6);
+            table.addValue(Aperture_.AP_SOURCE_ERROR + suffix, m.sourceError(), 6);
+            table.addValue(Aperture_.AP_SOURCE_SNR + suffix, m.source() / m.sourceError(), 6);
+            table.addValue(Aperture_.AP_BACK + suffix, m.back(), 6);
+            table.addValue(Aperture_.AP_NBACKPIX + suffix, m.nBackPixels(), 6);
+            table.addValue(Aperture_.AP_PEAK + suffix, m.peak(), 6);
+            table.addValue(Aperture_.AP_MEAN + suffix, m.mean(), 6);
+            table.addValue(Aperture_.AP_XWIDTH + suffix, m.xWidth(), 6);
+            table.addValue(Aperture_.AP_YWIDTH + suffix, m.yWidth(), 6);
+        }
+
+        // COMPUTE APERTURE RATIO AND ERRORS
+        if (n > 1) {
+            for (int ap = 0; ap < n; ap++) {
+                var m = measurements[ap];
+                var name = (apertures.get(ap).isComparison() ? "C" : "T") + (ap + 1);
+                var ratio = tot[ap] == 0 ? 0 : m.source() / tot[ap];
+                table.addValue("rel_flux_" + name, ratio, 6);
+                if (m.source() == 0 || tot[ap] == 0) {
+                    table.addValue("rel_flux_err_" + name, 0.0, 6);
+                    table.addValue("rel_flux_SNR_" + name, 0.0, 6);
+                } else {
+                    var relErr = Math.sqrt(m.sourceError() * m.sourceError() / (m.source() * m.source()) +
+                            totVar[ap] / (tot[ap] * tot[ap]));
+                    table.addValue("rel_flux_err_" + name, ratio * relErr, 6);
+                    table.addValue("rel_flux_SNR_" + name, 1 / relErr, 6);
+                }
+            }
+            table.addValue(MultiAperture_.TOTAL, totCcntAP < 0 ? 0.0 : tot[totCcntAP], 6);
+            table.addValue(MultiAperture_.TOTAL_ERROR, totCcntAP < 0 ? 0.0 : Math.sqrt(totVar[totCcntAP]), 6);
+        }
+    }
+
+    public List<ApertureSpec> getApertures() {
+        return apertures;
+    }
+
+    public Settings getSettings() {
+        return settings;
+    }
+
+    private static SliceResult await(Future<SliceResult> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for photometry", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException r) {
+                throw r;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * @param x            x-position of the aperture in ImageJ pixel coordinates
+     * @param y            y-position of the aperture in ImageJ pixel coordinates
+     * @param ra           right ascension in degrees, used in place of x/y when WCS is enabled, NaN if unknown
+     * @param dec          declination in degrees, NaN if unknown
+     * @param isComparison true for comparison (C) apertures, false for targets (T)
+     * @param centroid     whether to recenter the aperture on each slice
+     */
+    public record ApertureSpec(double x, double y, double ra, double dec, boolean isComparison, boolean centroid) {
+        public boolean hasRaDec() {
+            return !Double.isNaN(ra) && !Double.isNaN(dec);
+        }
+
+        public String suffix(int ap) {
+            return (isComparison ? "_C" : "_T") + (ap + 1);
+        }
+    }
+
+    /**
+     * @param ccdDark      dark current per pixel per second, scaled by the exposure time of each slice
+     * @param darkKeyword  header keyword giving the dark current per pixel directly, blank to use {@code ccdDark}
+     * @param useWcs       position apertures from their RA/Dec when a slice has a valid WCS
+     * @param threads      number of worker threads, {@code <= 0} to use all but one processor
+     */
+    public record Settings(double radius, double rBack1, double rBack2, boolean exact, boolean backIsPlane,
+                           boolean removeBackStars, double ccdGain, double ccdNoise, double ccdDark,
+                           String darkKeyword, boolean useWcs, int threads) {
+    }
+
+    public record Measurement(double x, double y, double ra, double dec, double source, double sourceError,
+                              double back, double nSourcePixels, double nBackPixels, float peak, double mean,
+                              double xWidth, double yWidth, boolean centroidFound) {
+    }
+
+    public record SliceResult(int slice, String label, int imageHeight, double mjd, Measurement[] measurements) {
+    }
+}
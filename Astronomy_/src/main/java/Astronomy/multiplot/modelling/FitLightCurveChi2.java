@@ -1,8 +1,9 @@
 package Astronomy.multiplot.modelling;
 
-import astroj.IJU;
 import ij.measure.UserFunction;
 
+import java.util.Arrays;
+
 import static Astronomy.MultiPlot_.*;
 
 public class FitLightCurveChi2 implements UserFunction {
@@ -21,6 +22,7 @@ public class FitLightCurveChi2 implements UserFunction {
     int maxFittedVars;
     double[][] detrendVars;
     final int[] index;
+    private final TransitModel transitModel;
 
     public FitLightCurveChi2(int curve, double[] detrendY, double dof, double bp, double[] detrendX, double[] detrendYE,
                              boolean[] isFitted, double detrendYAverage, double[] priorCenter, int[] detrendIndex,
@@ -49,9 +51,33 @@ public class FitLightCurveChi2 implements UserFunction {
         this.maxFittedVars = maxFittedVars;
         this.detrendVars = detrendVars;
         this.index = index;
+        transitModel = new TransitModel(detrendX);
+        lcModel = new double[detrendX.length];
     }
 
     public double function(double[] params) {
+        return function(params, null);
+    }
+
+    /**
+     * The weighted residuals of the fit, whose sum of squares over {@code dof} is {@link #userFunction}, for least
+     * squares fitters. Unused entries are zero.
+     *
+     * @param residuals at least {@link #residualCount(int)} long.
+     * @return the value of {@link #userFunction}, not finite when the parameters are out of bounds.
+     */
+    public double residuals(double[] params, double[] residuals) {
+        return checkedFunction(params, residuals);
+    }
+
+    /**
+     * @return the number of residuals for {@code nPars} fitted parameters, the data points and their priors.
+     */
+    public int residualCount(int nPars) {
+        return detrendY.length + nPars;
+    }
+
+    private double function(double[] params, double[] residuals) {
         int numData = detrendY.length;
         int numDetrendVars = detrendVars.length;
         int nPars = params.length;
@@ -64,6 +90,10 @@ public class FitLightCurveChi2 implements UserFunction {
         var chi2 = 0D;
         double residual;
         int fp = 0;
+        int k = 0;
+        if (residuals != null) {
+            Arrays.fill(residuals, 0);
+        }
 
         double f0 = priorCenter[0]; // baseline flux
         double p0 = priorCenter[1]; // r_p/r_*
@@ -75,7 +105,6 @@ public class FitLightCurveChi2 implements UserFunction {
         double e = forceCircularOrbit[curve] ? 0.0 : eccentricity[curve];
         double ohm = forceCircularOrbit[curve] ? 0.0 : omega[curve];
         double b = 0.0;
-        double[] lcModel = null;
         if (useTransitFit[curve]) {
             f0 = lockToCenter[curve][0] ?
                     priorCenter[0] :
@@ -108,9 +137,8 @@ public class FitLightCurveChi2 implements UserFunction {
                     priorCenter[6] :
                     params[fp < nPars ? fp++ : nPars - 1];  //quadratic limb darkening parameter 2
 
-            lcModel = IJU.transitModel(detrendX, f0, incl, p0, ar, tc, orbitalPeriod[curve], e, ohm, u1, u2, useLonAscNode[curve], lonAscNode[curve], true);
-            var midpointFlux = IJU.transitModel(new double[]{
-                    tc}, f0, incl, p0, ar, tc, orbitalPeriod[curve], e, ohm, u1, u2, useLonAscNode[curve], lonAscNode[curve], true)[0];
+            transitModel.evaluate(lcModel, f0, incl, p0, ar, tc, orbitalPeriod[curve], e, ohm, u1, u2, useLonAscNode[curve], lonAscNode[curve], true);
+            var midpointFlux = transitModel.midTransitFlux(f0, incl, p0, ar, tc, orbitalPeriod[curve], e, ohm, u1, u2, useLonAscNode[curve], lonAscNode[curve], true);
             var depth = (1 - (midpointFlux / f0)) * 1000;
             if (depth < 0) {
                 return Double.NaN;
@@ -158,16 +186,16 @@ public class FitLightCurveChi2 implements UserFunction {
                 // if it's an angular parameter, make sure we handle the boundary
                 for (int p = 0; p < params.length - 1; p++) {
                     if (usePriorWidth[curve][index[p]]) {
+                        double chi;
                         if (index[p] == 4) {
-                            double chi = Math.atan2(Math.sin(params[p] - Math.toRadians(priorCenter[index[p]])), Math.cos(params[p] - Math.toRadians(priorCenter[index[p]]))) / Math.toRadians(priorWidth[curve][index[p]]);
-                            chi2 += chi * chi;
+                            chi = Math.atan2(Math.sin(params[p] - Math.toRadians(priorCenter[index[p]])), Math.cos(params[p] - Math.toRadians(priorCenter[index[p]]))) / Math.toRadians(priorWidth[curve][index[p]]);
                         } else if (index[p] == 1) {
-                            double chi = (params[p] * params[p] - priorCenter[index[p]]) / priorWidth[curve][index[p]];
-                            chi2 += chi * chi;
+                            chi = (params[p] * params[p] - priorCenter[index[p]]) / priorWidth[curve][index[p]];
                         } else {
-                            double chi = (params[p] - priorCenter[index[p]]) / priorWidth[curve][index[p]];
-                            chi2 += chi * chi;
+                            chi = (params[p] - priorCenter[index[p]]) / priorWidth[curve][index[p]];
                         }
+                        chi2 += chi * chi;
+                        if (residuals != null) residuals[k++] = chi;
                     }
                 }
 
@@ -179,6 +207,7 @@ public class FitLightCurveChi2 implements UserFunction {
                     }
                     residual -= (lcModel[j] - detrendYAverage);
                     chi2 += ((residual * residual) / (detrendYE[j] * detrendYE[j]));
+                    if (residuals != null) residuals[k++] = residual / detrendYE[j];
                 }
             }
         } else {
@@ -191,6 +220,7 @@ public class FitLightCurveChi2 implements UserFunction {
                     residual -= params[0];
                 }
                 chi2 += ((residual * residual) / (detrendYE[j] * detrendYE[j]));
+                if (residuals != null) residuals[k++] = residual / detrendYE[j];
             }
         }
         return chi2 / (double) dof;
@@ -198,6 +228,10 @@ public class FitLightCurveChi2 implements UserFunction {
 
     @Override
     public double userFunction(double[] params, double $) {
+        return checkedFunction(params, null);
+    }
+
+    private double checkedFunction(double[] params, double[] residuals) {
         int fp = 0;
         int nPars = params.length;
 
@@ -287,6 +321,6 @@ public class FitLightCurveChi2 implements UserFunction {
             }
         }
 
-        return function(params);
+        return function(params, residuals);
     }
 }
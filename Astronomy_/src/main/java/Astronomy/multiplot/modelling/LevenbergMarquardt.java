@@ -0,0 +1,242 @@
+package Astronomy.multiplot.modelling;
+
+import java.util.Arrays;
+
+/**
+ * Damped least squares minimizer, an alternative to the simplex of {@link ij.measure.Minimizer} for fits that are a
+ * sum of squared residuals.
+ * <p>
+ * The Jacobian is by forward differences. For {@link FitLightCurveChi2} most columns are cheap, as the
+ * {@link TransitModel} keeps the orbit and occultation when only the baseline flux, limb darkening or detrend
+ * parameters move, and the residuals are linear in the detrend parameters so their differences are exact.
+ * <p>
+ * Steps that leave the bounds of the fit, where the function is not finite, are rejected like any other step that
+ * does not improve it.
+ */
+public class LevenbergMarquardt {
+    private static final double INITIAL_DAMPING = 1e-3;
+    private static final double MAX_DAMPING = 1e16;
+    private final LeastSquaresFunction function;
+    private final int residualCount;
+    private final int maxIterations;
+    private final double tolerance;
+    private double[] params;
+    private double value = Double.NaN;
+    private int iterations;
+
+    /**
+     * @param residualCount the length of the residual vector the function fills.
+     * @param maxIterations the maximum number of damped steps.
+     * @param tolerance     the relative decrease of the function below which the fit has converged.
+     */
+    public LevenbergMarquardt(LeastSquaresFunction function, int residualCount, int maxIterations, double tolerance) {
+        this.function = function;
+        this.residualCount = residualCount;
+        this.maxIterations = maxIterations;
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * @param start the initial parameters.
+     * @param step  the scale of each parameter, as the initial simplex step, used for the difference steps.
+     * @return if the fit converged, which it has not if no step ever improved it, e.g. when the function does not
+     * respond to any parameter.
+     */
+    public boolean minimize(double[] start, double[] step) {
+        var n = start.length;
+        params = Arrays.copyOf(start, n);
+        iterations = 0;
+
+        var residuals = new double[residualCount];
+        value = function.residuals(params, residuals);
+        if (!Double.isFinite(value)) {
+            return false;
+        }
+
+        // Columns of the Jacobian, so each is contiguous
+        var jacobian = new double[n][residualCount];
+        var shifted = new double[residualCount];
+        var normal = new double[n][n];
+        var gradient = new double[n];
+        var damped = new double[n][n];
+        var delta = new double[n];
+        var trial = new double[n];
+        var trialResiduals = new double[residualCount];
+        var damping = INITIAL_DAMPING;
+        var progressed = false;
+
+        while (iterations < maxIterations) {
+            iterations++;
+
+            for (int k = 0; k < n; k++) {
+                difference(k, step[k], residuals, shifted, jacobian[k]);
+            }
+
+            for (int a = 0; a < n; a++) {
+                var ja = jacobian[a];
+                var g = 0D;
+                for (int i = 0; i < residualCount; i++) {
+                    g += ja[i] * residuals[i];
+                }
+                gradient[a] = g;
+                for (int b = 0; b <= a; b++) {
+                    var jb = jacobian[b];
+                    var sum = 0D;
+                    for (int i = 0; i < residualCount; i++) {
+                        sum += ja[i] * jb[i];
+                    }
+                    normal[a][b] = sum;
+                    normal[b][a] = sum;
+                }
+            }
+
+            var improved = false;
+            while (!improved && damping < MAX_DAMPING) {
+                for (int a = 0; a < n; a++) {
+                    System.arraycopy(normal[a], 0, damped[a], 0, n);
+                    // A parameter the function does not respond to keeps a unit diagonal and does not move
+                    damped[a][a] += damping * (normal[a][a] > 0 ? normal[a][a] : 1);
+                    delta[a] = -gradient[a];
+                }
+
+                if (!solve(damped, delta)) {
+                    damping *= 10;
+                    continue;
+                }
+
+                for (int k = 0; k < n; k++) {
+                    trial[k] = params[k] + delta[k];
+                }
+
+                var trialValue = function.residuals(trial, trialResiduals);
+                if (Double.isFinite(trialValue) && trialValue < value) {
+                    var decrease = value - trialValue;
+                    System.arraycopy(trial, 0, params, 0, n);
+                    System.arraycopy(trialResiduals, 0, residuals, 0, residualCount);
+                    value = trialValue;
+                    damping = Math.max(damping / 10, 1e-12);
+                    improved = true;
+                    progressed = true;
+
+                    if (decrease <= tolerance * value) {
+                        return true;
+                    }
+                } else {
+                    damping *= 10;
+                }
+            }
+
+            // No step improves the fit, so after earlier steps it is at the minimum as far as the residuals can
+            // resolve, and without any it is stuck where it started
+            if (!improved) {
+                return progressed;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the fitted parameters.
+     */
+    public double[] getParams() {
+        return Arrays.copyOf(params, params.length);
+    }
+
+    /**
+     * @return the value of the function for the fitted parameters.
+     */
+    public double getFunctionValue() {
+        return value;
+    }
+
+    /**
+     * @return the number of damped steps taken.
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Forward difference of the residuals in parameter {@code k}, or backward when the forward step leaves the
+     * bounds of the fit. The column is zero when neither is valid.
+     */
+    private void difference(int k, double scale, double[] residuals, double[] shifted, double[] column) {
+        var x = params[k];
+        var h = scale != 0 ? Math.abs(scale) * 1e-6 : Math.max(1, Math.abs(x)) * 1e-6;
+        h = Math.max(h, 1e3 * Math.ulp(x));
+
+        params[k] = x + h;
+        var valid = Double.isFinite(function.residuals(params, shifted));
+        if (!valid) {
+            h = -h;
+            params[k] = x + h;
+            valid = Double.isFinite(function.residuals(params, shifted));
+        }
+        params[k] = x;
+
+        if (!valid) {
+            Arrays.fill(column, 0);
+            return;
+        }
+
+        for (int i = 0; i < column.length; i++) {
+            column[i] = (shifted[i] - residuals[i]) / h;
+        }
+    }
+
+    /**
+     * Solves the symmetric positive definite system in place by Cholesky decomposition, {@code b} is replaced by
+     * the solution.
+     *
+     * @return false if the matrix is not positive definite.
+     */
+    private static boolean solve(double[][] a, double[] b) {
+        var n = b.length;
+        for (int j = 0; j < n; j++) {
+            var d = a[j][j];
+            for (int k = 0; k < j; k++) {
+                d -= a[j][k] * a[j][k];
+            }
+            if (!(d > 0)) {
+                return false;
+            }
+            a[j][j] = Math.sqrt(d);
+            for (int i = j + 1; i < n; i++) {
+                var s = a[i][j];
+                for (int k = 0; k < j; k++) {
+                    s -= a[i][k] * a[j][k];
+                }
+                a[i][j] = s / a[j][j];
+            }
+        }
+
+        for (int i = 0; i < n; i++) {
+            var s = b[i];
+            for (int k = 0; k < i; k++) {
+                s -= a[i][k] * b[k];
+            }
+            b[i] = s / a[i][i];
+        }
+        for (int i = n - 1; i >= 0; i--) {
+            var s = b[i];
+            for (int k = i + 1; k < n; k++) {
+                s -= a[k][i] * b[k];
+            }
+            b[i] = s / a[i][i];
+        }
+
+        return true;
+    }
+
+    @FunctionalInterface
+    public interface LeastSquaresFunction {
+        /**
+         * Fills {@code residuals} for {@code params}.
+         *
+         * @return the value minimized, proportional to the sum of squared residuals, or a non-finite value when the
+         * parameters are out of bounds.
+         */
+        double residuals(double[] params, double[] residuals);
+    }
+}
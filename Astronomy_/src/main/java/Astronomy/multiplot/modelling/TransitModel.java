@@ -0,0 +1,381 @@
+package Astronomy.multiplot.modelling;
+
+import static java.lang.Math.PI;
+import static java.lang.Math.abs;
+import static java.lang.Math.acos;
+import static java.lang.Math.atan;
+import static java.lang.Math.cos;
+import static java.lang.Math.pow;
+import static java.lang.Math.sin;
+import static java.lang.Math.sqrt;
+import static java.lang.Math.tan;
+
+import astroj.IJU;
+
+/**
+ * Light curve for the occultation of a quadratically limb-darkened star, evaluated at a fixed set of times into
+ * caller owned buffers. Based on EXOFASTv1, see {@link IJU#transitModel}.
+ * <p>
+ * A fit changes a few parameters per evaluation, so the work is kept in two layers: the sky-projected separation of
+ * the planet at each time, which depends only on the orbit, and the occulted fractions of the disk, which also depend
+ * on the planet radius. Evaluations that only change the baseline flux or the limb darkening reuse both.
+ * <p>
+ * An instance is not thread safe, each fit should have its own.
+ */
+public final class TransitModel {
+    // tolerance for double precision equalities
+    private static final double TOL = 1.0e-14;
+    private final double[] bjd;
+    private final double[] separation;
+    private final double[] height;
+    private final double[] z;
+    private final double[] lambdad;
+    private final double[] etad;
+    private final double[] lambdae;
+
+    // Orbit of the cached separations
+    private boolean hasOrbit;
+    private double inclination;
+    private double ar;
+    private double tc;
+    private double period;
+    private double e;
+    private double omega;
+    private boolean useLonAscNode;
+    private double lonAscNode;
+    private double tp;
+    private double cosInclination;
+    private double sinInclination;
+    private double oneMinusE2;
+    private double cosLonAscNode;
+    private double sinLonAscNode;
+
+    // Planet of the cached occultation
+    private boolean hasOccultation;
+    private double p0;
+    private boolean fitPrimary;
+
+    // Results of project and occult for a single time
+    private double projectedSeparation;
+    private double projectedHeight;
+    private double pointLambdad;
+    private double pointEtad;
+    private double pointLambdae;
+    // The elliptic integrals of the first and second kind from ellke
+    private double ek;
+    private double kk;
+
+    /**
+     * @param bjd the times to evaluate the model at, which must not change while the model is in use.
+     */
+    public TransitModel(double[] bjd) {
+        this.bjd = bjd;
+        separation = new double[bjd.length];
+        height = new double[bjd.length];
+        z = new double[bjd.length];
+        lambdad = new double[bjd.length];
+        etad = new double[bjd.length];
+        lambdae = new double[bjd.length];
+    }
+
+    /**
+     * Evaluates the model at each time, see {@link IJU#transitModel} for the parameters.
+     *
+     * @param out the buffer for the flux at each time, at least as long as the times.
+     * @return {@code out}
+     */
+    public double[] evaluate(double[] out, double f0, double inclination, double p0, double ar, double tc, double P,
+                             double e, double omega, double u1, double u2, boolean useLonAscNode, double lonAscNode,
+                             boolean fitPrimary) {
+        if (setOrbit(inclination, ar, tc, P, e, omega, useLonAscNode, lonAscNode)) {
+            for (int i = 0; i < bjd.length; i++) {
+                project(bjd[i]);
+                separation[i] = projectedSeparation;
+                height[i] = projectedHeight;
+            }
+            hasOccultation = false;
+        }
+
+        var p = abs(p0);
+        if (!hasOccultation || this.p0 != p0 || this.fitPrimary != fitPrimary) {
+            for (int i = 0; i < bjd.length; i++) {
+                if (isHidden(height[i], fitPrimary)) {
+                    continue;
+                }
+                z[i] = snap(separation[i], p);
+                occult(z[i], p);
+                lambdad[i] = pointLambdad;
+                etad[i] = pointEtad;
+                lambdae[i] = pointLambdae;
+            }
+            this.p0 = p0;
+            this.fitPrimary = fitPrimary;
+            hasOccultation = true;
+        }
+
+        for (int i = 0; i < bjd.length; i++) {
+            out[i] = isHidden(height[i], fitPrimary) ? f0 :
+                    flux(f0, p0, p, u1, u2, z[i], lambdad[i], etad[i], lambdae[i]);
+        }
+
+        return out;
+    }
+
+    /**
+     * The flux at the transit center time {@code tc}, as {@link #evaluate} would give for that time, from the
+     * position of the planet at {@code tc} rather than a model evaluated over an array of times. A different orbit
+     * than the cached one makes the next {@link #evaluate} recompute the separations.
+     */
+    public double midTransitFlux(double f0, double inclination, double p0, double ar, double tc, double P, double e,
+                                 double omega, double u1, double u2, boolean useLonAscNode, double lonAscNode,
+                                 boolean fitPrimary) {
+        if (setOrbit(inclination, ar, tc, P, e, omega, useLonAscNode, lonAscNode)) {
+            // The cached separations are still of the previous orbit
+            hasOrbit = false;
+        }
+        project(tc);
+        if (isHidden(projectedHeight, fitPrimary)) {
+            return f0;
+        }
+
+        var p = abs(p0);
+        var zMid = snap(projectedSeparation, p);
+        occult(zMid, p);
+        return flux(f0, p0, p, u1, u2, zMid, pointLambdad, pointEtad, pointLambdae);
+    }
+
+    /**
+     * @return if the orbit changed, invalidating the cached separations.
+     */
+    private boolean setOrbit(double inclination, double ar, double tc, double P, double e, double omega,
+                             boolean useLonAscNode, double lonAscNode) {
+        if (hasOrbit && this.inclination == inclination && this.ar == ar && this.tc == tc && period == P &&
+                this.e == e && this.omega == omega && this.useLonAscNode == useLonAscNode &&
+                this.lonAscNode == lonAscNode) {
+            return false;
+        }
+
+        this.inclination = inclination;
+        this.ar = ar;
+        this.tc = tc;
+        period = P;
+        this.e = e;
+        this.omega = omega;
+        this.useLonAscNode = useLonAscNode;
+        this.lonAscNode = lonAscNode;
+        tp = tc - P * IJU.getTcPhase(e, omega);
+        cosInclination = cos(inclination);
+        sinInclination = sin(inclination);
+        oneMinusE2 = 1.0 - e * e;
+        cosLonAscNode = useLonAscNode ? cos(lonAscNode) : 0;
+        sinLonAscNode = useLonAscNode ? sin(lonAscNode) : 0;
+        hasOrbit = true;
+
+        return true;
+    }
+
+    /**
+     * Position of the planet at time {@code t}, as {@link IJU#impactParameter}: the separation from the star in
+     * units of its radius and the height along the line of sight, positive when the planet is in front.
+     */
+    private void project(double t) {
+        var tau = 2D * PI;
+        var meananom = (tau * (1.0 + (t - tp) / period)) % (tau);
+        double trueanom;
+
+        //if eccentricity is given, integrate the orbit
+        if (e != 0.0) {
+            var eccanom = IJU.solveKeplerEq(meananom, e);
+            trueanom = 2.0 * atan(sqrt((1.0 + e) / (1.0 - e)) * tan(0.5 * eccanom));
+        } else {
+            trueanom = meananom;
+        }
+
+        // calculate the corresponding (x,y) coordinates of planet
+        var r = ar * oneMinusE2 / (1.0 + e * cos(trueanom));
+
+        //as seen from observer
+        var x = -r * cos(trueanom + omega);
+        var tmp = r * sin(trueanom + omega);
+        var y = -tmp * cosInclination;
+        projectedHeight = tmp * sinInclination;
+
+        //Rotate by the Longitude of Ascending Node
+        if (useLonAscNode) {
+            var xold = x;
+            var yold = y;
+            x = -xold * cosLonAscNode + yold * sinLonAscNode;
+            y = -xold * sinLonAscNode - yold * cosLonAscNode;
+        }
+
+        projectedSeparation = sqrt(x * x + y * y);
+    }
+
+    /**
+     * Only the part of the orbit where the modelled primary or secondary could occur is occulted, otherwise a full
+     * phase light curve, such as from TESS or Kepler, would have identical events at both times.
+     */
+    private static boolean isHidden(double height, boolean fitPrimary) {
+        return fitPrimary && height <= 0.0 || !fitPrimary && height > 0;
+    }
+
+    private static double snap(double z, double p) {
+        if (abs(p - z) < TOL) return p;
+        else if (abs((p - 1.0) - z) < TOL) return p - 1.0;
+        else if (abs((1.0 - p) - z) < TOL) return 1.0 - p;
+        else if (z < TOL) return 0.0;
+        return z;
+    }
+
+    private static double flux(double f0, double p0, double p, double u1, double u2, double z, double lambdad,
+                               double etad, double lambdae) {
+        // avoid Lutz-Kelker bias (negative values of p0 allowed)
+        var occulted = ((1.0 - u1 - 2.0 * u2) * lambdae + (u1 + 2.0 * u2) * (lambdad + 2.0 / 3.0 * (p > z ? 1 : 0)) +
+                u2 * etad) / (1.0 - u1 / 3.0 - u2 / 6.0);
+        return p0 > 0 ? (1.0 - occulted) * f0 : (1.0 + occulted) * f0;
+    }
+
+    /**
+     * Occulted fractions of the star by a planet of radius {@code p} at separation {@code z}, Mandel & Agol (2002)
+     * with the corrections of Eastman et al. (2013). The uniform disk fraction is {@code lambdae}, the limb-darkened
+     * ones are {@code lambdad} and {@code etad}.
+     */
+    private void occult(double z, double p) {
+        var lambdad = 0.0;
+        var etad = 0.0;
+        var lambdae = 0.0;
+        var p2 = p * p;
+        var z2 = z * z;
+        var x1 = (p - z) * (p - z);
+        var x2 = (p + z) * (p + z);
+        var x3 = p2 - z2;
+        double kap1, kap0, kapArg1, kapArg0, lambdaeArg, q, n;
+
+        done:
+        {
+            // Case 1 - the star is unocculted or there is no planet (p <= 0)
+            if (z >= (1.0 + p) || p <= 0.0) {
+                break done;
+            }
+
+            // Case 11 - the  source is completely occulted:
+            if (p >= 1.0 && z <= p - 1.0) {
+                etad = 0.5; // corrected typo in paper
+                lambdae = 1.0;
+                break done;
+            }
+
+            // Case 2, 7, 8 - ingress/egress (uniform disk only)
+            if (z >= abs(1.0 - p) && (z < 1.0 + p)) {
+                kapArg1 = (1.0 - p2 + z2) / 2.0 / z;
+                if (kapArg1 < -1.0) {
+                    kap1 = PI;
+                } else if (kapArg1 > 1.0) {
+                    kap1 = 0;
+                } else {
+                    kap1 = acos(kapArg1);
+                }
+                kapArg0 = (p2 + z2 - 1.0) / 2.0 / p / z;
+                if (kapArg0 < -1.0) {
+                    kap0 = PI;
+                } else if (kapArg0 > 1.0) {
+                    kap0 = 0;
+                } else {
+                    kap0 = acos(kapArg0);
+                }
+
+                lambdaeArg = 1.0 + z2 - p2;
+                lambdaeArg *= lambdaeArg;
+                lambdaeArg = 4.0 * z2 - lambdaeArg;
+                if (lambdaeArg < 0.0) lambdaeArg = 0.0;
+                lambdae = (p2 * kap0 + kap1 - 0.5 * sqrt(lambdaeArg)) / PI;
+                // eta_1
+                etad = 1.0 / 2.0 / PI * (kap1 + p2 * (p2 + 2.0 * z2) * kap0 - (1.0 + 5.0 * p2 + z2) / 4.0 * sqrt((1.0 - x1) * (x2 - 1.0)));
+            }
+
+            // Case 5, 6, 7 - the edge of planet lies at origin of star
+            if (z == p) {
+                if (p < 0.5) {
+                    // Case 5
+                    q = 2.0 * p; //corrected typo in paper (2k -> 2p)
+                    ellke(q);
+                    lambdad = 1.0 / 3.0 + 2.0 / 9.0 / PI * (4.0 * (2.0 * p2 - 1.0) * ek + (1.0 - 4.0 * p2) * kk);
+                    etad = 3.0 * p2 * p2 / 2.0;
+                    lambdae = p2;// uniform disk
+                } else if (p > 0.5) {
+                    // Case 7
+                    q = 0.5 / p; //corrected typo in paper (1/2k -> 1/2p)
+                    ellke(q);
+                    lambdad = 1.0 / 3.0 + 16.0 * p / 9.0 / PI * (2.0 * p2 - 1.0) * ek - (32.0 * p2 * p2 - 20.0 * p2 + 3.0) / 9.0 / PI / p * kk;
+                    // etad = eta_1 already
+                } else {
+                    // Case 6
+                    lambdad = 1.0 / 3.0 - 4.0 / PI / 9.0;
+                    etad = 3.0 / 32.0;
+                }
+                break done;
+            }
+
+            // Case 2, Case 8 - ingress/egress (with limb darkening)
+            if ((z > 0.5 + abs(p - 0.5) && z < 1.0 + p) || (p > 0.5 && z > abs(1.0 - p) && z < p)) {
+                q = sqrt((1.0 - x1) / (x2 - x1));
+                ellke(q);
+                n = 1.0 / x1 - 1.0;
+
+                // lambda_1:
+                lambdad = 2.0 / 9.0 / PI / sqrt(x2 - x1) * (((1.0 - x2) * (2.0 * x2 + x1 - 3.0) - 3.0 * x3 * (x2 - 2.0)) * kk + (x2 - x1) *
+                        (z2 + 7.0 * p2 - 4.0) * ek - 3.0 * x3 / x1 * IJU.ellpic_bulirsch(n, q));
+                break done;
+            }
+
+            // Case 3, 4, 9, 10 - planet completely inside star
+            if (p < 1.0 && z <= (1.0 - p)) {
+                // eta_2
+                etad = p2 / 2.0 * (p2 + 2.0 * z2);
+
+                // uniform disk
+                lambdae = p2;
+
+                // Case 4 - edge of planet hits edge of star
+                if (z == 1.0 - p) {
+                    // lambda_5
+                    lambdad = 2.0 / 3.0 / PI * acos(1.0 - 2.0 * p) - 4.0 / 9.0 / PI * sqrt(p * (1.0 - p)) * (3.0 + 2.0 * p - 8.0 * p2) - 2.0 / 3.0 * (p > 0.5 ? 1 : 0);
+                }
+
+                // Case 10 - origin of planet hits origin of star
+                else if (z == 0) {
+                    // lambda_6
+                    lambdad = -2.0 / 3.0 * pow((1.0 - p2), 1.5);
+                } else {
+                    q = sqrt((x2 - x1) / (1.0 - x1));
+                    n = x2 / x1 - 1.0;
+                    ellke(q);
+
+                    // Case 3, Case 9 - anywhere in between
+                    // lambda_2
+                    lambdad = 2.0 / 9.0 / PI / sqrt(1.0 - x1) * ((1.0 - 5.0 * z2 + p2 + x3 * x3) * kk + (1.0 - x1) * (z2 + 7.0 * p2 - 4.0) * ek - 3.0 * x3 / x1 * IJU.ellpic_bulirsch(n, q));
+                }
+            }
+        }
+
+        pointLambdad = lambdad;
+        pointEtad = etad;
+        pointLambdae = lambdae;
+    }
+
+    /**
+     * {@link IJU#ellke} into {@link #ek} and {@link #kk}, without the array.
+     */
+    private void ellke(double k) {
+        double m1 = 1.0 - k * k;
+        double logm1 = Math.log(m1);
+
+        double ee1 = 1.0 + m1 * (IJU.a1 + m1 * (IJU.a2 + m1 * (IJU.a3 + m1 * IJU.a4)));
+        double ee2 = m1 * (IJU.b1 + m1 * (IJU.b2 + m1 * (IJU.b3 + m1 * IJU.b4))) * (-logm1);
+        ek = ee1 + ee2;
+
+        double ek1 = IJU.aa0 + m1 * (IJU.aa1 + m1 * (IJU.aa2 + m1 * (IJU.aa3 + m1 * IJU.aa4)));
+        double ek2 = (IJU.bb0 + m1 * (IJU.bb1 + m1 * (IJU.bb2 + m1 * (IJU.bb3 + m1 * IJU.bb4)))) * logm1;
+        kk = ek1 - ek2;
+    }
+}
@@ -5,6 +5,7 @@ import Astronomy.FitOptimization;
 import ij.astro.logging.Translation;
 
 import java.math.BigInteger;
+import java.util.concurrent.RecursiveTask;
 
 @Translation(value = "Comparison Star Minimizer", trackThread = true)
 public class CompStarFitting extends Optimizer {
@@ -31,27 +32,8 @@ public class CompStarFitting extends Optimizer {
     }
 
     private FitOptimization.MinimumState bruteForceSolver() {
-        var minimumState = new FitOptimization.MinimumState();
-        BigInteger counter = BigInteger.ZERO;
         fitOptimization.compCounter.setSpinner(false);
-        CurveFitter curveFitter = CurveFitter.getInstance(curve, fitOptimization.getTargetStar());
-        for (BigInteger state = startState; state.compareTo(endState) <= 0; state = state.add(BigInteger.ONE)) {
-            if (state.equals(BigInteger.ZERO)) continue;
-            if (Thread.interrupted()) break;
-            fitOptimization.compCounter.dynamicSet(counter);
-
-            var x = fitOptimization.setArrayToState(state);
-            var r = curveFitter.fitCurveAndGetResults(x);
-
-            if (Double.isNaN(r.rms()) || r.rms() <= 0 || Double.isNaN(r.bic())) continue;
-
-            //AIJLogger.log(state.toString(2));
-            //AIJLogger.log(r);
-            var newState = new FitOptimization.MinimumState(state, r.rms());
-            if (newState.lessThan(minimumState)) minimumState = newState;
-            counter = counter.add(BigInteger.ONE);
-        }
-        return minimumState;
+        return new GrayCodeSearch(fitOptimization, startState.longValueExact(), endState.longValueExact() + 1).invoke();
     }
 
     private FitOptimization.MinimumState quickOptiSolver() {
@@ -212,6 +194,78 @@ public class CompStarFitting extends Optimizer {
         return i.bitCount() /*+ (i.testBit(0) ? 1 : 0)*/;
     }
 
+    /**
+     * Exhaustive search of the states {@code [start, end)} in Gray code order, so consecutive states differ by a
+     * single comparison star and {@link CurveFitter} only has to add or remove that star from the ensemble.
+     * <p>
+     * The range is split in half until it is at most {@link FitOptimization#getChunkSize()} states, the halves being
+     * left for idle threads of the pool to steal.
+     */
+    public static class GrayCodeSearch extends RecursiveTask<FitOptimization.MinimumState> {
+        /**
+         * The most options that can be searched, so that the state index and its Gray code fit in a long.
+         */
+        public static final int MAX_OPTIONS = 62;
+        private final FitOptimization fitOptimization;
+        private final long start;
+        private final long end;
+
+        public GrayCodeSearch(FitOptimization fitOptimization, long start, long end) {
+            this.fitOptimization = fitOptimization;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected FitOptimization.MinimumState compute() {
+            if (end - start <= fitOptimization.getChunkSize()) {
+                return search();
+            }
+
+            var middle = start + (end - start) / 2;
+            var left = new GrayCodeSearch(fitOptimization, start, middle);
+            left.fork();
+            var right = new GrayCodeSearch(fitOptimization, middle, end).compute();
+            var leftMinimum = left.join();
+
+            return right.lessThan(leftMinimum) ? right : leftMinimum;
+        }
+
+        private FitOptimization.MinimumState search() {
+            var minimumState = new FitOptimization.MinimumState();
+            var curveFitter = CurveFitter.getInstance(fitOptimization.getCurve(), fitOptimization.getTargetStar());
+            var pool = getPool();
+
+            var code = start ^ (start >>> 1);
+            var stateArray = fitOptimization.setArrayToState(code);
+            var i = start;
+            for (; i < end; i++) {
+                if (i > start) {
+                    // The Gray codes of i - 1 and i differ in the lowest set bit of i
+                    var bit = Long.numberOfTrailingZeros(i);
+                    code ^= 1L << bit;
+                    var ap = fitOptimization.getPrimaryIndex(bit);
+                    stateArray[ap] = !stateArray[ap];
+                }
+                if (code == 0) continue;
+                if (Thread.interrupted() || pool.isShutdown()) break;
+
+                var r = curveFitter.fitCurveAndGetResults(stateArray);
+
+                if (Double.isNaN(r.rms()) || r.rms() <= 0 || Double.isNaN(r.bic())) continue;
+
+                // Only the improvements allocate a state
+                if (r.rms() < minimumState.comparator() - FitOptimization.EPSILON) {
+                    minimumState = new FitOptimization.MinimumState(BigInteger.valueOf(code), r.rms());
+                }
+            }
+
+            // Count only the states reached before any interruption
+            fitOptimization.compCounter.add(i - start);
+            return minimumState;
+        }
+    }
+
     public enum Mode {
         EXHAUSTIVE,
         MODERATE,
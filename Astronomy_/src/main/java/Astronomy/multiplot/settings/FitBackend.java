@@ -0,0 +1,18 @@
+package Astronomy.multiplot.settings;
+
+public enum FitBackend {
+    SIMPLEX("Simplex"),
+    LEVENBERG_MARQUARDT("Levenberg-Marquardt"),
+    ;
+
+    private final String label;
+
+    FitBackend(String label) {
+        this.label = label;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
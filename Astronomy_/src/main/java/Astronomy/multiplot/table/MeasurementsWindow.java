@@ -69,6 +69,7 @@ import Astronomy.multiplot.table.util.OperationsHandler;
 import Astronomy.multiplot.table.util.SynchronizedSelectionModel;
 import Astronomy.multiplot.table.util.TriSortStateMeasurementsSorter;
 import Astronomy.multiplot.table.util.UpdateEvent;
+import Astronomy.periodogram.BatchPeriodogram;
 import astroj.MeasurementTable;
 import ij.IJ;
 import ij.Menus;
@@ -877,6 +878,12 @@ public class MeasurementsWindow extends JFrame implements ITableWindow {
         i = new MenuItem("Create Periodogram...");
         i.addActionListener(_ -> IJ.runPlugIn("Astronomy.Periodogram_", ""));
         m.add(i);
+        i = new MenuItem("Batch Periodogram...");
+        i.addActionListener(_ -> BatchPeriodogram.showDialog());
+        m.add(i);
+        i = new MenuItem("Query Batch Periodogram Results...");
+        i.addActionListener(_ -> BatchPeriodogram.showQueryDialog());
+        m.add(i);
         i = new MenuItem("Set Measurements...");
         i.addActionListener(_ -> IJ.runPlugIn("Astronomy.Set_Aperture", ""));
         m.add(i);
@@ -0,0 +1,540 @@
+package Astronomy.periodogram;
+
+import Astronomy.BLSCpu;
+import Astronomy.Periodogram_;
+import Astronomy.TLS;
+import astroj.MeasurementTable;
+import ij.IJ;
+import ij.astro.io.prefs.Property;
+import ij.astro.util.DaemonThreadFactory;
+import ij.gui.GenericDialog;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Runs BLS or TLS over many measurement tables and collects the strongest peaks of each into
+ * {@link PeriodogramResults}.
+ * <p>
+ * Curves are grouped by their timestamps. Curves observed at exactly the same times, such as the comparison stars of
+ * one photometry run, share one period grid and, for BLS, one phase fold per period: the bin of each point and the
+ * number of points per bin only depend on the times, so they are computed once and every curve of the group is
+ * folded through them. BLS work is split into blocks of periods over a fixed pool of all cores. TLS runs one curve at
+ * a time, as {@link TLS#search} already spreads the periods of a curve over the cores.
+ */
+public class BatchPeriodogram {
+    private static final int PERIOD_BLOCK = 64;
+    private static final Property<String> DIRECTORY = new Property<>("", BatchPeriodogram.class);
+    private static final Property<String> PATTERN = new Property<>("*.{tbl,csv,txt}", BatchPeriodogram.class);
+    private static final Property<String> OUTPUT = new Property<>("periodograms.aijp", BatchPeriodogram.class);
+    private static final Property<Algorithm> ALGORITHM = new Property<>(Algorithm.BLS, BatchPeriodogram.class);
+    private static final Property<String> TIME_COL = new Property<>("BJD_TDB", BatchPeriodogram.class);
+    private static final Property<String> FLUX_COL = new Property<>("rel_flux_T1", BatchPeriodogram.class);
+    private static final Property<Double> MIN_PERIOD = new Property<>(0.0, BatchPeriodogram.class);
+    private static final Property<Double> MAX_PERIOD = new Property<>(0.0, BatchPeriodogram.class);
+    private static final Property<Integer> STEPS = new Property<>(5000, BatchPeriodogram.class);
+    private static final Property<Double> MIN_FRACTIONAL_DURATION = new Property<>(0.01, BatchPeriodogram.class);
+    private static final Property<Double> MAX_FRACTIONAL_DURATION = new Property<>(0.1, BatchPeriodogram.class);
+    private static final Property<Integer> DURATION_STEPS = new Property<>(200, BatchPeriodogram.class);
+    private static final Property<Integer> PHASE_BINS = new Property<>(1000, BatchPeriodogram.class);
+    private static final Property<Integer> PEAK_COUNT = new Property<>(3, BatchPeriodogram.class);
+    private static final Property<Integer> THREADS = new Property<>(0, BatchPeriodogram.class);
+    private static final Property<String> QUERY_FILE = new Property<>("", BatchPeriodogram.class);
+    private static final Property<Double> QUERY_MIN_SDE = new Property<>(7.0, BatchPeriodogram.class);
+    private static final Property<Double> QUERY_MIN_PERIOD = new Property<>(0.0, BatchPeriodogram.class);
+    private static final Property<Double> QUERY_MAX_PERIOD = new Property<>(0.0, BatchPeriodogram.class);
+    private static final Property<Boolean> QUERY_FIRST_PEAK_ONLY = new Property<>(true, BatchPeriodogram.class);
+
+    private final Settings settings;
+    private final int threads;
+    private final AtomicInteger curvesDone = new AtomicInteger();
+
+    public BatchPeriodogram(Settings settings, int threads) {
+        this.settings = settings;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Asks for the tables and search settings, runs the search in the background and writes the results file.
+     */
+    public static void showDialog() {
+        var gd = new GenericDialog("Batch Periodogram");
+        gd.addDirectoryField("Directory", DIRECTORY.get());
+        gd.addStringField("Table file pattern", PATTERN.get(), 20);
+        gd.addStringField("Results file", OUTPUT.get(), 20);
+        gd.addEnumChoice("Algorithm", ALGORITHM.get());
+        gd.addStringField("Time column", TIME_COL.get(), 20);
+        gd.addStringField("Flux column", FLUX_COL.get(), 20);
+        gd.addNumericField("Min period (days, 0=auto)", MIN_PERIOD.get(), 4);
+        gd.addNumericField("Max period (days, 0=auto)", MAX_PERIOD.get(), 4);
+        gd.addNumericField("Period steps", STEPS.get(), 0);
+        gd.addNumericField("Min fractional duration", MIN_FRACTIONAL_DURATION.get(), 4);
+        gd.addNumericField("Max fractional duration", MAX_FRACTIONAL_DURATION.get(), 4);
+        gd.addNumericField("Duration steps", DURATION_STEPS.get(), 0);
+        gd.addNumericField("Phase bins", PHASE_BINS.get(), 0);
+        gd.addNumericField("Peaks per curve", PEAK_COUNT.get(), 0);
+        gd.addNumericField("Threads", THREADS.get(), 0, 10, "(0 = automatic)");
+        gd.addMessage("Tables are read from the directory, the results file is written there\n" +
+                "unless an absolute path is given. TLS uses the limb darkening and ingress\n" +
+                "grid defaults of the single-curve TLS search.");
+        gd.showDialog();
+        if (gd.wasCanceled()) {
+            return;
+        }
+
+        DIRECTORY.set(gd.getNextString());
+        PATTERN.set(gd.getNextString());
+        OUTPUT.set(gd.getNextString());
+        ALGORITHM.set(gd.getNextEnumChoice(Algorithm.class));
+        TIME_COL.set(gd.getNextString());
+        FLUX_COL.set(gd.getNextString());
+        MIN_PERIOD.set(gd.getNextNumber());
+        MAX_PERIOD.set(gd.getNextNumber());
+        STEPS.set((int) gd.getNextNumber());
+        MIN_FRACTIONAL_DURATION.set(gd.getNextNumber());
+        MAX_FRACTIONAL_DURATION.set(gd.getNextNumber());
+        DURATION_STEPS.set((int) gd.getNextNumber());
+        PHASE_BINS.set(Math.min(2000, Math.max(50, (int) gd.getNextNumber())));
+        PEAK_COUNT.set(Math.max(1, (int) gd.getNextNumber()));
+        THREADS.set(Math.max(0, (int) gd.getNextNumber()));
+
+        var settings = Settings.fromPreferences();
+        if (settings.minFractionalDuration() <= 0 || settings.minFractionalDuration() >= settings.maxFractionalDuration() ||
+                settings.nDurations() < 1 || settings.nPeriods() < 2) {
+            IJ.error("Batch Periodogram", "Invalid period or duration scan parameters.");
+            return;
+        }
+
+        var directory = Path.of(DIRECTORY.get());
+        List<Path> tables;
+        try {
+            tables = findTables(directory, PATTERN.get());
+        } catch (IOException e) {
+            IJ.error("Batch Periodogram", "Could not list " + directory + ": " + e.getMessage());
+            return;
+        }
+        if (tables.isEmpty()) {
+            IJ.error("Batch Periodogram", "No tables matching " + PATTERN.get() + " in " + directory);
+            return;
+        }
+        var output = directory.resolve(OUTPUT.get());
+        var threads = THREADS.get() > 0 ? THREADS.get() : Runtime.getRuntime().availableProcessors();
+
+        Thread.ofPlatform().name("Batch-Periodogram").daemon().start(() -> {
+            var start = System.nanoTime();
+            try {
+                var batch = new BatchPeriodogram(settings, threads);
+                var results = batch.run(tables, IJ::escapePressed);
+                results.write(output);
+                IJ.log("Batch periodogram: %d peaks from %d of %d tables written to %s in %.1f s"
+                        .formatted(results.size(), results.curves().size(), tables.size(), output,
+                                (System.nanoTime() - start) / 1e9));
+            } catch (IOException e) {
+                IJ.error("Batch Periodogram", "Could not write " + output + ": " + e.getMessage());
+            } catch (ExecutionException e) {
+                var trace = new StringWriter();
+                e.getCause().printStackTrace(new PrintWriter(trace));
+                IJ.log("Batch periodogram failed: " + trace);
+                IJ.error("Batch Periodogram", "Batch periodogram failed: " + e.getCause() +
+                        "\n \nSee the Log window for the full stack trace.");
+            } catch (InterruptedException e) {
+                IJ.log("Batch periodogram interrupted.");
+            }
+            IJ.showProgress(1.0);
+        });
+    }
+
+    /**
+     * Opens a results file and shows the peaks passing the chosen limits as a table.
+     */
+    public static void showQueryDialog() {
+        var gd = new GenericDialog("Query Batch Periodogram Results");
+        gd.addFileField("Results file", QUERY_FILE.get().isEmpty() ?
+                Path.of(DIRECTORY.get()).resolve(OUTPUT.get()).toString() : QUERY_FILE.get());
+        gd.addNumericField("Minimum SDE", QUERY_MIN_SDE.get(), 2);
+        gd.addNumericField("Min period (days, 0=any)", QUERY_MIN_PERIOD.get(), 4);
+        gd.addNumericField("Max period (days, 0=any)", QUERY_MAX_PERIOD.get(), 4);
+        gd.addCheckbox("Strongest peak of each curve only", QUERY_FIRST_PEAK_ONLY.get());
+        gd.showDialog();
+        if (gd.wasCanceled()) {
+            return;
+        }
+
+        QUERY_FILE.set(gd.getNextString());
+        QUERY_MIN_SDE.set(gd.getNextNumber());
+        QUERY_MIN_PERIOD.set(gd.getNextNumber());
+        QUERY_MAX_PERIOD.set(gd.getNextNumber());
+        QUERY_FIRST_PEAK_ONLY.set(gd.getNextBoolean());
+
+        PeriodogramResults results;
+        try {
+            results = PeriodogramResults.read(Path.of(QUERY_FILE.get()));
+        } catch (IOException e) {
+            IJ.error("Batch Periodogram", e.getMessage());
+            return;
+        }
+
+        double minSde = QUERY_MIN_SDE.get();
+        double minPeriod = QUERY_MIN_PERIOD.get();
+        double maxPeriod = QUERY_MAX_PERIOD.get() > 0 ? QUERY_MAX_PERIOD.get() : Double.POSITIVE_INFINITY;
+        var rows = results.select(PeriodogramResults.Column.SDE, sde -> sde >= minSde);
+        rows = results.select(rows, PeriodogramResults.Column.PERIOD, p -> p >= minPeriod && p <= maxPeriod);
+        if (QUERY_FIRST_PEAK_ONLY.get()) {
+            rows = Arrays.stream(rows).filter(row -> results.peak(row) == 1).toArray();
+        }
+        results.toResultsTable(rows).show(results.algorithm() + " peaks - " + Path.of(QUERY_FILE.get()).getFileName());
+    }
+
+    /**
+     * The files in {@code directory} whose names match the glob {@code pattern}, sorted by name.
+     */
+    public static List<Path> findTables(Path directory, String pattern) throws IOException {
+        var matcher = directory.getFileSystem().getPathMatcher("glob:" + pattern);
+        try (var files = Files.list(directory)) {
+            return files.filter(Files::isRegularFile)
+                    .filter(p -> matcher.matches(p.getFileName()))
+                    .sorted(Comparator.comparing(Path::getFileName))
+                    .toList();
+        }
+    }
+
+    /**
+     * Searches every table, tables that cannot be read or lack the columns are logged and skipped.
+     *
+     * @param cancelled checked between blocks of periods, the peaks of the curves finished so far are returned
+     */
+    public PeriodogramResults run(List<Path> tables, BooleanSupplier cancelled)
+            throws ExecutionException, InterruptedException {
+        var builder = PeriodogramResults.builder(settings.algorithm().toString());
+        var pool = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("Batch-Periodogram"));
+        try {
+            var groups = load(tables, pool);
+            var total = groups.values().stream().mapToInt(List::size).sum();
+            IJ.log("Batch periodogram: %d curves in %d timestamp groups".formatted(total, groups.size()));
+            for (var group : groups.entrySet()) {
+                if (cancelled.getAsBoolean()) {
+                    break;
+                }
+                switch (settings.algorithm()) {
+                    case BLS -> searchBls(group.getKey().time(), group.getValue(), pool, builder, cancelled);
+                    case TLS -> searchTls(group.getKey().time(), group.getValue(), builder, cancelled);
+                }
+                IJ.showProgress(curvesDone.get(), total);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return builder.build();
+    }
+
+    /**
+     * Reads the tables on the pool and groups the curves by timestamps, keeping the order of the tables.
+     */
+    private LinkedHashMap<Timestamps, List<Curve>> load(List<Path> tables, ExecutorService pool)
+            throws ExecutionException, InterruptedException {
+        var futures = new ArrayList<Future<Curve>>(tables.size());
+        for (Path path : tables) {
+            futures.add(pool.submit(() -> Curve.read(path, settings.timeColumn(), settings.fluxColumn())));
+        }
+        var groups = new LinkedHashMap<Timestamps, List<Curve>>();
+        for (Future<Curve> future : futures) {
+            var curve = future.get();
+            if (curve != null) {
+                groups.computeIfAbsent(new Timestamps(curve.time()), _ -> new ArrayList<>()).add(curve);
+            }
+        }
+        return groups;
+    }
+
+    private void searchBls(double[] time, List<Curve> curves, ExecutorService pool,
+                           PeriodogramResults.Builder builder, BooleanSupplier cancelled)
+            throws ExecutionException, InterruptedException {
+        var periods = settings.periodGrid(time);
+        if (periods == null) {
+            return;
+        }
+        var nPeriods = periods.length;
+        var nBins = settings.nBins();
+        var nDurations = settings.nDurations();
+        var minFracDur = settings.minFractionalDuration();
+        var maxFracDur = settings.maxFractionalDuration();
+
+        var nCurves = curves.size();
+        var power = new double[nCurves][nPeriods];
+        var duration = new double[nCurves][nPeriods];
+        var depth = new double[nCurves][nPeriods];
+        var phase = new double[nCurves][nPeriods];
+
+        var tasks = new ArrayList<Callable<Void>>();
+        for (int from = 0; from < nPeriods; from += PERIOD_BLOCK) {
+            var first = from;
+            var last = Math.min(nPeriods, from + PERIOD_BLOCK);
+            tasks.add(() -> {
+                var bins = new int[time.length];
+                var binN = new int[nBins];
+                var binFlux = new double[nBins];
+                var best = new double[4];
+                for (int p = first; p < last && !cancelled.getAsBoolean(); p++) {
+                    var period = periods[p];
+                    var invPeriod = 1.0 / period;
+
+                    // The fold only depends on the times, so it is shared by every curve of the group.
+                    // The bins are those of BLSCpu#fold, so each curve gets exactly the single-curve result.
+                    Arrays.fill(binN, 0);
+                    for (int j = 0; j < time.length; j++) {
+                        var ph = time[j] * invPeriod;
+                        ph -= Math.floor(ph);
+                        var bin = (int) (ph * (double) nBins);
+                        if (bin < 0 || bin >= nBins) bin = nBins - 1;
+                        bins[j] = bin;
+                        binN[bin]++;
+                    }
+
+                    for (int c = 0; c < nCurves; c++) {
+                        var flux = curves.get(c).flux();
+                        Arrays.fill(binFlux, 0);
+                        for (int j = 0; j < flux.length; j++) {
+                            binFlux[bins[j]] += flux[j];
+                        }
+                        BLSCpu.slide(binFlux, binN, period, nDurations, minFracDur, maxFracDur, best);
+                        power[c][p] = best[0];
+                        duration[c][p] = best[1];
+                        depth[c][p] = best[2];
+                        phase[c][p] = best[3];
+                    }
+                }
+                return null;
+            });
+        }
+        for (Future<Void> future : pool.invokeAll(tasks)) {
+            future.get();
+        }
+        if (cancelled.getAsBoolean()) {
+            return;
+        }
+
+        for (int c = 0; c < nCurves; c++) {
+            var sde = toSde(power[c]);
+            var peaks = strongestPeaks(sde, settings.peaks());
+            for (int k = 0; k < peaks.length; k++) {
+                var p = peaks[k];
+                builder.add(curves.get(c).name(), k + 1, periods[p], sde[p], depth[c][p], duration[c][p],
+                        firstEpoch(phase[c][p], periods[p], time[0]));
+            }
+            curvesDone.incrementAndGet();
+        }
+    }
+
+    private void searchTls(double[] time, List<Curve> curves, PeriodogramResults.Builder builder,
+                           BooleanSupplier cancelled) {
+        var periods = settings.periodGrid(time);
+        if (periods == null) {
+            return;
+        }
+        for (Curve curve : curves) {
+            if (cancelled.getAsBoolean()) {
+                return;
+            }
+            var result = TLS.search(time, curve.flux(), periods[periods.length - 1], periods[0], periods.length,
+                    settings.minFractionalDuration(), settings.maxFractionalDuration(), settings.nDurations(),
+                    settings.nBins(), settings.u1Grid(), settings.u2Grid(), settings.ingressGrid(), null,
+                    cancelled);
+            if (cancelled.getAsBoolean()) {
+                return;
+            }
+            var peaks = strongestPeaks(result.sde, settings.peaks());
+            for (int k = 0; k < peaks.length; k++) {
+                var p = peaks[k];
+                // TLS only refines the epoch of its best period
+                builder.add(curve.name(), k + 1, result.periods[p], result.sde[p], result.bestDepths[p],
+                        result.bestDurations[p], k == 0 ? result.t0_sliding : Double.NaN);
+            }
+            curvesDone.incrementAndGet();
+        }
+    }
+
+    /**
+     * Normalizes power to signal detection efficiency as {@link TLS} does: the median and deviation are taken
+     * excluding 1% of the grid either side of the highest peak.
+     */
+    static double[] toSde(double[] power) {
+        var n = power.length;
+        var bestIdx = 0;
+        for (int i = 1; i < n; i++) {
+            if (power[i] > power[bestIdx]) bestIdx = i;
+        }
+        var window = Math.max(1, n / 100);
+        var stats = new double[n];
+        var count = 0;
+        for (int i = 0; i < n; i++) {
+            if (!Double.isNaN(power[i]) && Math.abs(i - bestIdx) > window) {
+                stats[count++] = power[i];
+            }
+        }
+        double median = 0, std = 0;
+        if (count > 0) {
+            Arrays.sort(stats, 0, count);
+            median = stats[count / 2];
+            var sumsq = 0D;
+            for (int i = 0; i < count; i++) {
+                sumsq += (stats[i] - median) * (stats[i] - median);
+            }
+            std = Math.sqrt(sumsq / count);
+        }
+        var sde = new double[n];
+        for (int i = 0; i < n; i++) {
+            sde[i] = std > 0 ? (power[i] - median) / std : 0;
+        }
+        return sde;
+    }
+
+    /**
+     * The indices of up to {@code count} local maxima of {@code sde}, highest first, at least 1% of the grid apart.
+     * The global maximum is always first.
+     */
+    static int[] strongestPeaks(double[] sde, int count) {
+        var n = sde.length;
+        var separation = Math.max(1, n / 100);
+        var candidates = new ArrayList<Integer>();
+        for (int i = 1; i < n - 1; i++) {
+            if (sde[i] > sde[i - 1] && sde[i] > sde[i + 1]) {
+                candidates.add(i);
+            }
+        }
+        var best = 0;
+        for (int i = 1; i < n; i++) {
+            if (sde[i] > sde[best]) best = i;
+        }
+        candidates.sort((a, b) -> Double.compare(sde[b], sde[a]));
+
+        var peaks = new int[Math.max(1, count)];
+        peaks[0] = best;
+        var found = 1;
+        for (int i = 0; i < candidates.size() && found < peaks.length; i++) {
+            var candidate = candidates.get(i);
+            var tooClose = false;
+            for (int k = 0; k < found; k++) {
+                if (Math.abs(candidate - peaks[k]) < separation) {
+                    tooClose = true;
+                    break;
+                }
+            }
+            if (!tooClose) {
+                peaks[found++] = candidate;
+            }
+        }
+        return Arrays.copyOf(peaks, found);
+    }
+
+    /**
+     * The first box center at or after {@code start}, from a phase measured from time zero.
+     */
+    private static double firstEpoch(double phase, double period, double start) {
+        return phase + Math.ceil((start - phase) / period) * period;
+    }
+
+    public enum Algorithm {
+        BLS,
+        TLS
+    }
+
+    public record Settings(Algorithm algorithm, String timeColumn, String fluxColumn, double minPeriod,
+                           double maxPeriod, int nPeriods, double minFractionalDuration, double maxFractionalDuration,
+                           int nDurations, int nBins, int peaks, double[] u1Grid, double[] u2Grid,
+                           double[] ingressGrid) {
+        public static Settings fromPreferences() {
+            return new Settings(ALGORITHM.get(), TIME_COL.get(), FLUX_COL.get(), MIN_PERIOD.get(), MAX_PERIOD.get(),
+                    STEPS.get(), MIN_FRACTIONAL_DURATION.get(), MAX_FRACTIONAL_DURATION.get(), DURATION_STEPS.get(),
+                    PHASE_BINS.get(), PEAK_COUNT.get(), Periodogram_.buildLinearGrid(0.20, 0.60, 3),
+                    Periodogram_.buildLinearGrid(0.00, 0.40, 3), Periodogram_.buildLinearGrid(0.05, 0.45, 5));
+        }
+
+        /**
+         * The periods of a uniform frequency grid, as the single-curve search uses, longest first. Unset limits are
+         * taken from the time span of the curve.
+         *
+         * @return null if the limits are invalid for these times
+         */
+        double[] periodGrid(double[] time) {
+            var span = time[time.length - 1] - time[0];
+            var min = minPeriod > 0 ? minPeriod : span / 20.0;
+            var max = maxPeriod > 0 ? maxPeriod : span * 0.8;
+            if (min <= 0 || max <= 0 || min >= max || nPeriods < 2) {
+                return null;
+            }
+            var minFreq = 1.0 / max;
+            var maxFreq = 1.0 / min;
+            var periods = new double[nPeriods];
+            for (int i = 0; i < nPeriods; i++) {
+                periods[i] = 1.0 / (minFreq + i * (maxFreq - minFreq) / (nPeriods - 1));
+            }
+            return periods;
+        }
+    }
+
+    /**
+     * One light curve, the finite points of a table sorted by time.
+     */
+    record Curve(String name, double[] time, double[] flux) {
+        static Curve read(Path path, String timeColumn, String fluxColumn) {
+            var name = path.getFileName().toString();
+            var table = MeasurementTable.getTableFromFile(path.toString(), List.of(timeColumn, fluxColumn));
+            if (table == null) {
+                IJ.log("Batch periodogram: could not read " + path);
+                return null;
+            }
+            var timeCol = table.getColumnIndex(timeColumn);
+            var fluxCol = table.getColumnIndex(fluxColumn);
+            if (timeCol == MeasurementTable.COLUMN_NOT_FOUND || fluxCol == MeasurementTable.COLUMN_NOT_FOUND) {
+                IJ.log("Batch periodogram: " + name + " has no " + timeColumn + " or " + fluxColumn + " column");
+                return null;
+            }
+            var time = table.getDoubleColumn(timeCol);
+            var flux = table.getDoubleColumn(fluxCol);
+
+            var order = new ArrayList<Integer>(time.length);
+            for (int i = 0; i < time.length; i++) {
+                if (Double.isFinite(time[i]) && Double.isFinite(flux[i])) {
+                    order.add(i);
+                }
+            }
+            if (order.size() < 10) {
+                IJ.log("Batch periodogram: " + name + " has fewer than 10 points");
+                return null;
+            }
+            order.sort(Comparator.comparingDouble(i -> time[i]));
+            return new Curve(name, order.stream().mapToDouble(i -> time[i]).toArray(),
+                    order.stream().mapToDouble(i -> flux[i]).toArray());
+        }
+    }
+
+    /**
+     * The times of a group of curves, equal by content.
+     */
+    record Timestamps(double[] time) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Timestamps(double[] other) && Arrays.equals(time, other);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(time);
+        }
+    }
+}
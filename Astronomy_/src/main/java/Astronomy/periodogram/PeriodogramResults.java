@@ -0,0 +1,250 @@
+package Astronomy.periodogram;
+
+import ij.measure.ResultsTable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.DoublePredicate;
+import java.util.stream.IntStream;
+
+/**
+ * The peaks found by a {@link BatchPeriodogram} run, one row per curve and peak, stored by column.
+ * <p>
+ * The file holds a short header, the curve names, then each column as one contiguous block of values, so a results
+ * file for thousands of curves is a few tens of bytes per peak and is read back in one pass through a buffered stream.
+ */
+public final class PeriodogramResults {
+    private static final int MAGIC = 0x41494A50; // "AIJP"
+    private static final int VERSION = 1;
+
+    private final String algorithm;
+    private final List<String> curves;
+    private final int rows;
+    private final int[] curve;
+    private final int[] peak;
+    private final double[][] values;
+
+    private PeriodogramResults(String algorithm, List<String> curves, int rows, int[] curve, int[] peak,
+                               double[][] values) {
+        this.algorithm = algorithm;
+        this.curves = curves;
+        this.rows = rows;
+        this.curve = curve;
+        this.peak = peak;
+        this.values = values;
+    }
+
+    public static Builder builder(String algorithm) {
+        return new Builder(algorithm);
+    }
+
+    public static PeriodogramResults read(Path path) throws IOException {
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a periodogram results file: " + path);
+            }
+            var version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported periodogram results version " + version + ": " + path);
+            }
+            var algorithm = in.readUTF();
+            var curveCount = in.readInt();
+            var curves = new ArrayList<String>(curveCount);
+            for (int i = 0; i < curveCount; i++) {
+                curves.add(in.readUTF());
+            }
+            var rows = in.readInt();
+            var curve = new int[rows];
+            var peak = new int[rows];
+            readInts(in, curve);
+            readInts(in, peak);
+            var values = new double[Column.values().length][rows];
+            for (double[] column : values) {
+                for (int i = 0; i < rows; i++) {
+                    column[i] = in.readDouble();
+                }
+            }
+            return new PeriodogramResults(algorithm, List.copyOf(curves), rows, curve, peak, values);
+        }
+    }
+
+    public void write(Path path) throws IOException {
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(algorithm);
+            out.writeInt(curves.size());
+            for (String name : curves) {
+                out.writeUTF(name);
+            }
+            out.writeInt(rows);
+            writeInts(out, curve);
+            writeInts(out, peak);
+            for (double[] column : values) {
+                for (int i = 0; i < rows; i++) {
+                    out.writeDouble(column[i]);
+                }
+            }
+        }
+    }
+
+    public String algorithm() {
+        return algorithm;
+    }
+
+    public int size() {
+        return rows;
+    }
+
+    public List<String> curves() {
+        return curves;
+    }
+
+    public String curveName(int row) {
+        return curves.get(curve[row]);
+    }
+
+    /**
+     * The rank of the row's peak within its curve, 1 for the highest.
+     */
+    public int peak(int row) {
+        return peak[row];
+    }
+
+    public double value(Column column, int row) {
+        return values[column.ordinal()][row];
+    }
+
+    /**
+     * The rows whose value in {@code column} passes {@code filter}, in file order.
+     */
+    public int[] select(Column column, DoublePredicate filter) {
+        var data = values[column.ordinal()];
+        return IntStream.range(0, rows).filter(i -> filter.test(data[i])).toArray();
+    }
+
+    /**
+     * The rows of {@code rows} whose value in {@code column} passes {@code filter}, for chaining selections.
+     */
+    public int[] select(int[] rows, Column column, DoublePredicate filter) {
+        var data = values[column.ordinal()];
+        return Arrays.stream(rows).filter(i -> filter.test(data[i])).toArray();
+    }
+
+    /**
+     * The rows of the given curve.
+     */
+    public int[] rowsOf(String curveName) {
+        var index = curves.indexOf(curveName);
+        return IntStream.range(0, rows).filter(i -> curve[i] == index).toArray();
+    }
+
+    /**
+     * The given rows as a table, one line per row.
+     */
+    public ResultsTable toResultsTable(int[] rows) {
+        var table = new ResultsTable(rows.length);
+        for (int r = 0; r < rows.length; r++) {
+            var row = rows[r];
+            table.setValue("Curve", r, curveName(row));
+            table.setValue("Pk", r, peak[row]);
+            for (Column column : Column.values()) {
+                table.setValue(column.toString(), r, values[column.ordinal()][row]);
+            }
+        }
+        table.setDecimalPlaces(table.getColumnIndex("Pk"), 0);
+        return table;
+    }
+
+    private static void readInts(DataInputStream in, int[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readInt();
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    public enum Column {
+        PERIOD("Period"),
+        SDE("SDE"),
+        DEPTH("Depth"),
+        DURATION("Duration"),
+        T0("T0");
+
+        private final String name;
+
+        Column(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * Collects rows, which may be added from several threads.
+     */
+    public static final class Builder {
+        private final String algorithm;
+        private final List<String> curves = new ArrayList<>();
+        private final HashMap<String, Integer> curveIndex = new HashMap<>();
+        private int rows;
+        private int[] curve = new int[1024];
+        private int[] peak = new int[1024];
+        private double[][] values = new double[Column.values().length][1024];
+
+        private Builder(String algorithm) {
+            this.algorithm = algorithm;
+        }
+
+        /**
+         * Adds a peak of {@code curveName}, values are in {@link Column} order.
+         */
+        public synchronized void add(String curveName, int peakNumber, double period, double sde, double depth,
+                                     double duration, double t0) {
+            if (rows == curve.length) {
+                var length = 2 * rows;
+                curve = Arrays.copyOf(curve, length);
+                peak = Arrays.copyOf(peak, length);
+                for (int c = 0; c < values.length; c++) {
+                    values[c] = Arrays.copyOf(values[c], length);
+                }
+            }
+            curve[rows] = curveIndex.computeIfAbsent(curveName, name -> {
+                curves.add(name);
+                return curves.size() - 1;
+            });
+            peak[rows] = peakNumber;
+            values[Column.PERIOD.ordinal()][rows] = period;
+            values[Column.SDE.ordinal()][rows] = sde;
+            values[Column.DEPTH.ordinal()][rows] = depth;
+            values[Column.DURATION.ordinal()][rows] = duration;
+            values[Column.T0.ordinal()][rows] = t0;
+            rows++;
+        }
+
+        public synchronized PeriodogramResults build() {
+            var trimmed = new double[values.length][];
+            for (int c = 0; c < values.length; c++) {
+                trimmed[c] = Arrays.copyOf(values[c], rows);
+            }
+            return new PeriodogramResults(algorithm, List.copyOf(curves), rows, Arrays.copyOf(curve, rows),
+                    Arrays.copyOf(peak, rows), trimmed);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package Astronomy.photometer;
+
+import Astronomy.calibration.RejectionKernels;
+
+import java.util.Arrays;
+
+/**
+ * Estimates the background of an aperture from its annulus pixels, held as parallel primitive arrays.
+ * <p>
+ * Each thread reuses one estimator from {@link #get()}, so measuring an aperture allocates nothing once the arrays
+ * have grown to the largest annulus seen. Pixel positions are stored relative to the aperture center, the same
+ * coordinates the fitted plane is evaluated at.
+ */
+public final class BackgroundEstimator {
+    private static final ThreadLocal<BackgroundEstimator> SCRATCH = ThreadLocal.withInitial(BackgroundEstimator::new);
+
+    private double[] x = new double[256];
+    private double[] y = new double[256];
+    private float[] z = new float[256];
+    private float[] work = new float[256];
+    private int size;
+    private double stdev;
+    private double c0, c1, c2;
+
+    private BackgroundEstimator() {
+    }
+
+    /**
+     * The calling thread's estimator, emptied.
+     */
+    public static BackgroundEstimator get() {
+        var estimator = SCRATCH.get();
+        estimator.size = 0;
+        estimator.stdev = 0;
+        return estimator;
+    }
+
+    /**
+     * Adds a pixel at offset {@code (dx, dy)} from the aperture center.
+     */
+    public void add(double dx, double dy, float value) {
+        if (size == z.length) {
+            var length = 2 * size;
+            x = Arrays.copyOf(x, length);
+            y = Arrays.copyOf(y, length);
+            z = Arrays.copyOf(z, length);
+            work = new float[length];
+        }
+        x[size] = dx;
+        y[size] = dy;
+        z[size] = value;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double mean() {
+        var sum = 0D;
+        for (int i = 0; i < size; i++) {
+            sum += z[i];
+        }
+        return size > 0 ? sum / size : 0;
+    }
+
+    public double sumOfSquares() {
+        var sum2 = 0D;
+        for (int i = 0; i < size; i++) {
+            double d = z[i];
+            sum2 += d * d;
+        }
+        return sum2;
+    }
+
+    /**
+     * The standard deviation of the pixels kept by the last {@link #removeStars()}.
+     */
+    public double stdev() {
+        return stdev;
+    }
+
+    /**
+     * Removes stars from the background: pixels more than two standard deviations from the mean are dropped, and the
+     * mean and deviation recomputed from the remaining pixels, until the mean settles.
+     */
+    public void removeStars() {
+        if (size == 0) {
+            return;
+        }
+        var mean = mean();
+        var meanSquare = sumOfSquares() / size;
+        var previousMean = 0D;
+        var low = Double.NEGATIVE_INFINITY;
+        var high = Double.POSITIVE_INFINITY;
+        for (int iteration = 0; iteration < 100; iteration++) {
+            stdev = Math.sqrt(Math.max(0, meanSquare - mean * mean));
+            low = mean - 2.0 * stdev;
+            high = mean + 2.0 * stdev;
+
+            var sum = 0D;
+            var sum2 = 0D;
+            var count = 0;
+            for (int i = 0; i < size; i++) {
+                double d = z[i];
+                if (d <= high && d >= low) {
+                    sum += d;
+                    sum2 += d * d;
+                    count++;
+                }
+            }
+
+            if (count > 0) {
+                mean = sum / count;
+                meanSquare = sum2 / count;
+            }
+            if (Math.abs(previousMean - mean) < 0.0001) {
+                break;
+            }
+            previousMean = mean;
+        }
+
+        var kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (z[i] <= high && z[i] >= low) {
+                x[kept] = x[i];
+                y[kept] = y[i];
+                z[kept] = z[i];
+                kept++;
+            }
+        }
+        size = kept;
+    }
+
+    /**
+     * The constant background level.
+     */
+    public double level(Statistic statistic) {
+        if (size == 0) {
+            return 0;
+        }
+        return switch (statistic) {
+            case MEAN -> mean();
+            case MEDIAN -> median();
+            // Pearson's approximation, as used by DAOPHOT for crowded sky annuli
+            case MODE -> 3 * median() - 2 * mean();
+        };
+    }
+
+    /**
+     * Fits {@code z = c0 + c1 * dx + c2 * dy} by least squares.
+     *
+     * @return false if there are too few pixels or they do not define a plane
+     */
+    public boolean fitPlane() {
+        if (size < 4) {
+            return false;
+        }
+
+        double sx = 0, sy = 0, sz = 0, sxx = 0, syy = 0, sxy = 0, sxz = 0, syz = 0;
+        for (int i = 0; i < size; i++) {
+            var xi = x[i];
+            var yi = y[i];
+            var zi = z[i];
+            sx += xi;
+            sy += yi;
+            sz += zi;
+            sxx += xi * xi;
+            syy += yi * yi;
+            sxy += xi * yi;
+            sxz += xi * zi;
+            syz += yi * zi;
+        }
+
+        // Solve the normal equations by Cramer's rule
+        double n = size;
+        var det = n * (sxx * syy - sxy * sxy) - sx * (sx * syy - sxy * sy) + sy * (sx * sxy - sxx * sy);
+        if (det == 0 || !Double.isFinite(det)) {
+            return false;
+        }
+        c0 = (sz * (sxx * syy - sxy * sxy) - sx * (sxz * syy - sxy * syz) + sy * (sxz * sxy - sxx * syz)) / det;
+        c1 = (n * (sxz * syy - sxy * syz) - sz * (sx * syy - sxy * sy) + sy * (sx * syz - sxz * sy)) / det;
+        c2 = (n * (sxx * syz - sxz * sxy) - sx * (sx * syz - sxz * sy) + sz * (sx * sxy - sxx * sy)) / det;
+        return true;
+    }
+
+    /**
+     * The coefficients {@code c0, c1, c2} of the last fitted plane.
+     */
+    public double[] planeCoefficients() {
+        return new double[]{c0, c1, c2};
+    }
+
+    /**
+     * The value of the last fitted plane at offset {@code (dx, dy)} from the aperture center.
+     */
+    public double planeAt(double dx, double dy) {
+        return c0 + c1 * dx + c2 * dy;
+    }
+
+    private double median() {
+        System.arraycopy(z, 0, work, 0, size);
+        return RejectionKernels.median(work, size);
+    }
+
+    public enum Statistic {
+        MEAN("Mean"),
+        MEDIAN("Median"),
+        MODE("Mode");
+
+        private final String name;
+
+        Statistic(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
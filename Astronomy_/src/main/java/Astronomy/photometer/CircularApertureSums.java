@@ -0,0 +1,298 @@
+package Astronomy.photometer;
+
+import astroj.Centroid;
+import ij.IJ;
+
+/**
+ * Sums a circular aperture and its background annulus directly over the pixel array of a float image.
+ * <p>
+ * Rather than testing the geometry of every pixel in the bounding box, each row is split into spans: the pixels
+ * entirely inside the aperture, which all have a weight of 1, the partially covered pixels at either end, whose
+ * exact weights come from {@link PixelFraction}, and the background annulus, which is at most two spans per row.
+ * The full-weight spans are plain sums over the row, done with the Vector API when it is available, see
+ * {@link #VECTOR_AVAILABLE}. Only those spans are vectorized; the partially covered pixels are always weighted one at
+ * a time.
+ * <p>
+ * Pixel coordinates follow {@link astroj.Photometer}: pixel {@code (i, j)} covers {@code [i, i + 1) x [j, j + 1)}
+ * and NaN pixels are skipped.
+ */
+public final class CircularApertureSums {
+    /**
+     * The Vector API span sums, null unless the {@code jdk.incubator.vector} module is present. It is not added by
+     * the launchers, so it is only used when the JVM is started with {@code --add-modules jdk.incubator.vector}.
+     */
+    private static final SpanSummer VECTOR_SPANS = loadVectorSpans();
+
+    /**
+     * Whether the full-weight spans can use the Vector API.
+     */
+    public static final boolean VECTOR_AVAILABLE = VECTOR_SPANS != null;
+
+    private final SpanStats sourceStats = new SpanStats();
+    private final SpanStats backStats = new SpanStats();
+    private final int[] span = new int[2];
+    private final boolean vector;
+    private double source;
+    private double sourceCount;
+    private float peak = Float.NEGATIVE_INFINITY;
+
+    private CircularApertureSums(boolean vector) {
+        this.vector = vector && VECTOR_AVAILABLE;
+    }
+
+    /**
+     * Sums the aperture over pixels {@code [i1, i2] x [j1, j2]} of {@code pixels}.
+     *
+     * @param exact    weight pixels by the fraction of their area within the aperture, otherwise pixels are in the
+     *                 aperture if their center is within {@code radius}
+     * @param hasBack  whether to sum the background annulus, pixels whose centers are between {@code rBack1} and
+     *                 {@code rBack2} inclusive
+     * @param fraction the exact fraction of a pixel within the aperture, only called for partially covered pixels
+     * @param vector   use the Vector API for the full-weight spans if it is available
+     */
+    public static CircularApertureSums measure(float[] pixels, int width, int i1, int i2, int j1, int j2,
+                                               double xCenter, double yCenter, double radius, boolean exact,
+                                               boolean hasBack, double rBack1, double rBack2, PixelFraction fraction,
+                                               boolean vector) {
+        var sums = new CircularApertureSums(vector);
+        var r2ap = radius * radius;
+        var r2b1 = rBack1 * rBack1;
+        var r2b2 = rBack2 * rBack2;
+        for (int j = j1; j <= j2; j++) {
+            var row = j * width;
+            var dj = (double) j + Centroid.PIXELCENTER - yCenter;
+            var dj2 = dj * dj;
+            if (exact) {
+                sums.exactSourceRow(pixels, row, j, i1, i2, xCenter, yCenter, radius, fraction);
+            } else if (sums.centerSpan(xCenter, dj2, r2ap, false, i1, i2)) {
+                sums.sum(pixels, row + sums.span[0], row + sums.span[1] + 1, sums.sourceStats);
+            }
+            if (hasBack) {
+                sums.annulusRow(pixels, row, i1, i2, xCenter, dj2, r2b1, r2b2);
+            }
+        }
+        sums.source += sums.sourceStats.sum;
+        sums.sourceCount += sums.sourceStats.count;
+        sums.peak = Math.max(sums.peak, sums.sourceStats.max);
+        return sums;
+    }
+
+    public double source() {
+        return source;
+    }
+
+    /**
+     * The (fractional, if exact) number of pixels in the aperture.
+     */
+    public double sourceCount() {
+        return sourceCount;
+    }
+
+    /**
+     * The highest pixel with more than 1% of its area in the aperture, {@link Float#NEGATIVE_INFINITY} if none.
+     */
+    public float peak() {
+        return peak;
+    }
+
+    public double back() {
+        return backStats.sum;
+    }
+
+    public double back2() {
+        return backStats.sum2;
+    }
+
+    public long backCount() {
+        return backStats.count;
+    }
+
+    private void exactSourceRow(float[] pixels, int row, int j, int i1, int i2, double xCenter, double yCenter,
+                                double radius, PixelFraction fraction) {
+        var r2 = radius * radius;
+        var y0 = j - yCenter;
+        var y1 = j + 1 - yCenter;
+
+        // Pixels that may overlap the circle: the nearest point of the row's band is within the radius.
+        // Apertures smaller than a pixel are left entirely to the per-pixel weights, as in the per-pixel loops.
+        var outerLo = i1;
+        var outerHi = i2;
+        if (radius >= 1) {
+            var nearY2 = y0 <= 0 && y1 >= 0 ? 0 : Math.min(y0 * y0, y1 * y1);
+            if (nearY2 > r2) {
+                return;
+            }
+            var reach = Math.sqrt(r2 - nearY2);
+            outerLo = Math.max(i1, (int) Math.floor(xCenter - reach) - 1);
+            outerHi = Math.min(i2, (int) Math.ceil(xCenter + reach) + 1);
+        }
+
+        // Pixels entirely inside, the same test as Photometer#intarea for a weight of 1
+        var innerLo = outerHi + 1;
+        var innerHi = outerHi;
+        var farY2 = Math.max(y0 * y0, y1 * y1);
+        if (farY2 < r2) {
+            var halfWidth = Math.sqrt(r2 - farY2);
+            var lo = Math.max(outerLo, (int) Math.floor(xCenter - halfWidth));
+            var hi = Math.min(outerHi, (int) Math.ceil(xCenter + halfWidth - 1));
+            while (lo <= hi && !insideCircle(lo, xCenter, y0, y1, r2)) lo++;
+            while (hi >= lo && !insideCircle(hi, xCenter, y0, y1, r2)) hi--;
+            if (lo <= hi) {
+                while (lo > outerLo && insideCircle(lo - 1, xCenter, y0, y1, r2)) lo--;
+                while (hi < outerHi && insideCircle(hi + 1, xCenter, y0, y1, r2)) hi++;
+                innerLo = lo;
+                innerHi = hi;
+                sum(pixels, row + lo, row + hi + 1, sourceStats);
+            }
+        }
+
+        for (int i = outerLo; i <= outerHi; i++) {
+            if (i == innerLo) {
+                i = innerHi;
+                continue;
+            }
+            var d = pixels[row + i];
+            if (!Float.isNaN(d)) {
+                var f = fraction.fraction(i, j);
+                source += f * d;
+                sourceCount += f;
+                if (f > 0.01 && d > peak) {
+                    peak = d;
+                }
+            }
+        }
+    }
+
+    private void annulusRow(float[] pixels, int row, int i1, int i2, double xCenter, double dj2, double r2b1,
+                            double r2b2) {
+        if (!centerSpan(xCenter, dj2, r2b2, true, i1, i2)) {
+            return;
+        }
+        var outerLo = span[0];
+        var outerHi = span[1];
+        if (!centerSpan(xCenter, dj2, r2b1, false, outerLo, outerHi)) {
+            sum(pixels, row + outerLo, row + outerHi + 1, backStats);
+            return;
+        }
+        if (span[0] > outerLo) {
+            sum(pixels, row + outerLo, row + span[0], backStats);
+        }
+        if (span[1] < outerHi) {
+            sum(pixels, row + span[1] + 1, row + outerHi + 1, backStats);
+        }
+    }
+
+    /**
+     * Finds the pixels in {@code [min, max]} whose centers are within (or at, if inclusive) {@code limit}, the
+     * squared radius, into {@link #span}. The test is the same expression as the per-pixel loops so that boundary
+     * pixels are classified identically.
+     *
+     * @return false if there are none
+     */
+    private boolean centerSpan(double xCenter, double dj2, double limit, boolean inclusive, int min, int max) {
+        if (limit - dj2 < 0 || min > max) {
+            return false;
+        }
+        var halfWidth = Math.sqrt(limit - dj2);
+        var lo = Math.max(min, (int) Math.floor(xCenter - Centroid.PIXELCENTER - halfWidth));
+        var hi = Math.min(max, (int) Math.ceil(xCenter - Centroid.PIXELCENTER + halfWidth));
+        while (lo <= hi && !withinCenter(lo, xCenter, dj2, limit, inclusive)) lo++;
+        while (hi >= lo && !withinCenter(hi, xCenter, dj2, limit, inclusive)) hi--;
+        if (lo > hi) {
+            return false;
+        }
+        while (lo > min && withinCenter(lo - 1, xCenter, dj2, limit, inclusive)) lo--;
+        while (hi < max && withinCenter(hi + 1, xCenter, dj2, limit, inclusive)) hi++;
+        span[0] = lo;
+        span[1] = hi;
+        return true;
+    }
+
+    private static boolean withinCenter(int i, double xCenter, double dj2, double limit, boolean inclusive) {
+        var di = (double) i + Centroid.PIXELCENTER - xCenter;
+        var r2 = di * di + dj2;
+        return inclusive ? r2 <= limit : r2 < limit;
+    }
+
+    private static boolean insideCircle(int i, double xCenter, double y0, double y1, double r2) {
+        var x0 = i - xCenter;
+        var x1 = i + 1 - xCenter;
+        var x02 = x0 * x0;
+        var x12 = x1 * x1;
+        var y02 = y0 * y0;
+        var y12 = y1 * y1;
+        return r2 > (x02 + y02) && r2 > (x12 + y12) && r2 > (x12 + y02) && r2 > (x02 + y12);
+    }
+
+    private void sum(float[] pixels, int from, int to, SpanStats stats) {
+        if (vector) {
+            VECTOR_SPANS.accumulate(pixels, from, to, stats);
+        } else {
+            accumulate(pixels, from, to, stats);
+        }
+    }
+
+    /**
+     * VectorSpans is compiled separately against the incubator module, so it is only loaded, by name, once the
+     * module is known to be present.
+     */
+    private static SpanSummer loadVectorSpans() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return null;
+        }
+        try {
+            return (SpanSummer) Class.forName("Astronomy.photometer.VectorSpans").getDeclaredConstructor()
+                    .newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            if (IJ.debugMode) IJ.log("Vector API span sums unavailable: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Adds the non-NaN pixels of {@code [from, to)} to {@code stats}.
+     */
+    static void accumulate(float[] pixels, int from, int to, SpanStats stats) {
+        var sum = 0D;
+        var sum2 = 0D;
+        var count = 0L;
+        var max = stats.max;
+        for (int i = from; i < to; i++) {
+            var d = pixels[i];
+            if (!Float.isNaN(d)) {
+                sum += d;
+                sum2 += (double) d * d;
+                count++;
+                if (d > max) {
+                    max = d;
+                }
+            }
+        }
+        stats.sum += sum;
+        stats.sum2 += sum2;
+        stats.count += count;
+        stats.max = max;
+    }
+
+    /**
+     * The exact fraction of pixel {@code (i, j)} within the aperture.
+     */
+    @FunctionalInterface
+    public interface PixelFraction {
+        double fraction(int i, int j);
+    }
+
+    /**
+     * Sums a span of full-weight pixels as {@link #accumulate(float[], int, int, SpanStats)} does.
+     */
+    interface SpanSummer {
+        void accumulate(float[] pixels, int from, int to, SpanStats stats);
+    }
+
+    static final class SpanStats {
+        double sum;
+        double sum2;
+        long count;
+        float max = Float.NEGATIVE_INFINITY;
+    }
+}
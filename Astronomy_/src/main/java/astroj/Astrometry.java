@@ -27,6 +27,9 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Vector;
 
+import Astronomy.astrometry.LocalPlateSolver;
+import Astronomy.astrometry.QuadIndex;
+import Astronomy.astrometry.WcsTracker;
 import astroj.json.simple.JSONObject;
 import astroj.json.simple.parser.JSONParser;
 import ij.IJ;
@@ -107,6 +110,7 @@ public class Astrometry { //implements KeyListener
     int minOrder = 2;
     int maxOrder = 9;
     boolean canceled = false;
+    final WcsTracker tracker = new WcsTracker();
     boolean setupCanceled = false;
     boolean setupActive = false;
     double scale_lower = 0.9;
@@ -120,6 +124,8 @@ public class Astrometry { //implements KeyListener
     Map<String, Object> setupData;
     String boundary = "================9876543210==";
     String mime = "";
+    FitsJ.Header wcsHeader;
+    String jobID;
 
     int npoints, slice;
     boolean saveActive = false;
@@ -178,7 +184,16 @@ public class Astrometry { //implements KeyListener
 
         getPrefs();
 
-        if (!useAlternateAstrometryServer && userKey.trim().equals("")) {
+        var offline = LocalPlateSolver.ENABLED.get();
+        QuadIndex index = null;
+        if (offline) {
+            try {
+                index = LocalPlateSolver.loadIndex();
+            } catch (IOException ioe) {
+                log("Could not read the offline plate solve index: " + ioe.getLocalizedMessage());
+                return FAILED;
+            }
+        } else if (!useAlternateAstrometryServer && userKey.trim().equals("")) {
             IJ.showMessage("Login Error", "<html>User Key is empty.<br>" +
                     "Obtain a user key at nova.astrometry.net and enter it<br>" +
                     "into the \"User Key:\" box in the Astrometry Settings panel.");
@@ -198,56 +213,13 @@ public class Astrometry { //implements KeyListener
         scale_lower = scaleEstimate - scaleError;
         scale_upper = scaleEstimate + scaleError;
 
-        String resultText = "";
-        URL apiURL = null;
-        URL loginURL = null;
-        URL uploadURL = null;
-        URL subCheckURL = null;
-        URL jobCheckURL = null;
         URL getFileURL = null;
-        JSONParser parser = new JSONParser();
-
-        try {
-            apiURL = new URL((useAlternateAstrometryServer ? alternateAstrometryUrlBase : defaultAstrometryUrlBase) + "/api/");
-            loginURL = new URL(apiURL + "login");
-
-            Map<String, String> loginData = new LinkedHashMap<>();
-            loginData.put("apikey", userKey.trim());
-
-            String login = "request-json=" + URLEncoder.encode(toJSONString(loginData), StandardCharsets.UTF_8);
-
-            URLConnection astrometryCon = loginURL.openConnection();
-            astrometryCon.setConnectTimeout(60000);
-            astrometryCon.setReadTimeout(60000);
-            astrometryCon.setDoOutput(true);
-            astrometryCon.setDoInput(true);
-
-            DataOutputStream wr = new DataOutputStream(astrometryCon.getOutputStream());
-            wr.writeBytes(login);
-            wr.close();
 
-            BufferedReader in = new BufferedReader(new InputStreamReader(astrometryCon.getInputStream()));
-            String inputLine;
-            while ((inputLine = in.readLine()) != null) {
-                resultText += inputLine;
-            }
-            //log("Login result="+resultText);
-            JSONObject result = (JSONObject) parser.parse(resultText);
-            String stat = (String) result.get("status");
-            if (stat.equals("error")) {
-                log("Astrometry.net login error, exiting.");
-                return FAILED;
-            } else {
-                IJ.showStatus("Login status: " + stat);
-                session_string = (String) result.get("session");
-                IJ.showStatus("Session: " + session_string);
-            }
-        } catch (IOException ioe) {
-            log("IO Exception during astrometry.net login: " + ioe.getLocalizedMessage());
-            return FAILED;
-        } catch (astroj.json.simple.parser.ParseException pe) {
-            log("JSON Parse Exception in astrometry.net login response: " + pe);
-            return FAILED;
+        var tracking = WcsTracker.ENABLED.get() && tracker.hasReference(width, height);
+        var loggedIn = false;
+        if (!offline && !tracking) {
+            if (!login()) return FAILED;
+            loggedIn = true;
         }
 //        log("Session: "+session_string);
         if (!processStack) {
@@ -314,330 +286,44 @@ public class Astrometry { //implements KeyListener
 //            if (IJ.escapePressed())return false;
             if (canceled) return CANCELED;
 
-            sourceLocations = "";
-
-            var pdx = -RegionExclusion.BORDER_EXCLUSION_LEFT.get();
-            var pdy = -RegionExclusion.BORDER_EXCLUSION_TOP.get();
-            if (!RegionExclusion.EXCLUDE_BORDERS.get()) {
-                pdx = 0;
-                pdy = 0;
-            }
-            for (int i = 0; i < npoints; i++) {
-                var x = xdpoints[i] + pdx;
-                var y = ydpoints[i] + pdy;
-                y = (height + dy) - y;
-                sourceLocations += "" + x + " \t " + y + lineend;
-            }
-            sourceLocations += lineend;
-
-//            log(sourceLocations);  
-
-            setupData = new LinkedHashMap();
-            setupData.put("allow_commercial_use", "d");
-            setupData.put("allow_modifications", "d");
-            setupData.put("publicly_visible", "n");
-            setupData.put("image_width", width + dx);
-            setupData.put("image_height", height + dy);
-            if (useScale) {
-                setupData.put("scale_units", "arcsecperpix");
-                setupData.put("scale_type", "ul"); //"ul" or "ev"
-                setupData.put("scale_lower", scale_lower);
-                setupData.put("scale_upper", scale_upper);
-            }
-//                setupData.put("scale_est", 0.39);
-//                setupData.put("scale_err", 0.02);
-//                }
-            if (useRaDec) {
-                setupData.put("center_ra", ra * 15.0);
-                setupData.put("center_dec", dec);
-                setupData.put("radius", raDecRadius / 60.0);
-            }
-            setupData.put("downsample_factor", 1);
-            setupData.put("crpix_center", true);
-            if (useDistortionOrder) {
-                if (distortionOrder < minOrder) distortionOrder = minOrder;
-                if (distortionOrder > maxOrder) distortionOrder = maxOrder;
-                setupData.put("tweak_order", distortionOrder);
-            } else {
-                setupData.put("tweak_order", 0);
-            }
-            //        setupData.put("parity", 0);
-            setupData.put("session", session_string);
-
-            boundary = "================9876543210==";
-
-            mime = "--" + boundary + lineend +
-                    "Content-Type: text/plain" + lineend +
-                    "MIME-Version: 1.0" + lineend +
-                    "Content-disposition: form-data;name=\"request-json\"" + lineend +
-                    lineend +
-                    toJSONString(setupData) + lineend +
-                    "--" + boundary + lineend +
-                    "Content-Type: application/octet-stream" + lineend +
-                    "MIME-Version: 1.0" + lineend +
-                    "Content-disposition: form-data;name=\"file\";filename=\"maxima.tbl\"" + lineend +
-                    lineend +
-                    sourceLocations +
-                    "--" + boundary + "--" + lineend;
-//            IJ.log(mime);
-            if (canceled) return CANCELED;
-            try {
-                uploadURL = new URL((useAlternateAstrometryServer ? alternateAstrometryUrlBase : defaultAstrometryUrlBase) + "/api/upload");
-                HttpURLConnection uploadCon = (HttpURLConnection) uploadURL.openConnection();
-                uploadCon.setConnectTimeout(60000);
-                uploadCon.setReadTimeout(60000);
-                uploadCon.setUseCaches(false);
-
-                uploadCon.setDoOutput(true);
-                uploadCon.setDoInput(true);
-
-                //            uploadCon.setRequestMethod("POST");
-                //            uploadCon.setRequestProperty("Connection", "Keep-Alive");
-                uploadCon.setRequestProperty("Content-Type", "multipart/form-data;boundary=" + boundary);
-
-                DataOutputStream wr = new DataOutputStream(uploadCon.getOutputStream());
-                wr.writeBytes(mime);
-                wr.close();
-                if (canceled) return CANCELED;
-                BufferedReader in = new BufferedReader(new InputStreamReader(uploadCon.getInputStream()));
-                String inputLine;
-                resultText = "";
-                while ((inputLine = in.readLine()) != null) {
-                    if (canceled) return CANCELED;
-                    resultText += inputLine;
-                }
-//                log(resultText);
-
-
-                JSONObject result = (JSONObject) parser.parse(resultText);
-                String stat = (String) result.get("status");
-                if (!stat.equals("success")) {
-                    log("astrometry.net upload status for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() : "slice " + slice) + " : " + stat);
-                    log("astrometry.net upload error for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() : "slice " + slice) + ". Aborting.");
-                    return FAILED;
+            wcsHeader = null;
+            jobID = null;
+            LocalPlateSolver.Solution solution = null;
+            var tracked = false;
+            if (WcsTracker.ENABLED.get() && tracker.hasReference(width, height)) {
+                var start = System.currentTimeMillis();
+                wcsHeader = tracker.track(xdpoints, ydpoints, npoints);
+                tracked = wcsHeader != null;
+                if (tracked) {
+                    log(String.format("Plate solve for %s: TRACKED from the previous frame in %d ms, %d stars matched, %.2f pixels RMS",
+                            impOriginal.getStackSize() == 1 ? impOriginal.getTitle() : "slice " + slice,
+                            System.currentTimeMillis() - start, tracker.matchCount(), tracker.rms()));
                 } else {
-                    IJ.showStatus("Upload status: " + stat);
-                    subid_int = result.get("subid");
-                    IJ.showStatus("Submision ID: " + subid_int.toString());
-                    //log("Submision ID: " + subid_int.toString() + " for slice: " + slice);
-//                    log("Astrometry.net submision ID: "+subid_int.toString());
+                    log("Plate solve for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() : "slice " + slice) + ": lost track of the previous frame, solving from scratch.");
                 }
-            } catch (IOException ioe) {
-                log("IO Exception during astrometry.net upload for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() : "slice " + slice) + " : " + ioe.getLocalizedMessage());
-                return FAILED;
-            } catch (astroj.json.simple.parser.ParseException pe) {
-                log("JSON Parse Exception in astrometry.net upload response for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() : "slice " + slice) + " : " + pe);
-                return FAILED;
             }
-
-            //        IJ.wait(5000);
-            if (canceled) return CANCELED;
-            //        Check submission status
-            JSONObject result2 = null;
-            Object job_id_list = null;
-            //        Object processing_finished = null;
-            try {
-                subCheckURL = new URL((useAlternateAstrometryServer ? alternateAstrometryUrlBase : defaultAstrometryUrlBase) + "/api/submissions/" + subid_int.toString());
-
-                BufferedReader in = null;
-                boolean still_processing = true;
-                int n_failed_attempts = 0;
-                int maxWaitTime = useAlternateAstrometryServer ? 120 : 900;
-
-                String inputLine = null;
-                while (still_processing && n_failed_attempts < maxWaitTime) {
-                    if (canceled) return CANCELED;
-                    URLConnection subCheckCon = subCheckURL.openConnection();
-                    subCheckCon.setConnectTimeout(60000);
-                    subCheckCon.setReadTimeout(60000);
-                    try {
-                        in = new BufferedReader(new InputStreamReader(subCheckCon.getInputStream()));
-                        inputLine = null;
-                        resultText = "";
-                        while ((inputLine = in.readLine()) != null) {
-                            resultText += inputLine;
-                        }
-//                        log(resultText);
-                        result2 = (JSONObject) parser.parse(resultText);
-                        job_id_list = result2.get("jobs");
-                        //                    processing_finished = result2.get("processing_finished");
-                        //                    log("Job ID List = "+job_id_list.toString());
-                        if (job_id_list.toString().equals("[]") || job_id_list.toString().equals("[null]")) // || processing_finished.toString().equals("None"))
-                        {
-//                            log(job_id_list.toString());
-                            String status = "Astrometry submission " + subid_int.toString() + " processing";
-//                            log("Astrometry status: "+jobStatus);
-                            for (int n = 0; n < n_failed_attempts % 10; n++) {
-                                status += " .";
-                            }
-                            IJ.showStatus(status);
-                            still_processing = true;
-                            n_failed_attempts++;
-                            IJ.wait(getPollingTimeout());
-                        } else {
-//                            IJ.log("job_id_list="+job_id_list.toString());
-                            still_processing = false;
-                        }
-                    } catch (IOException ioe) {
-                        log("Astrometry submission " + subid_int.toString() + " doesn't exist yet for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() : "slice " + slice) + " : " + ioe.getLocalizedMessage());
-                        n_failed_attempts++;
-                        IJ.wait(getPollingTimeout());
-                    } catch (astroj.json.simple.parser.ParseException pe) {
-                        log("JSON Parse Exception during astrometry check for submission " + subid_int.toString() + " for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() : "slice " + slice) + " : " + pe);
-                        n_failed_attempts++;
-                        IJ.wait(getPollingTimeout());
-                    }
-                }
-
-                if (n_failed_attempts >= maxWaitTime) {
-                    IJ.showStatus("The submission " + subid_int.toString() + " has timed out for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() : "slice " + slice) + ".");
-
-                    if (retries < maxRetries) {
-                        log("Astrometry submission ID " + subid_int.toString() + " timed out for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() + "." : "slice " + slice + ".") + " Resubmitting.");
-                        slice -= 1;
-                    } else {
-                        log("Astrometry submission " + subid_int.toString() + " for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() : "slice " + slice) + " was unsuccessful after " + (maxRetries + 1) + " tries. Skipping Image.");
-//                        log("Astrometry.net job ID "+job_id_list.toString()+" timed out for "+(impOriginal.getStackSize()==1?impOriginal.getTitle()+".":"slice "+slice+".")+" Aborting.");
-                        if (slice >= endSlice) return FAILED;
-                    }
-                    continue;
-                }
-            } catch (IOException ioe) {
-                log("IO Exception during during astrometry check for submission " + subid_int.toString() + " for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() + "." : "slice " + slice + "."));
-                return FAILED;
-            }
-            if (canceled) return CANCELED;
-            String jobID = job_id_list.toString().replace("[", "").replace("]", "");
-            IJ.showStatus("Job ID: " + jobID);
-//            IJ.showStatus("Processing finished: "+processing_finished); 
-
-            //        Check job status
-            JSONObject result3 = null;
-            String jobStatus = null;
-
-            try {
-                jobCheckURL = new URL((useAlternateAstrometryServer ? alternateAstrometryUrlBase : defaultAstrometryUrlBase) + "/api/jobs/" + jobID);
-
-                BufferedReader in = null;
-                boolean still_processing = true;
-                int n_failed_attempts = 0;
-                int maxWaitTime = notDP ? 600 : 120;
-                gotProcessingResponse = false;
-                gotFailedResponse = false;
-
-                String inputLine = null;
-                while (still_processing && n_failed_attempts < maxWaitTime) {
-                    if (canceled) return CANCELED;
-                    URLConnection jobCheckCon = jobCheckURL.openConnection();
-                    jobCheckCon.setConnectTimeout(60000);
-                    jobCheckCon.setReadTimeout(60000);
-                    try {
-
-                        in = new BufferedReader(new InputStreamReader(jobCheckCon.getInputStream()));
-                        inputLine = null;
-                        resultText = "";
-                        while ((inputLine = in.readLine()) != null) {
-                            resultText += inputLine;
-                        }
-                        //                    log(resultText);
-                        result3 = (JSONObject) parser.parse(resultText);
-                        jobStatus = (String) result3.get("status");
-                        if (jobStatus.equals("success")) {
-                            IJ.showStatus("Astrometry job " + jobID + ": SOLVED");
-                            if (notDP)
-                                log("Astrometry submission ID "+subid_int.toString()+" job ID " + jobID + " for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() : "slice " + slice) + ": SOLVED");
-                            still_processing = false;
-                        } else if (jobStatus.equals("failure") || jobStatus.equals("error")) {
-                            log("Astrometry submission ID "+subid_int.toString()+" job ID " + jobID + " for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() : "slice " + slice) + ": " + jobStatus + ". Resubmitting.");
-                            gotFailedResponse = true;
-                            break;
-                        } else if (jobStatus.equals("processing")) {
-                            //log("Astrometry job " + jobID + " for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() : "slice " + slice) + ": " + jobStatus + ". Waiting.");
-                            gotProcessingResponse = true;
-                            n_failed_attempts++;
-                            IJ.wait(getPollingTimeout());
-                        } else {
-                            String status = "Astrometry job " + jobID + " " + jobStatus;
-//                            log("Astrometry status: "+jobStatus);
-                            for (int n = 0; n < n_failed_attempts % 10; n++) {
-                                status += " .";
-                            }
-                            IJ.showStatus(status);
-                            n_failed_attempts++;
-                            IJ.wait(getPollingTimeout());
-                        }
-                    } catch (IOException ioe) {
-                        log("Astrometry submission ID "+subid_int.toString()+" job ID " + jobID + " check error for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() : "slice " + slice) + " : " + ioe.getLocalizedMessage());
-                        return FAILED;
-                    } catch (astroj.json.simple.parser.ParseException pe) {
-                        log("JSON Parse Exception during astrometry.net submission ID "+subid_int.toString()+" job ID " + jobID + " status check for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() : "slice " + slice) + " : " + pe);
-                        return FAILED;
-                    }
-                }
-
-                if (gotFailedResponse) {
-                    if (retries < maxRetries) {
-                        slice -= 1;
-                    } else {
-                        log("Astrometry submission ID "+subid_int.toString()+" job ID " + jobID + " for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() : "slice " + slice) + " was unsuccessful after " + (maxRetries + 1) + " tries. Skipping Image.");
-                        if (slice >= endSlice) return FAILED;
-                    }
+            if (tracked) {
+                // Nothing more to solve
+            } else if (offline) {
+                var start = System.currentTimeMillis();
+                solution = solveOffline(index);
+                if (solution == null) {
+                    log("Offline plate solve for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() : "slice " + slice) + ": FAILED (no match in the index). Skipping Image.");
+                    if (slice >= endSlice) return FAILED;
                     continue;
                 }
-
-                if (n_failed_attempts >= maxWaitTime) {
-                    IJ.showStatus("Astrometry job " + jobID + " has timed out for slice " + slice + ".");
-                    log("Astrometry submission ID "+subid_int.toString()+" job ID " + jobID + " has timed out for  " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() + "." : "slice " + slice + ".") + " Skipping Image.");
-                    if (impOriginal.getStackSize() > 1)
-                        continue;
-                    else
-                        return FAILED;
-                }
-            } catch (IOException ioe) {
-                log("IO Exception during astrometry submission ID "+subid_int.toString()+" job ID " + jobID + " status check for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() + "." : "slice " + slice + ".") + " : " + ioe.getLocalizedMessage());
-                return FAILED;
-            }
-
-            if (canceled) return CANCELED;
-            int len = 0;
-            FitsJ.Header wcsHeader = null;
-            try {
-                //            getFileURL = new URL("http://nova.astrometry.net/api/jobs/"+jobID+"/annotations");
-                getFileURL = new URL((useAlternateAstrometryServer ? alternateAstrometryUrlBase : defaultAstrometryUrlBase) + "/wcs_file/" + jobID);
-                URLConnection fileDownloadCon = getFileURL.openConnection();
-                fileDownloadCon.setConnectTimeout(60000);
-                fileDownloadCon.setReadTimeout(60000);
-                fileDownloadCon.setDoOutput(true);
-                fileDownloadCon.setDoInput(true);
-
-                BufferedReader in = new BufferedReader(new InputStreamReader(fileDownloadCon.getInputStream()));
-                String inputLine = in.readLine();
-
-                len = inputLine.length() / 80;
-                wcsHeader = FitsJ.Header.build(new String[len]);
-                if (inputLine != null && !inputLine.equals("")) {
-                    for (int i = 0; i < len; i++) {
-                        wcsHeader.cards()[i] = inputLine.substring(i * 80, (i + 1) * 80);
-                    }
-//                    for (int i=0; i<len; i++)
-//                        log(wcsHeader.cards()[i]);
-                } else {
-                    log("Failed to retrieve WCS headers for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() + "." : "slice " + slice + "."));
-                    if (impOriginal.getStackSize() > 1)
-                        continue;
-                    else
-                        return FAILED;
-                }
-
-                if (RegionExclusion.EXCLUDE_BORDERS.get()) {
-                    FitsJ.setCard("CRPIX1", FitsJ.findDoubleValue("CRPIX1", wcsHeader) + dx, "", wcsHeader);
-                    FitsJ.setCard("CRPIX2", FitsJ.findDoubleValue("CRPIX2", wcsHeader) + dy, "", wcsHeader);
-                    FitsJ.setCard("IMAGEW", FitsJ.findIntValue("IMAGEW", wcsHeader) - dx, "", wcsHeader);
-                    FitsJ.setCard("IMAGEH", FitsJ.findIntValue("IMAGEH", wcsHeader) - dy, "", wcsHeader);
+                log(String.format("Offline plate solve for %s: SOLVED in %d ms, %d stars matched, %.2f arcsec RMS",
+                        impOriginal.getStackSize() == 1 ? impOriginal.getTitle() : "slice " + slice,
+                        System.currentTimeMillis() - start, solution.matchCount(), solution.rms()));
+                wcsHeader = solution.toHeader(width, height);
+            } else {
+                if (!loggedIn) {
+                    if (!login()) return FAILED;
+                    loggedIn = true;
                 }
-            } catch (IOException ioe) {
-                log("IO Exception during astrometry.net file download for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() : "slice " + slice) + " : " + ioe.getLocalizedMessage());
-                return FAILED;
+                var status = solveOnline(dx, dy);
+                if (status == SKIPPED) continue;
+                if (status != SUCCESS) return status;
             }
             if (canceled) return CANCELED;
             impOriginal.setSlice(slice);
@@ -694,8 +380,9 @@ public class Astrometry { //implements KeyListener
 
             Calendar cal = Calendar.getInstance();
             SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS");
-            header = FitsJ.addHistory("WCS created by AIJ link to Astronomy.net website", header);
-            if (resaveRaw) headerRaw = FitsJ.addHistory("WCS created by AIJ link to Astronomy.net website", headerRaw);
+            var history = tracked ? "WCS created by AIJ tracking from the previous frame" : offline ? "WCS created by AIJ offline plate solver" : "WCS created by AIJ link to Astronomy.net website";
+            header = FitsJ.addHistory(history, header);
+            if (resaveRaw) headerRaw = FitsJ.addHistory(history, headerRaw);
             header = FitsJ.addHistory("WCS created on " + sdf.format(cal.getTime()), header);
             if (resaveRaw) headerRaw = FitsJ.addHistory("WCS created on " + sdf.format(cal.getTime()), headerRaw);
 
@@ -818,6 +505,13 @@ public class Astrometry { //implements KeyListener
 
             impOriginal.setSlice(slice);
             FitsJ.putHeader(impOriginal, header);
+            if (!tracked) {
+                if (WcsTracker.ENABLED.get()) {
+                    tracker.setReference(header, xdpoints, ydpoints, npoints, width, height);
+                } else {
+                    tracker.reset();
+                }
+            }
             if (resaveRaw) FitsJ.putHeader(impRaw, headerRaw);
             saveActive = false;
 
@@ -833,7 +527,12 @@ public class Astrometry { //implements KeyListener
 
 //            IJ.runPlugIn(impOriginal, "Clear_Overlay", "");
 //            IJ.runPlugIn(impOriginal, "Clear_Overlay", "");
-            if (annotate) {
+            if (annotate && (tracked || offline)) {
+                FitsJ.putHeader(impOriginal, FitsJ.removeAstrometryAnnotateCards(FitsJ.getHeader(impOriginal)));
+                if (resaveRaw) FitsJ.putHeader(impRaw, FitsJ.removeAstrometryAnnotateCards(FitsJ.getHeader(impRaw)));
+                // The stars matched by tracking are not identified
+                if (solution != null) annotateMatches(solution);
+            } else if (annotate) {
 
                 FitsJ.putHeader(impOriginal, FitsJ.removeAstrometryAnnotateCards(FitsJ.getHeader(impOriginal)));
                 if (resaveRaw) FitsJ.putHeader(impRaw, FitsJ.removeAstrometryAnnotateCards(FitsJ.getHeader(impRaw)));
@@ -963,7 +662,7 @@ public class Astrometry { //implements KeyListener
                 if (!IJU.saveFile(impRaw, rawPath, showLog, showLogDateTime, "raw science")) {
                     return FAILED;
                 }
-            } else if (annotate && (slice != endSlice || !notDP)) {
+            } else if (annotate && !offline && !tracked && (slice != endSlice || !notDP)) {
                 if (canceled) return CANCELED;
                 IJ.wait(getPollingTimeout());
             }
@@ -973,6 +672,429 @@ public class Astrometry { //implements KeyListener
     }
 
 
+    /**
+     * Submits the maxima found on the current slice to astrometry.net and downloads the WCS headers of the solution
+     * into {@link #wcsHeader}. Returns {@link #SKIPPED} when the slice is to be skipped or resubmitted.
+     */
+    int solveOnline(int dx, int dy) {
+        String resultText = "";
+        URL uploadURL = null;
+        URL subCheckURL = null;
+        URL jobCheckURL = null;
+        URL getFileURL = null;
+        JSONParser parser = new JSONParser();
+
+        sourceLocations = "";
+
+        var pdx = -RegionExclusion.BORDER_EXCLUSION_LEFT.get();
+        var pdy = -RegionExclusion.BORDER_EXCLUSION_TOP.get();
+        if (!RegionExclusion.EXCLUDE_BORDERS.get()) {
+            pdx = 0;
+            pdy = 0;
+        }
+        for (int i = 0; i < npoints; i++) {
+            var x = xdpoints[i] + pdx;
+            var y = ydpoints[i] + pdy;
+            y = (height + dy) - y;
+            sourceLocations += "" + x + " \t " + y + lineend;
+        }
+        sourceLocations += lineend;
+
+//            log(sourceLocations);  
+
+        setupData = new LinkedHashMap();
+        setupData.put("allow_commercial_use", "d");
+        setupData.put("allow_modifications", "d");
+        setupData.put("publicly_visible", "n");
+        setupData.put("image_width", width + dx);
+        setupData.put("image_height", height + dy);
+        if (useScale) {
+            setupData.put("scale_units", "arcsecperpix");
+            setupData.put("scale_type", "ul"); //"ul" or "ev"
+            setupData.put("scale_lower", scale_lower);
+            setupData.put("scale_upper", scale_upper);
+        }
+//                setupData.put("scale_est", 0.39);
+//                setupData.put("scale_err", 0.02);
+//                }
+        if (useRaDec) {
+            setupData.put("center_ra", ra * 15.0);
+            setupData.put("center_dec", dec);
+            setupData.put("radius", raDecRadius / 60.0);
+        }
+        setupData.put("downsample_factor", 1);
+        setupData.put("crpix_center", true);
+        if (useDistortionOrder) {
+            if (distortionOrder < minOrder) distortionOrder = minOrder;
+            if (distortionOrder > maxOrder) distortionOrder = maxOrder;
+            setupData.put("tweak_order", distortionOrder);
+        } else {
+            setupData.put("tweak_order", 0);
+        }
+        //        setupData.put("parity", 0);
+        setupData.put("session", session_string);
+
+        boundary = "================9876543210==";
+
+        mime = "--" + boundary + lineend +
+                "Content-Type: text/plain" + lineend +
+                "MIME-Version: 1.0" + lineend +
+                "Content-disposition: form-data;name=\"request-json\"" + lineend +
+                lineend +
+                toJSONString(setupData) + lineend +
+                "--" + boundary + lineend +
+                "Content-Type: application/octet-stream" + lineend +
+                "MIME-Version: 1.0" + lineend +
+                "Content-disposition: form-data;name=\"file\";filename=\"maxima.tbl\"" + lineend +
+                lineend +
+                sourceLocations +
+                "--" + boundary + "--" + lineend;
+//            IJ.log(mime);
+        if (canceled) return CANCELED;
+        try {
+            uploadURL = new URL((useAlternateAstrometryServer ? alternateAstrometryUrlBase : defaultAstrometryUrlBase) + "/api/upload");
+            HttpURLConnection uploadCon = (HttpURLConnection) uploadURL.openConnection();
+            uploadCon.setConnectTimeout(60000);
+            uploadCon.setReadTimeout(60000);
+            uploadCon.setUseCaches(false);
+
+            uploadCon.setDoOutput(true);
+            uploadCon.setDoInput(true);
+
+            //            uploadCon.setRequestMethod("POST");
+            //            uploadCon.setRequestProperty("Connection", "Keep-Alive");
+            uploadCon.setRequestProperty("Content-Type", "multipart/form-data;boundary=" + boundary);
+
+            DataOutputStream wr = new DataOutputStream(uploadCon.getOutputStream());
+            wr.writeBytes(mime);
+            wr.close();
+            if (canceled) return CANCELED;
+            BufferedReader in = new BufferedReader(new InputStreamReader(uploadCon.getInputStream()));
+            String inputLine;
+            resultText = "";
+            while ((inputLine = in.readLine()) != null) {
+                if (canceled) return CANCELED;
+                resultText += inputLine;
+            }
+//                log(resultText);
+
+
+            JSONObject result = (JSONObject) parser.parse(resultText);
+            String stat = (String) result.get("status");
+            if (!stat.equals("success")) {
+                log("astrometry.net upload status for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() : "slice " + slice) + " : " + stat);
+                log("astrometry.net upload error for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() : "slice " + slice) + ". Aborting.");
+                return FAILED;
+            } else {
+                IJ.showStatus("Upload status: " + stat);
+                subid_int = result.get("subid");
+                IJ.showStatus("Submision ID: " + subid_int.toString());
+                //log("Submision ID: " + subid_int.toString() + " for slice: " + slice);
+//                    log("Astrometry.net submision ID: "+subid_int.toString());
+            }
+        } catch (IOException ioe) {
+            log("IO Exception during astrometry.net upload for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() : "slice " + slice) + " : " + ioe.getLocalizedMessage());
+            return FAILED;
+        } catch (astroj.json.simple.parser.ParseException pe) {
+            log("JSON Parse Exception in astrometry.net upload response for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() : "slice " + slice) + " : " + pe);
+            return FAILED;
+        }
+
+        //        IJ.wait(5000);
+        if (canceled) return CANCELED;
+        //        Check submission status
+        JSONObject result2 = null;
+        Object job_id_list = null;
+        //        Object processing_finished = null;
+        try {
+            subCheckURL = new URL((useAlternateAstrometryServer ? alternateAstrometryUrlBase : defaultAstrometryUrlBase) + "/api/submissions/" + subid_int.toString());
+
+            BufferedReader in = null;
+            boolean still_processing = true;
+            int n_failed_attempts = 0;
+            int maxWaitTime = useAlternateAstrometryServer ? 120 : 900;
+
+            String inputLine = null;
+            while (still_processing && n_failed_attempts < maxWaitTime) {
+                if (canceled) return CANCELED;
+                URLConnection subCheckCon = subCheckURL.openConnection();
+                subCheckCon.setConnectTimeout(60000);
+                subCheckCon.setReadTimeout(60000);
+                try {
+                    in = new BufferedReader(new InputStreamReader(subCheckCon.getInputStream()));
+                    inputLine = null;
+                    resultText = "";
+                    while ((inputLine = in.readLine()) != null) {
+                        resultText += inputLine;
+                    }
+//                        log(resultText);
+                    result2 = (JSONObject) parser.parse(resultText);
+                    job_id_list = result2.get("jobs");
+                    //                    processing_finished = result2.get("processing_finished");
+                    //                    log("Job ID List = "+job_id_list.toString());
+                    if (job_id_list.toString().equals("[]") || job_id_list.toString().equals("[null]")) // || processing_finished.toString().equals("None"))
+                    {
+//                            log(job_id_list.toString());
+                        String status = "Astrometry submission " + subid_int.toString() + " processing";
+//                            log("Astrometry status: "+jobStatus);
+                        for (int n = 0; n < n_failed_attempts % 10; n++) {
+                            status += " .";
+                        }
+                        IJ.showStatus(status);
+                        still_processing = true;
+                        n_failed_attempts++;
+                        IJ.wait(getPollingTimeout());
+                    } else {
+//                            IJ.log("job_id_list="+job_id_list.toString());
+                        still_processing = false;
+                    }
+                } catch (IOException ioe) {
+                    log("Astrometry submission " + subid_int.toString() + " doesn't exist yet for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() : "slice " + slice) + " : " + ioe.getLocalizedMessage());
+                    n_failed_attempts++;
+                    IJ.wait(getPollingTimeout());
+                } catch (astroj.json.simple.parser.ParseException pe) {
+                    log("JSON Parse Exception during astrometry check for submission " + subid_int.toString() + " for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() : "slice " + slice) + " : " + pe);
+                    n_failed_attempts++;
+                    IJ.wait(getPollingTimeout());
+                }
+            }
+
+            if (n_failed_attempts >= maxWaitTime) {
+                IJ.showStatus("The submission " + subid_int.toString() + " has timed out for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() : "slice " + slice) + ".");
+
+                if (retries < maxRetries) {
+                    log("Astrometry submission ID " + subid_int.toString() + " timed out for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() + "." : "slice " + slice + ".") + " Resubmitting.");
+                    slice -= 1;
+                } else {
+                    log("Astrometry submission " + subid_int.toString() + " for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() : "slice " + slice) + " was unsuccessful after " + (maxRetries + 1) + " tries. Skipping Image.");
+//                        log("Astrometry.net job ID "+job_id_list.toString()+" timed out for "+(impOriginal.getStackSize()==1?impOriginal.getTitle()+".":"slice "+slice+".")+" Aborting.");
+                    if (slice >= endSlice) return FAILED;
+                }
+                return SKIPPED;
+            }
+        } catch (IOException ioe) {
+            log("IO Exception during during astrometry check for submission " + subid_int.toString() + " for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() + "." : "slice " + slice + "."));
+            return FAILED;
+        }
+        if (canceled) return CANCELED;
+        jobID = job_id_list.toString().replace("[", "").replace("]", "");
+        IJ.showStatus("Job ID: " + jobID);
+//            IJ.showStatus("Processing finished: "+processing_finished); 
+
+        //        Check job status
+        JSONObject result3 = null;
+        String jobStatus = null;
+
+        try {
+            jobCheckURL = new URL((useAlternateAstrometryServer ? alternateAstrometryUrlBase : defaultAstrometryUrlBase) + "/api/jobs/" + jobID);
+
+            BufferedReader in = null;
+            boolean still_processing = true;
+            int n_failed_attempts = 0;
+            int maxWaitTime = notDP ? 600 : 120;
+            gotProcessingResponse = false;
+            gotFailedResponse = false;
+
+            String inputLine = null;
+            while (still_processing && n_failed_attempts < maxWaitTime) {
+                if (canceled) return CANCELED;
+                URLConnection jobCheckCon = jobCheckURL.openConnection();
+                jobCheckCon.setConnectTimeout(60000);
+                jobCheckCon.setReadTimeout(60000);
+                try {
+
+                    in = new BufferedReader(new InputStreamReader(jobCheckCon.getInputStream()));
+                    inputLine = null;
+                    resultText = "";
+                    while ((inputLine = in.readLine()) != null) {
+                        resultText += inputLine;
+                    }
+                    //                    log(resultText);
+                    result3 = (JSONObject) parser.parse(resultText);
+                    jobStatus = (String) result3.get("status");
+                    if (jobStatus.equals("success")) {
+                        IJ.showStatus("Astrometry job " + jobID + ": SOLVED");
+                        if (notDP)
+                            log("Astrometry submission ID "+subid_int.toString()+" job ID " + jobID + " for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() : "slice " + slice) + ": SOLVED");
+                        still_processing = false;
+                    } else if (jobStatus.equals("failure") || jobStatus.equals("error")) {
+                        log("Astrometry submission ID "+subid_int.toString()+" job ID " + jobID + " for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() : "slice " + slice) + ": " + jobStatus + ". Resubmitting.");
+                        gotFailedResponse = true;
+                        break;
+                    } else if (jobStatus.equals("processing")) {
+                        //log("Astrometry job " + jobID + " for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() : "slice " + slice) + ": " + jobStatus + ". Waiting.");
+                        gotProcessingResponse = true;
+                        n_failed_attempts++;
+                        IJ.wait(getPollingTimeout());
+                    } else {
+                        String status = "Astrometry job " + jobID + " " + jobStatus;
+//                            log("Astrometry status: "+jobStatus);
+                        for (int n = 0; n < n_failed_attempts % 10; n++) {
+                            status += " .";
+                        }
+                        IJ.showStatus(status);
+                        n_failed_attempts++;
+                        IJ.wait(getPollingTimeout());
+                    }
+                } catch (IOException ioe) {
+                    log("Astrometry submission ID "+subid_int.toString()+" job ID " + jobID + " check error for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() : "slice " + slice) + " : " + ioe.getLocalizedMessage());
+                    return FAILED;
+                } catch (astroj.json.simple.parser.ParseException pe) {
+                    log("JSON Parse Exception during astrometry.net submission ID "+subid_int.toString()+" job ID " + jobID + " status check for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() : "slice " + slice) + " : " + pe);
+                    return FAILED;
+                }
+            }
+
+            if (gotFailedResponse) {
+                if (retries < maxRetries) {
+                    slice -= 1;
+                } else {
+                    log("Astrometry submission ID "+subid_int.toString()+" job ID " + jobID + " for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() : "slice " + slice) + " was unsuccessful after " + (maxRetries + 1) + " tries. Skipping Image.");
+                    if (slice >= endSlice) return FAILED;
+                }
+                return SKIPPED;
+            }
+
+            if (n_failed_attempts >= maxWaitTime) {
+                IJ.showStatus("Astrometry job " + jobID + " has timed out for slice " + slice + ".");
+                log("Astrometry submission ID "+subid_int.toString()+" job ID " + jobID + " has timed out for  " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() + "." : "slice " + slice + ".") + " Skipping Image.");
+                if (impOriginal.getStackSize() > 1)
+                    return SKIPPED;
+                else
+                    return FAILED;
+            }
+        } catch (IOException ioe) {
+            log("IO Exception during astrometry submission ID "+subid_int.toString()+" job ID " + jobID + " status check for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() + "." : "slice " + slice + ".") + " : " + ioe.getLocalizedMessage());
+            return FAILED;
+        }
+
+        if (canceled) return CANCELED;
+        int len = 0;
+        try {
+            //            getFileURL = new URL("http://nova.astrometry.net/api/jobs/"+jobID+"/annotations");
+            getFileURL = new URL((useAlternateAstrometryServer ? alternateAstrometryUrlBase : defaultAstrometryUrlBase) + "/wcs_file/" + jobID);
+            URLConnection fileDownloadCon = getFileURL.openConnection();
+            fileDownloadCon.setConnectTimeout(60000);
+            fileDownloadCon.setReadTimeout(60000);
+            fileDownloadCon.setDoOutput(true);
+            fileDownloadCon.setDoInput(true);
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(fileDownloadCon.getInputStream()));
+            String inputLine = in.readLine();
+
+            len = inputLine.length() / 80;
+            wcsHeader = FitsJ.Header.build(new String[len]);
+            if (inputLine != null && !inputLine.equals("")) {
+                for (int i = 0; i < len; i++) {
+                    wcsHeader.cards()[i] = inputLine.substring(i * 80, (i + 1) * 80);
+                }
+//                    for (int i=0; i<len; i++)
+//                        log(wcsHeader.cards()[i]);
+            } else {
+                log("Failed to retrieve WCS headers for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() + "." : "slice " + slice + "."));
+                if (impOriginal.getStackSize() > 1)
+                    return SKIPPED;
+                else
+                    return FAILED;
+            }
+
+            if (RegionExclusion.EXCLUDE_BORDERS.get()) {
+                FitsJ.setCard("CRPIX1", FitsJ.findDoubleValue("CRPIX1", wcsHeader) + dx, "", wcsHeader);
+                FitsJ.setCard("CRPIX2", FitsJ.findDoubleValue("CRPIX2", wcsHeader) + dy, "", wcsHeader);
+                FitsJ.setCard("IMAGEW", FitsJ.findIntValue("IMAGEW", wcsHeader) - dx, "", wcsHeader);
+                FitsJ.setCard("IMAGEH", FitsJ.findIntValue("IMAGEH", wcsHeader) - dy, "", wcsHeader);
+            }
+        } catch (IOException ioe) {
+            log("IO Exception during astrometry.net file download for " + (impOriginal.getStackSize() == 1 ? impOriginal.getTitle() : "slice " + slice) + " : " + ioe.getLocalizedMessage());
+            return FAILED;
+        }
+        return SUCCESS;
+    }
+
+
+    /**
+     * Solves the current slice against the local index from the maxima found, converted to FITS pixels.
+     */
+    LocalPlateSolver.Solution solveOffline(QuadIndex index) {
+        if (npoints == 0 || xdpoints == null) return null;
+        var x = new double[npoints];
+        var y = new double[npoints];
+        for (int i = 0; i < npoints; i++) {
+            x[i] = xdpoints[i] + Centroid.PIXELCENTER;
+            y[i] = height - ydpoints[i] + Centroid.PIXELCENTER;
+        }
+        var hint = useRaDec ? new LocalPlateSolver.Hint(ra * 15.0, dec, raDecRadius / 60.0) : null;
+        var sipOrder = useDistortionOrder ? Math.clamp(distortionOrder, minOrder, maxOrder) : 0;
+        IJ.showStatus("Solving offline");
+        return LocalPlateSolver.solve(index, x, y, width, height, useScale ? scale_lower : 0,
+                useScale ? scale_upper : Double.POSITIVE_INFINITY, hint, sipOrder);
+    }
+
+    /**
+     * Labels the catalog stars matched by an offline solve, as the astrometry.net annotations are labelled.
+     */
+    void annotateMatches(LocalPlateSolver.Solution solution) {
+        for (int m = 0; m < solution.matchCount(); m++) {
+            var name = solution.name(m);
+            if (name.isEmpty()) continue;
+            addAnnotateRoi(impOriginal, true, false, true, false, solution.x(m) - 0.5, height - (solution.y(m) - 0.5), annotateRadius, name, IJU.colorOf(defaultAnnotationColor));
+        }
+        impOriginal.draw();
+    }
+
+
+    /**
+     * Logs in to the astrometry.net server and keeps the session for the uploads.
+     */
+    boolean login() {
+        String resultText = "";
+        JSONParser parser = new JSONParser();
+        try {
+            URL apiURL = new URL((useAlternateAstrometryServer ? alternateAstrometryUrlBase : defaultAstrometryUrlBase) + "/api/");
+            URL loginURL = new URL(apiURL + "login");
+
+            Map<String, String> loginData = new LinkedHashMap<>();
+            loginData.put("apikey", userKey.trim());
+
+            String login = "request-json=" + URLEncoder.encode(toJSONString(loginData), StandardCharsets.UTF_8);
+
+            URLConnection astrometryCon = loginURL.openConnection();
+            astrometryCon.setConnectTimeout(60000);
+            astrometryCon.setReadTimeout(60000);
+            astrometryCon.setDoOutput(true);
+            astrometryCon.setDoInput(true);
+
+            DataOutputStream wr = new DataOutputStream(astrometryCon.getOutputStream());
+            wr.writeBytes(login);
+            wr.close();
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(astrometryCon.getInputStream()));
+            String inputLine;
+            while ((inputLine = in.readLine()) != null) {
+                resultText += inputLine;
+            }
+            //log("Login result="+resultText);
+            JSONObject result = (JSONObject) parser.parse(resultText);
+            String stat = (String) result.get("status");
+            if (stat.equals("error")) {
+                log("Astrometry.net login error, exiting.");
+                return false;
+            } else {
+                IJ.showStatus("Login status: " + stat);
+                session_string = (String) result.get("session");
+                IJ.showStatus("Session: " + session_string);
+            }
+        } catch (IOException ioe) {
+            log("IO Exception during astrometry.net login: " + ioe.getLocalizedMessage());
+            return false;
+        } catch (astroj.json.simple.parser.ParseException pe) {
+            log("JSON Parse Exception in astrometry.net login response: " + pe);
+            return false;
+        }
+        return true;
+    }
+
+
     public void setShowLog(boolean show) {
         showLog = show;
     }
@@ -1002,19 +1124,14 @@ public class Astrometry { //implements KeyListener
         byte[] mask = ip.getMaskArray();
         ByteProcessor typeP = new ByteProcessor(width, height);     //will be a notepad for pixel types
         byte[] types = (byte[]) typeP.getPixels();
-        float globalMin = Float.MAX_VALUE;
-        float globalMax = -Float.MAX_VALUE;
-        for (int y = roi.y; y < roi.y + roi.height; y++) {         //find local minimum/maximum now
-            for (int x = roi.x; x < roi.x + roi.width; x++) {      //ImageStatistics won't work if we have no ImagePlus
-                float v = ip.getPixelValue(x, y);
-                if (globalMin > v) globalMin = v;
-                if (globalMax < v) globalMax = v;
-            }
-        }
+        //find local maxima and the minimum/maximum in one pass, ImageStatistics won't work if we have no ImagePlus
+        LocalMaxima maxima = LocalMaxima.find(ip, roi, 0, 0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        float globalMin = maxima.min();
+        float globalMax = maxima.max();
 
         if (canceled) return;
         IJ.showStatus("Getting sorted maxima...");
-        long[] maxPoints = getSortedMaxPoints(ip, typeP, true, false, globalMin, globalMax, ImageProcessor.NO_THRESHOLD);
+        long[] maxPoints = getSortedMaxPoints(maxima, typeP, true, globalMin, globalMax, ImageProcessor.NO_THRESHOLD);
         if (canceled) return;
         IJ.showStatus("Analyzing  maxima...");
         float maxSortingError = 0;
@@ -1025,72 +1142,40 @@ public class Astrometry { //implements KeyListener
 
 
     /**
-     * Find all local maxima (irrespective whether they finally qualify as maxima or not)
+     * Sort all local maxima (irrespective whether they finally qualify as maxima or not)
      *
-     * @param ip              The image to be analyzed
+     * @param maxima          The local maxima of the image or roi
      * @param typeP           A byte image, same size as ip, where the maximum points are marked as MAXIMUM
      *                        (do not use it as output: for rois, the points are shifted w.r.t. the input image)
      * @param excludeEdgesNow Whether to exclude edge pixels
-     * @param isEDM           Whether ip is a float Euclidian distance map
      * @param globalMin       The minimum value of the image or roi
      * @param threshold       The threshold (calibrated) below which no pixels are processed. Ignored if ImageProcessor.NO_THRESHOLD
      * @return Maxima sorted by value. In each array element (long, i.e., 64-bit integer), the value
      * is encoded in the upper 32 bits and the pixel offset in the lower 32 bit
      * Note: Do not use the positions of the points marked as MAXIMUM in typeP, they are invalid for images with a roi.
      */
-    long[] getSortedMaxPoints(ImageProcessor ip, ByteProcessor typeP, boolean excludeEdgesNow,
-                              boolean isEDM, float globalMin, float globalMax, double threshold) {
-        Rectangle roi = ip.getRoi();
+    long[] getSortedMaxPoints(LocalMaxima maxima, ByteProcessor typeP, boolean excludeEdgesNow,
+                              float globalMin, float globalMax, double threshold) {
         byte[] types = (byte[]) typeP.getPixels();
-        int nMax = 0;  //counts local maxima
         boolean checkThreshold = threshold != ImageProcessor.NO_THRESHOLD;
-        //long t0 = System.currentTimeMillis();
-        for (int y = roi.y; y < roi.y + roi.height; y++) {         // find local maxima now
-            if (y % 50 == 0 && canceled) return null;
-            for (int x = roi.x, i = x + y * width; x < roi.x + roi.width; x++, i++) {      // for better performance with rois, restrict search to roi
-                float v = ip.getPixelValue(x, y);
-                float vTrue = v;
-                if (v == globalMin) continue;
-                if (excludeEdgesNow && (x == 0 || x == width - 1 || y == 0 || y == height - 1)) continue;
-                if (checkThreshold && v < threshold) continue;
-                boolean isMax = true;
-                    /* check wheter we have a local maximum.
-                    Note: For an EDM, we need all maxima: those of the EDM-corrected values
-                    (needed by findMaxima) and those of the raw values (needed by cleanupMaxima) */
-                boolean isInner = (y != 0 && y != height - 1) && (x != 0 && x != width - 1); //not necessary, but faster than isWithin
-                for (int d = 0; d < 8; d++) {                         // compare with the 8 neighbor pixels
-                    if (isInner || isWithin(x, y, d)) {
-                        float vNeighbor = ip.getPixelValue(x + DIR_X_OFFSET[d], y + DIR_Y_OFFSET[d]);
-                        float vNeighborTrue = vNeighbor;
-                        if (vNeighbor > v && vNeighborTrue > vTrue) {
-                            isMax = false;
-                            break;
-                        }
-                    }
-                }
-                if (isMax) {
-                    types[i] = MAXIMUM;
-                    nMax++;
-                }
-            } // for x
-        } // for y
-        if (canceled) return null;
-        //long t1 = System.currentTimeMillis();IJ.log("markMax:"+(t1-t0));
-
         float vFactor = (float) (2e9 / (globalMax - globalMin)); //for converting float values into a 32-bit int
-        long[] maxPoints = new long[nMax];                  //value (int) is in the upper 32 bit, pixel offset in the lower
-        int iMax = 0;
-        for (int y = roi.y; y < roi.y + roi.height; y++)           //enter all maxima into an array
-            for (int x = roi.x, p = x + y * width; x < roi.x + roi.width; x++, p++)
-                if (types[p] == MAXIMUM) {
-                    float fValue = ip.getPixelValue(x, y);
-                    int iValue = (int) ((fValue - globalMin) * vFactor); //32-bit int, linear function of float value
-                    maxPoints[iMax++] = (long) iValue << 32 | p;
-                }
-        //long t2 = System.currentTimeMillis();IJ.log("makeArray:"+(t2-t1));
+        long[] maxPoints = new long[maxima.count()];        //value (int) is in the upper 32 bit, pixel offset in the lower
+        int nMax = 0;
+        for (int m = 0; m < maxima.count(); m++) {
+            int x = maxima.x(m);
+            int y = maxima.y(m);
+            float v = maxima.value(m);
+            if (v == globalMin) continue;
+            if (excludeEdgesNow && (x == 0 || x == width - 1 || y == 0 || y == height - 1)) continue;
+            if (checkThreshold && v < threshold) continue;
+            int p = x + y * width;
+            types[p] = MAXIMUM;
+            int iValue = (int) ((v - globalMin) * vFactor); //32-bit int, linear function of float value
+            maxPoints[nMax++] = (long) iValue << 32 | p;
+        }
         if (canceled) return null;
+        if (nMax < maxPoints.length) maxPoints = Arrays.copyOf(maxPoints, nMax);
         Arrays.sort(maxPoints);                                 //sort the maxima by value
-        //long t3 = System.currentTimeMillis();IJ.log("sort:"+(t3-t2));
         return maxPoints;
     } //getSortedMaxPoints
 
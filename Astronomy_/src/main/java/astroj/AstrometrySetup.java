@@ -19,6 +19,8 @@ import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.text.DecimalFormat;
 import java.util.Locale;
 
@@ -37,6 +39,7 @@ import javax.swing.JTextField;
 import javax.swing.SpinnerListModel;
 import javax.swing.SpinnerNumberModel;
 import javax.swing.SpringLayout;
+import javax.swing.SwingUtilities;
 import javax.swing.border.TitledBorder;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
@@ -45,10 +48,14 @@ import javax.swing.event.DocumentListener;
 import javax.swing.event.PopupMenuEvent;
 import javax.swing.event.PopupMenuListener;
 
+import Astronomy.astrometry.LocalPlateSolver;
+import Astronomy.astrometry.QuadIndex;
+import Astronomy.astrometry.WcsTracker;
 import ij.IJ;
 import ij.Prefs;
 import ij.astro.util.UIHelper;
 import ij.gui.GUI;
+import ij.gui.GenericDialog;
 import ij.util.Tools;
 import util.prefs.RegionExclusion;
 
@@ -168,7 +175,7 @@ public class AstrometrySetup implements ActionListener, ItemListener, ChangeList
     String alternateAstrometryUrlBase = "http://127.0.0.1:8080";
     JScrollPane scrollPane;
     JPanel astrometrySetupPanel;
-    JTextField keyTF, raTF, decTF, alternateAstrometryUrlBaseTF;
+    JTextField keyTF, raTF, decTF, alternateAstrometryUrlBaseTF, indexPathTF;
     JButton startButton, cancelButton;
     JLabel keyLabel3, keyLabel4;
     JCheckBox autoSaveCB, skipIfHasWCSCB, processStackCB, annotateCB, addAnnotationsToHeaderCB, useMedianFilterCB, useMaxPeakFindValueCB,
@@ -343,6 +350,82 @@ public class AstrometrySetup implements ActionListener, ItemListener, ChangeList
         JLabel serverLabel5 = new JLabel("");
         astrometrySetupPanel.add(serverLabel5);
 
+//-------------------------------------------------------------------
+
+        nlines++;
+        var offlineLabel = new JLabel("Solve Offline:");
+        offlineLabel.setFont(p12);
+        offlineLabel.setPreferredSize(col1Size);
+        offlineLabel.setHorizontalAlignment(JTextField.RIGHT);
+        astrometrySetupPanel.add(offlineLabel);
+
+        var offlineCb = new JCheckBox("Enable", LocalPlateSolver.ENABLED.get());
+        offlineCb.setFont(p12);
+        offlineCb.setToolTipText("<html>Plate solve against a local index instead of an astrometry.net server.<br>" +
+                "The scale, RA/Dec and distortion settings below are used the same way.</html>");
+        offlineCb.addItemListener(LocalPlateSolver.ENABLED.toItemListener());
+        astrometrySetupPanel.add(offlineCb);
+
+        JPanel indexPathPanel = new JPanel(new SpringLayout());
+        indexPathTF = new JTextField(LocalPlateSolver.INDEX_PATH.get());
+        indexPathTF.setMargin(fitsMargin);
+        indexPathTF.setFont(p12);
+        indexPathTF.setEnabled(LocalPlateSolver.ENABLED.get());
+        indexPathTF.setPreferredSize(col2Size);
+        indexPathTF.setHorizontalAlignment(JTextField.LEFT);
+        indexPathTF.setToolTipText("<html>" + "Path of the plate solve index (" + QuadIndex.EXTENSION + ") to solve against." + "<br>" +
+                "Use <b>Build Index</b> to make one from a star catalog." + "</html>");
+        indexPathTF.getDocument().addDocumentListener(new AstrometrySetup.thisDocumentListener());
+        indexPathPanel.add(indexPathTF);
+
+        SpringUtil.makeCompactGrid(indexPathPanel, 1, 1, 2, 4, 2, 4);
+        astrometrySetupPanel.add(indexPathPanel);
+
+        var buildIndexButton = new JButton("Build Index");
+        buildIndexButton.setFont(p12);
+        buildIndexButton.setToolTipText("<html>Build a plate solve index from a text catalog with RA and Dec in degrees,<br>" +
+                "a magnitude, and optionally a name on each line.</html>");
+        buildIndexButton.addActionListener(_ -> buildIndex());
+        astrometrySetupPanel.add(buildIndexButton);
+
+        astrometrySetupPanel.add(new JLabel(""));
+
+        offlineCb.addItemListener(l -> indexPathTF.setEnabled(l.getStateChange() == ItemEvent.SELECTED));
+
+//-------------------------------------------------------------------
+
+        nlines++;
+        var trackLabel = new JLabel("Track Between Frames:");
+        trackLabel.setFont(p12);
+        trackLabel.setPreferredSize(col1Size);
+        trackLabel.setHorizontalAlignment(JTextField.RIGHT);
+        astrometrySetupPanel.add(trackLabel);
+
+        var trackCb = new JCheckBox("Enable", WcsTracker.ENABLED.get());
+        trackCb.setFont(p12);
+        trackCb.setToolTipText("<html>Solve each frame of a time series from the solution of the frame before,<br>" +
+                "matching the stars after their drift and refitting only the linear terms.<br>" +
+                "Frames that do not match well enough are solved from scratch.</html>");
+        trackCb.addItemListener(WcsTracker.ENABLED.toItemListener());
+        astrometrySetupPanel.add(trackCb);
+
+        var trackBorder = BorderFactory.createTitledBorder(BorderFactory.createEmptyBorder(), "Max RMS (pixels):", TitledBorder.CENTER, TitledBorder.TOP, p11);
+        var trackBox = Box.createHorizontalBox();
+        trackBox.setBorder(trackBorder);
+        var maxRmsSpinner = new JSpinner(new SpinnerNumberModel(WcsTracker.MAX_RMS.get().doubleValue(), 0.1, 10.0, 0.1));
+        maxRmsSpinner.setFont(p12);
+        maxRmsSpinner.setEnabled(WcsTracker.ENABLED.get());
+        maxRmsSpinner.setToolTipText("<html>The largest RMS distance between the matched stars and their positions<br>" +
+                "from the previous frame for a frame to be tracked.</html>");
+        maxRmsSpinner.addChangeListener(_ -> WcsTracker.MAX_RMS.set(((Number) maxRmsSpinner.getValue()).doubleValue()));
+        trackBox.add(maxRmsSpinner);
+        astrometrySetupPanel.add(trackBox);
+
+        astrometrySetupPanel.add(new JLabel(""));
+        astrometrySetupPanel.add(new JLabel(""));
+
+        trackCb.addItemListener(l -> maxRmsSpinner.setEnabled(l.getStateChange() == ItemEvent.SELECTED));
+
 //-------------------------------------------------------------------
 
         nlines++;
@@ -1437,6 +1520,49 @@ public class AstrometrySetup implements ActionListener, ItemListener, ChangeList
     public void getFields() {
         userKey = keyTF.getText().trim();
         if (useAlternateAstrometryServer) alternateAstrometryUrlBase = alternateAstrometryUrlBaseTF.getText().trim();
+        LocalPlateSolver.INDEX_PATH.set(indexPathTF.getText().trim());
+    }
+
+    /**
+     * Asks for a star catalog and the range of quad sizes, and builds a plate solve index from it in the background.
+     */
+    void buildIndex() {
+        var gd = new GenericDialog("Build Plate Solve Index", astrometrySetupFrame);
+        gd.addFileField("Catalog (RA deg, Dec deg, mag, name):", "");
+        gd.addNumericField("Smallest field width:", 10, 1, 8, "arcmin");
+        gd.addNumericField("Largest field width:", 60, 1, 8, "arcmin");
+        gd.addFileField("Save index as:", LocalPlateSolver.INDEX_PATH.get());
+        gd.addMessage("Quads are built from a fifth of the smallest field width to the largest field width.\n" +
+                "A wide range or a dense catalog makes a large index.");
+        gd.showDialog();
+        if (gd.wasCanceled()) return;
+
+        var catalog = gd.getNextString().trim();
+        var smallest = gd.getNextNumber();
+        var largest = gd.getNextNumber();
+        var output = gd.getNextString().trim();
+        if (gd.invalidNumber() || catalog.isEmpty() || output.isEmpty() || !(smallest > 0) || !(largest > smallest)) {
+            IJ.error("Build Plate Solve Index", "A catalog, an output path, and increasing field widths are needed.");
+            return;
+        }
+        if (!output.endsWith(QuadIndex.EXTENSION)) output += QuadIndex.EXTENSION;
+
+        var outputPath = Path.of(output);
+        new Thread(() -> {
+            try {
+                IJ.showStatus("Building plate solve index");
+                var start = System.currentTimeMillis();
+                var index = QuadIndex.build(Path.of(catalog), smallest / 5, largest, IJ::showProgress);
+                index.write(outputPath);
+                IJ.log("Built plate solve index " + outputPath + " with " + index.starCount() + " stars and " +
+                        index.quadCount() + " quads in " + (System.currentTimeMillis() - start) / 1000 + " s");
+                SwingUtilities.invokeLater(() -> indexPathTF.setText(outputPath.toString()));
+            } catch (IOException | RuntimeException e) {
+                IJ.error("Build Plate Solve Index", "Could not build the index: " + e.getMessage());
+            } finally {
+                IJ.showProgress(1);
+            }
+        }, "Plate solve index builder").start();
     }
 
 
@@ -77,6 +77,7 @@ import Astronomy.MultiAperture_;
 import Astronomy.multiaperture.FreeformPixelApertureHandler;
 import Astronomy.multiaperture.io.ApFile;
 import Astronomy.multiaperture.io.AperturesFileCodec;
+import Astronomy.multiplot.modelling.TransitModel;
 import astroj.util.SkyMapOptions;
 import ij.IJ;
 import ij.ImagePlus;
@@ -1649,221 +1650,8 @@ public class IJU {
         //           backward compatibility, u1 and u2 are required, but not
         //           necessary if d is used.        
 
-        double[] muo1 = new double[bjd.length];
-//        double[] mu0 = new double[bjd.length];
-        double tp = tc - P * getTcPhase(e, omega);
-//        IJ.log("tc="+tc);
-//        IJ.log("P="+P);
-//        IJ.log("TcPhase="+getTcPhase(e,omega));
-//        IJ.log("tp="+tp);
-
-        double[][] bzArray = impactParameter(bjd, inclination, ar, tp, P, e, omega, useLonAscNode, lonAscNode); // impact parameter in units of rs
-
-        int nz = bjd.length;
-
-        double[] lambdad = new double[nz];
-        double[] etad = new double[nz];
-        double[] lambdae = new double[nz];
-
-        double z;
-        double p = abs(p0);
-        double p2 = p * p;
-
-        // tolerance for double precision equalities
-        // special case integrations
-        double tol = 1.0e-14;
-        double kap1, kap0, kapArg1, kapArg0, lambdaeArg, z2, x1, x2, x3, q, n;
-
-        var bz0 = bzArray[0];
-        var bz1 = bzArray[1];
-        for (int i = 0; i < nz; i++) {
-            if (fitPrimary && bz1[i] <= 0.0 || !fitPrimary && bz1[i] > 0) {
-                // Only consider the part of the orbit where a primary or secondary could occur, depending on which is being modeled.
-                //(When z > 0, the planet is closer to the observer than the star.)
-                // Otherwise, the overall model returned will include identical transits at both the primary and secondary times of transit,
-                // which would cause a problem when fitting full-phase data, such as TESS or Kepler space-based data.
-                // To calculate both a primary and secondary transit model for full phase data, the model must be calculated twice using the different set
-                // of transit and eclipse shape parameters and combined separately from this function.
-                continue;
-            }
-            if (abs(p - bz0[i]) < tol) bz0[i] = p;
-            else if (abs((p - 1.0) - bz0[i]) < tol) bz0[i] = p - 1.0;
-            else if (abs((1.0 - p) - bz0[i]) < tol) bz0[i] = 1.0 - p;
-            else if (bz0[i] < tol) bz0[i] = 0.0;
-            z = bz0[i];
-            z2 = z * z;
-            x1 = (p - z) * (p - z);
-            x2 = (p + z) * (p + z);
-            x3 = p2 - z2;
-
-            // Case 1 - the star is unocculted or there is no planet (p <= 0)
-            if (z >= (1.0 + p) || p <= 0.0) {
-                etad[i] = 0.0;
-                lambdae[i] = 0.0;
-                lambdad[i] = 0.0;
-                continue;
-            }
-
-            // Case 11 - the  source is completely occulted:
-            if (p >= 1.0 && z <= p - 1.0) {
-                etad[i] = 0.5; // corrected typo in paper
-                lambdae[i] = 1.0;
-                lambdad[i] = 0.0;
-                continue;
-            }
-
-            // Case 2, 7, 8 - ingress/egress (uniform disk only)
-            if (z >= abs(1.0 - p) && (z < 1.0 + p)) {
-                kapArg1 = (1.0 - p2 + z2) / 2.0 / z;
-                if (kapArg1 < -1.0) {
-                    kapArg1 = -1.0;
-                    kap1 = PI;
-                } else if (kapArg1 > 1.0) {
-                    kapArg1 = 1.0;
-                    kap1 = 0;
-                } else {
-                    kap1 = acos(kapArg1);
-                }
-                kapArg0 = (p2 + z2 - 1.0) / 2.0 / p / z;
-                if (kapArg0 < -1.0) {
-                    kapArg0 = -1.0;
-                    kap0 = PI;
-                } else if (kapArg0 > 1.0) {
-                    kapArg0 = 1.0;
-                    kap0 = 0;
-                } else {
-                    kap0 = acos(kapArg0);
-                }
-
-                lambdaeArg = 1.0 + z2 - p2;
-                lambdaeArg *= lambdaeArg;
-                lambdaeArg = 4.0 * z2 - lambdaeArg;
-                if (lambdaeArg < 0.0) lambdaeArg = 0.0;
-                lambdae[i] = (p2 * kap0 + kap1 - 0.5 * sqrt(lambdaeArg)) / PI;
-                // eta_1
-                etad[i] = 1.0 / 2.0 / PI * (kap1 + p2 * (p2 + 2.0 * z2) * kap0 - (1.0 + 5.0 * p2 + z2) / 4.0 * sqrt((1.0 - x1) * (x2 - 1.0)));
-            }
-
-            // Case 5, 6, 7 - the edge of planet lies at origin of star
-            if (z == p) {
-                if (p < 0.5) {
-                    // Case 5
-                    q = 2.0 * p; //corrected typo in paper (2k -> 2p)
-                    var ell = ellke(q);
-                    var ek = ell[0];  //The elliptic integral of the first kind
-                    var kk = ell[1];  // The elliptic integral of the second kind
-                    lambdad[i] = 1.0 / 3.0 + 2.0 / 9.0 / PI * (4.0 * (2.0 * p2 - 1.0) * ek + (1.0 - 4.0 * p2) * kk);
-                    etad[i] = 3.0 * p2 * p2 / 2.0;
-                    lambdae[i] = p2;// uniform disk
-                } else if (p > 0.5) {
-                    // Case 7
-                    q = 0.5 / p; //corrected typo in paper (1/2k -> 1/2p)
-                    var ell = ellke(q);
-                    var ek = ell[0];  //The elliptic integral of the first kind
-                    var kk = ell[1];  // The elliptic integral of the second kind
-                    lambdad[i] = 1.0 / 3.0 + 16.0 * p / 9.0 / PI * (2.0 * p2 - 1.0) * ek - (32.0 * p2 * p2 - 20.0 * p2 + 3.0) / 9.0 / PI / p * kk;
-                    // etad = eta_1 already
-                } else {
-                    // Case 6
-                    lambdad[i] = 1.0 / 3.0 - 4.0 / PI / 9.0;
-                    etad[i] = 3.0 / 32.0;
-                }
-                continue;
-            }
-
-            // Case 2, Case 8 - ingress/egress (with limb darkening)
-            if ((z > 0.5 + abs(p - 0.5) && z < 1.0 + p) || (p > 0.5 && z > abs(1.0 - p) && z < p)) {
-                q = sqrt((1.0 - x1) / (x2 - x1));
-                var ell = ellke(q);
-                var ek = ell[0];  //The elliptic integral of the first kind
-                var kk = ell[1];  // The elliptic integral of the second kind
-                n = 1.0 / x1 - 1.0;
-
-                // lambda_1:
-                lambdad[i] = 2.0 / 9.0 / PI / sqrt(x2 - x1) * (((1.0 - x2) * (2.0 * x2 + x1 - 3.0) - 3.0 * x3 * (x2 - 2.0)) * kk + (x2 - x1) *
-                        (z2 + 7.0 * p2 - 4.0) * ek - 3.0 * x3 / x1 * ellpic_bulirsch(n, q));
-                continue;
-            }
-
-            // Case 3, 4, 9, 10 - planet completely inside star
-            if (p < 1.0 && z <= (1.0 - p)) {
-                // eta_2
-                etad[i] = p2 / 2.0 * (p2 + 2.0 * z2);
-
-                // uniform disk
-                lambdae[i] = p2;
-
-                // Case 4 - edge of planet hits edge of star
-                if (z == 1.0 - p) {
-                    // lambda_5
-                    lambdad[i] = 2.0 / 3.0 / PI * acos(1.0 - 2.0 * p) - 4.0 / 9.0 / PI * sqrt(p * (1.0 - p)) * (3.0 + 2.0 * p - 8.0 * p2) - 2.0 / 3.0 * (p > 0.5 ? 1 : 0);
-                }
-
-                // Case 10 - origin of planet hits origin of star
-                else if (z == 0) {
-                    // lambda_6
-                    lambdad[i] = -2.0 / 3.0 * pow((1.0 - p2), 1.5);
-                } else {
-                    q = sqrt((x2 - x1) / (1.0 - x1));
-                    n = x2 / x1 - 1.0;
-                    var ell = ellke(q);
-                    var ek = ell[0];  //The elliptic integral of the first kind
-                    var kk = ell[1];  // The elliptic integral of the second kind
-
-                    // Case 3, Case 9 - anywhere in between
-                    // lambda_2
-                    lambdad[i] = 2.0 / 9.0 / PI / sqrt(1.0 - x1) * ((1.0 - 5.0 * z2 + p2 + x3 * x3) * kk + (1.0 - x1) * (z2 + 7.0 * p2 - 4.0) * ek - 3.0 * x3 / x1 * ellpic_bulirsch(n, q));
-                }
-                continue;
-            }
-//            IJ.log("transitModel: Undefined case -- please report to Karen Collins at the AIJ support forum.");
-//            IJ.log("transitModel: the impact parameter z = "+z+" does not fit any condition handled by the code.");
-        }
-
-//        var priStart = tc - P * getTcPhase(e, omega, TransitLocation.L4);
-//        var priEnd = tc + P * getTcPhase(e, omega, TransitLocation.L5);
-        for (int i = 0; i < nz; i++) {
-
-            if (fitPrimary && bz1[i] <= 0.0 || !fitPrimary && bz1[i] > 0) {
-                // Only consider the part of the orbit where a primary or secondary could occur, depending on which is being modeled.
-                //(When z > 0, the planet is closer to the observer than the star.)
-                // Otherwise, the overall model returned will include identical transits at both the primary and secondary times of transit,
-                // which would cause a problem when fitting full-phase data, such as TESS or Kepler space-based data.
-                // To calculate both a primary and secondary transit model for full phase data, the model must be calculated twice using the different set
-                // of transit and eclipse shape parameters and combined separately from this function.
-                muo1[i] = f0;
-                continue;
-            }
-
-            // avoid Lutz-Kelker bias (negative values of p0 allowed)
-            if (p0 > 0) {
-                // limb darkened flux
-                muo1[i] = (1.0 - ((1.0 - u1 - 2.0 * u2) * lambdae[i] + (u1 + 2.0 * u2) * (lambdad[i] + 2.0 / 3.0 * (p > bz0[i] ? 1 : 0)) + u2 * etad[i]) / (1.0 - u1 / 3.0 - u2 / 6.0)) * f0;
-//                IJ.log("yModel["+i+"]="+muo1[i]);
-                // uniform disk
-//                mu0[i]=1.0-lambdae[i];
-
-                // coeffs for quadratic limb darkening fit
-//                if arg_present(d) then $
-//                d = transpose([[1.d0-lambdae],$
-//                                [2d0/3d0*(lambdae - (p gt z)) - lambdad],$
-//                                [lambdae/2d0 - etad]])
-            } else {
-                // limb darkened flux
-                muo1[i] = (1.0 + ((1.0 - u1 - 2.0 * u2) * lambdae[i] + (u1 + 2.0 * u2) * (lambdad[i] + 2.0 / 3.0 * (p > bz0[i] ? 1 : 0)) + u2 * etad[i]) / (1.0 - u1 / 3.0 - u2 / 6.0)) * f0;
-//                IJ.log("yModel["+i+"]="+muo1[i]);
-                // uniform disk
-//                mu0[i]=1.0+lambdae[i];
-
-                // coeffs for quadratic limb darkening fit
-//                if arg_present(d) then $
-//                d = transpose([[1.d0+lambdae],$
-//                                [2d0/3d0*((p gt z) - lambdae) + lambdad],$
-//                                [etad - lambdae/2d0]])
-            }
-//            IJ.log("z["+i+"]="+zArray[i]+" => y[i]="+muo1[i]); 
-        }
-        return muo1;
+        return new TransitModel(bjd).evaluate(new double[bjd.length], f0, inclination, p0, ar, tc, P, e, omega, u1, u2,
+                useLonAscNode, lonAscNode, fitPrimary);
     }
 
     public static double getTcPhase(double e, double omega) {
@@ -0,0 +1,407 @@
+package astroj;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/**
+ * Finds the pixels no lower than any of their 8 neighbors, optionally after a median filter.
+ * <p>
+ * The image is split into bands of rows searched in parallel. Each band reads the pixel array a row at a time into
+ * a small ring of rows, median filters the rows it needs by sliding a sorted window along them, and keeps the three
+ * filtered rows around the row being searched, so neither the image nor the filtered image is copied. The maxima are
+ * kept in primitive arrays, in row order.
+ */
+public final class LocalMaxima {
+    private static final int MIN_BAND_HEIGHT = 32;
+
+    private final int count;
+    private final int[] x;
+    private final int[] y;
+    private final float[] value;
+    private final float min;
+    private final float max;
+
+    private LocalMaxima(int count, int[] x, int[] y, float[] value, float min, float max) {
+        this.count = count;
+        this.x = x;
+        this.y = y;
+        this.value = value;
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * @param ip           the image to search, calibrated values are used for byte and short images
+     * @param bounds       the region to search, or null for the whole image
+     * @param border       the number of pixels inside the edges of {@code bounds} to skip
+     * @param medianRadius the radius of the median filter to apply first, as in Process>Filters>Median, or 0 for none
+     * @param lower        maxima below this are skipped
+     * @param upper        maxima above this are skipped
+     */
+    public static LocalMaxima find(ImageProcessor ip, Rectangle bounds, int border, double medianRadius,
+                                   double lower, double upper) {
+        var region = new Rectangle(0, 0, ip.getWidth(), ip.getHeight());
+        if (bounds != null) {
+            region = region.intersection(bounds);
+        }
+        if (region.isEmpty()) {
+            return new LocalMaxima(0, new int[0], new int[0], new float[0], Float.NaN, Float.NaN);
+        }
+
+        final var searchRegion = region;
+        var bandHeight = Math.max(MIN_BAND_HEIGHT,
+                region.height / (4 * Runtime.getRuntime().availableProcessors()) + 1);
+        var bands = (region.height + bandHeight - 1) / bandHeight;
+        var found = IntStream.range(0, bands).parallel()
+                .mapToObj(b -> {
+                    var y0 = searchRegion.y + b * bandHeight;
+                    var y1 = Math.min(searchRegion.y + searchRegion.height, y0 + bandHeight);
+                    return new Band(ip, searchRegion, medianRadius).search(y0, y1, border, lower, upper);
+                })
+                .toList();
+
+        var count = 0;
+        var min = Float.POSITIVE_INFINITY;
+        var max = Float.NEGATIVE_INFINITY;
+        for (LocalMaxima band : found) {
+            count += band.count;
+            min = Math.min(min, band.min);
+            max = Math.max(max, band.max);
+        }
+        var x = new int[count];
+        var y = new int[count];
+        var value = new float[count];
+        var n = 0;
+        for (LocalMaxima band : found) {
+            System.arraycopy(band.x, 0, x, n, band.count);
+            System.arraycopy(band.y, 0, y, n, band.count);
+            System.arraycopy(band.value, 0, value, n, band.count);
+            n += band.count;
+        }
+        if (min > max) {
+            min = max = Float.NaN;
+        }
+
+        return new LocalMaxima(count, x, y, value, min, max);
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public int x(int i) {
+        return x[i];
+    }
+
+    public int y(int i) {
+        return y[i];
+    }
+
+    public float value(int i) {
+        return value[i];
+    }
+
+    /**
+     * The least filtered value in the searched region, or NaN if there are none.
+     */
+    public float min() {
+        return min;
+    }
+
+    /**
+     * The greatest filtered value in the searched region, or NaN if there are none.
+     */
+    public float max() {
+        return max;
+    }
+
+    /**
+     * The rows of one band, read and filtered as the search moves down it.
+     */
+    private static final class Band {
+        private final ImageProcessor ip;
+        private final int width;
+        private final int height;
+        private final Rectangle region;
+        /**
+         * The columns filtered, the region and a pixel either side for the neighbors.
+         */
+        private final int c0;
+        private final int c1;
+        /**
+         * Half width of each row of the median kernel, or null when not filtering.
+         */
+        private final int[] kernel;
+        private final int kRadius;
+        private final float[][] raw;
+        private final int[] rawRow;
+        private final float[][] filtered = new float[3][];
+        private final int[] filteredRow = {Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE};
+        private final float[][] rows;
+        private final float[] window;
+
+        private Band(ImageProcessor ip, Rectangle region, double medianRadius) {
+            this.ip = ip;
+            this.region = region;
+            width = ip.getWidth();
+            height = ip.getHeight();
+            c0 = Math.max(0, region.x - 1);
+            c1 = Math.min(width, region.x + region.width + 1);
+            kernel = medianRadius > 0 ? kernel(medianRadius) : null;
+            kRadius = kernel == null ? 0 : kernel.length / 2;
+
+            // Unfiltered, the raw rows are the three searched
+            raw = new float[Math.max(3, 2 * kRadius + 1)][c1 - c0 + 2 * kRadius];
+            rawRow = new int[raw.length];
+            Arrays.fill(rawRow, Integer.MIN_VALUE);
+            for (int i = 0; i < 3; i++) {
+                filtered[i] = kernel == null ? null : new float[c1 - c0];
+            }
+            var size = 0;
+            if (kernel != null) {
+                for (int half : kernel) {
+                    size += 2 * half + 1;
+                }
+            }
+            window = new float[size];
+            rows = new float[2 * kRadius + 1][];
+        }
+
+        private LocalMaxima search(int y0, int y1, int border, double lower, double upper) {
+            var x = new int[64];
+            var y = new int[64];
+            var value = new float[64];
+            var count = 0;
+            var min = Float.POSITIVE_INFINITY;
+            var max = Float.NEGATIVE_INFINITY;
+
+            var xStart = region.x + border;
+            var xEnd = region.x + region.width - border;
+            var yStart = region.y + border;
+            var yEnd = region.y + region.height - border;
+            for (int row = y0; row < y1; row++) {
+                var center = filtered(row);
+                for (int c = region.x; c < region.x + region.width; c++) {
+                    var v = center[c - c0];
+                    if (v < min) min = v;
+                    if (v > max) max = v;
+                }
+                if (row < yStart || row >= yEnd) {
+                    continue;
+                }
+
+                var above = row > 0 ? filtered(row - 1) : null;
+                var below = row < height - 1 ? filtered(row + 1) : null;
+                for (int c = xStart; c < xEnd; c++) {
+                    var i = c - c0;
+                    var v = center[i];
+                    if (Float.isNaN(v) || v < lower || v > upper) {
+                        continue;
+                    }
+                    var hasLeft = c > 0;
+                    var hasRight = c < width - 1;
+                    if ((hasLeft && center[i - 1] > v) || (hasRight && center[i + 1] > v)) {
+                        continue;
+                    }
+                    if (above != null && (above[i] > v || (hasLeft && above[i - 1] > v) || (hasRight && above[i + 1] > v))) {
+                        continue;
+                    }
+                    if (below != null && (below[i] > v || (hasLeft && below[i - 1] > v) || (hasRight && below[i + 1] > v))) {
+                        continue;
+                    }
+
+                    if (count == x.length) {
+                        x = Arrays.copyOf(x, 2 * count);
+                        y = Arrays.copyOf(y, 2 * count);
+                        value = Arrays.copyOf(value, 2 * count);
+                    }
+                    x[count] = c;
+                    y[count] = row;
+                    value[count] = v;
+                    count++;
+                }
+            }
+
+            return new LocalMaxima(count, x, y, value, min, max);
+        }
+
+        /**
+         * The filtered values of a row, columns {@code c0} to {@code c1}. Only valid until three more rows are asked
+         * for.
+         */
+        private float[] filtered(int row) {
+            if (kernel == null) {
+                return raw(row);
+            }
+            var slot = Math.floorMod(row, 3);
+            if (filteredRow[slot] == row) {
+                return filtered[slot];
+            }
+
+            var rows = this.rows;
+            for (int dy = -kRadius; dy <= kRadius; dy++) {
+                rows[dy + kRadius] = raw(row + dy);
+            }
+
+            median(rows, kernel, window, filtered[slot]);
+            filteredRow[slot] = row;
+            return filtered[slot];
+        }
+
+        /**
+         * The values of a row, columns {@code c0 - kRadius} to {@code c1 + kRadius}, with the edge pixels repeated
+         * outside the image.
+         */
+        private float[] raw(int row) {
+            var slot = Math.floorMod(row, raw.length);
+            if (rawRow[slot] == row) {
+                return raw[slot];
+            }
+
+            var out = raw[slot];
+            var r = Math.clamp(row, 0, height - 1);
+            var first = Math.max(0, c0 - kRadius);
+            var last = Math.min(width, c1 + kRadius);
+            var o = first - (c0 - kRadius);
+            var start = r * width + first;
+            switch (ip) {
+                case FloatProcessor fp -> System.arraycopy((float[]) fp.getPixels(), start, out, o, last - first);
+                case ShortProcessor sp -> {
+                    var pixels = (short[]) sp.getPixels();
+                    var table = sp.getCalibrationTable();
+                    for (int i = 0; i < last - first; i++) {
+                        var p = pixels[start + i] & 0xffff;
+                        out[o + i] = table == null ? p : table[p];
+                    }
+                }
+                case ByteProcessor bp -> {
+                    var pixels = (byte[]) bp.getPixels();
+                    var table = bp.getCalibrationTable();
+                    for (int i = 0; i < last - first; i++) {
+                        var p = pixels[start + i] & 0xff;
+                        out[o + i] = table == null ? p : table[p];
+                    }
+                }
+                default -> {
+                    for (int i = 0; i < last - first; i++) {
+                        out[o + i] = ip.getPixelValue(first + i, r);
+                    }
+                }
+            }
+            Arrays.fill(out, 0, o, out[o]);
+            Arrays.fill(out, o + last - first, out.length, out[o + last - first - 1]);
+
+            rawRow[slot] = row;
+            return out;
+        }
+
+        /**
+         * The half width of each row of the circular median kernel, as {@code RankFilters} makes it.
+         */
+        private static int[] kernel(double radius) {
+            if (radius >= 1.5 && radius < 1.75) {
+                radius = 1.75;
+            } else if (radius >= 2.5 && radius < 2.85) {
+                radius = 2.85;
+            }
+            var r2 = (int) (radius * radius) + 1;
+            var kRadius = (int) Math.sqrt(r2 + 1e-10);
+            var half = new int[2 * kRadius + 1];
+            for (int dy = -kRadius; dy <= kRadius; dy++) {
+                half[dy + kRadius] = (int) Math.sqrt(r2 - dy * dy + 1e-10);
+            }
+            return half;
+        }
+
+        /**
+         * Median filters a row, sliding a sorted window along it, each kernel row losing a pixel on the left and
+         * gaining one on the right. NaN is left out of the window.
+         *
+         * @param rows   the raw rows under the kernel, padded by the kernel radius
+         * @param kernel the half width of each kernel row
+         * @param window room for the values under the kernel
+         * @param out    the filtered row
+         */
+        private static void median(float[][] rows, int[] kernel, float[] window, float[] out) {
+            var kRadius = kernel.length / 2;
+            var n = 0;
+            for (int dy = 0; dy < rows.length; dy++) {
+                for (int i = kRadius - kernel[dy]; i <= kRadius + kernel[dy]; i++) {
+                    n = insert(window, n, rows[dy][i]);
+                }
+            }
+            out[0] = n == 0 ? Float.NaN : window[n / 2];
+            for (int c = 1; c < out.length; c++) {
+                for (int dy = 0; dy < rows.length; dy++) {
+                    var row = rows[dy];
+                    var leaving = row[c - 1 + kRadius - kernel[dy]];
+                    var entering = row[c + kRadius + kernel[dy]];
+                    if (Float.isNaN(leaving) || Float.isNaN(entering)) {
+                        n = remove(window, n, leaving);
+                        n = insert(window, n, entering);
+                        continue;
+                    }
+
+                    // Move only the values between the one leaving and the one entering
+                    var i = lowerBound(window, n, leaving);
+                    if (entering > leaving) {
+                        while (i + 1 < n && window[i + 1] < entering) {
+                            window[i] = window[i + 1];
+                            i++;
+                        }
+                    } else {
+                        while (i > 0 && window[i - 1] > entering) {
+                            window[i] = window[i - 1];
+                            i--;
+                        }
+                    }
+                    window[i] = entering;
+                }
+                out[c] = n == 0 ? Float.NaN : window[n / 2];
+            }
+        }
+
+        private static int insert(float[] window, int n, float v) {
+            if (Float.isNaN(v)) {
+                return n;
+            }
+            var i = lowerBound(window, n, v);
+            System.arraycopy(window, i, window, i + 1, n - i);
+            window[i] = v;
+            return n + 1;
+        }
+
+        private static int remove(float[] window, int n, float v) {
+            if (Float.isNaN(v)) {
+                return n;
+            }
+            var i = lowerBound(window, n, v);
+            System.arraycopy(window, i + 1, window, i, n - i - 1);
+            return n - 1;
+        }
+
+        /**
+         * The first index of the sorted values not less than {@code v}.
+         */
+        private static int lowerBound(float[] window, int n, float v) {
+            if (n == 0) {
+                return 0;
+            }
+            // Without an unpredictable branch per step
+            var base = 0;
+            var length = n;
+            while (length > 1) {
+                var half = length >>> 1;
+                base = window[base + half - 1] < v ? base + half : base;
+                length -= half;
+            }
+            return window[base] < v ? base + 1 : base;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package astroj;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A uniform grid over {@link StarFinder.CoordinateMaxima} for finding the maxima near a position without scanning
+ * them all.
+ * <p>
+ * The maxima are stored sorted by cell, with the start of each cell in a separate array, so building the index is
+ * two passes over the maxima and a query only touches the cells its circle overlaps. The index does not change once
+ * built. Cells the size of the usual query radius work best.
+ */
+public final class MaximaIndex {
+    private final StarFinder.CoordinateMaxima[] maxima;
+    private final int[] cellStart;
+    private final double minX;
+    private final double minY;
+    private final double cellSize;
+    private final int columns;
+    private final int rows;
+
+    /**
+     * @param cellSize the width of the grid cells, pixels
+     */
+    public MaximaIndex(Collection<StarFinder.CoordinateMaxima> maxima, double cellSize) {
+        if (!(cellSize > 0)) {
+            throw new IllegalArgumentException("Cell size must be positive: " + cellSize);
+        }
+        this.maxima = new StarFinder.CoordinateMaxima[maxima.size()];
+
+        var minX = Double.POSITIVE_INFINITY;
+        var minY = Double.POSITIVE_INFINITY;
+        var maxX = Double.NEGATIVE_INFINITY;
+        var maxY = Double.NEGATIVE_INFINITY;
+        for (StarFinder.CoordinateMaxima m : maxima) {
+            minX = Math.min(minX, m.x());
+            minY = Math.min(minY, m.y());
+            maxX = Math.max(maxX, m.x());
+            maxY = Math.max(maxY, m.y());
+        }
+        if (maxima.isEmpty()) {
+            minX = minY = maxX = maxY = 0;
+        }
+        this.minX = minX;
+        this.minY = minY;
+        // Sparse maxima over a large image would make mostly empty cells, keep to a few cells per maximum
+        this.cellSize = cellSize = Math.max(cellSize,
+                Math.sqrt((maxX - minX + 1) * (maxY - minY + 1) / (4.0 * Math.max(1, this.maxima.length))));
+        columns = (int) ((maxX - minX) / cellSize) + 1;
+        rows = (int) ((maxY - minY) / cellSize) + 1;
+
+        // Counting sort by cell
+        cellStart = new int[columns * rows + 1];
+        var cells = new int[this.maxima.length];
+        var i = 0;
+        for (StarFinder.CoordinateMaxima m : maxima) {
+            cells[i] = cell(m.x(), m.y());
+            cellStart[cells[i] + 1]++;
+            i++;
+        }
+        for (int c = 0; c < columns * rows; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        var next = cellStart.clone();
+        i = 0;
+        for (StarFinder.CoordinateMaxima m : maxima) {
+            this.maxima[next[cells[i++]]++] = m;
+        }
+    }
+
+    public int size() {
+        return maxima.length;
+    }
+
+    /**
+     * Calls {@code action} with each maximum within {@code radius} of {@code (x, y)}, including any at the position.
+     */
+    public void forEachWithin(double x, double y, double radius, Consumer<StarFinder.CoordinateMaxima> action) {
+        if (maxima.length == 0) {
+            return;
+        }
+        var radius2 = radius * radius;
+        var c0 = Math.max(0, (int) Math.floor((x - radius - minX) / cellSize));
+        var c1 = Math.min(columns - 1, (int) Math.floor((x + radius - minX) / cellSize));
+        var r0 = Math.max(0, (int) Math.floor((y - radius - minY) / cellSize));
+        var r1 = Math.min(rows - 1, (int) Math.floor((y + radius - minY) / cellSize));
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                var cell = r * columns + c;
+                for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                    if (maxima[i].squaredDistanceTo(x, y) <= radius2) {
+                        action.accept(maxima[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The maxima within {@code radius} of {@code (x, y)}, in no particular order.
+     */
+    public List<StarFinder.CoordinateMaxima> within(double x, double y, double radius) {
+        var found = new ArrayList<StarFinder.CoordinateMaxima>();
+        forEachWithin(x, y, radius, found::add);
+        return found;
+    }
+
+    private int cell(double x, double y) {
+        var c = Math.min(columns - 1, (int) ((x - minX) / cellSize));
+        var r = Math.min(rows - 1, (int) ((y - minY) / cellSize));
+        return r * columns + c;
+    }
+}
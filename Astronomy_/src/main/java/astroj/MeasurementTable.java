@@ -10,6 +10,7 @@ import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -17,6 +18,7 @@ import java.util.Map;
 import java.util.WeakHashMap;
 import java.util.function.DoubleBinaryOperator;
 import java.util.function.DoubleUnaryOperator;
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
 
 import javax.swing.SwingUtilities;
@@ -27,6 +29,7 @@ import Astronomy.multiplot.table.util.UpdateEvent;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.WindowManager;
+import ij.astro.io.ColumnarTable;
 import ij.astro.util.FileAssociationHandler;
 import ij.measure.ResultsTable;
 import ij.util.Tools;
@@ -138,6 +141,10 @@ public class MeasurementTable extends ResultsTable {
 
         var path = Path.of(filename);
 
+        if (ColumnarTable.isColumnarFile(path)) {
+            return getTableFromColumnarFile(path, _ -> true);
+        }
+
         if (EXCEL_XLS.matches(path)) {
             IJ.error("Excel files are not supported for measurement tables. " +
                     "Please convert the file to CSV/TSV format and try again.");
@@ -161,6 +168,31 @@ public class MeasurementTable extends ResultsTable {
         return table;
     }
 
+    /**
+     * Returns a MeasurementTable read from a file, with only the given columns if it is a {@link ColumnarTable}.
+     * Text tables are read whole.
+     */
+    public static MeasurementTable getTableFromFile(String filename, Collection<String> columns) {
+        var path = Path.of(filename);
+        if (ColumnarTable.isColumnarFile(path)) {
+            return getTableFromColumnarFile(path, columns::contains);
+        }
+        return getTableFromFile(filename);
+    }
+
+    private static MeasurementTable getTableFromColumnarFile(Path path, Predicate<String> columns) {
+        var table = new MeasurementTable(path.getFileName().toString());
+        table.filePath = path.toString();
+        try {
+            ColumnarTable.read(table, path, columns);
+        } catch (IOException e) {
+            System.err.println("MeasurementTable IO: " + e.getMessage());
+            IJ.error("MeasurementTable: " + e.getMessage());
+            return null;
+        }
+        return table;
+    }
+
     public static boolean isMeasurementsTable(String tableName) {
         var s = MeasurementTable.longerName(tableName);
         var panel = getMeasurementsWindow(s);
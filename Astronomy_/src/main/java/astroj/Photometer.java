@@ -2,12 +2,15 @@
 
 package astroj;
 
+import Astronomy.photometer.BackgroundEstimator;
+import Astronomy.photometer.CircularApertureSums;
 import Astronomy.photometer.RecursivePixelProcessor;
 import ij.ImagePlus;
 import ij.Prefs;
 import ij.astro.io.prefs.Property;
 import ij.measure.Calibration;
 import ij.process.ColorProcessor;
+import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
 import util.AdaptiveSimpson;
 
@@ -127,6 +130,10 @@ public class Photometer {
             new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
                     new PhotometerWorkerThreadFactory(), null, true);
     public static final Property<Boolean> USE_PARALLEL_PIXEL_PROCESS = new Property<>(true, Photometer.class);
+    public static final Property<Boolean> USE_ROW_SPAN_PIXEL_PROCESS = new Property<>(true, Photometer.class);
+    public static final Property<Boolean> USE_VECTOR_PIXEL_PROCESS = new Property<>(true, Photometer.class);
+    public static final Property<BackgroundEstimator.Statistic> BACKGROUND_STATISTIC =
+            new Property<>(BackgroundEstimator.Statistic.MEAN, Photometer.class);
 
     /**
      * Initializes Photometer without the client's Calibration.
@@ -1278,7 +1285,8 @@ public class Photometer {
         radius = rad;
         rBack1 = rb1;
         rBack2 = rb2;
-        ocanvas = OverlayCanvas.getOverlayCanvas(imp);
+        // Headless images (no window) have nothing to draw on, don't create a window for them
+        ocanvas = imp.getWindow() != null || markRemovedPixels ? OverlayCanvas.getOverlayCanvas(imp) : null;
         hasBack = !Double.isNaN(rBack1) && !Double.isNaN(rBack2) && (rBack2 > rBack1);
         boolean usePlaneLocal = usePlane && hasBack;
 
@@ -1358,16 +1366,38 @@ public class Photometer {
         back2 = 0;
         boolean fitPlaneError = false;
 
+        // The annulus is measured separately by the background estimator, unless removed pixels are marked on the
+        // image or the plain mean of the exact partial pixel annulus is wanted
+        var statistic = BACKGROUND_STATISTIC.get();
+        var useEstimator = hasBack && !markRemovedPixels &&
+                (removeBackStars || usePlaneLocal || statistic != BackgroundEstimator.Statistic.MEAN);
+        var sumBack = hasBack && !useEstimator;
+        var planePoints = usePlaneLocal && !useEstimator;
+
         int totalPixels = (i2 - i1 + 1) * (j2 - j1 + 1);
-        if (usePlaneLocal) {
+        if (planePoints) {
             plane = new FittedPlane(totalPixels);
         }
 
         var region = new RecursivePixelProcessor.CircularRegion(x, y, rad, rb1, rb2);
 
+        // Row spans cover the source and the plain background annulus of float images
+        var useRowSpans = USE_ROW_SPAN_PIXEL_PROCESS.get() && ip instanceof FloatProcessor && !planePoints &&
+                !(exact && sumBack && !removeBackStars);
+
         peak = Float.NEGATIVE_INFINITY;
         if (exact) {
-            if (USE_PARALLEL_PIXEL_PROCESS.get()) {
+            if (useRowSpans) {
+                var sums = CircularApertureSums.measure((float[]) ip.getPixels(), ip.getWidth(), i1, i2, j1, j2,
+                        xpix, ypix, radius, true, sumBack, rBack1, rBack2,
+                        (i, j) -> intarea(xpix, ypix, radius, i, i + 1, j, j + 1), USE_VECTOR_PIXEL_PROCESS.get());
+                source = sums.source();
+                dSourceCount = sums.sourceCount();
+                peak = sums.peak();
+                back = sums.back();
+                back2 = sums.back2();
+                backCount = sums.backCount();
+            } else if (USE_PARALLEL_PIXEL_PROCESS.get()) {
                 var sourceAdder = region.createPixelStorage(ip);
                 var dSourceCountAdder = region.createPixelStorage(ip);
                 var peakAccumulator = new DoubleAccumulator(Math::max, peak);
@@ -1384,11 +1414,11 @@ public class Photometer {
                         peakAccumulator.accumulate(d);
                     }
 
-                    if (hasBack) {
+                    if (sumBack) {
                         var dy = j + Centroid.PIXELCENTER - ypix;
                         var dx = i + Centroid.PIXELCENTER - xpix;
                         var r2 = dx * dx + dy * dy;
-                        if (!removeBackStars && !usePlaneLocal) {
+                        if (!removeBackStars && !planePoints) {
                             fraction = intarea(xpix, ypix, rBack1, i, i + 1, j, j + 1);
                             var b = -(fraction * d);
                             var bc = -fraction;
@@ -1399,7 +1429,7 @@ public class Photometer {
                             backAdder.setVal(i, j, d);
                             backCountAdder.increment();
 
-                            return usePlaneLocal;
+                            return planePoints;
                         }
                     }
 
@@ -1408,7 +1438,7 @@ public class Photometer {
 
                 var allPlanePoints = POOL.invoke(task);
 
-                if (usePlaneLocal) {
+                if (planePoints) {
                     for (RecursivePixelProcessor.Point3D p : allPlanePoints) {
                         plane.addPoint(p.x(), p.y(), p.z());
                     }
@@ -1435,8 +1465,8 @@ public class Photometer {
                             if (fraction > 0.01 && d > peak) {
                                 peak = d;
                             }
-                            if (hasBack) {
-                                if (!removeBackStars && !usePlaneLocal) {
+                            if (sumBack) {
+                                if (!removeBackStars && !planePoints) {
                                     fraction = intarea(xpix, ypix, rBack1, i, i + 1, j, j + 1);
                                     back -= fraction * d;
                                     dBackCount -= fraction;
@@ -1447,7 +1477,7 @@ public class Photometer {
                                     back += d;
                                     back2 += d * d;
                                     backCount++;
-                                    if (usePlaneLocal) {
+                                    if (planePoints) {
                                         plane.addPoint(di, dj, d);
                                     }
                                 }
@@ -1457,11 +1487,20 @@ public class Photometer {
                 }
             }
 
-            if (removeBackStars || usePlaneLocal) {
+            if (removeBackStars || planePoints) {
                 dBackCount = backCount;
             }
         } else {
-            if (USE_PARALLEL_PIXEL_PROCESS.get()) {
+            if (useRowSpans) {
+                var sums = CircularApertureSums.measure((float[]) ip.getPixels(), ip.getWidth(), i1, i2, j1, j2,
+                        xpix, ypix, radius, false, sumBack, rBack1, rBack2, null, USE_VECTOR_PIXEL_PROCESS.get());
+                source = sums.source();
+                sourceCount = (long) sums.sourceCount();
+                peak = sums.peak();
+                back = sums.back();
+                back2 = sums.back2();
+                backCount = sums.backCount();
+            } else if (USE_PARALLEL_PIXEL_PROCESS.get()) {
                 var sourceAdder = region.createPixelStorage(ip);
                 var peakAccumulator = new DoubleAccumulator(Math::max, peak);
                 var backAdder = region.createPixelStorage(ip);
@@ -1478,11 +1517,11 @@ public class Photometer {
                         peakAccumulator.accumulate(d);
                     }
 
-                    if (hasBack && r2 >= r2b1 && r2 <= r2b2) { // BACKGROUND
+                    if (sumBack && r2 >= r2b1 && r2 <= r2b2) { // BACKGROUND
                         backAdder.setVal(i, j, d);
                         backCountAdder.increment();
 
-                        return usePlaneLocal;
+                        return planePoints;
                     }
 
                     return false;
@@ -1490,7 +1529,7 @@ public class Photometer {
 
                 var allPlanePoints = POOL.invoke(task);
 
-                if (usePlaneLocal) {
+                if (planePoints) {
                     for (RecursivePixelProcessor.Point3D p : allPlanePoints) {
                         plane.addPoint(p.x(), p.y(), p.z());
                     }
@@ -1517,11 +1556,11 @@ public class Photometer {
                                     peak = d;
                                 }
                             }
-                            if (hasBack && r2 >= r2b1 && r2 <= r2b2) { // BACKGROUND
+                            if (sumBack && r2 >= r2b1 && r2 <= r2b2) { // BACKGROUND
                                 back += d;
                                 back2 += d * d;
                                 backCount++;
-                                if (usePlaneLocal) {
+                                if (planePoints) {
                                     plane.addPoint(di, dj, d);
                                 }
                             }
@@ -1538,129 +1577,133 @@ public class Photometer {
         } else {
             IJ.log("source="+source+"   sourceCount="+sourceCount);
         }*/
-        if (hasBack && (dBackCount > 0.0)) {
-            //IJ.log("source="+source+"   sourceCount="+sourceCount+"  sourceMean="+source/(double)sourceCount);
-            //IJ.log("back="+back+"   backCount="+backCount+"  backMean="+back/(double)backCount);
-            back /= dBackCount;    // MEAN BACKGROUND
-        }
+        if (useEstimator) {
+            fitPlaneError = !estimateBackground(ip, i1, i2, j1, j2, xpix, ypix, r2b1, r2b2, usePlaneLocal, statistic);
+        } else {
+            if (hasBack && (dBackCount > 0.0)) {
+                //IJ.log("source="+source+"   sourceCount="+sourceCount+"  sourceMean="+source/(double)sourceCount);
+                //IJ.log("back="+back+"   backCount="+backCount+"  backMean="+back/(double)backCount);
+                back /= dBackCount;    // MEAN BACKGROUND
+            }
 
-        //IJ.log("remove stars="+removeBackStars+"   background="+back+"    backcount="+backCount+"    backstdev="+backstdev);
+            //IJ.log("remove stars="+removeBackStars+"   background="+back+"    backcount="+backCount+"    backstdev="+backstdev);
 
-        if (hasBack && removeBackStars && (dBackCount > 3.0)) {
-            backMean = back;
-            back2Mean = back2 / dBackCount;
+            if (hasBack && removeBackStars && (dBackCount > 3.0)) {
+                backMean = back;
+                back2Mean = back2 / dBackCount;
 
-            // Copy pixel data for evaluation
-            var pixels = new float[totalPixels];
-            var js = new int[totalPixels];
-            var is = new int[totalPixels];
-            var pCnt = 0;
+                // Copy pixel data for evaluation
+                var pixels = new float[totalPixels];
+                var js = new int[totalPixels];
+                var is = new int[totalPixels];
+                var pCnt = 0;
 
-            if (USE_PARALLEL_PIXEL_PROCESS.get()) {
-                var indexer = new AtomicInteger();
+                if (USE_PARALLEL_PIXEL_PROCESS.get()) {
+                    var indexer = new AtomicInteger();
 
-                var task = new RecursivePixelProcessor(region, ip, false, (i, j, d) -> {
-                    var dy = j + Centroid.PIXELCENTER - ypix;
-                    var dx = i + Centroid.PIXELCENTER - xpix;
-                    var r2 = dx * dx + dy * dy;
-                    if (r2 >= r2b1 && r2 <= r2b2) {
-                        if (!Double.isNaN(d)) {
-                            var idx = indexer.getAndIncrement();
-                            js[idx] = j;
-                            is[idx] = i;
-                            pixels[idx] = (float) d;
-                        } else {
-                            return markRemovedPixels; // Mark NaN pixels
+                    var task = new RecursivePixelProcessor(region, ip, false, (i, j, d) -> {
+                        var dy = j + Centroid.PIXELCENTER - ypix;
+                        var dx = i + Centroid.PIXELCENTER - xpix;
+                        var r2 = dx * dx + dy * dy;
+                        if (r2 >= r2b1 && r2 <= r2b2) {
+                            if (!Double.isNaN(d)) {
+                                var idx = indexer.getAndIncrement();
+                                js[idx] = j;
+                                is[idx] = i;
+                                pixels[idx] = (float) d;
+                            } else {
+                                return markRemovedPixels; // Mark NaN pixels
+                            }
                         }
-                    }
 
-                    return false;
-                });
+                        return false;
+                    });
 
-                var allPlanePoints = POOL.invoke(task);
+                    var allPlanePoints = POOL.invoke(task);
 
-                if (markRemovedPixels) {
-                    for (RecursivePixelProcessor.Point3D p : allPlanePoints) {
-                        addPixelRoi(imp, p.x(), p.y());
+                    if (markRemovedPixels) {
+                        for (RecursivePixelProcessor.Point3D p : allPlanePoints) {
+                            addPixelRoi(imp, p.x(), p.y());
+                        }
                     }
-                }
 
-                pCnt = indexer.get();
-            } else {
-                for (int j = j1; j <= j2; j++) {
-                    dj = (double) j - ypix + Centroid.PIXELCENTER;        // Center
-                    for (int i = i1; i <= i2; i++) {
-                        di = (double) i - xpix + Centroid.PIXELCENTER;    // Center
-                        var r2 = di * di + dj * dj;
-                        if (r2 >= r2b1 && r2 <= r2b2) {
-                            var d = ip.getPixelValue(i, j);
-                            if (!Float.isNaN(d)) {
-                                js[pCnt] = j;
-                                is[pCnt] = i;
-                                pixels[pCnt++] = d;
-                            } else if (markRemovedPixels) {
-                                addPixelRoi(imp, i, j); // Mark NaN pixels
+                    pCnt = indexer.get();
+                } else {
+                    for (int j = j1; j <= j2; j++) {
+                        dj = (double) j - ypix + Centroid.PIXELCENTER;        // Center
+                        for (int i = i1; i <= i2; i++) {
+                            di = (double) i - xpix + Centroid.PIXELCENTER;    // Center
+                            var r2 = di * di + dj * dj;
+                            if (r2 >= r2b1 && r2 <= r2b2) {
+                                var d = ip.getPixelValue(i, j);
+                                if (!Float.isNaN(d)) {
+                                    js[pCnt] = j;
+                                    is[pCnt] = i;
+                                    pixels[pCnt++] = d;
+                                } else if (markRemovedPixels) {
+                                    addPixelRoi(imp, i, j); // Mark NaN pixels
+                                }
                             }
                         }
                     }
                 }
-            }
 
-            for (int iteration = 0; iteration < 100; iteration++) {
-                backstdev = Math.sqrt(back2Mean - backMean * backMean);
-                back = 0.0;
-                back2 = 0.0;
-                backCount = 0;
+                for (int iteration = 0; iteration < 100; iteration++) {
+                    backstdev = Math.sqrt(back2Mean - backMean * backMean);
+                    back = 0.0;
+                    back2 = 0.0;
+                    backCount = 0;
 
-                if (usePlaneLocal) {
-                    plane = new FittedPlane(totalPixels);
-                }
-                if (markRemovedPixels && !isMultiAperture) {
-                    ocanvas.removePixelRois();
-                }
+                    if (usePlaneLocal) {
+                        plane = new FittedPlane(totalPixels);
+                    }
+                    if (markRemovedPixels && !isMultiAperture) {
+                        ocanvas.removePixelRois();
+                    }
 
-                // REMOVE STARS FROM BACKGROUND
-                var backMeanPlus2Stdev = backMean + 2.0 * backstdev;
-                var backMeanMinus2Stdev = backMean - 2.0 * backstdev;
-                for (int i = 0; i < pCnt; i++) {
-                    var d = pixels[i];
-                    if ((d <= backMeanPlus2Stdev) && (d >= backMeanMinus2Stdev)) {
-                        back += d; // FINAL BACKGROUND
-                        back2 += d * d;
-                        backCount++;
-                        if (usePlaneLocal) {
-                            plane.addPoint(is[i], js[i], d);
+                    // REMOVE STARS FROM BACKGROUND
+                    var backMeanPlus2Stdev = backMean + 2.0 * backstdev;
+                    var backMeanMinus2Stdev = backMean - 2.0 * backstdev;
+                    for (int i = 0; i < pCnt; i++) {
+                        var d = pixels[i];
+                        if ((d <= backMeanPlus2Stdev) && (d >= backMeanMinus2Stdev)) {
+                            back += d; // FINAL BACKGROUND
+                            back2 += d * d;
+                            backCount++;
+                            if (usePlaneLocal) {
+                                plane.addPoint(is[i], js[i], d);
+                            }
+                        } else if (markRemovedPixels) {
+                            addPixelRoi(imp,is[i], js[i]);
                         }
-                    } else if (markRemovedPixels) {
-                        addPixelRoi(imp,is[i], js[i]);
                     }
-                }
 
-                if (backCount > 0) {
-                    back /= backCount;    // MEAN BACKGROUND
-                    backMean = back;
-                    back2Mean = back2 / backCount;
+                    if (backCount > 0) {
+                        back /= backCount;    // MEAN BACKGROUND
+                        backMean = back;
+                        back2Mean = back2 / backCount;
+                    }
+                    //IJ.log("remove stars="+removeBackStars+"   background="+back+"    backcount="+backCount+"    backstdev="+backstdev);
+                    if (Math.abs(prevBackMean - backMean) < 0.0001) { //was 0.1 which did not work for for low background levels
+                        //IJ.log("iteration="+iteration);
+                        break;
+                    }
+                    prevBackMean = backMean;
                 }
-                //IJ.log("remove stars="+removeBackStars+"   background="+back+"    backcount="+backCount+"    backstdev="+backstdev);
-                if (Math.abs(prevBackMean - backMean) < 0.0001) { //was 0.1 which did not work for for low background levels
-                    //IJ.log("iteration="+iteration);
-                    break;
+
+                dBackCount = (double) backCount;
+                if (markRemovedPixels) {
+                    AstroCanvas ac = (AstroCanvas) imp.getCanvas();
+                    ac.paint(ac.getGraphics());
                 }
-                prevBackMean = backMean;
             }
 
-            dBackCount = (double) backCount;
-            if (markRemovedPixels) {
-                AstroCanvas ac = (AstroCanvas) imp.getCanvas();
-                ac.paint(ac.getGraphics());
+            if (usePlaneLocal && !plane.fitPlane()) {
+                //IJ.log("Photometer ERROR : cannot fit plane to background, using average background instead.");
+                fitPlaneError = true;
             }
         }
 
-        if (usePlaneLocal && !plane.fitPlane()) {
-            //IJ.log("Photometer ERROR : cannot fit plane to background, using average background instead.");
-            fitPlaneError = true;
-        }
-
         btot = back * dSourceCount;
 
         if (usePlaneLocal && !fitPlaneError) {
@@ -1798,6 +1841,50 @@ public class Photometer {
 //        if (ip.getBitDepth()==24) ip.swapPixelArrays();
     }
 
+    /**
+     * Measures the background annulus with {@link BackgroundEstimator}, setting the same background fields as the
+     * per-pixel passes.
+     *
+     * @return false if a plane was requested but could not be fitted
+     */
+    private boolean estimateBackground(ImageProcessor ip, int i1, int i2, int j1, int j2, double xpix, double ypix,
+                                       double r2b1, double r2b2, boolean fitPlane,
+                                       BackgroundEstimator.Statistic statistic) {
+        var estimator = BackgroundEstimator.get();
+        for (int j = j1; j <= j2; j++) {
+            var dj = (double) j + Centroid.PIXELCENTER - ypix;
+            for (int i = i1; i <= i2; i++) {
+                var di = (double) i + Centroid.PIXELCENTER - xpix;
+                var r2 = di * di + dj * dj;
+                if (r2 >= r2b1 && r2 <= r2b2) {
+                    var d = ip.getPixelValue(i, j);
+                    if (!Float.isNaN(d)) {
+                        estimator.add(di, dj, d);
+                    }
+                }
+            }
+        }
+
+        if (removeBackStars && estimator.size() > 3) {
+            estimator.removeStars();
+            backstdev = estimator.stdev();
+        }
+        backCount = estimator.size();
+        dBackCount = backCount;
+        back2 = estimator.sumOfSquares();
+        back = estimator.level(statistic);
+        backMean = back;
+
+        if (fitPlane) {
+            if (!estimator.fitPlane()) {
+                return false;
+            }
+            plane = new FittedPlane(0);
+            plane.coefs = estimator.planeCoefficients();
+        }
+        return true;
+    }
+
     /**
      * Compute the area of overlap between a circle and a rectangle.
      */
@@ -4,14 +4,11 @@ import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Rectangle;
 import java.awt.geom.Area;
-import java.util.HashSet;
 import java.util.Set;
 import java.util.TreeSet;
 
-import ij.IJ;
 import ij.ImagePlus;
 import ij.astro.logging.AIJLogger;
-import ij.plugin.Duplicator;
 import ij.process.ImageProcessor;
 
 public class StarFinder {
@@ -96,27 +93,13 @@ public class StarFinder {
      * @param thresholdLower the threshold below which pixel values are skipped
      * @param thresholdUpper the threshold above which pixel values are skipped
      * @param border the number of pixels from the edge to ignore
-     * @return
+     * @return the maxima, and the image's own processor, see {@link ProcessingMaxima}
      */
     // Does not work on a ROI, but the whole image
-    //todo make astrometry use this
     public static ProcessingMaxima findLocalMaxima(ImagePlus imp, double thresholdLower, double thresholdUpper,
                                                    int border, double gaussRadius, Rectangle bounds, Area restriction) {
-        var imp2 = (new Duplicator()).crop(imp);
-
-        if (gaussRadius != 1) IJ.run(imp2, "Median...", "radius=" + gaussRadius);
-
-        var ip = imp2.getProcessor().duplicate();
-        var coordinates = new HashSet<CoordinateMaxima>();
-
-        final var doLowerThresholdCheck = thresholdLower != ImageProcessor.NO_THRESHOLD;
-        final var doUpperThresholdCheck = thresholdUpper != Double.MAX_VALUE;
-
-        ip.resetRoi();
-
-        if (bounds == null) {
-            bounds = ip.getRoi();
-        }
+        var ip = imp.getProcessor();
+        var coordinates = new TreeSet<CoordinateMaxima>();
 
         if (restriction != null) {
             var s = new BasicStroke(2 * border, BasicStroke.CAP_SQUARE, BasicStroke.JOIN_MITER);
@@ -124,76 +107,31 @@ public class StarFinder {
             restriction.subtract(stroked);
         }
 
-        for (int x = bounds.x + border; x < (bounds.x + bounds.width) - border; x++) {
-            for (int y = bounds.y + border; y < (bounds.y + bounds.height) - border; y++) {
-                var v = ip.getValue(x, y);
-                if (Double.isNaN(v)) continue;
-                if (doLowerThresholdCheck && v < thresholdLower) continue;
-                if (doUpperThresholdCheck && v > thresholdUpper) continue;
-                if (v == ip.getMax()) coordinates.add(new CoordinateMaxima(v, x, y));
-                var inRestriction = restriction == null || restriction.contains(x, y, 1, 1);
-                boolean isInner = (y != bounds.y && y != (bounds.y + bounds.height) - 1) &&
-                        (x != bounds.x && x != (bounds.x + bounds.width) - 1) &&
-                        (inRestriction);
-
-                if (!inRestriction) {
-                    continue;
-                }
-
-                var isMax = true;
-                for (int d = 0; d < 8; d++) { // Compare with the 8 neighbor pixels
-                    if (isInner || isWithin(ip, x, y, d)) {//todo can't some positions be skipped?
-                        float vNeighbor = ip.getPixelValue(x + DIR_X_OFFSET[d], y + DIR_Y_OFFSET[d]);
-                        if (vNeighbor > v) {
-                            isMax = false;
-                            break;
-                        }
-                    }
-                }
-                if (isMax) {
-                    coordinates.add(new CoordinateMaxima(v, x, y));
-
-                    if (DEBUG_DISPLAY) {
-                        var roi = new AnnotateRoi(true, false, true, false, x, y, 0.6, "test", Color.BLUE);
-                        roi.setImage(imp);
-                        OverlayCanvas.getOverlayCanvas(imp).add(roi);
-                        AIJLogger.multiLog("Found maxima: ", x, y);
-                    }
-                }
+        var maxima = LocalMaxima.find(ip, bounds, border, gaussRadius != 1 ? gaussRadius : 0,
+                thresholdLower != ImageProcessor.NO_THRESHOLD ? thresholdLower : Double.NEGATIVE_INFINITY,
+                thresholdUpper != Double.MAX_VALUE ? thresholdUpper : Double.POSITIVE_INFINITY);
+        for (int i = 0; i < maxima.count(); i++) {
+            var x = maxima.x(i);
+            var y = maxima.y(i);
+            if (restriction != null && !restriction.contains(x, y, 1, 1)) {
+                continue;
+            }
+
+            coordinates.add(new CoordinateMaxima(maxima.value(i), x, y));
+
+            if (DEBUG_DISPLAY) {
+                var roi = new AnnotateRoi(true, false, true, false, x, y, 0.6, "test", Color.BLUE);
+                roi.setImage(imp);
+                OverlayCanvas.getOverlayCanvas(imp).add(roi);
+                AIJLogger.multiLog("Found maxima: ", x, y);
             }
         }
 
-        return new ProcessingMaxima(new TreeSet<>(coordinates), ip); // Returns set sorted on local maxima value
+        return new ProcessingMaxima(coordinates, ip); // Returns set sorted on local maxima value
     }
 
     //ip.drawEdges, sharpen, smooth seem useful for removing noise and enhancing stars
 
-    /**
-     * returns whether the neighbor in a given direction is within the image
-     * NOTE: it is assumed that the pixel x,y itself is within the image!
-     * Uses class variables width, height: dimensions of the image
-     *
-     * @param x         x-coordinate of the pixel that has a neighbor in the given direction
-     * @param y         y-coordinate of the pixel that has a neighbor in the given direction
-     * @param direction the direction from the pixel towards the neighbor (see makeDirectionOffsets)
-     * @return true if the neighbor is within the image (provided that x, y is within)
-     */
-    private static boolean isWithin(ImageProcessor ip, int x, int y, int direction) {//todo modify?
-        int xmax = ip.getWidth() - 1;
-        int ymax = ip.getHeight() - 1;
-        return switch (direction) {
-            case 0 -> (y > 0);
-            case 1 -> (x < xmax && y > 0);
-            case 2 -> (x < xmax);
-            case 3 -> (x < xmax && y < ymax);
-            case 4 -> (y < ymax);
-            case 5 -> (x > 0 && y < ymax);
-            case 6 -> (x > 0);
-            case 7 -> (x > 0 && y > 0);
-            default -> false;
-        };
-    }
-
     public record CoordinateMaxima(double value, double x, double y) implements Comparable<CoordinateMaxima> {
         public CoordinateMaxima(CoordinateMaxima c, double newVal) {
             this(newVal, c.x(), c.y());
@@ -227,6 +165,11 @@ public class StarFinder {
         }
     }
 
+    /**
+     * @param coordinateMaximas the maxima, sorted on their value, which is median filtered if a radius was given
+     * @param ip                the processor of the image that was searched, not a copy, and not median filtered.
+     *                          Nothing in AIJ reads it, and it must not be modified.
+     */
     public record ProcessingMaxima(TreeSet<CoordinateMaxima> coordinateMaximas, ImageProcessor ip) {}
 
     /**
@@ -25,6 +25,7 @@ import astroj.MeasurementTable;
 import astroj.ShapedApertureRoi;
 import ij.IJ;
 import ij.Prefs;
+import ij.astro.io.ColumnarTable;
 import ij.astro.io.FitsReader;
 import ij.astro.io.prefs.Property;
 import ij.astro.util.FileAssociationHandler;
@@ -59,6 +60,7 @@ public class AIJStartupHandler implements PlugIn {
                     new FileAssociationHandler.FileType(".tbl"),
                     new FileAssociationHandler.FileType(".csv"),
                     new FileAssociationHandler.FileType(".tsv"),
+                    ColumnarTable.FILE_TYPE,
                     // Filter out binary excel files
                     MeasurementTable.FILTERED_XLS
             );
@@ -0,0 +1,74 @@
+package Astronomy;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.RunnerException;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Periods per second of {@link BLSCpu} against the number of points in the light curve.
+ * <p>
+ * The fold is linear in the points and the sliding window is fixed at {@code durations * bins} per period, so the
+ * rate is flat for short curves and falls off once the fold dominates.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@BenchmarkMode(Mode.Throughput)
+public class BLSCpuBenchmark {
+    private static final int PERIODS = 1024;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int points;
+
+    @Param({"1000"})
+    public int bins;
+
+    @Param({"200"})
+    public int durations;
+
+    private double[] time;
+    private double[] flux;
+    private double[] periods;
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        Main.main(args);
+    }
+
+    @Setup
+    public void setup() {
+        var random = new Random(42);
+        var period = 3.7;
+        time = new double[points];
+        flux = new double[points];
+        for (int i = 0; i < points; i++) {
+            // A 27 day sector at any cadence, with a 1% transit
+            time[i] = 2459000 + 27.0 * i / points;
+            var phase = ((time[i] - 2459000.3) / period) % 1;
+            flux[i] = 1 + random.nextGaussian() * 0.002 - (phase < 0.02 ? 0.01 : 0);
+        }
+
+        periods = new double[PERIODS];
+        var minFreq = 1 / 20.0;
+        var maxFreq = 1 / 1.0;
+        for (int i = 0; i < PERIODS; i++) {
+            periods[i] = 1 / (minFreq + i * (maxFreq - minFreq) / (PERIODS - 1));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PERIODS)
+    public void search(Blackhole blackhole) {
+        blackhole.consume(BLSCpu.search(time, flux, periods, durations, 0.01, 0.1, bins, null, () -> false));
+    }
+}
@@ -0,0 +1,120 @@
+package Astronomy;
+
+import ij.astro.io.DelimitedTableReader;
+import ij.measure.ResultsTable;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.RunnerException;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Time and peak heap of {@link ResultsTable#open(String)} on a photometry-like table, with the parallel
+ * {@link DelimitedTableReader} and with the text reader it replaced.
+ * <p>
+ * The table has a label and 2000 columns of full precision doubles, with a few words among the numbers, and about
+ * {@code megabytes} of text. The peak heap is the sum of the peaks of the heap pools while opening, reported as the
+ * {@code peakHeapMB} secondary result. The text reader holds the whole file as a string, so the fork is given a
+ * large heap.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx12g")
+@BenchmarkMode(Mode.SingleShotTime)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class TableOpenBenchmark {
+    private static final int COLUMNS = 2000;
+
+    @Param({"1024"})
+    public int megabytes;
+
+    @Param({"true", "false"})
+    public boolean parallel;
+
+    private Path path;
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        Main.main(args);
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        DelimitedTableReader.ENABLED.set(parallel);
+        path = Files.createTempFile("table", ".tbl");
+
+        var random = new Random(42);
+        try (BufferedWriter out = Files.newBufferedWriter(path)) {
+            out.write(" \tLabel");
+            for (int c = 0; c < COLUMNS; c++) {
+                out.write("\tcolumn_" + c);
+            }
+            out.newLine();
+
+            var row = 0;
+            while (Files.size(path) < megabytes * 1024L * 1024L) {
+                // Flush in blocks of rows so the size check sees the text written
+                for (int i = 0; i < 100; i++, row++) {
+                    out.write((row + 1) + "\tframe_" + row + ".fits");
+                    for (int c = 0; c < COLUMNS; c++) {
+                        out.write('\t');
+                        out.write(random.nextInt(10000) == 0 ? "saturated" : Double.toString(random.nextDouble()));
+                    }
+                    out.newLine();
+                }
+                out.flush();
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        DelimitedTableReader.ENABLED.set(true);
+        Files.deleteIfExists(path);
+    }
+
+    @Benchmark
+    public ResultsTable open(PeakHeap peakHeap) throws IOException {
+        return ResultsTable.open(path.toString());
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class PeakHeap {
+        public double peakHeapMB;
+
+        @Setup(Level.Invocation)
+        public void reset() {
+            System.gc();
+            ManagementFactory.getMemoryPoolMXBeans().stream()
+                    .filter(pool -> pool.getType() == MemoryType.HEAP)
+                    .forEach(MemoryPoolMXBean::resetPeakUsage);
+        }
+
+        @TearDown(Level.Invocation)
+        public void record() {
+            peakHeapMB = ManagementFactory.getMemoryPoolMXBeans().stream()
+                    .filter(pool -> pool.getType() == MemoryType.HEAP)
+                    .mapToLong(pool -> pool.getPeakUsage().getUsed())
+                    .sum() / (1024.0 * 1024.0);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package Astronomy;
+
+import Astronomy.multiplot.modelling.TransitModel;
+import astroj.IJU;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.RunnerException;
+
+import java.io.IOException;
+
+/**
+ * Evaluations per second of the transit model as the light curve fit calls it, the model over the light curve and
+ * the flux at mid-transit.
+ * <p>
+ * {@code allocating} is the model from {@link IJU#transitModel} with a one point model for mid-transit.
+ * {@code limbDarkening} changes only the baseline flux and limb darkening between evaluations of a
+ * {@link TransitModel}, so the orbit and occultation are reused, while {@code orbit} moves the transit center time
+ * every evaluation so they are recomputed.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@BenchmarkMode(Mode.Throughput)
+public class TransitModelBenchmark {
+    private static final double P = 3.7;
+    private static final double INCLINATION = Math.toRadians(88);
+    private static final double P0 = 0.1;
+    private static final double AR = 10;
+    private static final double TC = 2459000.1;
+
+    @Param({"1000", "10000", "100000"})
+    public int points;
+
+    private double[] time;
+    private double[] flux;
+    private TransitModel model;
+    private int step;
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        Main.main(args);
+    }
+
+    @Setup
+    public void setup() {
+        // A night of observations centered on the transit
+        time = new double[points];
+        for (int i = 0; i < points; i++) {
+            time[i] = 2459000 + 0.2 * i / points;
+        }
+        flux = new double[points];
+        model = new TransitModel(time);
+    }
+
+    @Benchmark
+    public void allocating(Blackhole blackhole) {
+        var f0 = 1 + 1e-6 * (step++ & 255);
+        blackhole.consume(IJU.transitModel(time, f0, INCLINATION, P0, AR, TC, P, 0, 0, 0.4, 0.2, false, 0, true));
+        blackhole.consume(IJU.transitModel(new double[]{TC}, f0, INCLINATION, P0, AR, TC, P, 0, 0, 0.4, 0.2, false, 0,
+                true)[0]);
+    }
+
+    @Benchmark
+    public void limbDarkening(Blackhole blackhole) {
+        var f0 = 1 + 1e-6 * (step & 255);
+        var u1 = 0.4 + 1e-4 * (step++ & 255);
+        blackhole.consume(model.evaluate(flux, f0, INCLINATION, P0, AR, TC, P, 0, 0, u1, 0.2, false, 0, true));
+        blackhole.consume(model.midTransitFlux(f0, INCLINATION, P0, AR, TC, P, 0, 0, u1, 0.2, false, 0, true));
+    }
+
+    @Benchmark
+    public void orbit(Blackhole blackhole) {
+        var tc = TC + 1e-5 * (step++ & 255);
+        blackhole.consume(model.evaluate(flux, 1, INCLINATION, P0, AR, tc, P, 0, 0, 0.4, 0.2, false, 0, true));
+        blackhole.consume(model.midTransitFlux(1, INCLINATION, P0, AR, tc, P, 0, 0, 0.4, 0.2, false, 0, true));
+    }
+}
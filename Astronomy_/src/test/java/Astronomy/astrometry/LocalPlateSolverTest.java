@@ -0,0 +1,222 @@
+package Astronomy.astrometry;
+
+import astroj.FitsJ;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The projection and quad codes of {@link QuadIndex}, and {@link LocalPlateSolver} on synthetic images of a random
+ * catalog with a known WCS.
+ */
+class LocalPlateSolverTest {
+    private static final double ARCSEC = Math.toRadians(1 / 3600D);
+    private static final int WIDTH = 1024;
+    private static final int HEIGHT = 768;
+    private static final double SCALE = 2;
+
+    @Test
+    void projectionRoundTrip() {
+        var random = new Random(1);
+        // Ordinary, either side of RA 0, and around both poles
+        double[][] centers = {{83.8, -5.4}, {359.9, 12}, {0.05, -30}, {200, 89.7}, {20, -89.9}};
+        var w = new double[2];
+        var sky = new double[2];
+        for (double[] center : centers) {
+            var ra0 = Math.toRadians(center[0]);
+            var dec0 = Math.toRadians(center[1]);
+            for (int i = 0; i < 1000; i++) {
+                var xi = Math.toRadians(2 * random.nextDouble() - 1);
+                var eta = Math.toRadians(2 * random.nextDouble() - 1);
+                QuadIndex.deproject(ra0, dec0, xi, eta, sky);
+                assertTrue(sky[0] >= 0 && sky[0] < 2 * Math.PI, "RA in range");
+                assertTrue(QuadIndex.project(ra0, dec0, sky[0], sky[1], w));
+                assertEquals(xi, w[0], 1e-12);
+                assertEquals(eta, w[1], 1e-12);
+            }
+            assertTrue(QuadIndex.project(ra0, dec0, ra0, dec0, w));
+            assertEquals(0, w[0], 1e-15);
+            assertEquals(0, w[1], 1e-15);
+        }
+    }
+
+    @Test
+    void projectionAcrossRaZero() {
+        var w = new double[2];
+        var sky = new double[2];
+        QuadIndex.project(Math.toRadians(359.9), Math.toRadians(10), Math.toRadians(0.1), Math.toRadians(10), w);
+        assertTrue(w[0] > 0, "east of the tangent point");
+        assertEquals(Math.toRadians(0.2) * Math.cos(Math.toRadians(10)), w[0], 1e-6);
+        QuadIndex.deproject(Math.toRadians(359.9), Math.toRadians(10), w[0], w[1], sky);
+        assertEquals(Math.toRadians(0.1), sky[0], 1e-12);
+        assertEquals(Math.toRadians(10), sky[1], 1e-12);
+    }
+
+    @Test
+    void quadCodeInvariance() {
+        var random = new Random(2);
+        for (int n = 0; n < 200; n++) {
+            var x = new double[4];
+            var y = new double[4];
+            for (int k = 0; k < 4; k++) {
+                x[k] = random.nextDouble();
+                y[k] = random.nextDouble();
+            }
+            var stars = new int[]{0, 1, 2, 3};
+            var code = new double[4];
+            QuadIndex.code(x.clone(), y.clone(), stars, code);
+
+            // Shifted, rotated and scaled
+            var angle = 2 * Math.PI * random.nextDouble();
+            var scale = 0.1 + 10 * random.nextDouble();
+            var dx = 100 * random.nextGaussian();
+            var dy = 100 * random.nextGaussian();
+            var tx = new double[4];
+            var ty = new double[4];
+            for (int k = 0; k < 4; k++) {
+                tx[k] = dx + scale * (x[k] * Math.cos(angle) - y[k] * Math.sin(angle));
+                ty[k] = dy + scale * (x[k] * Math.sin(angle) + y[k] * Math.cos(angle));
+            }
+            assertSameCode(code, stars, tx, ty, new int[]{0, 1, 2, 3});
+
+            // A and B, or C and D, given the other way around
+            assertSameCode(code, stars, reorder(x, 1, 0, 2, 3), reorder(y, 1, 0, 2, 3), new int[]{1, 0, 2, 3});
+            assertSameCode(code, stars, reorder(x, 0, 1, 3, 2), reorder(y, 0, 1, 3, 2), new int[]{0, 1, 3, 2});
+            assertSameCode(code, stars, reorder(x, 1, 0, 3, 2), reorder(y, 1, 0, 3, 2), new int[]{1, 0, 3, 2});
+        }
+    }
+
+    @Test
+    void solveBothParities() {
+        var catalog = Catalog.random(new Random(3), 150, 40, 1800);
+        var index = catalog.index();
+        for (int parity = -1; parity <= 1; parity += 2) {
+            for (boolean hinted : new boolean[]{false, true}) {
+                assertSolves(index, catalog, 150.2, 40.3, Math.toRadians(25), parity, hinted);
+            }
+        }
+    }
+
+    @Test
+    void solveAcrossRaZero() {
+        var catalog = Catalog.random(new Random(4), 0, -20, 1800);
+        var index = catalog.index();
+        assertSolves(index, catalog, 359.9, -20.1, Math.toRadians(110), -1, false);
+        assertSolves(index, catalog, 0.1, -19.8, Math.toRadians(-60), 1, true);
+    }
+
+    /**
+     * Solves an image of the catalog through a TAN projection centered on the image, with north rotated by
+     * {@code angle} and the x axis flipped by {@code parity}, and checks CRVAL and CD.
+     */
+    private static void assertSolves(QuadIndex index, Catalog catalog, double crval1, double crval2, double angle,
+                                     int parity, boolean hinted) {
+        var s = SCALE / 3600;
+        double[][] cd = {
+                {-parity * s * Math.cos(angle), s * Math.sin(angle)},
+                {parity * s * Math.sin(angle), s * Math.cos(angle)}};
+        var image = catalog.image(crval1, crval2, cd, new Random(5));
+        assertTrue(image.x().length >= 30, "stars in the image: " + image.x().length);
+
+        var hint = hinted ? new LocalPlateSolver.Hint(crval1 + 0.1, crval2 - 0.1, 0.5) : null;
+        var solution = LocalPlateSolver.solve(index, image.x(), image.y(), WIDTH, HEIGHT, hinted ? 1.5 : 0,
+                hinted ? 2.5 : Double.POSITIVE_INFINITY, hint, 1);
+        var what = "parity " + parity + (hinted ? ", hinted" : "");
+        assertNotNull(solution, what);
+
+        var offset = QuadIndex.distance(Math.toRadians(solution.crval1()), Math.toRadians(solution.crval2()),
+                Math.toRadians(crval1), Math.toRadians(crval2));
+        assertTrue(offset < 0.5 * ARCSEC, what + ": CRVAL off by " + offset / ARCSEC + " arcsec");
+        assertEquals(SCALE, solution.scale(), 5e-4 * SCALE, what);
+        assertTrue(solution.rms() < 0.5, what + ": rms " + solution.rms());
+
+        // 0.1 pixel of noise across the field allows a few parts in 10^4 of the scale
+        var header = solution.toHeader(WIDTH, HEIGHT);
+        var keys = new String[][]{{"CD1_1", "CD1_2"}, {"CD2_1", "CD2_2"}};
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < 2; j++) {
+                assertEquals(cd[i][j], FitsJ.findDoubleValue(keys[i][j], header), 5e-4 * s, what + ": " + keys[i][j]);
+            }
+        }
+    }
+
+    private static void assertSameCode(double[] code, int[] stars, double[] x, double[] y, int[] given) {
+        var other = new double[4];
+        QuadIndex.code(x, y, given, other);
+        assertArrayEquals(code, other, 1e-9);
+        assertArrayEquals(stars, given);
+    }
+
+    private static double[] reorder(double[] a, int... order) {
+        var b = new double[order.length];
+        for (int k = 0; k < order.length; k++) {
+            b[k] = a[order[k]];
+        }
+        return b;
+    }
+
+    /**
+     * Stars scattered evenly over a 3 degree square, with random magnitudes.
+     */
+    private record Catalog(double[] ra, double[] dec, float[] mag) {
+        static Catalog random(Random random, double ra0, double dec0, int count) {
+            var ra = new double[count];
+            var dec = new double[count];
+            var mag = new float[count];
+            var sky = new double[2];
+            for (int i = 0; i < count; i++) {
+                QuadIndex.deproject(Math.toRadians(ra0), Math.toRadians(dec0),
+                        Math.toRadians(3 * random.nextDouble() - 1.5), Math.toRadians(3 * random.nextDouble() - 1.5),
+                        sky);
+                ra[i] = sky[0];
+                dec[i] = sky[1];
+                mag[i] = (float) (8 + 8 * random.nextDouble());
+            }
+            return new Catalog(ra, dec, mag);
+        }
+
+        QuadIndex index() {
+            var names = new String[ra.length];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = "star " + i;
+            }
+            return QuadIndex.build(ra, dec, mag, names, Math.toRadians(4 / 60D), Math.toRadians(32 / 60D), null);
+        }
+
+        /**
+         * FITS pixel positions, brightest first, of the stars in the image, with 0.1 pixel of noise.
+         */
+        Image image(double crval1, double crval2, double[][] cd, Random random) {
+            var det = cd[0][0] * cd[1][1] - cd[0][1] * cd[1][0];
+            var crpix1 = (WIDTH + 1) / 2D;
+            var crpix2 = (HEIGHT + 1) / 2D;
+            var w = new double[2];
+            var stars = new ArrayList<double[]>();
+            for (int i = 0; i < ra.length; i++) {
+                if (!QuadIndex.project(Math.toRadians(crval1), Math.toRadians(crval2), ra[i], dec[i], w)) {
+                    continue;
+                }
+                var xi = Math.toDegrees(w[0]);
+                var eta = Math.toDegrees(w[1]);
+                var x = crpix1 + (cd[1][1] * xi - cd[0][1] * eta) / det + 0.1 * random.nextGaussian();
+                var y = crpix2 + (-cd[1][0] * xi + cd[0][0] * eta) / det + 0.1 * random.nextGaussian();
+                if (x > 0.5 && x < WIDTH + 0.5 && y > 0.5 && y < HEIGHT + 0.5) {
+                    stars.add(new double[]{x, y, mag[i]});
+                }
+            }
+            stars.sort(Comparator.comparingDouble(star -> star[2]));
+            return new Image(stars.stream().mapToDouble(star -> star[0]).toArray(),
+                    stars.stream().mapToDouble(star -> star[1]).toArray());
+        }
+    }
+
+    private record Image(double[] x, double[] y) {
+    }
+}
@@ -0,0 +1,187 @@
+package Astronomy.astrometry;
+
+import astroj.FitsJ;
+import astroj.WCS;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link WcsTracker} on synthetic time series of a random star field, seen through a known WCS.
+ */
+class WcsTrackerTest {
+    private static final int WIDTH = 1024;
+    private static final int HEIGHT = 768;
+    private static final double SCALE = 1.5 / 3600;
+
+    /**
+     * A field drifting slowly with guiding jitter and a little field rotation, with stars missed and spurious
+     * detections in every frame, must stay tracked to under half a pixel. A spurious detection kept in the reference
+     * can pair with a real star, which is most of that error.
+     */
+    @Test
+    void driftingSequence() {
+        var random = new Random(1);
+        var field = Field.random(random, 120.0, 30.0, 80);
+        var tracker = new WcsTracker();
+
+        var truth = header(120.0, 30.0, 0);
+        var frame = field.detect(truth, random);
+        tracker.setReference(truth, frame.x(), frame.y(), frame.count(), WIDTH, HEIGHT);
+        assertTrue(tracker.hasReference(WIDTH, HEIGHT));
+
+        var solves = 0;
+        var worst = 0D;
+        var ra = 120.0;
+        var dec = 30.0;
+        var angle = 0D;
+        for (int n = 1; n < 2000; n++) {
+            // 0.05 px a frame of drift, jitter of about a pixel, and 0.1 degree of rotation over the series
+            ra += (0.05 + 0.7 * random.nextGaussian()) * SCALE / Math.cos(Math.toRadians(dec));
+            dec += (0.02 + 0.7 * random.nextGaussian()) * SCALE;
+            angle += 0.1 / 2000;
+            truth = header(ra, dec, angle);
+            frame = field.detect(truth, random);
+
+            var tracked = tracker.track(frame.x(), frame.y(), frame.count());
+            if (tracked == null) {
+                // As a full solve would
+                solves++;
+                tracker.setReference(truth, frame.x(), frame.y(), frame.count(), WIDTH, HEIGHT);
+                continue;
+            }
+            assertTrue(tracker.matchCount() >= 8);
+            assertTrue(tracker.rms() < 0.5, "rms " + tracker.rms() + " at frame " + n);
+            worst = Math.max(worst, error(tracked, truth));
+        }
+        assertTrue(solves <= 20, "frames solved from scratch: " + solves);
+        assertTrue(worst < 0.5, "worst error " + worst + " px");
+    }
+
+    @Test
+    void lostField() {
+        var random = new Random(2);
+        var tracker = new WcsTracker();
+        var truth = header(10.0, -45.0, 0);
+        var frame = Field.random(random, 10.0, -45.0, 60).detect(truth, random);
+        tracker.setReference(truth, frame.x(), frame.y(), frame.count(), WIDTH, HEIGHT);
+
+        // A different field, e.g. after slewing
+        var other = Field.random(random, 10.0, -45.0, 60).detect(truth, random);
+        assertNull(tracker.track(other.x(), other.y(), other.count()));
+        assertTrue(tracker.hasReference(WIDTH, HEIGHT));
+        assertFalse(tracker.hasReference(WIDTH, HEIGHT + 1));
+
+        tracker.reset();
+        assertFalse(tracker.hasReference(WIDTH, HEIGHT));
+        assertNull(tracker.track(frame.x(), frame.y(), frame.count()));
+    }
+
+    @Test
+    void unshiftedFrame() {
+        var random = new Random(3);
+        var tracker = new WcsTracker();
+        var truth = header(250.0, 60.0, 30);
+        var field = Field.random(random, 250.0, 60.0, 40);
+        var frame = field.detect(truth, random);
+        tracker.setReference(truth, frame.x(), frame.y(), frame.count(), WIDTH, HEIGHT);
+
+        var tracked = tracker.track(frame.x(), frame.y(), frame.count());
+        assertNotNull(tracked);
+        assertEquals(frame.count(), tracker.matchCount());
+        assertTrue(error(tracked, truth) < 1e-6);
+    }
+
+    /**
+     * The largest distance, in pixels, between where the two solutions put the corners and center of the image.
+     */
+    private static double error(FitsJ.Header tracked, FitsJ.Header truth) {
+        var fitted = new WCS(tracked);
+        var expected = new WCS(truth);
+        double[][] points = {{0, 0}, {WIDTH, 0}, {0, HEIGHT}, {WIDTH, HEIGHT}, {WIDTH / 2D, HEIGHT / 2D}};
+        var worst = 0D;
+        for (double[] point : points) {
+            var p = expected.wcs2pixels(fitted.pixels2wcs(point));
+            worst = Math.max(worst, Math.hypot(p[0] - point[0], p[1] - point[1]));
+        }
+        return worst;
+    }
+
+    private static FitsJ.Header header(double crval1, double crval2, double angle) {
+        var cos = Math.cos(Math.toRadians(angle));
+        var sin = Math.sin(Math.toRadians(angle));
+        var hdr = FitsJ.Header.build(new String[]{FitsJ.pad("END", 80)});
+        hdr = FitsJ.setCard("NAXIS", 2, "", hdr);
+        hdr = FitsJ.setCard("NAXIS1", WIDTH, "", hdr);
+        hdr = FitsJ.setCard("NAXIS2", HEIGHT, "", hdr);
+        hdr = FitsJ.setCard("CTYPE1", "RA---TAN", "", hdr);
+        hdr = FitsJ.setCard("CTYPE2", "DEC--TAN", "", hdr);
+        hdr = FitsJ.setCard("CRVAL1", crval1, "", hdr);
+        hdr = FitsJ.setCard("CRVAL2", crval2, "", hdr);
+        hdr = FitsJ.setCard("CRPIX1", (WIDTH + 1) / 2D, "", hdr);
+        hdr = FitsJ.setCard("CRPIX2", (HEIGHT + 1) / 2D, "", hdr);
+        hdr = FitsJ.setCard("CD1_1", -SCALE * cos, "", hdr);
+        hdr = FitsJ.setCard("CD1_2", SCALE * sin, "", hdr);
+        hdr = FitsJ.setCard("CD2_1", SCALE * sin, "", hdr);
+        hdr = FitsJ.setCard("CD2_2", SCALE * cos, "", hdr);
+        return hdr;
+    }
+
+    /**
+     * Stars scattered over a field a little larger than the image.
+     */
+    private record Field(double[] ra, double[] dec) {
+        static Field random(Random random, double ra0, double dec0, int count) {
+            var ra = new double[count];
+            var dec = new double[count];
+            var sky = new double[2];
+            var size = 1.2 * WIDTH * SCALE;
+            for (int i = 0; i < count; i++) {
+                QuadIndex.deproject(Math.toRadians(ra0), Math.toRadians(dec0),
+                        Math.toRadians(size * (random.nextDouble() - 0.5)),
+                        Math.toRadians(size * (random.nextDouble() - 0.5)), sky);
+                ra[i] = Math.toDegrees(sky[0]);
+                dec[i] = Math.toDegrees(sky[1]);
+            }
+            return new Field(ra, dec);
+        }
+
+        /**
+         * The ImageJ positions of the stars in the image, with 0.05 pixel of noise, a tenth of them missed, and a
+         * few spurious detections, in no particular order.
+         */
+        Frame detect(FitsJ.Header header, Random random) {
+            var wcs = new WCS(header);
+            var stars = new ArrayList<double[]>();
+            for (int i = 0; i < ra.length; i++) {
+                var p = wcs.wcs2pixels(new double[]{ra[i], dec[i]});
+                if (p[0] >= 0 && p[0] < WIDTH && p[1] >= 0 && p[1] < HEIGHT && random.nextDouble() >= 0.1) {
+                    stars.add(new double[]{p[0] + 0.05 * random.nextGaussian(), p[1] + 0.05 * random.nextGaussian()});
+                }
+            }
+            for (int i = 0; i < 3; i++) {
+                stars.add(new double[]{WIDTH * random.nextDouble(), HEIGHT * random.nextDouble()});
+            }
+            Collections.shuffle(stars, random);
+
+            var x = new double[stars.size()];
+            var y = new double[stars.size()];
+            for (int i = 0; i < x.length; i++) {
+                x[i] = stars.get(i)[0];
+                y[i] = stars.get(i)[1];
+            }
+            return new Frame(x, y, x.length);
+        }
+    }
+
+    private record Frame(double[] x, double[] y, int count) {
+    }
+}
@@ -0,0 +1,104 @@
+package Astronomy.multiaperture;
+
+import ij.astro.io.FitsReader;
+import ij.process.ImageProcessor;
+import nom.tam.fits.Fits;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.Rectangle;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link ApertureRegions} around apertures on 16-bit FITS frames read with {@link FitsReader#getRegions}.
+ */
+class ApertureRegionsTest {
+    private static final int WIDTH = 200;
+    private static final int HEIGHT = 150;
+    private static final double REACH = 10;
+    private static final int MARGIN = 5;
+
+    @TempDir
+    Path dir;
+
+    /**
+     * An aperture drifting within the margin is measured from the squares read, one that moves out of them would see
+     * the zeros left outside and needs the whole frame.
+     */
+    @Test
+    void apertureMovedOutOfRegion() throws Exception {
+        var file = frame("frame.fits", 120, 60);
+        var regions = ApertureRegions.around(new double[]{40.5, 150.2}, new double[]{40.5, 100.7}, 2, REACH + MARGIN);
+        var read = read(file, regions.squares(), null);
+        var whole = FitsReader.create(file.toString()).getRegions(List.of(new Rectangle(0, 0, WIDTH, HEIGHT)), null);
+
+        assertTrue(regions.covers(40.5, 40.5, REACH));
+        assertTrue(regions.covers(45.9, 35.1, REACH));
+        // Every pixel within reach of the drifted aperture
+        var drifted = new Rectangle(34, 24, 23, 23);
+        for (int y = drifted.y; y < drifted.y + drifted.height; y++) {
+            for (int x = drifted.x; x < drifted.x + drifted.width; x++) {
+                assertEquals(whole.getPixelValue(x, y), read.getPixelValue(x, y), x + ", " + y);
+            }
+        }
+
+        // Recentered on the star
+        assertFalse(regions.covers(120, 60, REACH));
+        assertEquals(0, read.getPixelValue(120, 60));
+        assertEquals(5000, whole.getPixelValue(120, 60));
+
+        // Partly out of its square
+        assertFalse(regions.covers(47, 40.5, REACH));
+        assertFalse(regions.covers(Double.NaN, 40, REACH));
+    }
+
+    /**
+     * The pixels of the previous frame are filled again, with nothing left of it outside the squares of the next.
+     */
+    @Test
+    void pixelsReused() throws Exception {
+        var first = read(frame("first.fits", 30, 30), List.of(new Rectangle(20, 20, 20, 20)), null);
+        assertEquals(5000, first.getPixelValue(30, 30));
+
+        var reuse = first.getPixels();
+        var second = read(frame("second.fits", 100, 100), List.of(new Rectangle(90, 90, 20, 20)), reuse);
+        assertSame(reuse, second.getPixels());
+        assertEquals(0, second.getPixelValue(30, 30));
+        assertEquals(0, second.getPixelValue(25, 25));
+        assertEquals(5000, second.getPixelValue(100, 100));
+        assertEquals(1000, second.getPixelValue(95, 95));
+
+        var other = read(frame("third.fits", 100, 100), List.of(new Rectangle(90, 90, 20, 20)), new short[10]);
+        assertNotSame(reuse, other.getPixels());
+        assertEquals(5000, other.getPixelValue(100, 100));
+    }
+
+    private static ImageProcessor read(Path file, List<Rectangle> regions, Object reuse) throws Exception {
+        return FitsReader.create(file.toString()).getRegions(regions, reuse);
+    }
+
+    /**
+     * A sky of 1000 with one bright pixel at {@code (x, y)}, counted from the top left as displayed.
+     */
+    private Path frame(String name, int x, int y) throws Exception {
+        var data = new short[HEIGHT][WIDTH];
+        for (short[] row : data) {
+            Arrays.fill(row, (short) 1000);
+        }
+        data[HEIGHT - 1 - y][x] = 5000;
+        var file = dir.resolve(name);
+        try (var fits = new Fits()) {
+            fits.addHDU(Fits.makeHDU(data));
+            fits.write(file.toFile());
+        }
+        return file;
+    }
+}
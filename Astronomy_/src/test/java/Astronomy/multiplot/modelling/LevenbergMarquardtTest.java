@@ -0,0 +1,155 @@
+package Astronomy.multiplot.modelling;
+
+import Jama.Matrix;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link LevenbergMarquardt} on least squares problems with known solutions.
+ */
+class LevenbergMarquardtTest {
+    private static final double[] X = new double[50];
+
+    static {
+        for (int i = 0; i < X.length; i++) {
+            X[i] = i / 5.0;
+        }
+    }
+
+    @Test
+    void linearMatchesNormalEquations() {
+        var random = new Random(1);
+        var y = new double[X.length];
+        for (int i = 0; i < X.length; i++) {
+            y[i] = 2 + 3 * X[i] - 0.5 * X[i] * X[i] + 0.3 * random.nextGaussian();
+        }
+
+        var lm = new LevenbergMarquardt((p, r) -> {
+            var sum = 0D;
+            for (int i = 0; i < X.length; i++) {
+                r[i] = p[0] + p[1] * X[i] + p[2] * X[i] * X[i] - y[i];
+                sum += r[i] * r[i];
+            }
+            return sum;
+        }, X.length, 100, 1e-12);
+        assertTrue(lm.minimize(new double[]{0, 0, 0}, new double[]{1, 1, 1}));
+
+        var design = new Matrix(X.length, 3);
+        for (int i = 0; i < X.length; i++) {
+            design.set(i, 0, 1);
+            design.set(i, 1, X[i]);
+            design.set(i, 2, X[i] * X[i]);
+        }
+        var expected = design.solve(new Matrix(y, X.length)).getColumnPackedCopy();
+        assertArrayEquals(expected, lm.getParams(), 1e-6);
+    }
+
+    @Test
+    void exponentialDecay() {
+        var y = new double[X.length];
+        for (int i = 0; i < X.length; i++) {
+            y[i] = 5 * Math.exp(-0.7 * X[i]) + 1;
+        }
+
+        var lm = new LevenbergMarquardt((p, r) -> {
+            var sum = 0D;
+            for (int i = 0; i < X.length; i++) {
+                r[i] = p[0] * Math.exp(-p[1] * X[i]) + p[2] - y[i];
+                sum += r[i] * r[i];
+            }
+            return sum;
+        }, X.length, 200, 1e-15);
+        assertTrue(lm.minimize(new double[]{1, 0.1, 0}, new double[]{1, 0.1, 1}));
+        assertArrayEquals(new double[]{5, 0.7, 1}, lm.getParams(), 1e-6);
+        assertEquals(0, lm.getFunctionValue(), 1e-12);
+    }
+
+    @Test
+    void rosenbrock() {
+        var lm = new LevenbergMarquardt((p, r) -> {
+            r[0] = 10 * (p[1] - p[0] * p[0]);
+            r[1] = 1 - p[0];
+            return r[0] * r[0] + r[1] * r[1];
+        }, 2, 500, 1e-15);
+        assertTrue(lm.minimize(new double[]{-1.2, 1}, new double[]{0.1, 0.1}));
+        assertArrayEquals(new double[]{1, 1}, lm.getParams(), 1e-5);
+    }
+
+    /**
+     * Two parameters that only appear as their sum, so the normal matrix is singular and only the damping makes it
+     * solvable. The sum and the remaining parameter must still reach the least squares fit.
+     */
+    @Test
+    void rankDeficient() {
+        var random = new Random(2);
+        var y = new double[X.length];
+        for (int i = 0; i < X.length; i++) {
+            y[i] = 1.5 * X[i] - 2 + 0.1 * random.nextGaussian();
+        }
+        LevenbergMarquardt.LeastSquaresFunction function = (p, r) -> {
+            var sum = 0D;
+            for (int i = 0; i < X.length; i++) {
+                r[i] = (p[0] + p[1]) * X[i] + p[2] - y[i];
+                sum += r[i] * r[i];
+            }
+            return sum;
+        };
+
+        var lm = new LevenbergMarquardt(function, X.length, 200, 1e-12);
+        lm.minimize(new double[]{0, 0, 0}, new double[]{1, 1, 1});
+        var params = lm.getParams();
+
+        var design = new Matrix(X.length, 2);
+        for (int i = 0; i < X.length; i++) {
+            design.set(i, 0, X[i]);
+            design.set(i, 1, 1);
+        }
+        var expected = design.solve(new Matrix(y, X.length)).getColumnPackedCopy();
+        assertEquals(expected[0], params[0] + params[1], 1e-6);
+        assertEquals(expected[1], params[2], 1e-6);
+        assertTrue(Double.isFinite(params[0]) && Double.isFinite(params[1]));
+    }
+
+    @Test
+    void unresponsiveFunctionDoesNotConverge() {
+        var lm = new LevenbergMarquardt((p, r) -> {
+            r[0] = 1;
+            r[1] = 2;
+            return 5;
+        }, 2, 100, 1e-10);
+        assertFalse(lm.minimize(new double[]{3, 4}, new double[]{1, 1}));
+        assertArrayEquals(new double[]{3, 4}, lm.getParams());
+        assertEquals(5, lm.getFunctionValue());
+    }
+
+    /**
+     * The fit starts on the edge of its bounds, where the function is not finite outside them, and must stay inside.
+     */
+    @Test
+    void staysInBounds() {
+        var y = new double[X.length];
+        for (int i = 0; i < X.length; i++) {
+            y[i] = Math.sqrt(0.01 * X[i]);
+        }
+
+        var lm = new LevenbergMarquardt((p, r) -> {
+            if (p[0] < 0) {
+                return Double.NaN;
+            }
+            var sum = 0D;
+            for (int i = 0; i < X.length; i++) {
+                r[i] = Math.sqrt(p[0] * X[i]) - y[i];
+                sum += r[i] * r[i];
+            }
+            return sum;
+        }, X.length, 200, 1e-15);
+        assertTrue(lm.minimize(new double[]{0}, new double[]{0.1}));
+        assertEquals(0.01, lm.getParams()[0], 1e-8);
+    }
+}
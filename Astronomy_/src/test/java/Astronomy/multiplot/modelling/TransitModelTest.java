@@ -0,0 +1,304 @@
+package Astronomy.multiplot.modelling;
+
+import astroj.IJU;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static java.lang.Math.PI;
+import static java.lang.Math.abs;
+import static java.lang.Math.acos;
+import static java.lang.Math.pow;
+import static java.lang.Math.sqrt;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * {@link TransitModel} must give exactly the flux of the EXOFAST model as {@code IJU.transitModel} computed it before
+ * the model was cached, kept here as {@link #reference}.
+ */
+class TransitModelTest {
+    private static final double TC = 2459000.3;
+
+    @Test
+    void randomOrbits() {
+        var random = new Random(1);
+        for (int n = 0; n < 500; n++) {
+            var p0 = 0.02 + 0.3 * random.nextDouble();
+            if (n % 5 == 0) {
+                // Lutz-Kelker, the planet's radius may go negative in a fit
+                p0 = -p0;
+            }
+            // Impact parameters into the grazing range
+            assertSameModel(random, p0, 1.2 * random.nextDouble(), n % 3 == 0 ? 0 : 0.6 * random.nextDouble());
+        }
+    }
+
+    @Test
+    void grazing() {
+        var random = new Random(2);
+        for (int n = 0; n < 200; n++) {
+            var p0 = 0.05 + 0.3 * random.nextDouble();
+            assertSameModel(random, p0, 1 - p0 + 2 * p0 * random.nextDouble(), 0);
+        }
+    }
+
+    @Test
+    void fullOccultation() {
+        var random = new Random(3);
+        for (int n = 0; n < 200; n++) {
+            // A companion larger than the star, passing over its center or its limb
+            var p0 = 1 + 2 * random.nextDouble();
+            assertSameModel(random, p0, (p0 + 1) * random.nextDouble(), n % 2 == 0 ? 0 : 0.3 * random.nextDouble());
+        }
+    }
+
+    /**
+     * Times exactly at the special cases of the occultation, where the separation is snapped to them.
+     */
+    @Test
+    void specialSeparations() {
+        var time = new double[]{TC};
+        for (double p0 : new double[]{0.1, 0.5, 0.7, 1, 1.5}) {
+            for (double b : new double[]{0, p0, 1 - p0, p0 - 1, 1 + p0, 0.5}) {
+                if (b < 0) {
+                    continue;
+                }
+                var ar = 8;
+                var inclination = acos(b / ar);
+                var expected = reference(time, 1, inclination, p0, ar, TC, 2.5, 0, 0, 0.4, 0.25, false, 0, true);
+                var model = new TransitModel(time);
+                assertArrayEquals(expected,
+                        model.evaluate(new double[1], 1, inclination, p0, ar, TC, 2.5, 0, 0, 0.4, 0.25, false, 0, true),
+                        "p0 " + p0 + ", b " + b);
+                assertEquals(expected[0],
+                        model.midTransitFlux(1, inclination, p0, ar, TC, 2.5, 0, 0, 0.4, 0.25, false, 0, true));
+            }
+        }
+    }
+
+    /**
+     * Evaluates a random orbit with the given planet radius, impact parameter and eccentricity for the primary and the
+     * secondary, then again from the same {@link TransitModel} with the baseline flux and limb darkening, the planet
+     * radius, and the orbit changed in turn, as a fit would, each time against the reference.
+     */
+    private static void assertSameModel(Random random, double p0, double b, double e) {
+        var period = 0.5 + 10 * random.nextDouble();
+        var ar = 2 + 28 * random.nextDouble();
+        var inclination = acos(Math.min(1, b / ar));
+        var omega = 2 * PI * random.nextDouble();
+        var useLonAscNode = random.nextBoolean();
+        var lonAscNode = 2 * PI * random.nextDouble();
+
+        // A night around the transit, and the rest of the orbit for the secondary
+        var time = new double[400];
+        var span = 0.3 * period;
+        for (int i = 0; i < time.length; i++) {
+            time[i] = i < 300 ? TC + span * (i / 300.0 - 0.5) : TC + period * (i - 300) / 100.0;
+        }
+
+        var model = new TransitModel(time);
+        var out = new double[time.length];
+        var what = "p0 " + p0 + ", b " + b + ", e " + e;
+        for (boolean fitPrimary : new boolean[]{true, false}) {
+            var f0 = 0.9 + 0.2 * random.nextDouble();
+            var u1 = random.nextDouble();
+            var u2 = random.nextDouble() - 0.5;
+            assertArrayEquals(reference(time, f0, inclination, p0, ar, TC, period, e, omega, u1, u2, useLonAscNode,
+                            lonAscNode, fitPrimary),
+                    model.evaluate(out, f0, inclination, p0, ar, TC, period, e, omega, u1, u2, useLonAscNode,
+                            lonAscNode, fitPrimary), what);
+
+            f0 = 0.9 + 0.2 * random.nextDouble();
+            u1 = random.nextDouble();
+            assertArrayEquals(reference(time, f0, inclination, p0, ar, TC, period, e, omega, u1, u2, useLonAscNode,
+                            lonAscNode, fitPrimary),
+                    model.evaluate(out, f0, inclination, p0, ar, TC, period, e, omega, u1, u2, useLonAscNode,
+                            lonAscNode, fitPrimary), what + ", new limb darkening");
+
+            var p1 = p0 * (0.9 + 0.2 * random.nextDouble());
+            assertArrayEquals(reference(time, f0, inclination, p1, ar, TC, period, e, omega, u1, u2, useLonAscNode,
+                            lonAscNode, fitPrimary),
+                    model.evaluate(out, f0, inclination, p1, ar, TC, period, e, omega, u1, u2, useLonAscNode,
+                            lonAscNode, fitPrimary), what + ", new radius");
+
+            var tc = TC + 0.01 * random.nextGaussian();
+            assertArrayEquals(reference(new double[]{tc}, f0, inclination, p1, ar, tc, period, e, omega, u1, u2,
+                            useLonAscNode, lonAscNode, fitPrimary),
+                    new double[]{model.midTransitFlux(f0, inclination, p1, ar, tc, period, e, omega, u1, u2,
+                            useLonAscNode, lonAscNode, fitPrimary)}, what + ", mid-transit");
+            assertArrayEquals(reference(time, f0, inclination, p1, ar, tc, period, e, omega, u1, u2, useLonAscNode,
+                            lonAscNode, fitPrimary),
+                    model.evaluate(out, f0, inclination, p1, ar, tc, period, e, omega, u1, u2, useLonAscNode,
+                            lonAscNode, fitPrimary), what + ", new orbit");
+        }
+    }
+
+    /**
+     * The model as {@code IJU.transitModel} computed it before {@link TransitModel}, from EXOFAST's
+     * exofast_occultquad (Mandel & Agol (2002); Eastman et al., (2013)).
+     */
+    private static double[] reference(double[] bjd, double f0, double inclination, double p0, double ar, double tc,
+                                      double P, double e, double omega, double u1, double u2, boolean useLonAscNode,
+                                      double lonAscNode, boolean fitPrimary) {
+        double[] muo1 = new double[bjd.length];
+        double tp = tc - P * IJU.getTcPhase(e, omega);
+
+        double[][] bzArray = IJU.impactParameter(bjd, inclination, ar, tp, P, e, omega, useLonAscNode, lonAscNode);
+
+        int nz = bjd.length;
+
+        double[] lambdad = new double[nz];
+        double[] etad = new double[nz];
+        double[] lambdae = new double[nz];
+
+        double z;
+        double p = abs(p0);
+        double p2 = p * p;
+
+        double tol = 1.0e-14;
+        double kap1, kap0, kapArg1, kapArg0, lambdaeArg, z2, x1, x2, x3, q, n;
+
+        var bz0 = bzArray[0];
+        var bz1 = bzArray[1];
+        for (int i = 0; i < nz; i++) {
+            if (fitPrimary && bz1[i] <= 0.0 || !fitPrimary && bz1[i] > 0) {
+                continue;
+            }
+            if (abs(p - bz0[i]) < tol) bz0[i] = p;
+            else if (abs((p - 1.0) - bz0[i]) < tol) bz0[i] = p - 1.0;
+            else if (abs((1.0 - p) - bz0[i]) < tol) bz0[i] = 1.0 - p;
+            else if (bz0[i] < tol) bz0[i] = 0.0;
+            z = bz0[i];
+            z2 = z * z;
+            x1 = (p - z) * (p - z);
+            x2 = (p + z) * (p + z);
+            x3 = p2 - z2;
+
+            // Case 1 - the star is unocculted or there is no planet (p <= 0)
+            if (z >= (1.0 + p) || p <= 0.0) {
+                etad[i] = 0.0;
+                lambdae[i] = 0.0;
+                lambdad[i] = 0.0;
+                continue;
+            }
+
+            // Case 11 - the  source is completely occulted:
+            if (p >= 1.0 && z <= p - 1.0) {
+                etad[i] = 0.5;
+                lambdae[i] = 1.0;
+                lambdad[i] = 0.0;
+                continue;
+            }
+
+            // Case 2, 7, 8 - ingress/egress (uniform disk only)
+            if (z >= abs(1.0 - p) && (z < 1.0 + p)) {
+                kapArg1 = (1.0 - p2 + z2) / 2.0 / z;
+                if (kapArg1 < -1.0) {
+                    kapArg1 = -1.0;
+                    kap1 = PI;
+                } else if (kapArg1 > 1.0) {
+                    kapArg1 = 1.0;
+                    kap1 = 0;
+                } else {
+                    kap1 = acos(kapArg1);
+                }
+                kapArg0 = (p2 + z2 - 1.0) / 2.0 / p / z;
+                if (kapArg0 < -1.0) {
+                    kapArg0 = -1.0;
+                    kap0 = PI;
+                } else if (kapArg0 > 1.0) {
+                    kapArg0 = 1.0;
+                    kap0 = 0;
+                } else {
+                    kap0 = acos(kapArg0);
+                }
+
+                lambdaeArg = 1.0 + z2 - p2;
+                lambdaeArg *= lambdaeArg;
+                lambdaeArg = 4.0 * z2 - lambdaeArg;
+                if (lambdaeArg < 0.0) lambdaeArg = 0.0;
+                lambdae[i] = (p2 * kap0 + kap1 - 0.5 * sqrt(lambdaeArg)) / PI;
+                etad[i] = 1.0 / 2.0 / PI * (kap1 + p2 * (p2 + 2.0 * z2) * kap0 - (1.0 + 5.0 * p2 + z2) / 4.0 * sqrt((1.0 - x1) * (x2 - 1.0)));
+            }
+
+            // Case 5, 6, 7 - the edge of planet lies at origin of star
+            if (z == p) {
+                if (p < 0.5) {
+                    // Case 5
+                    q = 2.0 * p;
+                    var ell = IJU.ellke(q);
+                    var ek = ell[0];
+                    var kk = ell[1];
+                    lambdad[i] = 1.0 / 3.0 + 2.0 / 9.0 / PI * (4.0 * (2.0 * p2 - 1.0) * ek + (1.0 - 4.0 * p2) * kk);
+                    etad[i] = 3.0 * p2 * p2 / 2.0;
+                    lambdae[i] = p2;
+                } else if (p > 0.5) {
+                    // Case 7
+                    q = 0.5 / p;
+                    var ell = IJU.ellke(q);
+                    var ek = ell[0];
+                    var kk = ell[1];
+                    lambdad[i] = 1.0 / 3.0 + 16.0 * p / 9.0 / PI * (2.0 * p2 - 1.0) * ek - (32.0 * p2 * p2 - 20.0 * p2 + 3.0) / 9.0 / PI / p * kk;
+                } else {
+                    // Case 6
+                    lambdad[i] = 1.0 / 3.0 - 4.0 / PI / 9.0;
+                    etad[i] = 3.0 / 32.0;
+                }
+                continue;
+            }
+
+            // Case 2, Case 8 - ingress/egress (with limb darkening)
+            if ((z > 0.5 + abs(p - 0.5) && z < 1.0 + p) || (p > 0.5 && z > abs(1.0 - p) && z < p)) {
+                q = sqrt((1.0 - x1) / (x2 - x1));
+                var ell = IJU.ellke(q);
+                var ek = ell[0];
+                var kk = ell[1];
+                n = 1.0 / x1 - 1.0;
+
+                lambdad[i] = 2.0 / 9.0 / PI / sqrt(x2 - x1) * (((1.0 - x2) * (2.0 * x2 + x1 - 3.0) - 3.0 * x3 * (x2 - 2.0)) * kk + (x2 - x1) *
+                        (z2 + 7.0 * p2 - 4.0) * ek - 3.0 * x3 / x1 * IJU.ellpic_bulirsch(n, q));
+                continue;
+            }
+
+            // Case 3, 4, 9, 10 - planet completely inside star
+            if (p < 1.0 && z <= (1.0 - p)) {
+                etad[i] = p2 / 2.0 * (p2 + 2.0 * z2);
+                lambdae[i] = p2;
+
+                // Case 4 - edge of planet hits edge of star
+                if (z == 1.0 - p) {
+                    lambdad[i] = 2.0 / 3.0 / PI * acos(1.0 - 2.0 * p) - 4.0 / 9.0 / PI * sqrt(p * (1.0 - p)) * (3.0 + 2.0 * p - 8.0 * p2) - 2.0 / 3.0 * (p > 0.5 ? 1 : 0);
+                }
+
+                // Case 10 - origin of planet hits origin of star
+                else if (z == 0) {
+                    lambdad[i] = -2.0 / 3.0 * pow((1.0 - p2), 1.5);
+                } else {
+                    q = sqrt((x2 - x1) / (1.0 - x1));
+                    n = x2 / x1 - 1.0;
+                    var ell = IJU.ellke(q);
+                    var ek = ell[0];
+                    var kk = ell[1];
+
+                    // Case 3, Case 9 - anywhere in between
+                    lambdad[i] = 2.0 / 9.0 / PI / sqrt(1.0 - x1) * ((1.0 - 5.0 * z2 + p2 + x3 * x3) * kk + (1.0 - x1) * (z2 + 7.0 * p2 - 4.0) * ek - 3.0 * x3 / x1 * IJU.ellpic_bulirsch(n, q));
+                }
+            }
+        }
+
+        for (int i = 0; i < nz; i++) {
+            if (fitPrimary && bz1[i] <= 0.0 || !fitPrimary && bz1[i] > 0) {
+                muo1[i] = f0;
+                continue;
+            }
+
+            if (p0 > 0) {
+                muo1[i] = (1.0 - ((1.0 - u1 - 2.0 * u2) * lambdae[i] + (u1 + 2.0 * u2) * (lambdad[i] + 2.0 / 3.0 * (p > bz0[i] ? 1 : 0)) + u2 * etad[i]) / (1.0 - u1 / 3.0 - u2 / 6.0)) * f0;
+            } else {
+                muo1[i] = (1.0 + ((1.0 - u1 - 2.0 * u2) * lambdae[i] + (u1 + 2.0 * u2) * (lambdad[i] + 2.0 / 3.0 * (p > bz0[i] ? 1 : 0)) + u2 * etad[i]) / (1.0 - u1 / 3.0 - u2 / 6.0)) * f0;
+            }
+        }
+        return muo1;
+    }
+}
@@ -0,0 +1,196 @@
+package Astronomy.periodogram;
+
+import Astronomy.BLSCpu;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link BatchPeriodogram} on tables of synthetic light curves written to a temporary directory.
+ */
+class BatchPeriodogramTest {
+    private static final int PEAKS = 3;
+
+    @TempDir
+    Path dir;
+
+    /**
+     * Curves sharing their timestamps are folded together, and must get the same peaks as a search of each curve on
+     * its own.
+     */
+    @Test
+    void blsMatchesSingleCurveSearch() throws Exception {
+        var random = new Random(1);
+        var shared = times(random, 600);
+        var tables = new ArrayList<Path>();
+        tables.add(write("transit.csv", shared, curve(random, shared, 2.3, 0.4, 0.01)));
+        tables.add(write("flat.csv", shared, curve(random, shared, 0, 0, 0)));
+        tables.add(write("other.csv", shared, curve(random, shared, 1.7, 1.1, 0.02)));
+        var own = times(random, 500);
+        tables.add(write("alone.csv", own, curve(random, own, 3.1, 0.2, 0.015)));
+
+        var settings = settings();
+        var results = new BatchPeriodogram(settings, 3).run(tables, () -> false);
+        assertEquals("BLS", results.algorithm());
+        assertEquals(List.of("transit.csv", "flat.csv", "other.csv", "alone.csv"), results.curves());
+
+        for (Path table : tables) {
+            var curve = BatchPeriodogram.Curve.read(table, "BJD_TDB", "rel_flux_T1");
+            var periods = settings.periodGrid(curve.time());
+            var single = BLSCpu.search(curve.time(), curve.flux(), periods, settings.nDurations(),
+                    settings.minFractionalDuration(), settings.maxFractionalDuration(), settings.nBins(), null,
+                    () -> false);
+            var sde = BatchPeriodogram.toSde(single.power);
+            var peaks = BatchPeriodogram.strongestPeaks(sde, PEAKS);
+
+            var rows = results.rowsOf(curve.name());
+            assertEquals(peaks.length, rows.length, curve.name());
+            for (int k = 0; k < rows.length; k++) {
+                var row = rows[k];
+                var p = peaks[k];
+                assertEquals(k + 1, results.peak(row));
+                assertEquals(periods[p], results.value(PeriodogramResults.Column.PERIOD, row), curve.name());
+                assertEquals(sde[p], results.value(PeriodogramResults.Column.SDE, row), curve.name());
+                assertEquals(single.bestDepths[p], results.value(PeriodogramResults.Column.DEPTH, row));
+                assertEquals(single.bestDurations[p], results.value(PeriodogramResults.Column.DURATION, row));
+            }
+        }
+
+        var transit = results.rowsOf("transit.csv")[0];
+        assertEquals(2.3, results.value(PeriodogramResults.Column.PERIOD, transit), 0.01);
+        assertEquals(0.01, results.value(PeriodogramResults.Column.DEPTH, transit), 0.002);
+        var t0 = results.value(PeriodogramResults.Column.T0, transit);
+        var start = Arrays.stream(shared).min().orElseThrow();
+        assertTrue(t0 >= start && t0 < start + 2.3, "first epoch " + t0);
+        assertEquals(0, Math.IEEEremainder(t0 - 0.4, 2.3), 0.02);
+    }
+
+    /**
+     * Tables that cannot be used are skipped, and the rest still searched.
+     */
+    @Test
+    void unusableTablesSkipped() throws Exception {
+        var random = new Random(2);
+        var time = times(random, 300);
+        var good = write("good.csv", time, curve(random, time, 2.0, 0.3, 0.01));
+        var wrongColumn = dir.resolve("wrong.csv");
+        Files.writeString(wrongColumn, "BJD_TDB,rel_flux_C2\n1,1\n2,1\n");
+        var tooShort = write("short.csv", new double[]{1, 2, 3}, new double[]{1, 1, 1});
+        var missing = dir.resolve("missing.csv");
+
+        var results = new BatchPeriodogram(settings(), 2).run(List.of(wrongColumn, good, tooShort, missing),
+                () -> false);
+        assertEquals(List.of("good.csv"), results.curves());
+        assertEquals(PEAKS, results.size());
+    }
+
+    @Test
+    void cancelled() throws Exception {
+        var random = new Random(3);
+        var time = times(random, 300);
+        var table = write("a.csv", time, curve(random, time, 2.0, 0.3, 0.01));
+        var results = new BatchPeriodogram(settings(), 2).run(List.of(table), () -> true);
+        assertEquals(0, results.size());
+        assertTrue(results.curves().isEmpty());
+    }
+
+    @Test
+    void resultsRoundTrip() throws IOException {
+        var builder = PeriodogramResults.builder("TLS");
+        // More rows than the builder first allocates
+        for (int i = 0; i < 3000; i++) {
+            builder.add("curve" + i / 3, i % 3 + 1, 1 + i / 1000.0, 20 - i % 3, 0.001 * i, 0.1,
+                    i % 3 == 0 ? i : Double.NaN);
+        }
+        var results = builder.build();
+        var file = dir.resolve("results.aijp");
+        results.write(file);
+        var read = PeriodogramResults.read(file);
+
+        assertEquals("TLS", read.algorithm());
+        assertEquals(results.curves(), read.curves());
+        assertEquals(3000, read.size());
+        for (int row = 0; row < read.size(); row++) {
+            assertEquals(results.curveName(row), read.curveName(row));
+            assertEquals(results.peak(row), read.peak(row));
+            for (PeriodogramResults.Column column : PeriodogramResults.Column.values()) {
+                assertEquals(results.value(column, row), read.value(column, row));
+            }
+        }
+
+        var strong = read.select(PeriodogramResults.Column.SDE, sde -> sde >= 19.5);
+        assertEquals(1000, strong.length);
+        var rows = read.select(strong, PeriodogramResults.Column.PERIOD, p -> p < 1.3);
+        assertArrayEquals(IntStream.range(0, 100).map(i -> 3 * i).toArray(), rows);
+        assertArrayEquals(new int[]{6, 7, 8}, read.rowsOf("curve2"));
+    }
+
+    @Test
+    void notAResultsFile() throws IOException {
+        var file = Files.writeString(dir.resolve("text.aijp"), "BJD_TDB,rel_flux_T1\n");
+        var e = assertThrows(IOException.class, () -> PeriodogramResults.read(file));
+        assertTrue(e.getMessage().startsWith("Not a periodogram results file"));
+    }
+
+    @Test
+    void findTables() throws IOException {
+        Files.writeString(dir.resolve("b.tbl"), "");
+        Files.writeString(dir.resolve("a.csv"), "");
+        Files.writeString(dir.resolve("c.fits"), "");
+        Files.createDirectory(dir.resolve("d.txt"));
+        assertEquals(List.of(dir.resolve("a.csv"), dir.resolve("b.tbl")),
+                BatchPeriodogram.findTables(dir, "*.{tbl,csv,txt}"));
+    }
+
+    private static BatchPeriodogram.Settings settings() {
+        return new BatchPeriodogram.Settings(BatchPeriodogram.Algorithm.BLS, "BJD_TDB", "rel_flux_T1", 0.8, 5, 2000,
+                0.01, 0.1, 20, 300, PEAKS, null, null, null);
+    }
+
+    /**
+     * {@code count} points over 30 nights of observations, in no particular order.
+     */
+    private static double[] times(Random random, int count) {
+        var time = new double[count];
+        for (int i = 0; i < count; i++) {
+            time[i] = 2460000 + random.nextInt(30) + 0.3 * random.nextDouble();
+        }
+        return time;
+    }
+
+    /**
+     * Gaussian noise around 1, with box transits of {@code depth} lasting 3% of the period, centered on
+     * {@code epoch} from time zero.
+     */
+    private static double[] curve(Random random, double[] time, double period, double epoch, double depth) {
+        var flux = new double[time.length];
+        for (int i = 0; i < time.length; i++) {
+            flux[i] = 1 + 0.002 * random.nextGaussian();
+            if (period > 0 && Math.abs(Math.IEEEremainder(time[i] - epoch, period)) < 0.015 * period) {
+                flux[i] -= depth;
+            }
+        }
+        return flux;
+    }
+
+    private Path write(String name, double[] time, double[] flux) throws IOException {
+        var sb = new StringBuilder("BJD_TDB,rel_flux_T1\n");
+        for (int i = 0; i < time.length; i++) {
+            sb.append(time[i]).append(',').append(flux[i]).append('\n');
+        }
+        return Files.writeString(dir.resolve(name), sb);
+    }
+}
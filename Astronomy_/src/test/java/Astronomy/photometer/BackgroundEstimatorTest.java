@@ -0,0 +1,103 @@
+package Astronomy.photometer;
+
+import astroj.Photometer;
+import ij.ImagePlus;
+import ij.process.FloatProcessor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link BackgroundEstimator} on its own, and through {@link Photometer} on a sky that is a tilted plane.
+ */
+class BackgroundEstimatorTest {
+    private static final double SKY = 1000;
+    private static final double SLOPE_X = 2;
+    private static final double SLOPE_Y = 3;
+    private static final double FLUX = 5000;
+
+    /**
+     * The plane fitted after removing a star from the annulus must be evaluated in the coordinates it was fitted in,
+     * leaving exactly the flux of the source.
+     */
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void planeAfterStarRemoval(boolean exact) {
+        var ip = new FloatProcessor(100, 100);
+        for (int y = 0; y < 100; y++) {
+            for (int x = 0; x < 100; x++) {
+                ip.setf(x, y, (float) sky(x + 0.5, y + 0.5));
+            }
+        }
+        // The source in the center pixel, and a star in the annulus
+        ip.setf(50, 50, ip.getf(50, 50) + (float) FLUX);
+        for (int y = 60; y <= 61; y++) {
+            for (int x = 48; x <= 49; x++) {
+                ip.setf(x, y, ip.getf(x, y) + 20000);
+            }
+        }
+
+        var photometer = new Photometer();
+        photometer.setUsePlane(true);
+        photometer.setRemoveBackStars(true);
+        photometer.measure(new ImagePlus("sky", ip), exact, 50.5, 50.5, 5, 8, 15);
+
+        assertEquals(FLUX, photometer.sourceBrightness(), 0.05);
+        assertEquals(sky(50.5, 50.5), photometer.backgroundBrightness(), 0.001);
+    }
+
+    @Test
+    void planeCoefficients() {
+        var estimator = BackgroundEstimator.get();
+        for (int dy = -10; dy <= 10; dy += 5) {
+            for (int dx = -10; dx <= 10; dx += 4) {
+                estimator.add(dx, dy, (float) (SKY + SLOPE_X * dx + SLOPE_Y * dy));
+            }
+        }
+        assertTrue(estimator.fitPlane());
+        assertArrayEquals(new double[]{SKY, SLOPE_X, SLOPE_Y}, estimator.planeCoefficients(), 1e-9);
+        assertEquals(SKY + SLOPE_X * 3 - SLOPE_Y * 7, estimator.planeAt(3, -7), 1e-9);
+    }
+
+    @Test
+    void noPlane() {
+        var estimator = BackgroundEstimator.get();
+        for (int i = 0; i < 3; i++) {
+            estimator.add(i, i, 1);
+        }
+        assertFalse(estimator.fitPlane());
+
+        // Pixels along one line do not define a plane
+        for (int i = 3; i < 10; i++) {
+            estimator.add(i, i, 1);
+        }
+        assertFalse(estimator.fitPlane());
+    }
+
+    @Test
+    void level() {
+        var estimator = BackgroundEstimator.get();
+        for (float value : new float[]{5, 1, 100, 3, 2, 4}) {
+            estimator.add(0, 0, value);
+        }
+        var mean = 115 / 6.0;
+        assertEquals(mean, estimator.level(BackgroundEstimator.Statistic.MEAN), 1e-12);
+        assertEquals(3.5, estimator.level(BackgroundEstimator.Statistic.MEDIAN));
+        assertEquals(3 * 3.5 - 2 * mean, estimator.level(BackgroundEstimator.Statistic.MODE), 1e-12);
+
+        // The outlier is removed as a star
+        estimator.removeStars();
+        assertEquals(5, estimator.size());
+        assertEquals(3, estimator.level(BackgroundEstimator.Statistic.MEDIAN));
+        assertEquals(55, estimator.sumOfSquares());
+    }
+
+    private static double sky(double x, double y) {
+        return SKY + SLOPE_X * x + SLOPE_Y * y;
+    }
+}
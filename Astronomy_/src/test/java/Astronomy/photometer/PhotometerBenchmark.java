@@ -0,0 +1,100 @@
+package Astronomy.photometer;
+
+import astroj.Photometer;
+import ij.ImagePlus;
+import ij.process.FloatProcessor;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.RunnerException;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Compares the ways {@link Photometer} can sum circular apertures: per pixel on the calling thread, per pixel on the
+ * fork-join pool, and by row spans with and without the Vector API.
+ * <p>
+ * Run with {@code --add-modules jdk.incubator.vector} on the JVM, otherwise the vector mode measures the scalar
+ * row spans.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class PhotometerBenchmark {
+    private static final int SIZE = 2048;
+    private static final int APERTURES = 200;
+
+    @Param({"PER_PIXEL", "FORK_JOIN", "ROW_SPANS", "VECTOR"})
+    public Mode mode;
+
+    @Param({"true", "false"})
+    public boolean exact;
+
+    @Param({"12"})
+    public double radius;
+
+    private ImagePlus imp;
+    private double[] xs;
+    private double[] ys;
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        Main.main(args);
+    }
+
+    @Setup
+    public void setup() {
+        var random = new Random(42);
+        var pixels = new float[SIZE * SIZE];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 1000 + (float) random.nextGaussian() * 10;
+        }
+
+        xs = new double[APERTURES];
+        ys = new double[APERTURES];
+        var margin = 3 * radius;
+        for (int ap = 0; ap < APERTURES; ap++) {
+            xs[ap] = margin + random.nextDouble() * (SIZE - 2 * margin);
+            ys[ap] = margin + random.nextDouble() * (SIZE - 2 * margin);
+            addStar(pixels, xs[ap], ys[ap], 5000 + random.nextDouble() * 50000);
+        }
+        imp = new ImagePlus("benchmark", new FloatProcessor(SIZE, SIZE, pixels));
+
+        Photometer.USE_PARALLEL_PIXEL_PROCESS.set(mode == Mode.FORK_JOIN);
+        Photometer.USE_ROW_SPAN_PIXEL_PROCESS.set(mode == Mode.ROW_SPANS || mode == Mode.VECTOR);
+        Photometer.USE_VECTOR_PIXEL_PROCESS.set(mode == Mode.VECTOR);
+    }
+
+    @Benchmark
+    public void measureApertures(Blackhole blackhole) {
+        var photometer = new Photometer();
+        photometer.setRemoveBackStars(true);
+        for (int ap = 0; ap < APERTURES; ap++) {
+            photometer.measure(imp, exact, xs[ap], ys[ap], radius, radius * 1.5, radius * 2.5);
+            blackhole.consume(photometer.sourceBrightness());
+            blackhole.consume(photometer.backgroundBrightness());
+        }
+    }
+
+    private static void addStar(float[] pixels, double x, double y, double peak) {
+        var sigma = 2.0;
+        for (int j = (int) (y - 5 * sigma); j <= (int) (y + 5 * sigma); j++) {
+            for (int i = (int) (x - 5 * sigma); i <= (int) (x + 5 * sigma); i++) {
+                var dx = i + 0.5 - x;
+                var dy = j + 0.5 - y;
+                pixels[j * SIZE + i] += (float) (peak * Math.exp(-(dx * dx + dy * dy) / (2 * sigma * sigma)));
+            }
+        }
+    }
+
+    public enum Mode {
+        PER_PIXEL,
+        FORK_JOIN,
+        ROW_SPANS,
+        VECTOR
+    }
+}
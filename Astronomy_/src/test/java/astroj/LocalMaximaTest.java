@@ -0,0 +1,205 @@
+package astroj;
+
+import ij.plugin.filter.RankFilters;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link LocalMaxima} against a scan of every pixel, and its median filter against {@link RankFilters}.
+ */
+class LocalMaximaTest {
+    @Test
+    void plateau() {
+        var ip = new FloatProcessor(10, 10);
+        for (int y = 3; y <= 5; y++) {
+            for (int x = 3; x <= 5; x++) {
+                ip.setf(x, y, 5);
+            }
+        }
+        // A plateau next to a higher pixel has no maxima
+        ip.setf(7, 1, 2);
+        ip.setf(8, 1, 2);
+        ip.setf(8, 2, 3);
+
+        var maxima = LocalMaxima.find(ip, null, 1, 0, 1, Double.POSITIVE_INFINITY);
+        var expected = new ArrayList<List<Number>>();
+        expected.add(List.of(8, 2, 3f));
+        for (int y = 3; y <= 5; y++) {
+            for (int x = 3; x <= 5; x++) {
+                expected.add(List.of(x, y, 5f));
+            }
+        }
+        assertEquals(expected, list(maxima));
+    }
+
+    /**
+     * Maxima on the edge of the image have fewer neighbors, and are skipped within the border.
+     */
+    @Test
+    void imageEdges() {
+        var ip = new FloatProcessor(8, 6);
+        ip.setf(0, 0, 4);
+        ip.setf(7, 2, 3);
+        ip.setf(4, 5, 2);
+
+        assertEquals(List.of(List.of(0, 0, 4f), List.of(7, 2, 3f), List.of(4, 5, 2f)),
+                list(LocalMaxima.find(ip, null, 0, 0, 1, Double.POSITIVE_INFINITY)));
+        assertEquals(0, LocalMaxima.find(ip, null, 1, 0, 1, Double.POSITIVE_INFINITY).count());
+    }
+
+    /**
+     * Bounds are clipped to the image, and pixels just outside them still count as neighbors.
+     */
+    @Test
+    void bounds() {
+        var ip = new FloatProcessor(20, 20);
+        ip.setf(5, 5, 3);
+        ip.setf(5, 4, 4);
+        ip.setf(15, 15, 2);
+        ip.setf(19, 19, 6);
+
+        // The pixel above (5, 5) is higher, though outside the bounds
+        assertEquals(0, LocalMaxima.find(ip, new Rectangle(0, 5, 10, 10), 0, 0, 1, Double.POSITIVE_INFINITY).count());
+
+        var clipped = LocalMaxima.find(ip, new Rectangle(10, 10, 100, 100), 0, 0, 1, Double.POSITIVE_INFINITY);
+        assertEquals(List.of(List.of(15, 15, 2f), List.of(19, 19, 6f)), list(clipped));
+        assertEquals(0, clipped.min());
+        assertEquals(6, clipped.max());
+
+        var outside = LocalMaxima.find(ip, new Rectangle(30, -50, 10, 10), 0, 0, 0, Double.POSITIVE_INFINITY);
+        assertEquals(0, outside.count());
+        assertTrue(Float.isNaN(outside.min()) && Float.isNaN(outside.max()));
+
+        assertEquals(list(LocalMaxima.find(ip, new Rectangle(0, 0, 20, 20), 0, 0, 1, Double.POSITIVE_INFINITY)),
+                list(LocalMaxima.find(ip, null, 0, 0, 1, Double.POSITIVE_INFINITY)));
+    }
+
+    @Test
+    void nanAndThresholds() {
+        var ip = new FloatProcessor(10, 10);
+        ip.setf(2, 2, Float.NaN);
+        ip.setf(5, 5, 10);
+        ip.setf(8, 8, 20);
+        assertEquals(List.of(List.of(5, 5, 10f)), list(LocalMaxima.find(ip, null, 0, 0, 1, 15)));
+        assertEquals(List.of(List.of(8, 8, 20f)), list(LocalMaxima.find(ip, null, 0, 0, 15, 25)));
+    }
+
+    /**
+     * Many bands of a noisy image, without and with the median filter, in and out of bounds.
+     */
+    @Test
+    void sameAsScan() {
+        var ip = noise(new Random(1), 301, 517);
+        var bounds = new Rectangle[]{null, new Rectangle(17, 40, 200, 300), new Rectangle(-10, 480, 400, 100)};
+        for (double radius : new double[]{0, 1, 1.5, 2, 2.5, 4}) {
+            FloatProcessor filtered = (FloatProcessor) ip.duplicate();
+            if (radius > 0) {
+                new RankFilters().rank(filtered, radius, RankFilters.MEDIAN);
+            }
+            for (Rectangle b : bounds) {
+                for (int border : new int[]{0, 3}) {
+                    var what = "radius " + radius + ", bounds " + b + ", border " + border;
+                    var maxima = LocalMaxima.find(ip, b, border, radius, 50, 200);
+                    assertEquals(scan(filtered, b, border, 50, 200), list(maxima), what);
+
+                    var region = b == null ? new Rectangle(0, 0, 301, 517) : b.intersection(new Rectangle(0, 0, 301, 517));
+                    var min = Float.POSITIVE_INFINITY;
+                    var max = Float.NEGATIVE_INFINITY;
+                    for (int y = region.y; y < region.y + region.height; y++) {
+                        for (int x = region.x; x < region.x + region.width; x++) {
+                            min = Math.min(min, filtered.getf(x, y));
+                            max = Math.max(max, filtered.getf(x, y));
+                        }
+                    }
+                    assertEquals(min, maxima.min(), what);
+                    assertEquals(max, maxima.max(), what);
+                }
+            }
+        }
+    }
+
+    /**
+     * Calibrated values are searched for 16-bit images.
+     */
+    @Test
+    void calibratedShorts() {
+        var random = new Random(2);
+        var ip = new ShortProcessor(64, 48);
+        for (int i = 0; i < 64 * 48; i++) {
+            ip.set(i, random.nextInt(100));
+        }
+        var table = new float[65536];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = 2.5f * i - 10;
+        }
+        ip.setCalibrationTable(table);
+
+        var floats = new FloatProcessor(64, 48);
+        for (int i = 0; i < 64 * 48; i++) {
+            floats.setf(i, table[ip.get(i)]);
+        }
+        assertEquals(scan(floats, null, 0, 0, Double.POSITIVE_INFINITY),
+                list(LocalMaxima.find(ip, null, 0, 0, 0, Double.POSITIVE_INFINITY)));
+    }
+
+    private static FloatProcessor noise(Random random, int width, int height) {
+        var ip = new FloatProcessor(width, height);
+        for (int i = 0; i < width * height; i++) {
+            // Rounded so that plateaus are common
+            ip.setf(i, (float) Math.rint(100 + 30 * random.nextGaussian()));
+        }
+        return ip;
+    }
+
+    /**
+     * The pixels no lower than any of their neighbors in the image, in row order.
+     */
+    private static List<List<Number>> scan(ImageProcessor ip, Rectangle bounds, int border, double lower,
+                                           double upper) {
+        var region = new Rectangle(0, 0, ip.getWidth(), ip.getHeight());
+        if (bounds != null) {
+            region = region.intersection(bounds);
+        }
+        var maxima = new ArrayList<List<Number>>();
+        for (int y = region.y + border; y < region.y + region.height - border; y++) {
+            for (int x = region.x + border; x < region.x + region.width - border; x++) {
+                var v = ip.getf(x, y);
+                if (Float.isNaN(v) || v < lower || v > upper) {
+                    continue;
+                }
+                var isMax = true;
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dx = -1; dx <= 1; dx++) {
+                        var nx = x + dx;
+                        var ny = y + dy;
+                        if (nx >= 0 && ny >= 0 && nx < ip.getWidth() && ny < ip.getHeight() && ip.getf(nx, ny) > v) {
+                            isMax = false;
+                        }
+                    }
+                }
+                if (isMax) {
+                    maxima.add(List.of(x, y, v));
+                }
+            }
+        }
+        return maxima;
+    }
+
+    private static List<List<Number>> list(LocalMaxima maxima) {
+        var list = new ArrayList<List<Number>>();
+        for (int i = 0; i < maxima.count(); i++) {
+            list.add(List.of(maxima.x(i), maxima.y(i), maxima.value(i)));
+        }
+        return list;
+    }
+}
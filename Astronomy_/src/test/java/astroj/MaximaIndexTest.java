@@ -0,0 +1,99 @@
+package astroj;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link MaximaIndex#within} must find the same maxima as checking every one.
+ */
+class MaximaIndexTest {
+    private static final Comparator<StarFinder.CoordinateMaxima> ORDER =
+            Comparator.comparingDouble(StarFinder.CoordinateMaxima::x)
+                    .thenComparingDouble(StarFinder.CoordinateMaxima::y)
+                    .thenComparingDouble(StarFinder.CoordinateMaxima::value);
+
+    @Test
+    void scatteredMaxima() {
+        var random = new Random(1);
+        var maxima = new ArrayList<StarFinder.CoordinateMaxima>();
+        for (int i = 0; i < 2000; i++) {
+            maxima.add(new StarFinder.CoordinateMaxima(random.nextDouble(), 4096 * random.nextDouble(),
+                    2048 * random.nextDouble()));
+        }
+        for (double cellSize : new double[]{1, 10, 100, 10000}) {
+            assertSameAsScan(maxima, cellSize, random);
+        }
+    }
+
+    @Test
+    void clusteredMaxima() {
+        var random = new Random(2);
+        var maxima = new ArrayList<StarFinder.CoordinateMaxima>();
+        for (int cluster = 0; cluster < 5; cluster++) {
+            var cx = 1000 * random.nextDouble();
+            var cy = 1000 * random.nextDouble();
+            for (int i = 0; i < 200; i++) {
+                maxima.add(new StarFinder.CoordinateMaxima(random.nextDouble(), cx + 3 * random.nextGaussian(),
+                        cy + 3 * random.nextGaussian()));
+            }
+        }
+        // Maxima on the same pixel, and negative coordinates
+        maxima.add(new StarFinder.CoordinateMaxima(1, 50, 50));
+        maxima.add(new StarFinder.CoordinateMaxima(2, 50, 50));
+        maxima.add(new StarFinder.CoordinateMaxima(3, -20.5, -3));
+        assertSameAsScan(maxima, 5, random);
+    }
+
+    @Test
+    void queryOnAMaximum() {
+        var a = new StarFinder.CoordinateMaxima(1, 10, 10);
+        var b = new StarFinder.CoordinateMaxima(2, 13, 14);
+        var index = new MaximaIndex(List.of(a, b), 2);
+        assertEquals(List.of(a), index.within(10, 10, 0));
+        assertEquals(List.of(a), index.within(10, 10, 4.9));
+        assertEquals(2, index.within(10, 10, 5).size());
+    }
+
+    @Test
+    void emptyIndex() {
+        var index = new MaximaIndex(List.of(), 10);
+        assertEquals(0, index.size());
+        assertTrue(index.within(0, 0, 1000).isEmpty());
+    }
+
+    @Test
+    void cellSizeMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> new MaximaIndex(List.of(), 0));
+        assertThrows(IllegalArgumentException.class, () -> new MaximaIndex(List.of(), Double.NaN));
+    }
+
+    private static void assertSameAsScan(List<StarFinder.CoordinateMaxima> maxima, double cellSize, Random random) {
+        var index = new MaximaIndex(maxima, cellSize);
+        assertEquals(maxima.size(), index.size());
+        for (int q = 0; q < 300; q++) {
+            // Queries inside, around and well outside the maxima
+            var x = 5000 * random.nextDouble() - 500;
+            var y = 3000 * random.nextDouble() - 500;
+            var radius = q % 10 == 0 ? 0 : 200 * random.nextDouble() * random.nextDouble();
+
+            var expected = new ArrayList<StarFinder.CoordinateMaxima>();
+            for (StarFinder.CoordinateMaxima m : maxima) {
+                if (m.squaredDistanceTo(x, y) <= radius * radius) {
+                    expected.add(m);
+                }
+            }
+            var found = index.within(x, y, radius);
+            expected.sort(ORDER);
+            found.sort(ORDER);
+            assertEquals(expected, found, "within " + radius + " of " + x + ", " + y);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package Astronomy.photometer;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API version of {@link CircularApertureSums#accumulate(float[], int, int, CircularApertureSums.SpanStats)}.
+ * <p>
+ * Compiled against {@code jdk.incubator.vector} in its own source set, and only loaded by
+ * {@link CircularApertureSums} when that module is present. Pixels are widened to doubles before they are summed, so
+ * the sums keep the precision of the scalar loop.
+ */
+final class VectorSpans implements CircularApertureSums.SpanSummer {
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    // Half the width, so that a load of floats widens into exactly one vector of doubles
+    private static final VectorSpecies<Float> FLOATS =
+            VectorSpecies.of(float.class, VectorShape.forBitSize(Math.max(64, DOUBLES.vectorBitSize() / 2)));
+
+    VectorSpans() {
+    }
+
+    @Override
+    public void accumulate(float[] pixels, int from, int to, CircularApertureSums.SpanStats stats) {
+        var lanes = FLOATS.length();
+        if (to - from < 2 * lanes || lanes != DOUBLES.length()) {
+            CircularApertureSums.accumulate(pixels, from, to, stats);
+            return;
+        }
+
+        var sum = DoubleVector.zero(DOUBLES);
+        var sum2 = DoubleVector.zero(DOUBLES);
+        var count = DoubleVector.zero(DOUBLES);
+        var max = FloatVector.broadcast(FLOATS, stats.max);
+        var i = from;
+        for (var bound = from + FLOATS.loopBound(to - from); i < bound; i += lanes) {
+            var v = FloatVector.fromArray(FLOATS, pixels, i);
+            var valid = v.test(VectorOperators.IS_NAN).not();
+            max = max.blend(max.max(v), valid);
+
+            var d = (DoubleVector) v.convertShape(VectorOperators.F2D, DOUBLES, 0);
+            var validD = valid.cast(DOUBLES);
+            sum = sum.add(d, validD);
+            sum2 = sum2.add(d.mul(d), validD);
+            count = count.add(1, validD);
+        }
+
+        stats.sum += sum.reduceLanes(VectorOperators.ADD);
+        stats.sum2 += sum2.reduceLanes(VectorOperators.ADD);
+        stats.count += (long) count.reduceLanes(VectorOperators.ADD);
+        stats.max = max.reduceLanes(VectorOperators.MAX);
+
+        CircularApertureSums.accumulate(pixels, i, to, stats);
+    }
+}
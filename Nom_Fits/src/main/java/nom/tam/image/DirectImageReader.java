@@ -0,0 +1,322 @@
+package nom.tam.image;
+
+/*-
+ * #%L
+ * nom.tam.fits
+ * %%
+ * Copyright (C) 1996 - 2024 nom-tam-fits
+ * %%
+ * This is free and unencumbered software released into the public domain.
+ * 
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ * 
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ * #L%
+ */
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+import nom.tam.fits.FitsException;
+import nom.tam.fits.ImageData;
+import nom.tam.fits.ImageHDU;
+
+/**
+ * <p>
+ * Decodes a 2D image, or one plane of a cube, straight from the data segment of a file into a single flat array of
+ * the caller's choosing, without first loading the HDU's jagged kernel. Rows may be written in reverse order, and
+ * BZERO/BSCALE are applied on the way, so the destination can be handed as-is to an image viewer that keeps pixels
+ * top-down in a 1D array.
+ * </p>
+ * <p>
+ * The data is read through positional {@link FileChannel} reads, a band of rows at a time into a per-thread direct
+ * buffer, so the only full-frame allocation is the destination. Positional reads leave the channel position alone,
+ * and the channel may be shared by several readers at once. A memory map is avoided on purpose: mapped regions hold
+ * the file open until they are garbage collected, which on Windows stops the file from being moved or deleted.
+ * </p>
+ * <p>
+ * Physical values are <code>bzero + bscale * raw</code>, with unsigned 8-bit raw values, as prescribed by the FITS
+ * standard. Destinations and sources pair up as follows:
+ * </p>
+ * <ul>
+ * <li><code>byte[]</code> from BITPIX 8,</li>
+ * <li><code>short[]</code> from BITPIX 16,</li>
+ * <li><code>float[]</code> from any BITPIX.</li>
+ * </ul>
+ * <p>
+ * Integer destinations are copied as-is when there is no scaling, or else take the scaled value narrowed to the
+ * destination type.
+ * </p>
+ *
+ * <pre>
+ *     Fits fits = new Fits(file);
+ *     fits.read();
+ *     ImageHDU hdu = (ImageHDU) fits.getHDU(0);
+ *
+ *     if (DirectImageReader.canRead(hdu)) {
+ *         float[] pixels = new float[width * height];
+ *         try (FileChannel channel = FileChannel.open(file.toPath())) {
+ *             DirectImageReader.read(channel, hdu.getData().getFileOffset(), hdu.getBitpix().getHeaderValue(), width,
+ *                     height, bzero, bscale, false, true, pixels);
+ *         }
+ *     }
+ * </pre>
+ */
+public final class DirectImageReader {
+
+    /** Size of the per-thread band buffer, rows wider than this get a buffer of their own. */
+    private static final int BAND_BYTES = 1 << 20;
+
+    private static final ThreadLocal<ByteBuffer> BAND = ThreadLocal
+            .withInitial(() -> ByteBuffer.allocateDirect(BAND_BYTES));
+
+    private DirectImageReader() {
+    }
+
+    /**
+     * Checks if the image of an HDU can be decoded with this class, that is its data has not been loaded yet and
+     * is still available at a known position of a random accessible file.
+     *
+     * @param  hdu The image HDU, as read from a file
+     *
+     * @return     <code>true</code> if the data can be read from the file at {@link ImageData#getFileOffset()}.
+     */
+    public static boolean canRead(ImageHDU hdu) {
+        ImageData data = hdu.getData();
+        if (data == null || !data.isDeferred() || data.getFileOffset() < 0) {
+            return false;
+        }
+        try {
+            return bytesPerPixel(hdu.getBitpix().getHeaderValue()) > 0;
+        } catch (FitsException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the number of bytes of one pixel in the file, or 0 if the BITPIX value is not valid.
+     *
+     * @param  bitpix The BITPIX header value
+     *
+     * @return        the byte size of a pixel
+     */
+    public static int bytesPerPixel(int bitpix) {
+        switch (bitpix) {
+        case 8:
+        case 16:
+        case 32:
+        case 64:
+        case -32:
+        case -64:
+            return Math.abs(bitpix) / Byte.SIZE;
+        default:
+            return 0;
+        }
+    }
+
+    /**
+     * Reads and decodes a <code>width</code> by <code>height</code> image into a flat, row-major array.
+     *
+     * @param  channel                  The file to read, which is not repositioned.
+     * @param  offset                   The position of the first pixel in the file, e.g.
+     *                                      {@link ImageData#getFileOffset()} plus the size of any planes before
+     *                                      the wanted one.
+     * @param  bitpix                   The BITPIX of the data
+     * @param  width                    NAXIS1 of the image
+     * @param  height                   NAXIS2 of the image
+     * @param  bzero                    The BZERO of the data
+     * @param  bscale                   The BSCALE of the data
+     * @param  fma                      If <code>true</code> the scaling is fused with {@link Math#fma}, which
+     *                                      can differ from the plain expression in the last bit, so callers can
+     *                                      match their other conversions.
+     * @param  flip                     If <code>true</code> the first row in the file becomes the last row of the
+     *                                      destination.
+     * @param  dest                     A <code>byte[]</code>, <code>short[]</code> or <code>float[]</code> of at
+     *                                      least <code>width * height</code> elements.
+     *
+     * @throws IOException              if the file could not be read, or ends before the image does.
+     * @throws IllegalArgumentException if the destination is too small or cannot hold the given BITPIX.
+     */
+    public static void read(FileChannel channel, long offset, int bitpix, int width, int height, double bzero,
+            double bscale, boolean fma, boolean flip, Object dest) throws IOException, IllegalArgumentException {
+        int pixelBytes = bytesPerPixel(bitpix);
+        if (pixelBytes == 0) {
+            throw new IllegalArgumentException("Invalid BITPIX: " + bitpix);
+        }
+        if (!(dest instanceof float[] || dest instanceof short[] && bitpix == 16
+                || dest instanceof byte[] && bitpix == 8)) {
+            throw new IllegalArgumentException(
+                    "Cannot decode BITPIX " + bitpix + " into " + dest.getClass().getSimpleName());
+        }
+        if (Array.getLength(dest) < (long) width * height) {
+            throw new IllegalArgumentException("Destination is too small for a " + width + "x" + height + " image");
+        }
+
+        long rowBytes = (long) width * pixelBytes;
+        if (rowBytes == 0 || height == 0) {
+            return;
+        }
+
+        ByteBuffer band = BAND.get();
+        if (rowBytes > band.capacity()) {
+            band = ByteBuffer.allocateDirect((int) rowBytes);
+        }
+        int bandRows = (int) Math.min(height, band.capacity() / rowBytes);
+
+        for (int y = 0; y < height; y += bandRows) {
+            int rows = Math.min(bandRows, height - y);
+            band.clear().limit((int) (rows * rowBytes));
+            readFully(channel, band, offset + y * rowBytes);
+            band.flip();
+
+            int firstRow = flip ? height - 1 - y : y;
+            int rowStep = flip ? -width : width;
+            if (dest instanceof float[]) {
+                decodeFloat(band, bitpix, rows, width, firstRow * width, rowStep, bzero, bscale, fma,
+                        (float[]) dest);
+            } else if (dest instanceof short[]) {
+                decodeShort(band.asShortBuffer(), rows, width, firstRow * width, rowStep, bzero, bscale, fma,
+                        (short[]) dest);
+            } else {
+                decodeByte(band, rows, width, firstRow * width, rowStep, bzero, bscale, fma, (byte[]) dest);
+            }
+        }
+    }
+
+    /**
+     * <code>bzero + bscale * raw</code>, fused if <code>fma</code>.
+     */
+    private static double scale(double raw, double bscale, double bzero, boolean fma) {
+        return fma ? Math.fma(bscale, raw, bzero) : bzero + bscale * raw;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long pos = position;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, pos);
+            if (n < 0) {
+                throw new EOFException("Image data ends at " + pos + ", before the full image was read");
+            }
+            pos += n;
+        }
+    }
+
+    private static void decodeFloat(ByteBuffer band, int bitpix, int rows, int width, int start, int rowStep,
+            double bzero, double bscale, boolean fma, float[] dest) {
+        boolean unscaled = bscale == 1.0 && bzero == 0.0;
+        int to = start;
+        switch (bitpix) {
+        case 8:
+            for (int r = 0, from = 0; r < rows; r++, to += rowStep) {
+                for (int x = 0; x < width; x++, from++) {
+                    dest[to + x] = (float) scale(Byte.toUnsignedInt(band.get(from)), bscale, bzero, fma);
+                }
+            }
+            break;
+        case 16:
+            ShortBuffer shorts = band.asShortBuffer();
+            for (int r = 0, from = 0; r < rows; r++, to += rowStep) {
+                for (int x = 0; x < width; x++, from++) {
+                    dest[to + x] = (float) scale(shorts.get(from), bscale, bzero, fma);
+                }
+            }
+            break;
+        case 32:
+            IntBuffer ints = band.asIntBuffer();
+            for (int r = 0, from = 0; r < rows; r++, to += rowStep) {
+                for (int x = 0; x < width; x++, from++) {
+                    dest[to + x] = (float) scale(ints.get(from), bscale, bzero, fma);
+                }
+            }
+            break;
+        case 64:
+            LongBuffer longs = band.asLongBuffer();
+            for (int r = 0, from = 0; r < rows; r++, to += rowStep) {
+                for (int x = 0; x < width; x++, from++) {
+                    dest[to + x] = (float) scale(longs.get(from), bscale, bzero, fma);
+                }
+            }
+            break;
+        case -32:
+            FloatBuffer floats = band.asFloatBuffer();
+            if (unscaled) {
+                // Bulk copy, the view advances one row per get
+                for (int r = 0; r < rows; r++, to += rowStep) {
+                    floats.get(dest, to, width);
+                }
+                break;
+            }
+            for (int r = 0, from = 0; r < rows; r++, to += rowStep) {
+                for (int x = 0; x < width; x++, from++) {
+                    dest[to + x] = (float) scale(floats.get(from), bscale, bzero, fma);
+                }
+            }
+            break;
+        default:
+            DoubleBuffer doubles = band.asDoubleBuffer();
+            for (int r = 0, from = 0; r < rows; r++, to += rowStep) {
+                for (int x = 0; x < width; x++, from++) {
+                    dest[to + x] = (float) scale(doubles.get(from), bscale, bzero, fma);
+                }
+            }
+            break;
+        }
+    }
+
+    private static void decodeShort(ShortBuffer shorts, int rows, int width, int start, int rowStep, double bzero,
+            double bscale, boolean fma, short[] dest) {
+        int to = start;
+        if (bscale == 1.0 && bzero == 0.0) {
+            for (int r = 0; r < rows; r++, to += rowStep) {
+                shorts.get(dest, to, width);
+            }
+            return;
+        }
+        for (int r = 0, from = 0; r < rows; r++, to += rowStep) {
+            for (int x = 0; x < width; x++, from++) {
+                dest[to + x] = (short) scale(shorts.get(from), bscale, bzero, fma);
+            }
+        }
+    }
+
+    private static void decodeByte(ByteBuffer bytes, int rows, int width, int start, int rowStep, double bzero,
+            double bscale, boolean fma, byte[] dest) {
+        int to = start;
+        if (bscale == 1.0 && bzero == 0.0) {
+            for (int r = 0; r < rows; r++, to += rowStep) {
+                bytes.get(dest, to, width);
+            }
+            return;
+        }
+        for (int r = 0, from = 0; r < rows; r++, to += rowStep) {
+            for (int x = 0; x < width; x++, from++) {
+                dest[to + x] = (byte) scale(Byte.toUnsignedInt(bytes.get(from)), bscale, bzero, fma);
+            }
+        }
+    }
+}
@@ -146,6 +146,15 @@ public class CompressedImageData extends BinaryTable {
         }
     }
 
+    /**
+     * This should only be called by {@link CompressedImageHDU}.
+     */
+    @SuppressWarnings("javadoc")
+    protected void decompress(Header hdr, Buffer destination, int x, int y, int width, int height, boolean flip)
+            throws FitsException {
+        new TiledImageCompressionOperation(this).read(hdr).decompress(destination, x, y, width, height, flip);
+    }
+
     /**
      * This should only be called by {@link CompressedImageHDU}.
      */
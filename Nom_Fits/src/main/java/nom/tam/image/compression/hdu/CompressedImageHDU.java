@@ -31,6 +31,7 @@ import nom.tam.util.ByteBufferOutputStream;
 import nom.tam.util.Cursor;
 import nom.tam.util.FitsInputStream;
 import nom.tam.util.FitsOutputStream;
+import nom.tam.util.type.ElementType;
 
 /*
  * #%L
@@ -336,6 +337,41 @@ public class CompressedImageHDU extends BinaryTableHDU {
         return new ImageHDU(h, im);
     }
 
+    /**
+     * Decompresses an area of a 2D image straight into a flat array, such as the pixel array of an image display.
+     * Unlike {@link #asImageHDU()} and {@link #getTileHDU(int[], int[])} no image sized buffer or kernel is made on the
+     * way: the tiles that overlap the area are decompressed in parallel and written into the array, and tiles outside
+     * the area are not decompressed at all. The values are stored as they are in the image, without applying
+     * <code>BZERO</code> and <code>BSCALE</code>.
+     *
+     * @param  array                    a 1D array of the primitive type of the uncompressed image (e.g.
+     *                                      <code>float[]</code> for <code>ZBITPIX = -32</code>, including quantized
+     *                                      images), with room for <code>lengths[0] * lengths[1]</code> elements
+     * @param  corners                  the location in pixels where the area begins in the full (uncompressed) image,
+     *                                      in Java index order as for {@link #getTileHDU(int[], int[])}, that is
+     *                                      <code>{y, x}</code>
+     * @param  lengths                  the size of the area in pixels, in the same order
+     * @param  flip                     whether to store the rows of the area last to first, as for displays with the
+     *                                      origin at the top left
+     *
+     * @throws FitsException            If the compressed image itself is invalid or incomplete
+     * @throws IllegalArgumentException if the image is not 2D, if the area is not fully contained inside the image, or
+     *                                      if the array does not match the image type or is too small
+     *
+     * @see                             #getTileHDU(int[], int[])
+     */
+    public void decompress(Object array, int[] corners, int[] lengths, boolean flip)
+            throws FitsException, IllegalArgumentException {
+        if (corners.length != 2 || lengths.length != 2) {
+            throw new IllegalArgumentException("area must be 2D");
+        }
+        if (!array.getClass().isArray() || !array.getClass().getComponentType().isPrimitive()) {
+            throw new IllegalArgumentException("not a 1D primitive array: " + array.getClass().getName());
+        }
+        ElementType<Buffer> type = ElementType.forClass(array.getClass().getComponentType());
+        getData().decompress(getHeader(), type.wrap(array), corners[1], corners[0], lengths[1], lengths[0], flip);
+    }
+
     /**
      * Given this compressed HDU, get the original (decompressed) axes.
      *
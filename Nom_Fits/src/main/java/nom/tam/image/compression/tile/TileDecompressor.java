@@ -32,11 +32,18 @@ package nom.tam.image.compression.tile;
  */
 
 import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
 import java.util.logging.Logger;
 
 import nom.tam.image.compression.tile.mask.ImageNullPixelMask;
 import nom.tam.image.compression.tile.mask.NullPixelMaskRestorer;
 import nom.tam.image.tile.operation.TileArea;
+import nom.tam.util.type.ElementType;
 
 /**
  * (<i>for internal use</i>) A parallel operation for decompressing a specific image or binary table tile. Each instance
@@ -51,6 +58,11 @@ public class TileDecompressor extends TileCompressionOperation {
      */
     private static final Logger LOG = Logger.getLogger(TileDecompressor.class.getName());
 
+    /**
+     * tile sized buffers of the decompression threads, see {@link #scratchBuffer(int)}.
+     */
+    private static final ThreadLocal<Buffer> SCRATCH = new ThreadLocal<>();
+
     private NullPixelMaskRestorer nullPixelMaskRestorer;
 
     /**
@@ -72,27 +84,132 @@ public class TileDecompressor extends TileCompressionOperation {
 
     private void decompress() {
         synchronized (lock) {
-            initTileOptions();
-
-            tileOptions.getCompressionParameters().setTileIndex(getTileIndex());
-
-            if (compressionType == TileCompressionType.COMPRESSED) {
-                tileOptions.getCompressionParameters().getValuesFromColumn(getTileIndex());
-                getCompressorControl().decompress(compressedData, getTileBuffer().getBuffer(), tileOptions);
-                if (nullPixelMaskRestorer != null) {
-                    nullPixelMaskRestorer.restoreNulls();
-                }
-            } else if (compressionType == TileCompressionType.GZIP_COMPRESSED) {
-                tileOptions.getCompressionParameters().getValuesFromColumn(getTileIndex());
-                getGzipCompressorControl().decompress(compressedData, getTileBuffer().getBuffer(), null);
-            } else if (compressionType == TileCompressionType.UNCOMPRESSED) {
-                Buffer typedBuffer = getBaseType().asTypedBuffer(compressedData);
-                getBaseType().appendBuffer(getTileBuffer().getBuffer(), typedBuffer);
-            } else {
-                LOG.severe("Unknown compression column");
-                throw new IllegalStateException("Unknown compression column");
+            decompress(compressedData, getTileBuffer().getBuffer());
+            if (compressionType == TileCompressionType.COMPRESSED && nullPixelMaskRestorer != null) {
+                nullPixelMaskRestorer.restoreNulls();
+            }
+        }
+    }
+
+    /**
+     * Decompresses the part of this tile that overlaps a rectangle of the image, into a buffer that holds just that
+     * rectangle. A tile that covers whole rows of the rectangle is decompressed straight into place; otherwise the
+     * tile is decompressed into a buffer kept by the calling thread and the overlapping part of its rows copied over.
+     * The state of the tile is left as it is, so the same tile may be decompressed any number of times.
+     *
+     * @param destination the buffer for the rectangle, with its rows starting at index 0
+     * @param region      the rectangle of the image, as (x, y) pixel indices
+     * @param flip        whether the rows of the rectangle are stored last to first
+     */
+    protected void decompressTo(Buffer destination, TileArea region, boolean flip) {
+        TileArea area = getArea();
+        int width = region.getEnd(0) - region.getStart(0);
+        int fromX = Math.max(area.getStart(0), region.getStart(0));
+        int toX = Math.min(area.getEnd(0), region.getEnd(0));
+        int fromY = Math.max(area.getStart(1), region.getStart(1));
+        int toY = Math.min(area.getEnd(1), region.getEnd(1));
+        int tileWidth = getTileBuffer().getWidth();
+        int tilePixels = getTileBuffer().getPixelSize();
+
+        if (toX - fromX == width && tileWidth == width && area.getStart(1) == fromY && area.getEnd(1) == toY
+                && (!flip || toY - fromY == 1)) {
+            Buffer target = destination.duplicate();
+            target.position(regionOffset(region, fromY, flip));
+            target.limit(target.position() + tilePixels);
+            decompressRestoringNulls(target.slice());
+            return;
+        }
+
+        Buffer tile = scratchBuffer(tilePixels);
+        decompressRestoringNulls(tile);
+        Buffer target = destination.duplicate();
+        for (int y = fromY; y < toY; y++) {
+            int rowStart = (y - area.getStart(1)) * tileWidth + fromX - area.getStart(0);
+            tile.limit(rowStart + toX - fromX);
+            tile.position(rowStart);
+            target.limit(target.capacity());
+            target.position(regionOffset(region, y, flip) + fromX - region.getStart(0));
+            copy(tile, target);
+        }
+    }
+
+    private void decompressRestoringNulls(Buffer target) {
+        synchronized (lock) {
+            ByteBuffer data = null;
+            if (compressedData != null) {
+                data = compressedData.duplicate().order(compressedData.order());
+                data.rewind();
             }
+            decompress(data, target);
+            if (compressionType == TileCompressionType.COMPRESSED && nullPixelMaskRestorer != null) {
+                nullPixelMaskRestorer.restoreNulls(target);
+            }
+        }
+    }
+
+    private void decompress(ByteBuffer data, Buffer target) {
+        initTileOptions();
+
+        tileOptions.getCompressionParameters().setTileIndex(getTileIndex());
+
+        if (compressionType == TileCompressionType.COMPRESSED) {
+            tileOptions.getCompressionParameters().getValuesFromColumn(getTileIndex());
+            getCompressorControl().decompress(data, target, tileOptions);
+        } else if (compressionType == TileCompressionType.GZIP_COMPRESSED) {
+            tileOptions.getCompressionParameters().getValuesFromColumn(getTileIndex());
+            getGzipCompressorControl().decompress(data, target, null);
+        } else if (compressionType == TileCompressionType.UNCOMPRESSED) {
+            Buffer typedBuffer = getBaseType().asTypedBuffer(data);
+            getBaseType().appendBuffer(target, typedBuffer);
+        } else {
+            LOG.severe("Unknown compression column");
+            throw new IllegalStateException("Unknown compression column");
+        }
+    }
+
+    /**
+     * Bulk copies the remaining elements of one buffer into another of the same type.
+     */
+    private static void copy(Buffer from, Buffer to) {
+        if (to instanceof FloatBuffer) {
+            ((FloatBuffer) to).put((FloatBuffer) from);
+        } else if (to instanceof ShortBuffer) {
+            ((ShortBuffer) to).put((ShortBuffer) from);
+        } else if (to instanceof IntBuffer) {
+            ((IntBuffer) to).put((IntBuffer) from);
+        } else if (to instanceof ByteBuffer) {
+            ((ByteBuffer) to).put((ByteBuffer) from);
+        } else if (to instanceof DoubleBuffer) {
+            ((DoubleBuffer) to).put((DoubleBuffer) from);
+        } else if (to instanceof LongBuffer) {
+            ((LongBuffer) to).put((LongBuffer) from);
+        } else {
+            throw new IllegalArgumentException("Unsupported buffer type: " + to.getClass().getName());
+        }
+    }
+
+    /**
+     * Returns the index in a buffer holding a rectangle of the image where a row of the image starts.
+     */
+    private static int regionOffset(TileArea region, int y, boolean flip) {
+        int row = flip ? region.getEnd(1) - 1 - y : y - region.getStart(1);
+        return row * (region.getEnd(0) - region.getStart(0));
+    }
+
+    /**
+     * Returns a buffer of the base type for decompressing a tile of the given size, reusing the last one of the calling
+     * thread when it is large enough. The decompression threads are long lived, so tile sized buffers are allocated
+     * once per thread rather than once per tile.
+     */
+    private Buffer scratchBuffer(int pixels) {
+        Buffer buffer = SCRATCH.get();
+        if (buffer == null || buffer.capacity() < pixels || !getBaseType().is(ElementType.forBuffer(buffer))) {
+            buffer = getBaseType().newBuffer(pixels);
+            SCRATCH.set(buffer);
         }
+        buffer.clear();
+        buffer.limit(pixels);
+        return buffer;
     }
 
     @Override
@@ -23,8 +23,12 @@ import static nom.tam.image.compression.tile.TileCompressionType.UNCOMPRESSED;
 import java.lang.reflect.Array;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 import nom.tam.fits.BinaryTable;
@@ -170,6 +174,66 @@ public class TiledImageCompressionOperation extends AbstractTiledImageOperation<
         return decompressedWholeArea;
     }
 
+    /**
+     * Decompresses the part of a 2D image inside a rectangle into a buffer that holds just that rectangle. Only the
+     * tiles that overlap the rectangle are decompressed, in parallel, so a small cutout of a large image costs no more
+     * than the few tiles it touches. Tiles that cover whole rows of the rectangle, such as the row by row tiles written
+     * by default by fpack, are decompressed straight into the destination without an intermediate buffer.
+     *
+     * @param  destination              a buffer of the base type with room for <code>width * height</code> elements
+     *                                      from its current position
+     * @param  x                        the first column of the rectangle (along NAXIS1)
+     * @param  y                        the first row of the rectangle (along NAXIS2)
+     * @param  width                    the number of columns in the rectangle
+     * @param  height                   the number of rows in the rectangle
+     * @param  flip                     whether to store the rows of the rectangle last to first, as for displays with
+     *                                      the origin at the top left
+     *
+     * @throws IllegalArgumentException if the image is not 2D, the rectangle is not inside the image, or the
+     *                                      destination is of the wrong type or too small
+     * @throws IllegalStateException    if a tile could not be decompressed
+     */
+    public void decompress(Buffer destination, int x, int y, int width, int height, boolean flip)
+            throws IllegalArgumentException, IllegalStateException {
+        if (getNAxes() != 2) {
+            throw new IllegalArgumentException("Only 2D images can be decompressed by area, not " + getNAxes() + "D");
+        }
+        int imageWidth = getImageWidth();
+        int imageHeight = getBufferSize() / imageWidth;
+        if (x < 0 || y < 0 || width < 0 || height < 0 || x + width > imageWidth || y + height > imageHeight) {
+            throw new IllegalArgumentException("area [" + x + ":" + (x + width) + ", " + y + ":" + (y + height)
+                    + "] out of bounds in " + imageWidth + "x" + imageHeight + " image");
+        }
+        if (!getBaseType().is(ElementType.forBuffer(destination))) {
+            throw new IllegalArgumentException("destination does not match the image type " + getBaseType().type());
+        }
+        if (destination.remaining() < (long) width * height) {
+            throw new IllegalArgumentException("destination too small for " + width + "x" + height + " area");
+        }
+
+        compressOptions();
+        Buffer target = getBaseType().sliceBuffer(destination);
+        TileArea region = new TileArea().start(x, y).size(width, height);
+        ExecutorService threadPool = FitsFactory.threadPool();
+        List<Future<?>> results = new ArrayList<>();
+        for (TileCompressionOperation tileOperation : getTileOperations()) {
+            if (tileOperation.getArea().intersects(region)) {
+                TileDecompressor tile = (TileDecompressor) tileOperation;
+                results.add(threadPool.submit(() -> tile.decompressTo(target, region, flip)));
+            }
+        }
+        for (Future<?> result : results) {
+            try {
+                result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while decompressing tiles", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("could not process tile", e.getCause());
+            }
+        }
+    }
+
     public void forceNoLoss(int x, int y, int width, int heigth) {
         TileArea tileArea = new TileArea().start(x, y).end(x + width, y + heigth);
         for (TileCompressionOperation operation : getTileOperations()) {
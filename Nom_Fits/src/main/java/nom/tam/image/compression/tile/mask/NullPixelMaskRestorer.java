@@ -31,6 +31,7 @@ package nom.tam.image.compression.tile.mask;
  * #L%
  */
 
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.DoubleBuffer;
 import java.nio.FloatBuffer;
@@ -80,25 +81,44 @@ public class NullPixelMaskRestorer extends AbstractNullPixelMask {
             ByteBuffer decompressed = ByteBuffer.allocate(getTileBuffer().getPixelSize());
             getCompressorControl().decompress(getMask(), decompressed, getCompressorControl().option());
             setMask(decompressed);
-            if (getTileBuffer().getBaseType().is(ElementType.DOUBLE)) {
-                restoreNullDoubles();
-            } else if (getTileBuffer().getBaseType().is(ElementType.FLOAT)) {
-                restoreNullFloats();
-            } else if (getTileBuffer().getBaseType().is(ElementType.LONG)) {
-                restoreNullLongs();
-            } else if (getTileBuffer().getBaseType().is(ElementType.INT)) {
-                restoreNullInts();
-            } else if (getTileBuffer().getBaseType().is(ElementType.SHORT)) {
-                restoreNullShorts();
-            } else if (getTileBuffer().getBaseType().is(ElementType.BYTE)) {
-                restoreNullBytes();
-            }
+            restoreNulls(getTileBuffer().getBuffer(), decompressed);
+        }
+    }
+
+    /**
+     * Restores the original blanking values in a tile that was decompressed
+     * to a buffer of its own rather than to the tile buffer. Unlike
+     * {@link #restoreNulls()} the stored mask is left as it is, so the tile
+     * may be restored again.
+     * 
+     * @param buffer
+     *            the decompressed pixels of the tile, starting at index 0
+     */
+    public void restoreNulls(Buffer buffer) {
+        if (getMask() != null) {
+            ByteBuffer decompressed = ByteBuffer.allocate(getTileBuffer().getPixelSize());
+            getCompressorControl().decompress(getMask().duplicate(), decompressed, getCompressorControl().option());
+            restoreNulls(buffer, decompressed);
+        }
+    }
+
+    private void restoreNulls(Buffer buffer, ByteBuffer nullMask) {
+        if (getTileBuffer().getBaseType().is(ElementType.DOUBLE)) {
+            restoreNullDoubles((DoubleBuffer) buffer, nullMask);
+        } else if (getTileBuffer().getBaseType().is(ElementType.FLOAT)) {
+            restoreNullFloats((FloatBuffer) buffer, nullMask);
+        } else if (getTileBuffer().getBaseType().is(ElementType.LONG)) {
+            restoreNullLongs((LongBuffer) buffer, nullMask);
+        } else if (getTileBuffer().getBaseType().is(ElementType.INT)) {
+            restoreNullInts((IntBuffer) buffer, nullMask);
+        } else if (getTileBuffer().getBaseType().is(ElementType.SHORT)) {
+            restoreNullShorts((ShortBuffer) buffer, nullMask);
+        } else if (getTileBuffer().getBaseType().is(ElementType.BYTE)) {
+            restoreNullBytes((ByteBuffer) buffer, nullMask);
         }
     }
 
-    private void restoreNullBytes() {
-        ByteBuffer buffer = (ByteBuffer) getTileBuffer().getBuffer();
-        ByteBuffer nullMask = initializedMask(buffer.remaining());
+    private void restoreNullBytes(ByteBuffer buffer, ByteBuffer nullMask) {
         byte nullValue = (byte) getNullValue();
         for (int index = 0; index < nullMask.capacity(); index++) {
             if (nullMask.get(index) == NULL_INDICATOR) {
@@ -107,9 +127,7 @@ public class NullPixelMaskRestorer extends AbstractNullPixelMask {
         }
     }
 
-    private void restoreNullDoubles() {
-        DoubleBuffer buffer = (DoubleBuffer) getTileBuffer().getBuffer();
-        ByteBuffer nullMask = initializedMask(buffer.remaining());
+    private void restoreNullDoubles(DoubleBuffer buffer, ByteBuffer nullMask) {
         for (int index = 0; index < nullMask.capacity(); index++) {
             if (nullMask.get(index) == NULL_INDICATOR) {
                 buffer.put(index, Double.NaN);
@@ -117,9 +135,7 @@ public class NullPixelMaskRestorer extends AbstractNullPixelMask {
         }
     }
 
-    private void restoreNullFloats() {
-        FloatBuffer buffer = (FloatBuffer) getTileBuffer().getBuffer();
-        ByteBuffer nullMask = initializedMask(buffer.remaining());
+    private void restoreNullFloats(FloatBuffer buffer, ByteBuffer nullMask) {
         for (int index = 0; index < nullMask.capacity(); index++) {
             if (nullMask.get(index) == NULL_INDICATOR) {
                 buffer.put(index, Float.NaN);
@@ -127,9 +143,7 @@ public class NullPixelMaskRestorer extends AbstractNullPixelMask {
         }
     }
 
-    private void restoreNullInts() {
-        IntBuffer buffer = (IntBuffer) getTileBuffer().getBuffer();
-        ByteBuffer nullMask = initializedMask(buffer.remaining());
+    private void restoreNullInts(IntBuffer buffer, ByteBuffer nullMask) {
         int nullValue = (int) getNullValue();
         for (int index = 0; index < nullMask.capacity(); index++) {
             if (nullMask.get(index) == NULL_INDICATOR) {
@@ -138,9 +152,7 @@ public class NullPixelMaskRestorer extends AbstractNullPixelMask {
         }
     }
 
-    private void restoreNullLongs() {
-        LongBuffer buffer = (LongBuffer) getTileBuffer().getBuffer();
-        ByteBuffer nullMask = initializedMask(buffer.remaining());
+    private void restoreNullLongs(LongBuffer buffer, ByteBuffer nullMask) {
         long nullValue = getNullValue();
         for (int index = 0; index < nullMask.capacity(); index++) {
             if (nullMask.get(index) == NULL_INDICATOR) {
@@ -149,9 +161,7 @@ public class NullPixelMaskRestorer extends AbstractNullPixelMask {
         }
     }
 
-    private void restoreNullShorts() {
-        ShortBuffer buffer = (ShortBuffer) getTileBuffer().getBuffer();
-        ByteBuffer nullMask = initializedMask(buffer.remaining());
+    private void restoreNullShorts(ShortBuffer buffer, ByteBuffer nullMask) {
         short nullValue = (short) getNullValue();
         for (int index = 0; index < nullMask.capacity(); index++) {
             if (nullMask.get(index) == NULL_INDICATOR) {
@@ -73,6 +73,28 @@ public class TileArea {
         return startPoint == null ? 0 : startPoint.length;
     }
 
+    /**
+     * Returns the pixel index where this tile begins along one of the image dimensions.
+     *
+     * @param  axis the image dimension, 0 being the fastest varying one (NAXIS1).
+     *
+     * @return      the index of the first pixel of the tile along that dimension
+     */
+    public int getStart(int axis) {
+        return startPoint[axis];
+    }
+
+    /**
+     * Returns the pixel index where this tile ends along one of the image dimensions.
+     *
+     * @param  axis the image dimension, 0 being the fastest varying one (NAXIS1).
+     *
+     * @return      the index of the first pixel past the end of the tile along that dimension
+     */
+    public int getEnd(int axis) {
+        return endPoint[axis];
+    }
+
     /**
      * @param  other                    the tile to test intersection with
      *
@@ -0,0 +1,207 @@
+package nom.tam.image;
+
+/*-
+ * #%L
+ * nom.tam.fits
+ * %%
+ * Copyright (C) 1996 - 2024 nom-tam-fits
+ * %%
+ * This is free and unencumbered software released into the public domain.
+ * 
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ * 
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ * #L%
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+import nom.tam.fits.Fits;
+import nom.tam.fits.FitsException;
+import nom.tam.fits.FitsFactory;
+import nom.tam.fits.ImageData;
+import nom.tam.fits.ImageHDU;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings({"javadoc", "deprecation"})
+public class DirectImageReaderTest {
+    private static final int WIDTH = 37;
+    private static final int HEIGHT = 23;
+
+    @Test
+    public void testFloatFromEveryBitpix() throws Exception {
+        final Random random = new Random(7);
+        final byte[][] bytes = new byte[HEIGHT][WIDTH];
+        final short[][] shorts = new short[HEIGHT][WIDTH];
+        final int[][] ints = new int[HEIGHT][WIDTH];
+        final long[][] longs = new long[HEIGHT][WIDTH];
+        final float[][] floats = new float[HEIGHT][WIDTH];
+        final double[][] doubles = new double[HEIGHT][WIDTH];
+        for (int y = 0; y < HEIGHT; y++) {
+            random.nextBytes(bytes[y]);
+            for (int x = 0; x < WIDTH; x++) {
+                shorts[y][x] = (short) random.nextInt();
+                ints[y][x] = random.nextInt();
+                longs[y][x] = random.nextLong() >> 20;
+                floats[y][x] = (float) random.nextGaussian();
+                doubles[y][x] = random.nextGaussian();
+            }
+        }
+
+        for (Object kernel : new Object[] {bytes, shorts, ints, longs, floats, doubles}) {
+            assertDecodes(kernel, 0.0, 1.0, new float[WIDTH * HEIGHT], true, false);
+            assertDecodes(kernel, 0.0, 1.0, new float[WIDTH * HEIGHT], false, false);
+            assertDecodes(kernel, 32768.0, 1.5, new float[WIDTH * HEIGHT], true, false);
+            assertDecodes(kernel, 32768.0, 1.5, new float[WIDTH * HEIGHT], true, true);
+        }
+    }
+
+    @Test
+    public void testIntegerDestinations() throws Exception {
+        final Random random = new Random(11);
+        final byte[][] bytes = new byte[HEIGHT][WIDTH];
+        final short[][] shorts = new short[HEIGHT][WIDTH];
+        for (int y = 0; y < HEIGHT; y++) {
+            random.nextBytes(bytes[y]);
+            for (int x = 0; x < WIDTH; x++) {
+                shorts[y][x] = (short) random.nextInt();
+            }
+        }
+
+        assertDecodes(bytes, 0.0, 1.0, new byte[WIDTH * HEIGHT], true, false);
+        assertDecodes(bytes, 3.0, 2.0, new byte[WIDTH * HEIGHT], true, false);
+        assertDecodes(bytes, 3.0, 2.0, new byte[WIDTH * HEIGHT], true, true);
+        assertDecodes(shorts, 0.0, 1.0, new short[WIDTH * HEIGHT], true, false);
+        assertDecodes(shorts, 32768.0, 1.0, new short[WIDTH * HEIGHT], false, false);
+        assertDecodes(shorts, 32768.0, 1.0, new short[WIDTH * HEIGHT], false, true);
+
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> assertDecodes(shorts, 0.0, 1.0, new byte[WIDTH * HEIGHT], true, false));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> assertDecodes(shorts, 0.0, 1.0, new short[WIDTH], true, false));
+    }
+
+    @Test
+    public void testManyBands() throws Exception {
+        // 8 MB of doubles, several times the band buffer
+        final int width = 1000;
+        final int height = 1049;
+        final Random random = new Random(3);
+        final double[][] doubles = new double[height][width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                doubles[y][x] = random.nextDouble();
+            }
+        }
+
+        assertDecodes(doubles, 1.0, 2.0, new float[width * height], true, true);
+    }
+
+    @Test
+    public void testCanRead() throws Exception {
+        final File file = writeImage(new float[HEIGHT][WIDTH]);
+        try (Fits fits = new Fits(file)) {
+            fits.read();
+            final ImageHDU hdu = (ImageHDU) fits.getHDU(0);
+            Assertions.assertTrue(DirectImageReader.canRead(hdu));
+
+            hdu.getKernel();
+            Assertions.assertFalse(DirectImageReader.canRead(hdu));
+        } finally {
+            file.delete();
+        }
+
+        Assertions.assertEquals(0, DirectImageReader.bytesPerPixel(12));
+        Assertions.assertEquals(8, DirectImageReader.bytesPerPixel(-64));
+    }
+
+    @Test
+    public void testTruncatedFile() throws Exception {
+        final File file = writeImage(new float[HEIGHT][WIDTH]);
+        try (Fits fits = new Fits(file); FileChannel channel = FileChannel.open(file.toPath())) {
+            fits.read();
+            final ImageHDU hdu = (ImageHDU) fits.getHDU(0);
+            final long offset = channel.size() - (long) WIDTH * HEIGHT * 2;
+
+            Assertions.assertThrows(IOException.class, () -> DirectImageReader.read(channel, offset, -32, WIDTH,
+                    HEIGHT, 0, 1, false, true, new float[WIDTH * HEIGHT]));
+            Assertions.assertTrue(hdu.getData().isDeferred());
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void assertDecodes(Object kernel, double bzero, double bscale, Object dest, boolean flip,
+            boolean fma) throws Exception {
+        final File file = writeImage(kernel);
+        try (Fits fits = new Fits(file); FileChannel channel = FileChannel.open(file.toPath())) {
+            fits.read();
+            final ImageHDU hdu = (ImageHDU) fits.getHDU(0);
+            final int[] axes = hdu.getAxes();
+            final int height = axes[0];
+            final int width = axes[1];
+
+            DirectImageReader.read(channel, hdu.getData().getFileOffset(), hdu.getBitpix().getHeaderValue(), width,
+                    height, bzero, bscale, fma, flip, dest);
+
+            for (int y = 0; y < height; y++) {
+                final Object row = Array.get(kernel, y);
+                final int to = (flip ? height - 1 - y : y) * width;
+                for (int x = 0; x < width; x++) {
+                    Assertions.assertEquals(expected(Array.get(row, x), bzero, bscale, fma, dest),
+                            Array.get(dest, to + x), "pixel " + x + "," + y);
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static Object expected(Object raw, double bzero, double bscale, boolean fma, Object dest) {
+        final boolean unscaled = bzero == 0.0 && bscale == 1.0;
+        final double value = raw instanceof Byte ? Byte.toUnsignedInt((Byte) raw) : ((Number) raw).doubleValue();
+        final double scaled = fma ? Math.fma(bscale, value, bzero) : bzero + bscale * value;
+        if (dest instanceof byte[]) {
+            return unscaled ? (Byte) raw : (byte) scaled;
+        }
+        if (dest instanceof short[]) {
+            return unscaled ? (Short) raw : (short) scaled;
+        }
+        if (raw instanceof Float && unscaled) {
+            return raw;
+        }
+        return (float) scaled;
+    }
+
+    private static File writeImage(Object kernel) throws IOException, FitsException {
+        final File file = File.createTempFile(DirectImageReaderTest.class.getName(), ".fits");
+        final ImageData data = new ImageData(kernel);
+        try (Fits fits = new Fits()) {
+            fits.addHDU(FitsFactory.hduFactory(ImageHDU.manufactureHeader(data), data));
+            fits.write(file);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,216 @@
+package nom.tam.image.compression.tile;
+
+/*-
+ * #%L
+ * nom.tam.fits
+ * %%
+ * Copyright (C) 1996 - 2024 nom-tam-fits
+ * %%
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ * #L%
+ */
+
+import java.lang.reflect.Array;
+import java.util.Random;
+
+import nom.tam.fits.Fits;
+import nom.tam.fits.FitsFactory;
+import nom.tam.fits.ImageHDU;
+import nom.tam.fits.compression.algorithm.quant.QuantizeOption;
+import nom.tam.fits.header.Compression;
+import nom.tam.image.compression.hdu.CompressedImageHDU;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings({"javadoc", "deprecation"})
+public class TileRegionDecompressionTest {
+
+    private static final int NX = 75;
+
+    private static final int NY = 50;
+
+    private static CompressedImageHDU compress(Object im, String algorithm, String quant, String fileName,
+            int... tiles) throws Exception {
+        ImageHDU hdu = (ImageHDU) FitsFactory.hduFactory(im);
+        CompressedImageHDU cHDU = CompressedImageHDU.fromImageHDU(hdu, tiles);
+        cHDU.setCompressAlgorithm(algorithm).setQuantAlgorithm(quant);
+        cHDU.compress();
+
+        try (Fits f = new Fits()) {
+            f.addHDU(cHDU);
+            f.write(fileName);
+        }
+
+        try (Fits f = new Fits(fileName)) {
+            cHDU = (CompressedImageHDU) f.read()[1];
+            // Load the table while the file is open
+            cHDU.getData().getColumn(0);
+            return cHDU;
+        }
+    }
+
+    private static short[][] shortImage() {
+        Random random = new Random(42);
+        short[][] im = new short[NY][NX];
+        for (int y = 0; y < NY; y++) {
+            for (int x = 0; x < NX; x++) {
+                im[y][x] = (short) (1000 + 10 * x - 7 * y + random.nextInt(50));
+            }
+        }
+        return im;
+    }
+
+    private static float[][] floatImage() {
+        Random random = new Random(7);
+        float[][] im = new float[NY][NX];
+        for (int y = 0; y < NY; y++) {
+            for (int x = 0; x < NX; x++) {
+                im[y][x] = (float) (100.0 + Math.sin(0.1 * x) * y + random.nextGaussian());
+            }
+        }
+        return im;
+    }
+
+    /**
+     * The area of a kernel, flattened as {@link CompressedImageHDU#decompress(Object, int[], int[], boolean)} does.
+     */
+    private static Object expected(Object kernel, int x, int y, int width, int height, boolean flip) {
+        Object flat = Array.newInstance(kernel.getClass().getComponentType().getComponentType(), width * height);
+        for (int row = 0; row < height; row++) {
+            int to = (flip ? height - 1 - row : row) * width;
+            System.arraycopy(Array.get(kernel, y + row), x, flat, to, width);
+        }
+        return flat;
+    }
+
+    private static void assertArea(CompressedImageHDU cHDU, int x, int y, int width, int height, boolean flip)
+            throws Exception {
+        Object kernel = cHDU.asImageHDU().getKernel();
+        Object actual = Array.newInstance(kernel.getClass().getComponentType().getComponentType(), width * height);
+        cHDU.decompress(actual, new int[] {y, x}, new int[] {height, width}, flip);
+        Object expected = expected(kernel, x, y, width, height, flip);
+        if (actual instanceof short[]) {
+            Assertions.assertArrayEquals((short[]) expected, (short[]) actual);
+        } else if (actual instanceof int[]) {
+            Assertions.assertArrayEquals((int[]) expected, (int[]) actual);
+        } else {
+            Assertions.assertArrayEquals((float[]) expected, (float[]) actual);
+        }
+    }
+
+    @Test
+    public void riceRowTilesWholeImage() throws Exception {
+        CompressedImageHDU cHDU = compress(shortImage(), Compression.ZCMPTYPE_RICE_1, null,
+                "target/region_rice_rows.fits.fz", -1, 1);
+        assertArea(cHDU, 0, 0, NX, NY, false);
+        assertArea(cHDU, 0, 0, NX, NY, true);
+    }
+
+    @Test
+    public void riceRowTilesCutout() throws Exception {
+        CompressedImageHDU cHDU = compress(shortImage(), Compression.ZCMPTYPE_RICE_1, null,
+                "target/region_rice_rows.fits.fz", -1, 1);
+        assertArea(cHDU, 10, 5, 20, 13, false);
+        assertArea(cHDU, 10, 5, 20, 13, true);
+        assertArea(cHDU, 0, 20, NX, 7, true);
+    }
+
+    @Test
+    public void riceSquareTiles() throws Exception {
+        // Tiles of 16 do not divide the image evenly
+        CompressedImageHDU cHDU = compress(shortImage(), Compression.ZCMPTYPE_RICE_1, null,
+                "target/region_rice_square.fits.fz", 16, 16);
+        assertArea(cHDU, 0, 0, NX, NY, false);
+        assertArea(cHDU, 0, 0, NX, NY, true);
+        assertArea(cHDU, 15, 15, 2, 2, true);
+        assertArea(cHDU, 70, 40, 5, 10, false);
+    }
+
+    @Test
+    public void gzipMultiRowTiles() throws Exception {
+        CompressedImageHDU cHDU = compress(floatImage(), Compression.ZCMPTYPE_GZIP_1, null,
+                "target/region_gzip.fits.fz", -1, 8);
+        assertArea(cHDU, 0, 0, NX, NY, false);
+        assertArea(cHDU, 0, 0, NX, NY, true);
+        assertArea(cHDU, 0, 8, NX, 16, false);
+        assertArea(cHDU, 3, 9, 40, 30, true);
+    }
+
+    @Test
+    public void quantizedFloats() throws Exception {
+        CompressedImageHDU cHDU = compress(floatImage(), Compression.ZCMPTYPE_RICE_1,
+                Compression.ZQUANTIZ_SUBTRACTIVE_DITHER_1, "target/region_quant.fits.fz", -1, 1);
+        assertArea(cHDU, 0, 0, NX, NY, true);
+        assertArea(cHDU, 5, 5, 30, 30, false);
+    }
+
+    @Test
+    public void nullPixelMask() throws Exception {
+        float[][] im = floatImage();
+        for (int y = 3; y < NY; y += 7) {
+            im[y][(5 * y) % NX] = Float.NaN;
+        }
+        ImageHDU hdu = (ImageHDU) FitsFactory.hduFactory(im);
+        CompressedImageHDU cHDU = CompressedImageHDU.fromImageHDU(hdu, 16, 16);
+        cHDU.setCompressAlgorithm(Compression.ZCMPTYPE_RICE_1)
+                .setQuantAlgorithm(Compression.ZQUANTIZ_SUBTRACTIVE_DITHER_1)
+                .preserveNulls(Compression.ZCMPTYPE_RICE_1)
+                .getCompressOption(QuantizeOption.class).setCheckNull(true);
+        cHDU.compress();
+
+        String fileName = "target/region_nulls.fits.fz";
+        try (Fits f = new Fits()) {
+            f.addHDU(cHDU);
+            f.write(fileName);
+        }
+        try (Fits f = new Fits(fileName)) {
+            cHDU = (CompressedImageHDU) f.read()[1];
+            assertArea(cHDU, 0, 0, NX, NY, true);
+            assertArea(cHDU, 10, 10, 40, 30, false);
+        }
+    }
+
+    @Test
+    public void emptyArea() throws Exception {
+        CompressedImageHDU cHDU = compress(shortImage(), Compression.ZCMPTYPE_RICE_1, null,
+                "target/region_rice_rows.fits.fz", -1, 1);
+        cHDU.decompress(new short[0], new int[] {3, 3}, new int[] {0, 0}, true);
+    }
+
+    @Test
+    public void invalidAreas() throws Exception {
+        CompressedImageHDU cHDU = compress(shortImage(), Compression.ZCMPTYPE_RICE_1, null,
+                "target/region_rice_rows.fits.fz", -1, 1);
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> cHDU.decompress(new short[NX * NY], new int[] {1, 0}, new int[] {NY, NX}, false));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> cHDU.decompress(new short[NX * NY], new int[] {0, -1}, new int[] {NY, NX}, false));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> cHDU.decompress(new float[NX * NY], new int[] {0, 0}, new int[] {NY, NX}, false));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> cHDU.decompress(new short[NX], new int[] {0, 0}, new int[] {NY, NX}, false));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> cHDU.decompress(new short[NX * NY], new int[] {0}, new int[] {NX}, false));
+    }
+}
@@ -0,0 +1,189 @@
+package nom.tam.manual.intergration;
+
+/*
+ * #%L
+ * nom.tam FITS library
+ * %%
+ * Copyright (C) 1996 - 2024 nom-tam-fits
+ * %%
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ * #L%
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.runner.RunnerException;
+
+import nom.tam.fits.Fits;
+import nom.tam.fits.FitsException;
+import nom.tam.fits.FitsFactory;
+import nom.tam.fits.ImageData;
+import nom.tam.fits.ImageHDU;
+import nom.tam.fits.header.Standard;
+import nom.tam.image.DirectImageReader;
+
+/**
+ * Bytes of image data per second decoded into a flipped, scaled 1D pixel array, as AstroImageJ builds for its image
+ * processors.
+ * <p>
+ * {@link #kernel} is the current path: load the HDU's jagged kernel, then copy it row by row into the flat array
+ * while flipping and scaling. {@link #direct} reads the data segment straight into the flat array with
+ * {@link DirectImageReader}. Both open the file and parse the header on every invocation, as opening an image does.
+ * The bytes counter is the size of the data segment read, so the two rows of the report compare directly.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+@BenchmarkMode(Mode.Throughput)
+@SuppressWarnings("javadoc")
+public class DirectImageReaderBenchmark {
+
+    /** Frame size, widthxheight, the large one is a full frame of a common 61 MP CMOS camera. */
+    @Param({"2048x2048", "9576x6388"})
+    public String size;
+
+    /** -32 for calibrated frames, 16 for raw ones with the unsigned BZERO. */
+    @Param({"-32", "16"})
+    public int bitpix;
+
+    private File file;
+    private int width;
+    private int height;
+    private double bzero;
+    private double bscale;
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        Main.main(args);
+    }
+
+    @AuxCounters(AuxCounters.Type.THROUGHPUT)
+    @State(Scope.Thread)
+    public static class Bytes {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void clean() {
+            bytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, FitsException {
+        final String[] dims = size.split("x");
+        width = Integer.parseInt(dims[0]);
+        height = Integer.parseInt(dims[1]);
+
+        final Random random = new Random(42);
+        final Object kernel;
+        if (bitpix == 16) {
+            final short[][] shorts = new short[height][width];
+            for (short[] row : shorts) {
+                for (int x = 0; x < width; x++) {
+                    row[x] = (short) (random.nextInt(4000) - Short.MIN_VALUE);
+                }
+            }
+            kernel = shorts;
+            bzero = -Short.MIN_VALUE;
+            bscale = 1.0;
+        } else {
+            final float[][] floats = new float[height][width];
+            for (float[] row : floats) {
+                for (int x = 0; x < width; x++) {
+                    row[x] = 1000 + 30 * (float) random.nextGaussian();
+                }
+            }
+            kernel = floats;
+            bzero = 0.0;
+            bscale = 1.0;
+        }
+
+        file = File.createTempFile(DirectImageReaderBenchmark.class.getSimpleName(), ".fits");
+        file.deleteOnExit();
+        final ImageData data = new ImageData(kernel);
+        try (Fits fits = new Fits()) {
+            final ImageHDU hdu = (ImageHDU) FitsFactory.hduFactory(ImageHDU.manufactureHeader(data), data);
+            hdu.addValue(Standard.BZERO, bzero);
+            hdu.addValue(Standard.BSCALE, bscale);
+            fits.addHDU(hdu);
+            fits.write(file);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public Object kernel(Bytes counter) throws IOException, FitsException {
+        try (Fits fits = new Fits(file)) {
+            final ImageHDU hdu = (ImageHDU) fits.readHDU();
+            final Object kernel = hdu.getKernel();
+            counter.bytes += hdu.getData().getSize();
+            if (kernel instanceof short[][]) {
+                final short[][] values = (short[][]) kernel;
+                final short[] pixels = new short[width * height];
+                for (int y = 0; y < height; y++) {
+                    final short[] xValues = values[height - 1 - y];
+                    for (int x = 0; x < width; x++) {
+                        pixels[y * width + x] = (short) Math.fma(bscale, xValues[x], bzero);
+                    }
+                }
+                return pixels;
+            }
+            final float[][] values = (float[][]) kernel;
+            final float[] pixels = new float[width * height];
+            for (int y = 0; y < height; y++) {
+                System.arraycopy(values[height - 1 - y], 0, pixels, y * width, width);
+            }
+            return pixels;
+        }
+    }
+
+    @Benchmark
+    public Object direct(Bytes counter) throws IOException, FitsException {
+        try (Fits fits = new Fits(file); FileChannel channel = FileChannel.open(file.toPath())) {
+            final ImageHDU hdu = (ImageHDU) fits.readHDU();
+            counter.bytes += hdu.getData().getSize();
+            final Object pixels = bitpix == 16 ? new short[width * height] : new float[width * height];
+            DirectImageReader.read(channel, hdu.getData().getFileOffset(), bitpix, width, height, bzero, bscale,
+                    true, pixels);
+            return pixels;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 plugins {
     id("aij.java-library-conventions")
     id("com.gradleup.shadow") version "8.3.3"
+    `jvm-test-suite`
 }
 
 dependencies {
@@ -20,6 +21,14 @@ dependencies {
     api("org.jocl:jocl:2.0.5")
 }
 
+testing {
+    suites {
+        getByName<JvmTestSuite>("test") {
+            useJUnitJupiter()
+        }
+    }
+}
+
 artifacts {
     add("shippingJar", tasks.shadowJar)
 }
@@ -7,6 +7,7 @@ import java.io.File;
 import java.util.Properties;
 
 import ij.astro.AstroImageJ;
+import ij.astro.util.SlicePrefetcher;
 import ij.io.Opener;
 import ij.plugin.FolderOpener;
 import ij.process.ByteProcessor;
@@ -28,6 +29,8 @@ public class VirtualStack extends ImageStack {
 	private int delay;
 	private Properties properties;
 	private boolean generateData;
+	@AstroImageJ(reason = "Read ahead for sequential processing of virtual stacks")
+	private volatile SlicePrefetcher<ImageProcessor> prefetcher;
 	private int[] indexes;  		// used to translate non-CZT hyperstack slice numbers (0-based)
 	/** subclasses that support translation of slice indices (by calling translate) should set this to true */
 	protected boolean canTranslate;
@@ -268,6 +271,15 @@ public class VirtualStack extends ImageStack {
 			return ip;
 		}
 		n = translate(n);  // update n for hyperstacks not in the default CZT order
+		SlicePrefetcher<ImageProcessor> prefetcher = this.prefetcher;
+		if (prefetcher!=null)
+			return prefetcher.take(n);
+		return readProcessor(n);
+	 }
+
+	/** Reads slice n from disk, n has already been translated. */
+	@AstroImageJ(reason = "Split from getProcessor so slices can be read ahead")
+	private ImageProcessor readProcessor(int n) {
 		Opener opener = new Opener();
 		opener.setSilentMode(true);
 		IJ.redirectErrorMessages(true);
@@ -320,8 +332,34 @@ public class VirtualStack extends ImageStack {
 		return ip;
 	 }
 
+	/** Reads slices first..last ahead of {@link #getProcessor} on background threads, until
+	 * {@link #stopPrefetching()} is called. Does nothing for stacks not backed by files
+	 * or if prefetching is disabled.
+	*/
+	@AstroImageJ(reason = "Read ahead for sequential processing of virtual stacks")
+	public void startPrefetching(int first, int last) {
+		stopPrefetching();
+		if (path==null || getClass()!=VirtualStack.class || indexes!=null || !SlicePrefetcher.ENABLED.get())
+			return;
+		// RGB is held as one int per pixel
+		long sliceBytes = (long)getWidth()*getHeight()*(bitDepth==24 ? 4 : Math.max(1, bitDepth/8));
+		prefetcher = new SlicePrefetcher<>(this::readProcessor, first, last, _ -> sliceBytes);
+	}
+
+	/** Stops reading ahead, returning the statistics of the run or null if no prefetching was active. */
+	@AstroImageJ(reason = "Read ahead for sequential processing of virtual stacks")
+	public SlicePrefetcher.Stats stopPrefetching() {
+		SlicePrefetcher<ImageProcessor> prefetcher = this.prefetcher;
+		if (prefetcher==null)
+			return null;
+		this.prefetcher = null;
+		prefetcher.close();
+		return prefetcher.stats();
+	}
+
 	 /** Draw label for Help>Examples>JavaScript>Terabyte VirtualStack */	 
-	 private void label(ImageProcessor ip, String msg, Color color) {
+	@AstroImageJ(reason = "Widen access", modified = true)
+	protected void label(ImageProcessor ip, String msg, Color color) {
 		int size = getHeight()/20;
 		if (size<9) size=9;
 		Font font = new Font("Helvetica", Font.PLAIN, size);
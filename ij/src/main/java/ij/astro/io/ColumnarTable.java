@@ -0,0 +1,539 @@
+package ij.astro.io;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import ij.astro.io.prefs.Property;
+import ij.astro.util.FileAssociationHandler;
+import ij.measure.ResultsTable;
+
+/**
+ * A binary, column oriented file format for measurement tables.
+ * <p>
+ * Rows are stored in blocks, and within a block each column is one contiguous run of little-endian doubles (or of
+ * length prefixed UTF-8 strings for text columns). A block index at the end of the file gives the position of every
+ * column run, so a single column can be read without touching the others. Appending rows writes a new block and index
+ * after the old index and only then points the header at the new index, so an append that fails part way leaves the
+ * table as it was. Runs are read with positional reads rather than mapped, as a mapped file cannot be replaced or
+ * deleted on Windows until the mapping is collected. When {@link #COMPRESS} is set each run is deflated on its own.
+ * When the table has row labels they are stored as the first column, which a flag in the header marks, so that an
+ * ordinary first column named {@code Label} stays a column.
+ * <pre>
+ * magic "AIJCTBL\n", version, flags, row count, index position   fixed, 32 bytes
+ * metadata (key, value)*, columns (heading, is text)*
+ * block*                                                          column runs
+ * index: block count, (rows, (position, stored length, length)*)*
+ * </pre>
+ * The header and index are big-endian, as written by {@link DataOutputStream}.
+ */
+public final class ColumnarTable {
+    public static final String EXTENSION = ".ctbl";
+    public static final FileAssociationHandler.FileType FILE_TYPE = new FileAssociationHandler.FileType(EXTENSION,
+            new int[]{'A', 'I', 'J', 'C', 'T', 'B', 'L', '\n'}, false);
+    /**
+     * Whether the column runs of newly written tables are deflated.
+     */
+    public static final Property<Boolean> COMPRESS = new Property<>(false, ColumnarTable.class);
+
+    private static final byte[] MAGIC = "AIJCTBL\n".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final int FLAG_DEFLATE = 1;
+    private static final int FLAG_ROW_LABELS = 2;
+    private static final long ROW_COUNT_POSITION = 16;
+    private static final int BLOCK_ROWS = 65536;
+    private static final String LABEL = "Label";
+
+    private ColumnarTable() {
+    }
+
+    /**
+     * Whether the file starts with the columnar table magic number.
+     */
+    public static boolean isColumnarFile(Path path) {
+        if (!Files.isRegularFile(path)) {
+            return false;
+        }
+        try (var in = Files.newInputStream(path)) {
+            return Arrays.equals(in.readNBytes(MAGIC.length), MAGIC);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes the whole table, replacing the file.
+     */
+    public static void write(ResultsTable table, Path path) throws IOException {
+        var columns = columnsOf(table);
+        var flags = (COMPRESS.get() ? FLAG_DEFLATE : 0) | (table.hasRowLabels() ? FLAG_ROW_LABELS : 0);
+        var header = encodeHeader(flags, columns, table.metadata);
+        try (var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, ByteBuffer.wrap(header), 0);
+            var blocks = new ArrayList<Block>();
+            var position = (long) header.length;
+            for (int from = 0; from < table.size(); from += BLOCK_ROWS) {
+                position = writeBlock(channel, position, table, columns, flags, from,
+                        Math.min(table.size(), from + BLOCK_ROWS), blocks);
+            }
+            finish(channel, position, table.size(), blocks);
+        }
+    }
+
+    /**
+     * Appends rows fromRow..size-1 of the table to the file. The whole table is written instead when the file does
+     * not exist yet, or does not hold exactly the first fromRow rows with the same columns.
+     * Metadata is only written with the whole table.
+     * <p>
+     * Each append leaves the old index behind, so once the unused space is larger than the table the file is
+     * rewritten to a temporary file that then replaces it.
+     */
+    public static void append(ResultsTable table, Path path, int fromRow) throws IOException {
+        if (!isColumnarFile(path)) {
+            write(table, path);
+            return;
+        }
+
+        var columns = columnsOf(table);
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var layout = readLayout(channel, path);
+            if (layout.columns().equals(columns) && layout.rowLabels() == table.hasRowLabels() &&
+                    layout.rowCount() == fromRow) {
+                if (fromRow >= table.size()) {
+                    return;
+                }
+                var used = encodeHeader(layout.flags(), layout.columns(), layout.metadata()).length +
+                        layout.storedBytes() + layout.indexBytes();
+                if (channel.size() - used <= used) {
+                    // The old index stays in place until the header points at the new one
+                    var blocks = new ArrayList<>(layout.blocks());
+                    var end = writeBlock(channel, channel.size(), table, columns, layout.flags(), fromRow,
+                            table.size(), blocks);
+                    finish(channel, end, table.size(), blocks);
+                    return;
+                }
+            }
+        }
+
+        var temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        write(table, temporary);
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * The column headings of the file, without reading any rows.
+     */
+    public static List<String> headings(Path path) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return readLayout(channel, path).columns().stream().map(Column::name).toList();
+        }
+    }
+
+    /**
+     * Reads the file into an empty table.
+     *
+     * @param wanted which columns to read, by heading. The row labels, if the file has them, are the {@code Label}
+     *               column.
+     */
+    public static void read(ResultsTable table, Path path, Predicate<String> wanted) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var layout = readLayout(channel, path);
+            var rows = Math.toIntExact(layout.rowCount());
+            table.metadata.putAll(layout.metadata());
+
+            String[] labels = null;
+            for (int c = 0; c < layout.columns().size(); c++) {
+                var column = layout.columns().get(c);
+                if (!wanted.test(column.name())) {
+                    continue;
+                }
+                if (rows == 0) {
+                    table.getFreeColumn(column.name());
+                    continue;
+                }
+
+                if (column.text()) {
+                    var values = new String[rows];
+                    var row = 0;
+                    for (Block block : layout.blocks()) {
+                        var data = segment(channel, layout, block, c);
+                        for (int i = 0; i < block.rows(); i++) {
+                            var length = data.getInt();
+                            if (length < -1 || length > data.remaining()) {
+                                throw new IOException("Columnar table is corrupt: " + path);
+                            }
+                            if (length >= 0) {
+                                var bytes = new byte[length];
+                                data.get(bytes);
+                                values[row + i] = new String(bytes, StandardCharsets.UTF_8);
+                            }
+                        }
+                        row += block.rows();
+                    }
+                    if (c == 0 && layout.rowLabels()) {
+                        labels = values;
+                    } else {
+                        table.bulkSetColumnAsStrings(column.name(), values);
+                    }
+                } else {
+                    var values = new double[rows];
+                    var row = 0;
+                    for (Block block : layout.blocks()) {
+                        segment(channel, layout, block, c).asDoubleBuffer().get(values, row, block.rows());
+                        row += block.rows();
+                    }
+                    table.bulkSetColumnAsDoubles(column.name(), values);
+                }
+            }
+
+            // Labels are set last so that the rows exist
+            if (labels != null) {
+                while (table.size() < rows) {
+                    table.incrementCounter();
+                }
+                for (int i = 0; i < rows; i++) {
+                    table.setLabel(labels[i], i);
+                }
+            }
+        }
+    }
+
+    /**
+     * The stored columns of the table, the row labels first.
+     */
+    private static List<Column> columnsOf(ResultsTable table) {
+        var columns = new ArrayList<Column>();
+        if (table.hasRowLabels()) {
+            columns.add(new Column(LABEL, true));
+        }
+        for (int c = 0; c <= table.getLastColumn(); c++) {
+            var heading = table.getColumnHeading(c);
+            if (heading == null || !table.columnExists(c) || (LABEL.equals(heading) && table.hasRowLabels())) {
+                continue;
+            }
+            columns.add(new Column(heading, table.isStringColumn(c)));
+        }
+        return columns;
+    }
+
+    /**
+     * Writes rows from..to-1 as a block at position, adding it to blocks.
+     *
+     * @return the position after the block
+     */
+    private static long writeBlock(FileChannel channel, long position, ResultsTable table, List<Column> columns,
+                                   int flags, int from, int to, List<Block> blocks) throws IOException {
+        var rows = to - from;
+        var positions = new long[columns.size()];
+        var stored = new int[columns.size()];
+        var lengths = new int[columns.size()];
+        for (int c = 0; c < columns.size(); c++) {
+            var column = columns.get(c);
+            var index = table.getColumnIndex(column.name());
+            ByteBuffer data;
+            if (column.text()) {
+                var strings = new byte[rows][];
+                var size = 4 * rows;
+                for (int i = 0; i < rows; i++) {
+                    var s = c == 0 && (flags & FLAG_ROW_LABELS) != 0 ?
+                            table.getLabel(from + i) : table.getStringValue(index, from + i);
+                    if (s != null) {
+                        strings[i] = s.getBytes(StandardCharsets.UTF_8);
+                        size += strings[i].length;
+                    }
+                }
+                data = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+                for (byte[] s : strings) {
+                    data.putInt(s == null ? -1 : s.length);
+                    if (s != null) {
+                        data.put(s);
+                    }
+                }
+            } else {
+                data = ByteBuffer.allocate(8 * rows).order(ByteOrder.LITTLE_ENDIAN);
+                for (int i = 0; i < rows; i++) {
+                    data.putDouble(table.getValueAsDouble(index, from + i));
+                }
+            }
+            data.flip();
+
+            lengths[c] = data.remaining();
+            if ((flags & FLAG_DEFLATE) != 0) {
+                data = deflate(data);
+            }
+            positions[c] = position;
+            stored[c] = data.remaining();
+            position += writeFully(channel, data, position);
+        }
+        blocks.add(new Block(rows, positions, stored, lengths));
+        return position;
+    }
+
+    /**
+     * Writes the index at position and then points the header at it, once the blocks and index are on disk.
+     */
+    private static void finish(FileChannel channel, long position, long rowCount, List<Block> blocks)
+            throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+        out.writeInt(blocks.size());
+        for (Block block : blocks) {
+            out.writeInt(block.rows());
+            for (int c = 0; c < block.positions().length; c++) {
+                out.writeLong(block.positions()[c]);
+                out.writeInt(block.stored()[c]);
+                out.writeInt(block.lengths()[c]);
+            }
+        }
+        out.flush();
+        var end = position + writeFully(channel, ByteBuffer.wrap(bytes.toByteArray()), position);
+        channel.truncate(end);
+        channel.force(false);
+
+        var pointers = ByteBuffer.allocate(16);
+        pointers.putLong(rowCount).putLong(position).flip();
+        writeFully(channel, pointers, ROW_COUNT_POSITION);
+        channel.force(false);
+    }
+
+    private static byte[] encodeHeader(int flags, List<Column> columns, Map<String, String> metadata)
+            throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+        out.write(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(flags);
+        out.writeLong(0);
+        out.writeLong(0);
+        out.writeInt(metadata.size());
+        for (Map.Entry<String, String> e : metadata.entrySet()) {
+            out.writeUTF(e.getKey());
+            out.writeUTF(e.getValue() == null ? "" : e.getValue());
+        }
+        out.writeInt(columns.size());
+        for (Column column : columns) {
+            out.writeUTF(column.name());
+            out.writeBoolean(column.text());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static Layout readLayout(FileChannel channel, Path path) throws IOException {
+        var in = new DataInputStream(new BufferedInputStream(stream(channel, 0)));
+        if (!Arrays.equals(in.readNBytes(MAGIC.length), MAGIC)) {
+            throw new IOException("Not a columnar table: " + path);
+        }
+        var version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported columnar table version " + version + ": " + path);
+        }
+        var flags = in.readInt();
+        var rowCount = in.readLong();
+        var indexPosition = in.readLong();
+        var metadata = new LinkedHashMap<String, String>();
+        for (int i = in.readInt(); i > 0; i--) {
+            metadata.put(in.readUTF(), in.readUTF());
+        }
+        var columns = new ArrayList<Column>();
+        for (int i = in.readInt(); i > 0; i--) {
+            columns.add(new Column(in.readUTF(), in.readBoolean()));
+        }
+        if (indexPosition <= 0 || indexPosition >= channel.size()) {
+            throw new IOException("Columnar table is truncated: " + path);
+        }
+
+        in = new DataInputStream(new BufferedInputStream(stream(channel, indexPosition)));
+        var blocks = new ArrayList<Block>();
+        var totalRows = 0L;
+        for (int i = in.readInt(); i > 0; i--) {
+            var rows = in.readInt();
+            if (rows < 0) {
+                throw new IOException("Columnar table is corrupt: " + path);
+            }
+            var positions = new long[columns.size()];
+            var stored = new int[columns.size()];
+            var lengths = new int[columns.size()];
+            for (int c = 0; c < columns.size(); c++) {
+                positions[c] = in.readLong();
+                stored[c] = in.readInt();
+                lengths[c] = in.readInt();
+                // Every run is written before the index that points at it
+                if (positions[c] < 0 || stored[c] < 0 || positions[c] + stored[c] > indexPosition ||
+                        ((flags & FLAG_DEFLATE) == 0 && stored[c] != lengths[c]) ||
+                        (columns.get(c).text() ? lengths[c] < 4L * rows : lengths[c] != 8L * rows)) {
+                    throw new IOException("Columnar table is corrupt: " + path);
+                }
+            }
+            blocks.add(new Block(rows, positions, stored, lengths));
+            totalRows += rows;
+        }
+        if (totalRows != rowCount) {
+            throw new IOException("Columnar table is corrupt: " + path);
+        }
+
+        return new Layout(flags, rowCount, indexPosition, metadata, columns, blocks);
+    }
+
+    /**
+     * The decoded run of one column in a block.
+     */
+    private static ByteBuffer segment(FileChannel channel, Layout layout, Block block, int column)
+            throws IOException {
+        var position = block.positions()[column];
+        var data = ByteBuffer.allocate(block.stored()[column]);
+        while (data.hasRemaining()) {
+            if (channel.read(data, position + data.position()) < 0) {
+                throw new IOException("Columnar table is truncated");
+            }
+        }
+        data.flip();
+        if (layout.deflated()) {
+            data = inflate(data, block.lengths()[column]);
+        }
+        return data.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static ByteBuffer deflate(ByteBuffer data) {
+        var deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            var out = new ByteArrayOutputStream(data.remaining() / 2 + 64);
+            var buffer = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return ByteBuffer.wrap(out.toByteArray());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static ByteBuffer inflate(ByteBuffer data, int length) throws IOException {
+        var inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            var out = ByteBuffer.allocate(length);
+            while (out.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(out) == 0 && inflater.needsInput()) {
+                    throw new IOException("Columnar table is truncated");
+                }
+            }
+            return out.flip();
+        } catch (DataFormatException e) {
+            throw new IOException("Columnar table is corrupt", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static InputStream stream(FileChannel channel, long position) throws IOException {
+        // Not closed, that would close the channel
+        return Channels.newInputStream(channel.position(position));
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer data, long position) throws IOException {
+        var length = data.remaining();
+        while (data.hasRemaining()) {
+            channel.write(data, position + length - data.remaining());
+        }
+        return length;
+    }
+
+    /**
+     * Appends the rows of a growing table to a file in batches, e.g. as photometry runs.
+     */
+    public static class Appender {
+        private final Path path;
+        private final int batch;
+        private int written;
+
+        /**
+         * @param batch how many new rows to wait for before appending them
+         */
+        public Appender(Path path, int batch) {
+            this.path = path;
+            this.batch = Math.max(1, batch);
+        }
+
+        /**
+         * Appends the rows added since the last append, once there are at least a batch of them.
+         */
+        public void accept(ResultsTable table) throws IOException {
+            if (table.size() - written >= batch) {
+                flush(table);
+            }
+        }
+
+        /**
+         * Appends the rows added since the last append. The first append writes the whole table.
+         */
+        public void flush(ResultsTable table) throws IOException {
+            var size = table.size();
+            append(table, path, written);
+            written = size;
+        }
+    }
+
+    private record Column(String name, boolean text) {
+    }
+
+    /**
+     * @param positions where the run of each column starts
+     * @param stored    the size of each run in the file
+     * @param lengths   the size of each run once inflated
+     */
+    private record Block(int rows, long[] positions, int[] stored, int[] lengths) {
+    }
+
+    private record Layout(int flags, long rowCount, long indexPosition, Map<String, String> metadata,
+                          List<Column> columns, List<Block> blocks) {
+        boolean deflated() {
+            return (flags & FLAG_DEFLATE) != 0;
+        }
+
+        /**
+         * Whether the first column holds the row labels.
+         */
+        boolean rowLabels() {
+            return (flags & FLAG_ROW_LABELS) != 0;
+        }
+
+        long storedBytes() {
+            var bytes = 0L;
+            for (Block block : blocks) {
+                for (int stored : block.stored()) {
+                    bytes += stored;
+                }
+            }
+            return bytes;
+        }
+
+        long indexBytes() {
+            return 4 + blocks.size() * (4 + 16L * columns.size());
+        }
+    }
+}
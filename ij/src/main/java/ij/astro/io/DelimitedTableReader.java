@@ -0,0 +1,473 @@
+package ij.astro.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import ch.randelshofer.fastdoubleparser.JavaDoubleParser;
+import ij.astro.io.prefs.Property;
+import ij.measure.ResultsTable;
+import ij.util.Tools;
+
+/**
+ * Reads tab or comma delimited text tables for {@link ResultsTable#open(String)}.
+ * <p>
+ * The file is read over a {@link FileChannel} in line aligned segments of about {@link #SEGMENT_BYTES}, which are
+ * parsed in parallel. Each cell is parsed from the bytes straight into a {@code double[]} per column, and a string is
+ * only made for cells that are not numbers. The segments are then joined a column at a time, so neither the text of
+ * the file nor a string per line or cell is ever held.
+ * <p>
+ * The headings, row labels and mixed text and number columns are handled as by the text reader it replaces.
+ */
+public final class DelimitedTableReader {
+    public static final Property<Boolean> ENABLED = new Property<>(true, DelimitedTableReader.class);
+    private static final int SEGMENT_BYTES = 4 * 1024 * 1024;
+    private static final int PROBE_BYTES = 64 * 1024;
+    /**
+     * The text reader leaves this in place of the quoted commas in CSV headings and labels.
+     */
+    private static final char COMMA_SUBSTITUTE = 0x08B3;
+
+    private DelimitedTableReader() {
+    }
+
+    /**
+     * Whether {@code path} is a local regular file this reader can open. Anything else, such as a URL, is left to the
+     * text reader.
+     */
+    public static boolean canRead(String path) {
+        try {
+            return Files.isRegularFile(Path.of(path));
+        } catch (InvalidPathException e) {
+            return false;
+        }
+    }
+
+    public static ResultsTable read(String path) throws IOException {
+        var file = Path.of(path);
+        if (!Files.isRegularFile(file)) {
+            throw new IOException("Error opening " + path);
+        }
+
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            var size = channel.size();
+            if (size == 0) {
+                return new ResultsTable();
+            }
+
+            var csv = path.endsWith(".csv") || path.endsWith(".CSV");
+            var first = readLine(channel, 0);
+            if (first.text().isEmpty()) {
+                throw new IOException("Table is empty or invalid");
+            }
+            var second = first.next() < size ? readLine(channel, first.next()) : null;
+
+            var headings = split(first.text(), csv);
+            if (headings[0].startsWith("\uFEFF")) {
+                headings[0] = headings[0].substring(1);
+            }
+            int numbersInHeadings = 0;
+            for (String heading : headings) {
+                if (heading.equals("NaN") || !Double.isNaN(Tools.parseDouble(heading))) {
+                    numbersInHeadings++;
+                }
+            }
+            var allNumericHeadings = numbersInHeadings == headings.length;
+            if (allNumericHeadings) {
+                for (int i = 0; i < headings.length; i++) {
+                    headings[i] = "C" + (i + 1);
+                }
+            }
+            var firstColumn = headings[0].equals(" ") ? 1 : 0;
+            for (int i = 0; i < headings.length; i++) {
+                headings[i] = substituteCommas(unquote(headings[i].trim(), csv), csv);
+            }
+            var labels = firstColumn == 1 && headings.length > 1 && headings[1].equals("Label");
+            var labelsIndex = second != null && tableType(split(second.text(), csv)) == 2 ? 0 : 1;
+            if (first.text().startsWith("\t")) {
+                var shifted = new String[headings.length + 1];
+                shifted[0] = " ";
+                System.arraycopy(headings, 0, shifted, 1, headings.length);
+                headings = shifted;
+                firstColumn = 1;
+            }
+
+            // Labels in a cell before the first column are not read, as before
+            var layout = new Layout(headings, firstColumn, labels && labelsIndex >= firstColumn ? labelsIndex : -1,
+                    csv ? (byte) ',' : (byte) '\t', csv);
+            var bounds = segmentBounds(channel, allNumericHeadings ? 0 : first.next(), size);
+            List<Segment> segments;
+            try {
+                segments = IntStream.range(0, bounds.size() - 1).parallel()
+                        .mapToObj(i -> parse(channel, bounds.get(i), bounds.get(i + 1), layout))
+                        .toList();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            return join(path, layout, segments);
+        }
+    }
+
+    private static ResultsTable join(String path, Layout layout, List<Segment> segments) {
+        var rt = new ResultsTable();
+        var headings = layout.headings();
+        var rows = segments.stream().mapToInt(Segment::rows).sum();
+        if (rows == 0) {
+            for (String heading : headings) {
+                if (rt.getColumnIndex(heading) == ResultsTable.COLUMN_NOT_FOUND) {
+                    rt.getFreeColumn(heading);
+                }
+            }
+            return rt;
+        }
+
+        rt.showRowNumbers(path.contains("Results"));
+        for (int j = layout.firstColumn(); j < headings.length; j++) {
+            if (j == layout.labelsIndex()) {
+                continue;
+            }
+
+            var column = new double[rows];
+            var offset = 0;
+            for (Segment segment : segments) {
+                System.arraycopy(segment.values[j], 0, column, offset, segment.rows);
+                segment.values[j] = null;
+                offset += segment.rows;
+            }
+            rt.bulkSetColumnAsDoubles(headings[j], column);
+
+            var index = rt.getColumnIndex(headings[j]);
+            offset = 0;
+            for (Segment segment : segments) {
+                var strings = segment.strings[j];
+                if (strings != null) {
+                    for (int row = 0; row < segment.rows; row++) {
+                        if (strings[row] != null) {
+                            rt.setValue(index, offset + row, strings[row]);
+                        }
+                    }
+                }
+                offset += segment.rows;
+            }
+        }
+
+        if (layout.labelsIndex() >= 0) {
+            while (rt.size() < rows) {
+                rt.incrementCounter();
+            }
+            var row = 0;
+            for (Segment segment : segments) {
+                for (int i = 0; i < segment.rows; i++, row++) {
+                    if (row == rows - 1) {
+                        // Also sets the heading of the labels
+                        rt.addLabel(headings[layout.labelsIndex()], segment.labels[i]);
+                    } else {
+                        rt.setLabel(segment.labels[i], row);
+                    }
+                }
+            }
+        }
+
+        return rt;
+    }
+
+    private static Segment parse(FileChannel channel, long start, long end, Layout layout) {
+        var bytes = new byte[Math.toIntExact(end - start)];
+        try {
+            readFully(channel, ByteBuffer.wrap(bytes), start);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        var lines = 1;
+        for (byte b : bytes) {
+            if (b == '\n') {
+                lines++;
+            }
+        }
+
+        var segment = new Segment(layout, lines);
+        var cellStart = new int[layout.headings().length];
+        var cellEnd = new int[layout.headings().length];
+        var pos = 0;
+        while (pos < bytes.length) {
+            var lineEnd = pos;
+            while (lineEnd < bytes.length && bytes[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            var next = lineEnd + 1;
+            if (lineEnd > pos && bytes[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+            if (lineEnd > pos) {
+                parseLine(bytes, pos, lineEnd, layout, segment, cellStart, cellEnd);
+            }
+            pos = next;
+        }
+
+        return segment;
+    }
+
+    private static void parseLine(byte[] bytes, int from, int to, Layout layout, Segment segment, int[] cellStart,
+                                  int[] cellEnd) {
+        var columns = cellStart.length;
+        var cells = 0;
+        var lastNonEmpty = -1;
+        var inQuotes = false;
+        var begin = from;
+        for (int i = from; i <= to; i++) {
+            if (i < to) {
+                var b = bytes[i];
+                if (layout.csv() && b == '"') {
+                    inQuotes = !inQuotes;
+                    continue;
+                }
+                if (b != layout.separator() || inQuotes) {
+                    continue;
+                }
+            }
+            if (cells < columns) {
+                cellStart[cells] = begin;
+                cellEnd[cells] = i;
+            }
+            if (i > begin) {
+                lastNonEmpty = cells;
+            }
+            cells++;
+            begin = i + 1;
+        }
+        // As with String.split, trailing empty cells are missing rather than empty
+        cells = lastNonEmpty + 1;
+
+        var row = segment.rows++;
+        for (int j = layout.firstColumn(); j < columns; j++) {
+            if (j == layout.labelsIndex()) {
+                segment.labels[row] = j < cells
+                        ? substituteCommas(text(bytes, cellStart[j], cellEnd[j], false), layout.csv())
+                        : null;
+            } else if (j >= cells) {
+                segment.values[j][row] = Double.NaN;
+            } else {
+                var s = cellStart[j];
+                var e = cellEnd[j];
+                if (s < e && mayBeNumber(bytes[s])) {
+                    try {
+                        segment.values[j][row] = JavaDoubleParser.parseDouble(bytes, s, e - s);
+                        continue;
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+                segment.values[j][row] = Double.NaN;
+                segment.string(j, row, text(bytes, s, e, layout.csv()));
+            }
+        }
+    }
+
+    /**
+     * Whether a cell starting with this byte may parse as a double, to skip the exception for words.
+     */
+    private static boolean mayBeNumber(byte b) {
+        return (b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'N' || b == 'I' || b <= ' ';
+    }
+
+    private static String text(byte[] bytes, int from, int to, boolean csv) {
+        return unquote(new String(bytes, from, to - from, StandardCharsets.UTF_8), csv);
+    }
+
+    private static String unquote(String s, boolean csv) {
+        if (csv && s.length() > 1 && s.startsWith("\"") && s.endsWith("\"")) {
+            return s.substring(1, s.length() - 1);
+        }
+        return s;
+    }
+
+    /**
+     * The only commas left in a CSV cell are quoted ones.
+     */
+    private static String substituteCommas(String s, boolean csv) {
+        return csv ? s.replace(',', COMMA_SUBSTITUTE) : s;
+    }
+
+    /**
+     * Splits a line into cells as {@link String#split(String)} would, keeping separators within quotes for CSV.
+     */
+    private static String[] split(String line, boolean csv) {
+        var separator = csv ? ',' : '\t';
+        var cells = new ArrayList<String>();
+        var inQuotes = false;
+        var begin = 0;
+        for (int i = 0; i <= line.length(); i++) {
+            if (i < line.length()) {
+                var c = line.charAt(i);
+                if (csv && c == '"') {
+                    inQuotes = !inQuotes;
+                }
+                if (c != separator || inQuotes) {
+                    continue;
+                }
+            }
+            cells.add(line.substring(begin, i));
+            begin = i + 1;
+        }
+        while (cells.size() > 1 && cells.getLast().isEmpty()) {
+            cells.removeLast();
+        }
+        return cells.toArray(String[]::new);
+    }
+
+    /**
+     * 2 if the row labels are the first cell, see ResultsTable#getTableType.
+     */
+    private static int tableType(String[] items) {
+        int nonNumericCount = 0;
+        int nonNumericIndex = 0;
+        for (int i = 0; i < items.length; i++) {
+            if (!items[i].equals("NaN") && Double.isNaN(Tools.parseDouble(items[i]))) {
+                nonNumericCount++;
+                nonNumericIndex = i;
+            }
+        }
+        if (nonNumericCount == 0) {
+            return 0;
+        }
+        if (nonNumericCount == 1 && nonNumericIndex == 1) {
+            return 1;
+        }
+        if (nonNumericCount == 1 && nonNumericIndex == 0) {
+            return 2;
+        }
+        return 3;
+    }
+
+    /**
+     * Positions splitting start..end into segments that each begin at the start of a line.
+     */
+    private static List<Long> segmentBounds(FileChannel channel, long start, long end) throws IOException {
+        var bounds = new ArrayList<Long>();
+        bounds.add(start);
+        var probe = ByteBuffer.allocate(PROBE_BYTES);
+        var position = start;
+        while (end - position > SEGMENT_BYTES) {
+            var next = nextLine(channel, position + SEGMENT_BYTES, end, probe);
+            if (next >= end) {
+                break;
+            }
+            bounds.add(next);
+            position = next;
+        }
+        bounds.add(end);
+        return bounds;
+    }
+
+    /**
+     * The position after the next line break at or after position, or end.
+     */
+    private static long nextLine(FileChannel channel, long position, long end, ByteBuffer probe) throws IOException {
+        while (position < end) {
+            probe.clear();
+            var n = channel.read(probe, position);
+            if (n <= 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                if (probe.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += n;
+        }
+        return end;
+    }
+
+    private static Line readLine(FileChannel channel, long position) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        var probe = ByteBuffer.allocate(PROBE_BYTES);
+        while (true) {
+            probe.clear();
+            var n = channel.read(probe, position);
+            if (n <= 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                if (probe.get(i) == '\n') {
+                    bytes.write(probe.array(), 0, i);
+                    return new Line(text(bytes), position + i + 1);
+                }
+            }
+            bytes.write(probe.array(), 0, n);
+            position += n;
+        }
+        return new Line(text(bytes), position);
+    }
+
+    private static String text(ByteArrayOutputStream bytes) {
+        var s = bytes.toString(StandardCharsets.UTF_8);
+        return s.endsWith("\r") ? s.substring(0, s.length() - 1) : s;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+
+    /**
+     * @param next the position after the line break
+     */
+    private record Line(String text, long next) {
+    }
+
+    /**
+     * @param labelsIndex the cell holding the row labels, or -1
+     */
+    private record Layout(String[] headings, int firstColumn, int labelsIndex, byte separator, boolean csv) {
+    }
+
+    /**
+     * The rows of one segment, by column.
+     */
+    private static final class Segment {
+        private final double[][] values;
+        private final String[][] strings;
+        private final String[] labels;
+        private final int capacity;
+        private int rows;
+
+        private Segment(Layout layout, int capacity) {
+            this.capacity = capacity;
+            var columns = layout.headings().length;
+            values = new double[columns][];
+            strings = new String[columns][];
+            for (int j = layout.firstColumn(); j < columns; j++) {
+                if (j != layout.labelsIndex()) {
+                    values[j] = new double[capacity];
+                }
+            }
+            labels = layout.labelsIndex() >= 0 ? new String[capacity] : null;
+        }
+
+        private int rows() {
+            return rows;
+        }
+
+        private void string(int column, int row, String s) {
+            if (strings[column] == null) {
+                strings[column] = new String[capacity];
+            }
+            strings[column][row] = s;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package ij.astro.io;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ij.IJ;
+import ij.VirtualStack;
+import ij.astro.io.prefs.Property;
+import ij.astro.util.ImageType;
+import ij.astro.util.SlicePrefetcher;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import nom.tam.image.DirectImageReader;
+
+/**
+ * A stack over the planes of an uncompressed NAXIS3 FITS cube, decoding a plane only when it is asked for.
+ * <p>
+ * Nothing but the slice labels is read when the stack is made, so a cube of many gigabytes can be opened and looked
+ * at with the memory of a handful of planes. The last {@link #CACHED_PLANES} decoded planes are kept, so stepping
+ * back and forth or measuring the slice being displayed does not decode it again. Processors handed out own a copy
+ * of the cached pixels; edits to a slice are lost once it is decoded again, as with any virtual stack.
+ * <p>
+ * Planes are read with {@link DirectImageReader} through a channel opened for each read, so the file is not held
+ * open while the stack is displayed. Recently read parts of the file stay in the operating system's page cache.
+ */
+public class FitsCubeStack extends VirtualStack {
+    public static final Property<Integer> CACHED_PLANES = new Property<>(8, FitsCubeStack.class);
+    /**
+     * Cubes whose decoded pixels would take more than this are opened as a {@link FitsCubeStack}.
+     */
+    public static final Property<Integer> THRESHOLD_MB = new Property<>(1024, FitsCubeStack.class);
+
+    private final Path path;
+    private final long dataOffset;
+    private final long planeBytes;
+    private final int bitpix;
+    private final double bZero;
+    private final double bScale;
+    private final ImageType type;
+    private int nSlices;
+    /**
+     * Plane of the cube shown at each slice, 0-based.
+     */
+    private int[] planes;
+    private String[] labels;
+    private final Map<Integer, Object> cache;
+    private volatile SlicePrefetcher<ImageProcessor> prefetcher;
+
+    /**
+     * @param path       the FITS file
+     * @param dataOffset position of the first pixel of the cube in the file
+     * @param depth      NAXIS3
+     */
+    public FitsCubeStack(Path path, long dataOffset, int bitpix, int width, int height, int depth,
+                         double bZero, double bScale) {
+        super(width, height);
+        this.path = path;
+        this.dataOffset = dataOffset;
+        this.bitpix = bitpix;
+        this.bZero = bZero;
+        this.bScale = bScale;
+        planeBytes = (long) width * height * DirectImageReader.bytesPerPixel(bitpix);
+        type = ImageType.getType(bitpix, bScale, bZero);
+        nSlices = depth;
+        planes = new int[depth];
+        for (int i = 0; i < depth; i++) {
+            planes[i] = i;
+        }
+        labels = new String[depth];
+
+        var cacheSize = Math.max(1, CACHED_PLANES.get());
+        cache = new LinkedHashMap<>(cacheSize + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Object> eldest) {
+                return size() > cacheSize;
+            }
+        };
+
+        setBitDepth(switch (type) {
+            case BYTE -> 8;
+            case SHORT -> 16;
+            default -> 32;
+        });
+    }
+
+    /**
+     * Whether a cube of this size should be paged in rather than read whole.
+     */
+    public static boolean isLarge(int width, int height, int depth, ImageType type) {
+        var pixelBytes = switch (type) {
+            case BYTE -> 1;
+            case SHORT -> 2;
+            default -> 4;
+        };
+        return (long) width * height * depth * pixelBytes > THRESHOLD_MB.get() * 1024L * 1024L;
+    }
+
+    @Override
+    public ImageProcessor getProcessor(int n) {
+        checkSlice(n);
+        var prefetcher = this.prefetcher;
+        if (prefetcher != null) {
+            return prefetcher.take(n);
+        }
+        return readProcessor(n);
+    }
+
+    private ImageProcessor readProcessor(int n) {
+        var plane = planes[n - 1];
+        Object pixels;
+        synchronized (cache) {
+            pixels = cache.get(plane);
+        }
+        if (pixels == null) {
+            pixels = decode(plane);
+            if (pixels == null) {
+                return errorProcessor(n, plane);
+            }
+            synchronized (cache) {
+                cache.put(plane, pixels);
+            }
+        }
+
+        var ip = type.makeProcessor(getWidth(), getHeight(), copy(pixels));
+        ip.resetMinAndMax();
+        if (cTable != null) {
+            ip.setCalibrationTable(cTable);
+        }
+        ip.setSliceNumber(n);
+        return ip;
+    }
+
+    /**
+     * @return the pixels of the plane, or null if it could not be read
+     */
+    private Object decode(int plane) {
+        var pixels = type.newPixelArray(getWidth() * getHeight());
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            DirectImageReader.read(channel, dataOffset + plane * planeBytes, bitpix, getWidth(), getHeight(),
+                    bZero, bScale, ImageType.useFma(), true, pixels);
+        } catch (IOException e) {
+            IJ.log("Error reading plane " + (plane + 1) + " of " + path + ": " + e.getMessage());
+            return null;
+        }
+        return pixels;
+    }
+
+    /**
+     * A blank slice saying the plane could not be read, as {@link VirtualStack} shows for files it cannot open. It
+     * is not cached, so the plane is read again the next time.
+     */
+    private ImageProcessor errorProcessor(int n, int plane) {
+        ImageProcessor ip = new ByteProcessor(getWidth(), getHeight());
+        ip.invert();
+        label(ip, "Error reading plane " + (plane + 1), Color.black);
+        // Of the stack's bit depth, INT, LONG and DOUBLE planes are float like FLOAT
+        ip = switch (type) {
+            case BYTE -> ip;
+            case SHORT -> ip.convertToShort(true);
+            default -> ip.convertToFloat();
+        };
+        ip.setSliceNumber(n);
+        return ip;
+    }
+
+    private static Object copy(Object pixels) {
+        return switch (pixels) {
+            case byte[] a -> a.clone();
+            case short[] a -> a.clone();
+            case float[] a -> a.clone();
+            default -> throw new IllegalStateException("Unexpected pixel array: " + pixels);
+        };
+    }
+
+    /**
+     * Reads slices first..last ahead of {@link #getProcessor}, as for file backed virtual stacks.
+     */
+    @Override
+    public void startPrefetching(int first, int last) {
+        stopPrefetching();
+        if (!SlicePrefetcher.ENABLED.get()) {
+            return;
+        }
+        long sliceBytes = (long) getWidth() * getHeight() * Math.max(1, getBitDepth() / 8);
+        prefetcher = new SlicePrefetcher<>(this::readProcessor, first, last, _ -> sliceBytes);
+    }
+
+    @Override
+    public SlicePrefetcher.Stats stopPrefetching() {
+        var prefetcher = this.prefetcher;
+        if (prefetcher == null) {
+            return null;
+        }
+        this.prefetcher = null;
+        prefetcher.close();
+        return prefetcher.stats();
+    }
+
+    @Override
+    public int getSize() {
+        return nSlices;
+    }
+
+    @Override
+    public String getSliceLabel(int n) {
+        checkSlice(n);
+        return labels[n - 1];
+    }
+
+    @Override
+    public void setSliceLabel(String label, int n) {
+        checkSlice(n);
+        labels[n - 1] = label;
+    }
+
+    /**
+     * The first line of the slice label, as the name of the slice.
+     */
+    @Override
+    public String getFileName(int n) {
+        var label = getSliceLabel(n);
+        if (label == null) {
+            return null;
+        }
+        var end = label.indexOf('\n');
+        return end < 0 ? label : label.substring(0, end);
+    }
+
+    @Override
+    public String getDirectory() {
+        var parent = path.toAbsolutePath().getParent();
+        return parent == null ? "" : IJ.addSeparator(parent.toString());
+    }
+
+    @Override
+    public void deleteSlice(int n) {
+        if (nSlices == 0) {
+            return;
+        }
+        checkSlice(n);
+        System.arraycopy(planes, n, planes, n - 1, nSlices - n);
+        System.arraycopy(labels, n, labels, n - 1, nSlices - n);
+        nSlices--;
+        labels[nSlices] = null;
+    }
+
+    @Override
+    public void swapSlices(int o, int n) {
+        checkSlice(o);
+        checkSlice(n);
+        var plane = planes[o - 1];
+        planes[o - 1] = planes[n - 1];
+        planes[n - 1] = plane;
+        var label = labels[o - 1];
+        labels[o - 1] = labels[n - 1];
+        labels[n - 1] = label;
+    }
+
+    @Override
+    public void sortByIndexes(int[] sortIndexes) {
+        if (sortIndexes == null || sortIndexes.length != nSlices) {
+            throw new IllegalArgumentException("Index array must match stack size");
+        }
+
+        var sortedPlanes = new int[planes.length];
+        var sortedLabels = new String[labels.length];
+        for (int i = 0; i < nSlices; i++) {
+            sortedPlanes[i] = planes[sortIndexes[i]];
+            sortedLabels[i] = labels[sortIndexes[i]];
+        }
+        planes = sortedPlanes;
+        labels = sortedLabels;
+    }
+
+    private void checkSlice(int n) {
+        if (n < 1 || n > nSlices) {
+            throw new IllegalArgumentException("Argument out of range: " + n);
+        }
+    }
+}
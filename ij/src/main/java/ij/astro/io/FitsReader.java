@@ -11,14 +11,18 @@ import static nom.tam.fits.header.Standard.NAXIS2;
 import static nom.tam.fits.header.Standard.NAXISn;
 import static nom.tam.fits.header.Standard.TELESCOP;
 
+import java.awt.Rectangle;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.lang.reflect.Array;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.ArrayList;
@@ -57,16 +61,25 @@ import nom.tam.fits.HeaderCard;
 import nom.tam.fits.HeaderCardException;
 import nom.tam.fits.ImageHDU;
 import nom.tam.fits.TableHDU;
+import nom.tam.fits.header.Compression;
 import nom.tam.fits.header.IFitsHeader;
 import nom.tam.fits.header.Standard;
+import nom.tam.image.DirectImageReader;
+import nom.tam.image.StandardImageTiler;
 import nom.tam.image.compression.hdu.CompressedImageHDU;
 import nom.tam.image.compression.hdu.CompressedTableHDU;
 import nom.tam.util.Cursor;
+import nom.tam.util.type.ElementType;
 
 public class FitsReader implements AutoCloseable {
     public static boolean skipTessQualCheck = Prefs.getBoolean(".aij.skipTessQualCheck", false);
     private static final LeapSeconds LEAP_SECONDS = new LeapSeconds();
     private final Fits fits;
+    /**
+     * The file being read, or null when reading from a stream.
+     */
+    private final Path path;
+    private FileChannel channel;
     private final List<HDUDescriptor> hduDescriptors;
     private final BasicHDU<?>[] hdus;
     private int firstImageIndex = -1;
@@ -85,10 +98,11 @@ public class FitsReader implements AutoCloseable {
 
     private FitsReader(Path path, String directory, String fileName) throws IOException {
         FitsFactory.setAllowHeaderRepairs(true);
-        this(new Fits(path.toFile()), directory, fileName);
+        this(new Fits(path.toFile()), path, directory, fileName);
     }
 
-    private FitsReader(Fits fits, String directory, String fileName) throws IOException {
+    private FitsReader(Fits fits, Path path, String directory, String fileName) throws IOException {
+        this.path = path;
         this.directory = directory;
         this.fileName = fileName;
         this.fits = fits;
@@ -118,13 +132,13 @@ public class FitsReader implements AutoCloseable {
             FileSystem zipFileSystem;
             if (ImagePlus.TEMPORARY_IMAGE.orElse(false) &&
                     (zipFileSystem = ZipOpenerUtil.getZipFile(s[0] + ".zip")) != null) {
-                return new FitsReader(new Fits(Files.newInputStream(zipFileSystem.getPath(s[1].substring(1)))), directory, fileName);
+                return new FitsReader(new Fits(Files.newInputStream(zipFileSystem.getPath(s[1].substring(1)))), null, directory, fileName);
             } else {
                 try (var zip = new ZipFile(s[0] + ".zip")) {
                     var m = new ProgressMonitorInputStream(IJ.getInstance(),
                             "Reading FITS image", zip.getInputStream(zip.getEntry(s[1].substring(1))));
                     FitsFactory.setAllowHeaderRepairs(true);
-                    return new FitsReader(new Fits(m), directory, fileName);
+                    return new FitsReader(new Fits(m), null, directory, fileName);
                 }
             }
         }
@@ -225,6 +239,119 @@ public class FitsReader implements AutoCloseable {
         return cachedProcessors.clone();
     }
 
+    /**
+     * A stack that decodes the planes of the image cube as they are displayed, or null to read the image with
+     * {@link #getProcessors()}.
+     * <p>
+     * Only plain uncompressed NAXIS3 cubes in a file on disk, larger than {@link FitsCubeStack#THRESHOLD_MB}, are
+     * paged. The slice labels are left for the caller to set.
+     */
+    public FitsCubeStack getCubeStack() throws IOException {
+        if (path == null || firstImageIndex < 0 || isMeasurementsTable() || width <= 1 || height <= 1) {
+            return null;
+        }
+
+        var header = hduDescriptors.get(firstImageIndex).getFormedHeader();
+        if (header.getIntValue(NAXIS) != 3 || isBasic3DImage()) {
+            return null;
+        }
+
+        if (!(fits.getHDU(firstImageIndex) instanceof ImageHDU hdu) || !DirectImageReader.canRead(hdu)) {
+            return null;
+        }
+
+        var bitpix = hdu.getHeader().getIntValue(BITPIX);
+        if (!FitsCubeStack.isLarge(width, height, depth, ImageType.getType(bitpix, bScale, bZero))) {
+            return null;
+        }
+
+        if (skipImageForQual(headerToString(header), 0) || (cachedHeaders != null && cachedHeaders.length != depth)) {
+            return null;
+        }
+
+        return new FitsCubeStack(path, hdu.getData().getFileOffset(), bitpix, width, height, depth, bZero, bScale);
+    }
+
+    /**
+     * Reads only the pixels of the image inside the given rectangles, or returns null when the file is not a single
+     * 2D image.
+     * <p>
+     * The rest of the processor is left empty, NaN for 32-bit images and 0 otherwise. As 0 is a valid value for
+     * integer images, callers must read the whole image for anything outside the rectangles. Rectangles are in
+     * processor coordinates, origin at the top left, and are clipped to the image. Uncompressed images are read
+     * through the HDU's {@link StandardImageTiler}, which reads just the rows of each rectangle from the file; tile
+     * compressed images decompress only the tiles overlapping each rectangle.
+     * <p>
+     * {@code reuse} may be the pixels of an earlier read, which are cleared and filled again when of the right type
+     * and size rather than allocating a whole frame for each read.
+     */
+    public ImageProcessor getRegions(List<Rectangle> regions, Object reuse) throws IOException {
+        if (firstImageIndex < 0 || isMeasurementsTable() || isBasic3DImage() || width <= 1 || height <= 1) {
+            return null;
+        }
+
+        var header = hduDescriptors.get(firstImageIndex).getFormedHeader();
+        if (header.getIntValue(NAXIS) != 2 || (filter != null && !filter.matchesFilter(header))) {
+            return null;
+        }
+
+        var hdu = fits.getHDU(firstImageIndex);
+        int bitpix;
+        if (hdu instanceof CompressedImageHDU compressedImageHDU) {
+            if (!canDecompressDirectly(compressedImageHDU)) {
+                return null;
+            }
+            bitpix = hdu.getHeader().getIntValue(Compression.ZBITPIX);
+        } else if (hdu instanceof ImageHDU imageHDU) {
+            var axes = imageHDU.getAxes();
+            if (axes == null || axes.length != 2 || axes[0] != height || axes[1] != width) {
+                return null;
+            }
+            bitpix = hdu.getHeader().getIntValue(BITPIX);
+        } else {
+            return null;
+        }
+
+        var type = ImageType.getType(bitpix, bScale, bZero);
+        var pixels = type.newPixelArray(0).getClass().isInstance(reuse) && Array.getLength(reuse) == width * height ?
+                reuse : type.newPixelArray(width * height);
+        switch (pixels) {
+            case float[] f -> Arrays.fill(f, Float.NaN);
+            case short[] s when s == reuse -> Arrays.fill(s, (short) 0);
+            case byte[] b when b == reuse -> Arrays.fill(b, (byte) 0);
+            default -> {}
+        }
+
+        var elementType = ElementType.forBitpix(bitpix);
+        var bounds = new Rectangle(0, 0, width, height);
+        for (var region : regions) {
+            var r = region.intersection(bounds);
+            if (r.isEmpty()) {
+                continue;
+            }
+
+            // FITS rows count up from the bottom of the displayed image
+            var corners = new int[]{height - r.y - r.height, r.x};
+            var lengths = new int[]{r.height, r.width};
+            var raw = elementType.newArray(r.width * r.height);
+            var flipped = hdu instanceof CompressedImageHDU;
+            if (hdu instanceof CompressedImageHDU compressedImageHDU) {
+                compressedImageHDU.decompress(raw, corners, lengths, true);
+            } else {
+                ((ImageHDU) hdu).getTiler().getTile(raw, corners, lengths);
+            }
+
+            var regionPixels = raw.getClass() == pixels.getClass() ? raw : type.newPixelArray(r.width * r.height);
+            ImageType.scalePixels(raw, regionPixels, bZero, bScale);
+            for (int row = 0; row < r.height; row++) {
+                var from = (flipped ? row : r.height - 1 - row) * r.width;
+                System.arraycopy(regionPixels, from, pixels, (r.y + row) * width + r.x, r.width);
+            }
+        }
+
+        return conditionImageProcessor(type.makeProcessor(width, height, pixels));
+    }
+
     private ProcessedFits processFits(boolean includeProcessors) throws IOException {
         if (firstImageIndex < 0) {
             return new ProcessedFits(List.of(), List.of());
@@ -489,8 +616,14 @@ public class FitsReader implements AutoCloseable {
         var hdu = fits.getHDU(imageIndex);
         Object imageData = null;
         if (hdu instanceof CompressedImageHDU compressedImageHDU) {
+            if (canDecompressDirectly(compressedImageHDU)) {
+                return compressedImageData2Processor(compressedImageHDU);
+            }
             imageData = compressedImageHDU.asImageHDU().getKernel();
         } else if (hdu instanceof ImageHDU imageHDU) {
+            if (canReadDirectly(imageHDU)) {
+                return directImageData2Processor(imageHDU);
+            }
             imageData = imageHDU.getKernel();
         } else {
             throw new IllegalStateException("Unsupported HDU type: " + hdu.getClass().getName());
@@ -511,6 +644,70 @@ public class FitsReader implements AutoCloseable {
         return conditionImageProcessor(imgtmp);
     }
 
+    /**
+     * Whether the image can be decoded from the file by {@link #directImageData2Processor(ImageHDU)}, which needs
+     * a plain file whose image data has not been loaded yet.
+     */
+    private boolean canReadDirectly(ImageHDU hdu) {
+        if (path == null || !DirectImageReader.canRead(hdu)) {
+            return false;
+        }
+        var header = hdu.getHeader();
+        return header.getIntValue(NAXIS) == 2 &&
+                header.getIntValue(NAXIS1) == width && header.getIntValue(NAXIS2) == height;
+    }
+
+    /**
+     * Convert 2D image data into an ImageProcessor, decoding straight from the file
+     * <p>
+     * The pixels are flipped and scaled as they are read into the array the processor will own, equivalent to
+     * {@link #twoDimensionalImageData2Processor(Object)} without the HDU kernel and the copy made from it.
+     */
+    private ImageProcessor directImageData2Processor(ImageHDU hdu) throws IOException {
+        var bitpix = hdu.getHeader().getIntValue(BITPIX);
+        var type = ImageType.getType(bitpix, bScale, bZero);
+        var pixels = type.newPixelArray(width * height);
+        DirectImageReader.read(channel(), hdu.getData().getFileOffset(), bitpix, width, height, bZero, bScale,
+                ImageType.useFma(), true, pixels);
+        return conditionImageProcessor(type.makeProcessor(width, height, pixels));
+    }
+
+    /**
+     * Whether the image can be decompressed by {@link #compressedImageData2Processor(CompressedImageHDU)}, which
+     * handles 2D images only.
+     */
+    private boolean canDecompressDirectly(CompressedImageHDU hdu) throws FitsException {
+        var axes = hdu.getImageAxes();
+        return axes.length == 2 && axes[0] == height && axes[1] == width;
+    }
+
+    /**
+     * Convert a tile compressed 2D image into an ImageProcessor, decompressing the tiles in parallel
+     * <p>
+     * The tiles are written flipped into the array the processor will own and scaled in place, equivalent to
+     * {@link #twoDimensionalImageData2Processor(Object)} without the uncompressed image buffer, the HDU kernel and
+     * the copy made from it. Images whose values are converted to another type for the processor, such as 32-bit
+     * integers, are decompressed to a flat array of their own type first.
+     */
+    private ImageProcessor compressedImageData2Processor(CompressedImageHDU hdu) throws FitsException {
+        var bitpix = hdu.getHeader().getIntValue(Compression.ZBITPIX);
+        var type = ImageType.getType(bitpix, bScale, bZero);
+        var pixels = type.newPixelArray(width * height);
+        var elementType = ElementType.forBitpix(bitpix);
+        var raw = elementType.primitiveClass() == pixels.getClass().getComponentType() ?
+                pixels : elementType.newArray(width * height);
+        hdu.decompress(raw, new int[] {0, 0}, new int[] {height, width}, true);
+        ImageType.scalePixels(raw, pixels, bZero, bScale);
+        return conditionImageProcessor(type.makeProcessor(width, height, pixels));
+    }
+
+    private FileChannel channel() throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        }
+        return channel;
+    }
+
     /**
      * Set pixel and scaling data of the ImageProcessor, flip the image vertically.
      */
@@ -944,6 +1141,9 @@ public class FitsReader implements AutoCloseable {
 
     @Override
     public void close() throws Exception {
+        if (channel != null) {
+            channel.close();
+        }
         fits.close();
     }
 
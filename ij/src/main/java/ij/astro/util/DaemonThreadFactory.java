@@ -0,0 +1,26 @@
+package ij.astro.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Makes daemon threads named {@code <name>-<pool>-<thread>}, numbering the pools made with the same name, so that
+ * worker pools do not keep AIJ from exiting and can be told apart in a thread dump.
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+    private static final ConcurrentHashMap<String, AtomicInteger> POOL_COUNTS = new ConcurrentHashMap<>();
+    private final String prefix;
+    private final AtomicInteger count = new AtomicInteger();
+
+    public DaemonThreadFactory(String name) {
+        prefix = name + "-" + POOL_COUNTS.computeIfAbsent(name, _ -> new AtomicInteger()).incrementAndGet() + "-";
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+        var t = new Thread(r, prefix + count.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    }
+}
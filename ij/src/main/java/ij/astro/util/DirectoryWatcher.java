@@ -0,0 +1,286 @@
+package ij.astro.util;
+
+import ij.astro.io.prefs.Property;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports files in a directory once they have finished being written, from file system events rather than
+ * listing the directory.
+ * <p>
+ * The files present when the watcher is created are indexed once, and the index is then kept up to date from
+ * create and delete events, so {@link #names()} is the directory listing without touching the disk. A file is
+ * reported by {@link #poll(long)} once it has had no events for the quiet time and its size still matches the
+ * size at its last event. Files already in the directory when the watcher starts count their last modification as
+ * their last event. If the event queue overflows, the directory is listed again and any file not seen before is
+ * treated as new. If that listing fails the watcher closes itself, see {@link #failure()}.
+ * <p>
+ * Some network file systems do not deliver events for writes made by other machines, so watching can be turned off
+ * with {@link #ENABLED}, in which case the caller should poll the directory as before.
+ */
+public class DirectoryWatcher implements AutoCloseable {
+    public static final Property<Boolean> ENABLED = new Property<>(true, DirectoryWatcher.class);
+
+    private final Path dir;
+    private final WatchService service;
+    private final long quietNanos;
+    private final Set<String> index = ConcurrentHashMap.newKeySet();
+    private final Map<String, Pending> pending = new HashMap<>();
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    private long reported;
+    private long latencies;
+    private long totalLatencyNanos;
+    private long maxLatencyNanos;
+    private long totalWriteNanos;
+
+    /**
+     * @param quietMillis the time without events after which a file is taken to be completely written
+     */
+    public DirectoryWatcher(Path dir, long quietMillis) throws IOException {
+        this.dir = dir;
+        this.quietNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, quietMillis));
+        service = dir.getFileSystem().newWatchService();
+        try {
+            dir.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            // Registered first, so a file created while listing is at worst seen twice
+            rescan();
+        } catch (IOException | RuntimeException e) {
+            service.close();
+            throw e;
+        }
+    }
+
+    public Path dir() {
+        return dir;
+    }
+
+    /**
+     * The names of the files in the directory, kept up to date by {@link #poll(long)}.
+     */
+    public Set<String> names() {
+        return Collections.unmodifiableSet(index);
+    }
+
+    /**
+     * Waits until at least one file has finished being written, or the timeout passes, and returns the files that
+     * have, in the order they were first seen. Each file is returned once, unless it is deleted and created again.
+     * Returns an empty list once the watcher is closed.
+     */
+    public List<Arrival> poll(long timeoutMillis) throws InterruptedException {
+        var deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeoutMillis));
+        try {
+            synchronized (this) {
+                drain(service.poll());
+            }
+            while (true) {
+                var now = System.nanoTime();
+                List<Arrival> ready;
+                long wait;
+                synchronized (this) {
+                    ready = takeReady(now);
+                    wait = deadline - now;
+                    for (var p : pending.values()) {
+                        wait = Math.min(wait, p.lastEventNanos + quietNanos - now);
+                    }
+                }
+                if (!ready.isEmpty() || deadline - now <= 0) {
+                    return ready;
+                }
+
+                var key = service.poll(Math.max(1, wait), TimeUnit.NANOSECONDS);
+                synchronized (this) {
+                    drain(key);
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            return List.of();
+        }
+    }
+
+    /**
+     * Records that processing of {@code arrival} has finished, for {@link #stats()}.
+     *
+     * @return the time from the last write of the file to now, in nanoseconds
+     */
+    public synchronized long completed(Arrival arrival) {
+        var latency = System.nanoTime() - arrival.lastEventNanos();
+        latencies++;
+        totalLatencyNanos += latency;
+        maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+        return latency;
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(reported, latencies, totalLatencyNanos, maxLatencyNanos, totalWriteNanos);
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * The error that closed the watcher, when relisting the directory after the event queue overflowed failed, or
+     * null.
+     */
+    public IOException failure() {
+        return failure;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            service.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void drain(WatchKey key) {
+        while (key != null) {
+            var now = System.nanoTime();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    try {
+                        rescan();
+                    } catch (IOException e) {
+                        // The index is incomplete, so stop rather than miss files
+                        failure = e;
+                        close();
+                        return;
+                    }
+                    continue;
+                }
+                var name = ((Path) event.context()).getFileName().toString();
+                if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                    index.remove(name);
+                    pending.remove(name);
+                } else if (index.add(name)) {
+                    pending.put(name, new Pending(now, now, size(name)));
+                } else {
+                    var p = pending.get(name);
+                    if (p != null) {
+                        p.lastEventNanos = now;
+                        p.size = size(name);
+                    }
+                }
+            }
+            if (!key.reset()) {
+                // The directory is gone
+                close();
+                return;
+            }
+            key = service.poll();
+        }
+    }
+
+    private List<Arrival> takeReady(long now) {
+        if (pending.isEmpty()) {
+            return List.of();
+        }
+
+        var ready = new ArrayList<Arrival>();
+        var it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            var e = it.next();
+            var p = e.getValue();
+            if (now - p.lastEventNanos < quietNanos) {
+                continue;
+            }
+            // Some writers only update the size when the file is closed, so check it has not moved since
+            var size = size(e.getKey());
+            if (size != p.size) {
+                p.size = size;
+                p.lastEventNanos = now;
+                continue;
+            }
+            if (size < 0) {
+                // Not a regular file, or removed before its delete event arrived
+                it.remove();
+                continue;
+            }
+            it.remove();
+            ready.add(new Arrival(e.getKey(), p.firstEventNanos, p.lastEventNanos, now));
+        }
+        ready.sort((a, b) -> Long.compare(a.firstEventNanos(), b.firstEventNanos()));
+
+        reported += ready.size();
+        for (Arrival arrival : ready) {
+            totalWriteNanos += arrival.lastEventNanos() - arrival.firstEventNanos();
+        }
+        return ready;
+    }
+
+    private void rescan() throws IOException {
+        var now = System.nanoTime();
+        var wallNow = System.currentTimeMillis();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path path : stream) {
+                var name = path.getFileName().toString();
+                if (index.add(name)) {
+                    var modified = Files.getLastModifiedTime(path).toMillis();
+                    var last = now - TimeUnit.MILLISECONDS.toNanos(Math.max(0, wallNow - modified));
+                    pending.put(name, new Pending(last, last, size(name)));
+                }
+            }
+        }
+    }
+
+    private long size(String name) {
+        try {
+            var path = dir.resolve(name);
+            return Files.isRegularFile(path) ? Files.size(path) : -1;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * A file that has finished being written.
+     *
+     * @param firstEventNanos when the file was first seen, as {@link System#nanoTime()}
+     * @param lastEventNanos  when the file last changed
+     * @param readyNanos      when the file was taken to be completely written
+     */
+    public record Arrival(String name, long firstEventNanos, long lastEventNanos, long readyNanos) {}
+
+    public record Stats(long files, long completed, long totalLatencyNanos, long maxLatencyNanos,
+                        long totalWriteNanos) {
+        @Override
+        public String toString() {
+            return "Watched: %d files, %.0f ms mean writing, %d processed, %.0f ms mean and %.0f ms max latency"
+                    .formatted(files, files == 0 ? 0 : totalWriteNanos / 1e6 / files, completed,
+                            completed == 0 ? 0 : totalLatencyNanos / 1e6 / completed, maxLatencyNanos / 1e6);
+        }
+    }
+
+    private static class Pending {
+        private final long firstEventNanos;
+        private long lastEventNanos;
+        private long size;
+
+        private Pending(long firstEventNanos, long lastEventNanos, long size) {
+            this.firstEventNanos = firstEventNanos;
+            this.lastEventNanos = lastEventNanos;
+            this.size = size;
+        }
+    }
+}
@@ -473,6 +473,22 @@ public enum ImageType {
         throw new IllegalStateException("Tried to open image data that was not a numeric: " + rawData.getClass());
     }
 
+    /**
+     * The type {@link #getType(Object, double, double)} would give for the kernel of an image with this BITPIX.
+     */
+    public static ImageType getType(int bitpix, double bScale, double bZero) {
+        for (ImageType type : values()) {
+            if (type.getExpectedBitpix() == bitpix) {
+                if (!type.isFloatingPoint() && bScale != 1 && bZero != type.getBZero()) {
+                    return ImageType.FLOAT;
+                }
+
+                return type;
+            }
+        }
+        throw new IllegalStateException("Tried to open image data with an invalid BITPIX: " + bitpix);
+    }
+
     public static ImageType getType(ImageProcessor ip) {
         if (ip instanceof IntProcessor) {
             return INT;
@@ -488,6 +504,14 @@ public enum ImageType {
         throw new IllegalStateException("Tried to get an image type that was not known: " + ip.getClass());
     }
 
+    /**
+     * Whether the conversions here scale raw values with {@link Math#fma}. Other decoders of the same data should
+     * follow it so their pixels match to the last bit.
+     */
+    public static boolean useFma() {
+        return USE_FMA;
+    }
+
     private static boolean testForFma() {
         var t = System.nanoTime();
         var i = (float)2*3+1;
@@ -518,6 +542,85 @@ public enum ImageType {
         };
     }
 
+    /**
+     * An empty pixel array of the kind {@link #processImageData(Object, int, int, double, double)} returns.
+     */
+    public Object newPixelArray(int length) {
+        return switch (this) {
+            case BYTE -> new byte[length];
+            case SHORT -> new short[length];
+            case INT, LONG, FLOAT, DOUBLE -> new float[length];
+        };
+    }
+
+    /**
+     * Scales flat, already flipped image values into a pixel array from {@link #newPixelArray(int)}, as
+     * {@link #processImageData(Object, int, int, double, double)} does for a kernel. The two arrays may be the same,
+     * in which case unscaled values are left as they are.
+     */
+    public static void scalePixels(Object rawData, Object pixels, double bzero, double bscale) {
+        var identity = bscale == 1 && bzero == 0;
+        switch (pixels) {
+            case byte[] out when rawData instanceof byte[] in -> {
+                if (identity && in == out) {
+                    return;
+                }
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = (byte) (USE_FMA ? Math.fma(bscale, Byte.toUnsignedInt(in[i]), bzero) :
+                            bzero + bscale * Byte.toUnsignedInt(in[i]));
+                }
+            }
+            case short[] out when rawData instanceof short[] in -> {
+                if (identity && in == out) {
+                    return;
+                }
+                for (int i = 0; i < out.length; i++) {
+                    out[i] = (short) (USE_FMA ? Math.fma(bscale, in[i], bzero) : bzero + bscale * in[i]);
+                }
+            }
+            case float[] out -> {
+                switch (rawData) {
+                    case float[] in -> {
+                        if (identity && in == out) {
+                            return;
+                        }
+                        for (int i = 0; i < out.length; i++) {
+                            out[i] = (float) (USE_FMA ? Math.fma(bscale, in[i], bzero) : bzero + bscale * in[i]);
+                        }
+                    }
+                    case byte[] in -> {
+                        for (int i = 0; i < out.length; i++) {
+                            out[i] = (float) (USE_FMA ? Math.fma(bscale, Byte.toUnsignedInt(in[i]), bzero) :
+                                    bzero + bscale * Byte.toUnsignedInt(in[i]));
+                        }
+                    }
+                    case short[] in -> {
+                        for (int i = 0; i < out.length; i++) {
+                            out[i] = (float) (USE_FMA ? Math.fma(bscale, in[i], bzero) : bzero + bscale * in[i]);
+                        }
+                    }
+                    case int[] in -> {
+                        for (int i = 0; i < out.length; i++) {
+                            out[i] = (float) (USE_FMA ? Math.fma(bscale, in[i], bzero) : bzero + bscale * in[i]);
+                        }
+                    }
+                    case long[] in -> {
+                        for (int i = 0; i < out.length; i++) {
+                            out[i] = (float) (USE_FMA ? Math.fma(bscale, in[i], bzero) : bzero + bscale * in[i]);
+                        }
+                    }
+                    case double[] in -> {
+                        for (int i = 0; i < out.length; i++) {
+                            out[i] = (float) (USE_FMA ? Math.fma(bscale, in[i], bzero) : bzero + bscale * in[i]);
+                        }
+                    }
+                    default -> throw new IllegalStateException("Incorrect raw data given to make an ImageProcessor");
+                }
+            }
+            default -> throw new IllegalStateException("Incorrect raw data given to make an ImageProcessor");
+        }
+    }
+
     public abstract Object processImageData(Object rawData, int width, int height, double bzero, double bscale);
 
     public abstract Object make2DArray(ImageProcessor ip, boolean useBZero);
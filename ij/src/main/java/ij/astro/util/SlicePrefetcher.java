@@ -0,0 +1,189 @@
+package ij.astro.util;
+
+import ij.astro.io.prefs.Property;
+
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Reads ahead of a sequential consumer, so that decoding the next slices overlaps with processing the current one.
+ * <p>
+ * Slices are requested in ascending order with {@link #take(int)}, which returns the prefetched value if it is ready,
+ * waits for it if it is in flight, or loads it on the calling thread otherwise. At most {@link #DEPTH} slices beyond
+ * the last taken slice are kept in flight, further limited to {@link #MEMORY_MB} of estimated memory.
+ * Taking the same slice again returns the same value, as callers such as {@link ij.ImagePlus#setSlice(int)} and
+ * the code processing the slice may both ask for it; any other step backwards is simply a miss.
+ *
+ * @param <T> the loaded slice type, e.g. an {@link ij.process.ImageProcessor} or {@link ij.ImagePlus}
+ */
+public class SlicePrefetcher<T> implements AutoCloseable {
+    public static final Property<Boolean> ENABLED = new Property<>(true, SlicePrefetcher.class);
+    public static final Property<Integer> DEPTH = new Property<>(4, SlicePrefetcher.class);
+    public static final Property<Integer> MEMORY_MB = new Property<>(512, SlicePrefetcher.class);
+    public static final Property<Integer> THREADS = new Property<>(1, SlicePrefetcher.class);
+    public static final Property<Boolean> LOG_STATS = new Property<>(false, SlicePrefetcher.class);
+
+    private final IntFunction<T> loader;
+    private final ToLongFunction<T> sizeEstimator;
+    private final int last;
+    private final int depth;
+    private final long memoryCap;
+    private final ExecutorService executor;
+    private final TreeMap<Integer, Future<T>> inFlight = new TreeMap<>();
+    private int nextToSchedule;
+    private long bytesPerSlice;
+    private int lastTaken = Integer.MIN_VALUE;
+    private T lastValue;
+    private volatile boolean closed;
+
+    private long hits;
+    private long waits;
+    private long misses;
+    private long stallNanos;
+
+    /**
+     * Creates a prefetcher using the user's settings.
+     *
+     * @param loader        loads a slice, called from background threads and from the caller on a miss
+     * @param first         the first slice that will be taken
+     * @param last          the last slice that will be taken, inclusive
+     * @param sizeEstimator estimated memory of a loaded slice in bytes, used to honour the memory cap
+     */
+    public SlicePrefetcher(IntFunction<T> loader, int first, int last, ToLongFunction<T> sizeEstimator) {
+        this(loader, first, last, DEPTH.get(), MEMORY_MB.get() * 1024L * 1024L, THREADS.get(), sizeEstimator);
+    }
+
+    public SlicePrefetcher(IntFunction<T> loader, int first, int last, int depth, long memoryCap, int threads,
+                           ToLongFunction<T> sizeEstimator) {
+        this.loader = loader;
+        this.last = last;
+        this.depth = Math.max(0, depth);
+        this.memoryCap = Math.max(0, memoryCap);
+        this.sizeEstimator = sizeEstimator;
+        this.nextToSchedule = first;
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads), new DaemonThreadFactory("Slice-Prefetch"));
+        synchronized (this) {
+            schedule(first - 1);
+        }
+    }
+
+    /**
+     * Returns slice {@code n}, loading it on the calling thread if it was not prefetched.
+     */
+    public T take(int n) {
+        Future<T> future;
+        synchronized (this) {
+            if (n == lastTaken) {
+                return lastValue;
+            }
+
+            // Anything before n will not be asked for again
+            var stale = inFlight.headMap(n, false);
+            stale.values().forEach(f -> f.cancel(false));
+            stale.clear();
+
+            future = inFlight.remove(n);
+            if (nextToSchedule <= n) {
+                nextToSchedule = n + 1;
+            }
+            schedule(n);
+        }
+
+        if (future != null) {
+            var done = future.isDone();
+            var start = System.nanoTime();
+            try {
+                var value = future.get();
+                synchronized (this) {
+                    if (done) {
+                        hits++;
+                    } else {
+                        waits++;
+                        stallNanos += System.nanoTime() - start;
+                    }
+                    record(n, value);
+                }
+                return value;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | CancellationException e) {
+                // Fall through and retry on this thread so the caller sees the failure directly
+            }
+        }
+
+        var start = System.nanoTime();
+        var value = loader.apply(n);
+        synchronized (this) {
+            misses++;
+            stallNanos += System.nanoTime() - start;
+            record(n, value);
+        }
+        return value;
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(hits, waits, misses, stallNanos);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (this) {
+            inFlight.values().forEach(f -> f.cancel(true));
+            inFlight.clear();
+            lastValue = null;
+        }
+        executor.shutdownNow();
+    }
+
+    private void record(int n, T value) {
+        lastTaken = n;
+        lastValue = value;
+        if (value != null && sizeEstimator != null) {
+            bytesPerSlice = Math.max(bytesPerSlice, sizeEstimator.applyAsLong(value));
+        }
+    }
+
+    /**
+     * Keep slices (current, current + depth] in flight, within the memory cap. Must hold the lock.
+     */
+    private void schedule(int current) {
+        if (closed) {
+            return;
+        }
+
+        var limit = Math.min(last, current + depth);
+        if (bytesPerSlice > 0) {
+            limit = (int) Math.min(limit, current + Math.max(1, memoryCap / bytesPerSlice));
+        }
+
+        for (; nextToSchedule <= limit; nextToSchedule++) {
+            var n = nextToSchedule;
+            inFlight.put(n, executor.submit(() -> loader.apply(n)));
+        }
+    }
+
+    /**
+     * @param hits       slices that were ready when asked for
+     * @param waits      slices that were still loading when asked for
+     * @param misses     slices that had to be loaded by the caller
+     * @param stallNanos time the caller spent waiting on or loading slices
+     */
+    public record Stats(long hits, long waits, long misses, long stallNanos) {
+        public long requests() {
+            return hits + waits + misses;
+        }
+
+        @Override
+        public String toString() {
+            return "Prefetch: %d ready, %d waited, %d missed of %d slices, %.2f s stalled"
+                    .formatted(hits, waits, misses, requests(), stallNanos / 1e9);
+        }
+    }
+}
@@ -11,6 +11,7 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
 import java.math.RoundingMode;
+import java.nio.file.Path;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.util.ArrayList;
@@ -32,6 +33,8 @@ import ij.ImagePlus;
 import ij.Prefs;
 import ij.WindowManager;
 import ij.astro.AstroImageJ;
+import ij.astro.io.ColumnarTable;
+import ij.astro.io.DelimitedTableReader;
 import ij.astro.util.FitsExtensionUtil;
 import ij.gui.Roi;
 import ij.io.OpenDialog;
@@ -1588,6 +1591,7 @@ public class ResultsTable implements Cloneable {
 	* ResultsTable. Displays a file open dialog if 'path' is empty or null.
 	* @see #open2(String)
 	*/
+	@AstroImageJ(reason = "Parse in parallel with DelimitedTableReader", modified = true)
 	public static ResultsTable open(String path) throws IOException {
 		final String lineSeparator =  "\n";
 		if (path==null || path.equals("")) {
@@ -1598,6 +1602,8 @@ public class ResultsTable implements Cloneable {
 				return null;
 			path = dir+name;
 		}
+		if (DelimitedTableReader.ENABLED.get() && DelimitedTableReader.canRead(path))
+			return DelimitedTableReader.read(path);
 		String text = IJ.openAsString(path);
 		if (text==null)
 			return null;
@@ -1752,7 +1758,8 @@ public class ResultsTable implements Cloneable {
         saveAs(path, false, false);
     }
 
-    @AstroImageJ(reason = "Save table with 16 decimal places, not 6; Fits export; Save metadata", modified = true)
+    @AstroImageJ(reason = "Save table with 16 decimal places, not 6; Fits export; Columnar export; Save metadata",
+			modified = true)
 	public void saveAs(String path, boolean includePlotcfg, boolean includeApertures) throws IOException {
 		boolean emptyTable = size()==0 && lastColumn<0;
 		var oldPrecision = getPrecision();
@@ -1768,6 +1775,11 @@ public class ResultsTable implements Cloneable {
 			FITS_Writer.saveMPTable(this, includePlotcfg, includeApertures, path, "");
 			return;
 		}
+		if (path.endsWith(ColumnarTable.EXTENSION)) {
+			setPrecision(oldPrecision);
+			ColumnarTable.write(this, Path.of(path));
+			return;
+		}
 		boolean csv = path.endsWith(".csv") || path.endsWith(".CSV");
 		delimiter = csv?',':'\t';
 		PrintWriter pw;
@@ -7,6 +7,7 @@ import static nom.tam.fits.header.Standard.NAXIS1;
 import static nom.tam.fits.header.Standard.NAXIS2;
 import static nom.tam.fits.header.Standard.NAXISn;
 
+import java.awt.Rectangle;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
@@ -121,6 +122,16 @@ public class FITS_Reader extends ImagePlus implements PlugIn {
 	private static final MPTableLoadSettings MP_TABLE_LOAD_SETTINGS = new MPTableLoadSettings();
     public static final ScopedValue<Boolean> HEADER_ONLY = ScopedValue.newInstance();
     public static final ScopedValue<ImageProcessor> REF_SLICE = ScopedValue.newInstance();
+    /**
+     * When bound, single 2D images are read only inside these rectangles, see
+     * {@link FitsReader#getRegions(List, Object)}. Used by photometry, which needs only the pixels around its
+     * apertures.
+     */
+    public static final ScopedValue<List<Rectangle>> REGIONS = ScopedValue.newInstance();
+    /**
+     * Pixels of the previous read with {@link #REGIONS}, to be filled again by the next one.
+     */
+    public static final ScopedValue<Object> REGION_PIXELS = ScopedValue.newInstance();
 
 	/**
 	 * Main processing method for the FITS_Reader object
@@ -160,6 +171,27 @@ public class FITS_Reader extends ImagePlus implements PlugIn {
 					return;
 				}
 
+				if (REGIONS.isBound() && r.size() == 1) {
+					var ip = r.getRegions(REGIONS.get(), REGION_PIXELS.orElse(null));
+					if (ip != null) {
+						setProcessor(fileName, ip);
+						IJ.showStatus("");
+						return;
+					}
+				}
+
+				// Large cubes are decoded a plane at a time as they are viewed
+				var cube = r.size() > 1 ? r.getCubeStack() : null;
+				if (cube != null) {
+					for (int i = 0; i < cube.size(); i++) {
+						cube.setSliceLabel(sliceLabel(i, cube.size(), hdrs[i]), i + 1);
+					}
+
+					setStack(fileName, cube);
+					IJ.showStatus("");
+					return;
+				}
+
 				var ips = r.getProcessors();
 
 				if (r.size() == 1) {
@@ -171,9 +203,7 @@ public class FITS_Reader extends ImagePlus implements PlugIn {
 				} else if (r.size() > 1) {
 					var stack = new ImageStack();
 					for (int i = 0; i < r.size(); i++) {
-						stack.addSlice(fileBase + "_" +
-								(r.size() < 10000 ? fourDigits.format(i + 1) : (i + 1)) +
-								(!fileType.isEmpty() ? "." + fileType : "") + "\n" + hdrs[i], ips[i]);
+						stack.addSlice(sliceLabel(i, r.size(), hdrs[i]), ips[i]);
 					}
 
 					setStack(fileName, stack);
@@ -317,6 +347,12 @@ public class FITS_Reader extends ImagePlus implements PlugIn {
 
 	}
 
+	/** Label of slice {@code i} (0-based) of a stack read from this file, its name followed by the header. */
+	private String sliceLabel(int i, int size, String header) {
+		return fileBase + "_" + (size < 10000 ? fourDigits.format(i + 1) : (i + 1)) +
+				(!fileType.isEmpty() ? "." + fileType : "") + "\n" + header;
+	}
+
 	public static void makeHeaderCardFilter(String k1, String v1, String k2, String v2, String useAnd) {
 		k1 = k1.equals("") ? null : k1.toUpperCase();
 		v1 = v1.equals("") ? null : v1.toLowerCase();
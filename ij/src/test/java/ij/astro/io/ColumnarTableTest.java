@@ -0,0 +1,278 @@
+package ij.astro.io;
+
+import ij.measure.ResultsTable;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link ColumnarTable} files written, appended to, and damaged in a temporary directory.
+ */
+class ColumnarTableTest {
+    private static final int HEADER_POINTERS = 32;
+
+    @TempDir
+    Path dir;
+
+    /**
+     * More rows than fit in one block, with row labels, text, and missing values.
+     */
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void roundTrip(boolean compress) throws IOException {
+        var table = table(70_000, true);
+        table.metadata.put("OBS", "AIJ");
+        var file = dir.resolve("table.ctbl");
+        var before = ColumnarTable.COMPRESS.get();
+        try {
+            ColumnarTable.COMPRESS.set(compress);
+            ColumnarTable.write(table, file);
+        } finally {
+            ColumnarTable.COMPRESS.set(before);
+        }
+
+        assertTrue(ColumnarTable.isColumnarFile(file));
+        assertEquals(List.of("Label", "Flux", "Filter", "Error"), ColumnarTable.headings(file));
+        var read = read(file);
+        assertSame(table, read);
+        assertEquals("AIJ", read.metadata.get("OBS"));
+    }
+
+    @Test
+    void selectedColumns() throws IOException {
+        var file = dir.resolve("table.ctbl");
+        ColumnarTable.write(table(100, true), file);
+        var read = new ResultsTable();
+        ColumnarTable.read(read, file, "Error"::equals);
+        assertEquals(100, read.size());
+        assertEquals(ResultsTable.COLUMN_NOT_FOUND, read.getColumnIndex("Flux"));
+        assertFalse(read.hasRowLabels());
+        assertEquals(7.5, read.getValue("Error", 5));
+    }
+
+    @Test
+    void emptyTable() throws IOException {
+        var table = new ResultsTable();
+        table.setHeading(0, "Flux");
+        var file = dir.resolve("table.ctbl");
+        ColumnarTable.write(table, file);
+        assertEquals(0, read(file).size());
+    }
+
+    /**
+     * A text column named {@code Label} is an ordinary column when the table has no row labels.
+     */
+    @Test
+    void labelColumnIsNotRowLabels() throws IOException {
+        var table = new ResultsTable();
+        for (int i = 0; i < 5; i++) {
+            table.incrementCounter();
+            table.addValue("Label", "star " + i);
+            table.addValue("Flux", i);
+        }
+        assertFalse(table.hasRowLabels());
+        var file = dir.resolve("table.ctbl");
+        ColumnarTable.write(table, file);
+
+        var read = read(file);
+        assertFalse(read.hasRowLabels());
+        assertEquals("star 3", read.getStringValue("Label", 3));
+        assertNull(read.getLabel(3));
+        assertSame(table, read);
+    }
+
+    @Test
+    void appendInBatches() throws IOException {
+        var file = dir.resolve("table.ctbl");
+        var appender = new ColumnarTable.Appender(file, 10);
+        var table = new ResultsTable();
+        for (int i = 0; i < 100; i++) {
+            addRow(table, i, true);
+            appender.accept(table);
+            if (i % 10 == 9) {
+                assertSame(table, read(file));
+            }
+        }
+        appender.flush(table);
+        assertSame(table, read(file));
+        // Old indexes are dropped once they take more space than the table
+        var rewritten = dir.resolve("rewritten.ctbl");
+        ColumnarTable.write(table, rewritten);
+        assertTrue(Files.size(file) <= 2 * Files.size(rewritten));
+        assertFalse(Files.exists(dir.resolve("table.ctbl.tmp")));
+    }
+
+    /**
+     * Rows that do not continue the file, or a change of columns or row labels, rewrite the whole table.
+     */
+    @Test
+    void appendRewritesOnMismatch() throws IOException {
+        var file = dir.resolve("table.ctbl");
+        ColumnarTable.write(table(20, true), file);
+
+        var moreColumns = table(30, true);
+        moreColumns.setValue("Extra", 0, 1);
+        ColumnarTable.append(moreColumns, file, 20);
+        assertSame(moreColumns, read(file));
+
+        var noLabels = table(40, false);
+        ColumnarTable.append(noLabels, file, 30);
+        assertSame(noLabels, read(file));
+        assertFalse(read(file).hasRowLabels());
+
+        var shorter = table(10, false);
+        ColumnarTable.append(shorter, file, 5);
+        assertSame(shorter, read(file));
+    }
+
+    /**
+     * An append that stops before the header is pointed at its index leaves the table as it was.
+     */
+    @Test
+    void interruptedAppend() throws IOException {
+        var file = dir.resolve("table.ctbl");
+        ColumnarTable.write(table(50, true), file);
+        var header = readHeader(file);
+
+        ColumnarTable.append(table(80, true), file, 50);
+        assertEquals(80, read(file).size());
+        writeHeader(file, header);
+        assertSame(table(50, true), read(file));
+
+        // Also with the new index, or part of the new block, missing
+        var afterAppend = Files.size(file);
+        for (long cut : new long[]{afterAppend - 1, afterAppend - 200}) {
+            try (var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(cut);
+            }
+            assertSame(table(50, true), read(file));
+        }
+    }
+
+    @Test
+    void truncated() throws IOException {
+        var file = dir.resolve("table.ctbl");
+        ColumnarTable.write(table(1000, true), file);
+        var bytes = Files.readAllBytes(file);
+        for (int length : new int[]{0, 5, 12, HEADER_POINTERS, 60, bytes.length / 2, bytes.length - 1}) {
+            Files.write(file, Arrays.copyOf(bytes, length));
+            assertThrows(IOException.class, () -> read(file), "truncated to " + length);
+        }
+    }
+
+    @Test
+    void corrupt() throws IOException {
+        var file = dir.resolve("table.ctbl");
+        ColumnarTable.write(table(1000, true), file);
+        var good = Files.readAllBytes(file);
+        var indexPosition = ByteBuffer.wrap(good, 24, 8).getLong();
+
+        // Row count disagreeing with the index
+        var bytes = good.clone();
+        ByteBuffer.wrap(bytes).putLong(16, 999);
+        Files.write(file, bytes);
+        assertThrows(IOException.class, () -> read(file));
+
+        // A run past the index
+        bytes = good.clone();
+        ByteBuffer.wrap(bytes).putLong((int) indexPosition + 8, indexPosition);
+        Files.write(file, bytes);
+        assertThrows(IOException.class, () -> read(file));
+
+        // A huge run length
+        bytes = good.clone();
+        ByteBuffer.wrap(bytes).putInt((int) indexPosition + 16, Integer.MAX_VALUE);
+        Files.write(file, bytes);
+        assertThrows(IOException.class, () -> read(file));
+
+        // A string longer than its run
+        bytes = good.clone();
+        var labelRun = (int) ByteBuffer.wrap(good).getLong((int) indexPosition + 8);
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(labelRun, 1 << 20);
+        Files.write(file, bytes);
+        assertThrows(IOException.class, () -> read(file));
+
+        bytes = good.clone();
+        bytes[0] = 'X';
+        Files.write(file, bytes);
+        assertFalse(ColumnarTable.isColumnarFile(file));
+        assertThrows(IOException.class, () -> read(file));
+    }
+
+    private static ResultsTable table(int rows, boolean labels) {
+        var table = new ResultsTable();
+        for (int i = 0; i < rows; i++) {
+            addRow(table, i, labels);
+        }
+        return table;
+    }
+
+    private static void addRow(ResultsTable table, int i, boolean labels) {
+        table.incrementCounter();
+        if (labels) {
+            table.addLabel("frame_" + i + ".fits");
+        }
+        table.addValue("Flux", i % 7 == 0 ? Double.NaN : 1000 + 0.25 * i);
+        table.addValue("Filter", i % 2 == 0 ? "V" : "Ü-band");
+        table.addValue("Error", 1.5 * i);
+    }
+
+    private static ResultsTable read(Path file) throws IOException {
+        var table = new ResultsTable();
+        ColumnarTable.read(table, file, _ -> true);
+        return table;
+    }
+
+    private static void assertSame(ResultsTable expected, ResultsTable actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.hasRowLabels(), actual.hasRowLabels());
+        for (int c = 0; c <= expected.getLastColumn(); c++) {
+            if (!expected.columnExists(c)) {
+                continue;
+            }
+            var heading = expected.getColumnHeading(c);
+            var index = actual.getColumnIndex(heading);
+            assertTrue(actual.columnExists(index), heading);
+            assertEquals(expected.isStringColumn(c), actual.isStringColumn(index), heading);
+            for (int row = 0; row < expected.size(); row++) {
+                if (expected.isStringColumn(c)) {
+                    assertEquals(expected.getStringValue(c, row), actual.getStringValue(index, row), heading);
+                } else {
+                    assertEquals(expected.getValueAsDouble(c, row), actual.getValueAsDouble(index, row), heading);
+                }
+            }
+        }
+        for (int row = 0; row < expected.size(); row++) {
+            assertEquals(expected.getLabel(row), actual.getLabel(row));
+        }
+    }
+
+    private static byte[] readHeader(Path file) throws IOException {
+        try (var in = Files.newInputStream(file)) {
+            return in.readNBytes(HEADER_POINTERS);
+        }
+    }
+
+    private static void writeHeader(Path file, byte[] header) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(header), 0);
+        }
+    }
+}
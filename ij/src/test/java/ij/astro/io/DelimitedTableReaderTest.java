@@ -0,0 +1,164 @@
+package ij.astro.io;
+
+import ij.measure.ResultsTable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link DelimitedTableReader} must open the same table as the text reader of {@link ResultsTable#open(String)}.
+ */
+class DelimitedTableReaderTest {
+    @TempDir
+    Path dir;
+
+    @AfterEach
+    void restore() {
+        DelimitedTableReader.ENABLED.set(true);
+    }
+
+    @Test
+    void plainHeadings() throws IOException {
+        assertSameTable("plain.txt", """
+                A\tB\tC
+                1\t2.5\t-3e-4
+                4\t5\t6
+                """);
+    }
+
+    @Test
+    void quotedCsv() throws IOException {
+        assertSameTable("quoted.csv", """
+                "Name","X, px","Y"
+                "first, star",1.5,2
+                "second",3,"4"
+                """);
+    }
+
+    @Test
+    void notANumber() throws IOException {
+        assertSameTable("nan.csv", """
+                A,B,C
+                NaN,1,nan
+                2,NaN,Infinity
+                """);
+    }
+
+    @Test
+    void emptyCells() throws IOException {
+        assertSameTable("empty.csv", """
+                A,B,C
+                1,,3
+                ,5,
+                7,8
+                """);
+    }
+
+    @Test
+    void emptyTabCells() throws IOException {
+        assertSameTable("empty.txt", """
+                A\tB\tC
+                1\t\t3
+                \t5\t
+                """);
+    }
+
+    @Test
+    void rowNumbersAndLabels() throws IOException {
+        assertSameTable("labels.tbl", """
+                 \tLabel\tJD\tFlux
+                1\tframe_1.fits\t2459000.5\t1200.25
+                2\tframe_2.fits\t2459000.6\tsaturated
+                3\tframe_3.fits\t2459000.7\t1190
+                """);
+    }
+
+    @Test
+    void quotedLabels() throws IOException {
+        assertSameTable("quotedLabels.csv", """
+                 ,Label,Flux
+                1,"frame, 1",1200.25
+                2,frame_2,"1,199"
+                """);
+    }
+
+    @Test
+    void labelsFirst() throws IOException {
+        assertSameTable("labelsFirst.csv", """
+                Label,JD,Flux
+                frame_1.fits,2459000.5,1200.25
+                frame_2.fits,2459000.6,1199
+                """);
+    }
+
+    @Test
+    void numericHeadings() throws IOException {
+        assertSameTable("numeric.txt", """
+                1\t2\t3
+                4\t5\t6
+                7\t8\t9
+                """);
+    }
+
+    @Test
+    void textColumns() throws IOException {
+        assertSameTable("text.csv", """
+                Filter,Exposure,Note
+                V,30,ok
+                R,60,"cloud, thin"
+                B,NaN,
+                """);
+    }
+
+    @Test
+    void headingsOnly() throws IOException {
+        assertSameTable("headings.csv", """
+                A,B,C
+                """);
+    }
+
+    @Test
+    void onlyLocalFiles() {
+        assertFalse(DelimitedTableReader.canRead(dir.toString()));
+        assertFalse(DelimitedTableReader.canRead(dir.resolve("missing.csv").toString()));
+        assertFalse(DelimitedTableReader.canRead("https://example.com/table.csv"));
+    }
+
+    private void assertSameTable(String name, String text) throws IOException {
+        var path = dir.resolve(name);
+        Files.writeString(path, text);
+        assertTrue(DelimitedTableReader.canRead(path.toString()));
+
+        DelimitedTableReader.ENABLED.set(false);
+        var expected = ResultsTable.open(path.toString());
+        DelimitedTableReader.ENABLED.set(true);
+        var actual = ResultsTable.open(path.toString());
+        assertNotNull(expected);
+        assertNotNull(actual);
+
+        assertArrayEquals(expected.getHeadings(), actual.getHeadings(), "headings");
+        assertEquals(expected.size(), actual.size(), "rows");
+        assertEquals(expected.getLastColumn(), actual.getLastColumn(), "columns");
+        for (int row = 0; row < expected.size(); row++) {
+            assertEquals(expected.getLabel(row), actual.getLabel(row), "label of row " + row);
+            for (int column = 0; column <= expected.getLastColumn(); column++) {
+                if (!expected.columnExists(column)) {
+                    continue;
+                }
+                var at = "row " + row + ", column " + expected.getColumnHeading(column);
+                assertEquals(expected.getStringValue(column, row), actual.getStringValue(column, row), at);
+                assertEquals(expected.getValueAsDouble(column, row), actual.getValueAsDouble(column, row), at);
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package ij.astro.io;
+
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/**
+ * {@link FitsCubeStack} over cubes of raw big-endian pixels, as they follow the header of a FITS file.
+ */
+class FitsCubeStackTest {
+    private static final int WIDTH = 40;
+    private static final int HEIGHT = 20;
+
+    @TempDir
+    Path dir;
+
+    /**
+     * A plane past the end of the file gives an error slice of the stack's bit depth, and is read again once the
+     * file holds it rather than the error being cached.
+     */
+    @ParameterizedTest
+    @ValueSource(ints = {8, 16, 32, 64, -32, -64})
+    void failedPlaneIsNotCached(int bitpix) throws IOException {
+        var file = dir.resolve("cube.raw");
+        Files.write(file, plane(bitpix, 7));
+        var stack = new FitsCubeStack(file, 0, bitpix, WIDTH, HEIGHT, 2, 0, 1);
+
+        var ip = stack.getProcessor(1);
+        assertEquals(stack.getBitDepth(), ip.getBitDepth());
+        assertEquals(7, ip.getPixelValue(3, 4));
+
+        var error = stack.getProcessor(2);
+        assertEquals(stack.getBitDepth(), error.getBitDepth(), "error slice for BITPIX " + bitpix);
+        assertEquals(WIDTH, error.getWidth());
+        assertEquals(HEIGHT, error.getHeight());
+        assertNotEquals(5, error.getPixelValue(3, 4));
+
+        Files.write(file, plane(bitpix, 5), StandardOpenOption.APPEND);
+        ip = stack.getProcessor(2);
+        assertEquals(stack.getBitDepth(), ip.getBitDepth());
+        assertEquals(5, ip.getPixelValue(3, 4));
+    }
+
+    /**
+     * A plane with every pixel set to {@code value}.
+     */
+    private static byte[] plane(int bitpix, int value) {
+        var buffer = ByteBuffer.allocate(WIDTH * HEIGHT * Math.abs(bitpix) / 8);
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            switch (bitpix) {
+                case 8 -> buffer.put((byte) value);
+                case 16 -> buffer.putShort((short) value);
+                case 32 -> buffer.putInt(value);
+                case 64 -> buffer.putLong(value);
+                case -32 -> buffer.putFloat(value);
+                case -64 -> buffer.putDouble(value);
+                default -> throw new IllegalArgumentException("BITPIX " + bitpix);
+            }
+        }
+        return buffer.array();
+    }
+}
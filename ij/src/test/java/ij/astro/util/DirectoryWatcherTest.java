@@ -0,0 +1,164 @@
+package ij.astro.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link DirectoryWatcher} on a temporary directory, with a short quiet time.
+ */
+class DirectoryWatcherTest {
+    private static final long QUIET_MILLIS = 300;
+    private static final long TIMEOUT_MILLIS = 10_000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void existingFiles() throws Exception {
+        var old = Files.writeString(dir.resolve("old.fits"), "old");
+        Files.setLastModifiedTime(old, FileTime.fromMillis(System.currentTimeMillis() - 60_000));
+        Files.writeString(dir.resolve("recent.fits"), "recent");
+        Files.createDirectory(dir.resolve("sub"));
+
+        try (var watcher = new DirectoryWatcher(dir, QUIET_MILLIS)) {
+            assertEquals(Set.of("old.fits", "recent.fits", "sub"), watcher.names());
+            // Long since written, so reported without waiting
+            assertEquals(List.of("old.fits"), names(watcher.poll(0)));
+            assertEquals(List.of("recent.fits"), names(pollFor(watcher, 1)));
+            assertTrue(watcher.poll(2 * QUIET_MILLIS).isEmpty(), "directories are not reported");
+        }
+    }
+
+    @Test
+    void createdFiles() throws Exception {
+        try (var watcher = new DirectoryWatcher(dir, QUIET_MILLIS)) {
+            assertTrue(watcher.names().isEmpty());
+            Files.writeString(dir.resolve("a.fits"), "a");
+            Files.writeString(dir.resolve("b.fits"), "b");
+
+            assertEquals(List.of("a.fits", "b.fits"), names(pollFor(watcher, 2)));
+            assertEquals(Set.of("a.fits", "b.fits"), watcher.names());
+            assertEquals(2, watcher.stats().files());
+        }
+    }
+
+    /**
+     * A file being written to is only reported once it has been left alone for the quiet time.
+     */
+    @Test
+    void quietPeriod() throws Exception {
+        try (var watcher = new DirectoryWatcher(dir, QUIET_MILLIS)) {
+            var file = dir.resolve("slow.fits");
+            Files.writeString(file, "start");
+            for (int i = 0; i < 8; i++) {
+                assertTrue(watcher.poll(QUIET_MILLIS / 3).isEmpty(), "reported while being written");
+                Files.writeString(file, "more", StandardOpenOption.APPEND);
+            }
+
+            var arrivals = pollFor(watcher, 1);
+            assertEquals(List.of("slow.fits"), names(arrivals));
+            var arrival = arrivals.getFirst();
+            assertTrue(arrival.readyNanos() - arrival.lastEventNanos() >= TimeUnit.MILLISECONDS.toNanos(QUIET_MILLIS));
+            assertTrue(arrival.lastEventNanos() - arrival.firstEventNanos()
+                    >= TimeUnit.MILLISECONDS.toNanos(8 * QUIET_MILLIS / 3));
+        }
+    }
+
+    /**
+     * A file is reported once, even if it is written to again afterwards.
+     */
+    @Test
+    void modifiedAfterReport() throws Exception {
+        try (var watcher = new DirectoryWatcher(dir, QUIET_MILLIS)) {
+            var file = Files.writeString(dir.resolve("a.fits"), "a");
+            assertEquals(List.of("a.fits"), names(pollFor(watcher, 1)));
+
+            Files.writeString(file, "changed", StandardOpenOption.APPEND);
+            assertTrue(watcher.poll(3 * QUIET_MILLIS).isEmpty());
+        }
+    }
+
+    @Test
+    void deletedFiles() throws Exception {
+        try (var watcher = new DirectoryWatcher(dir, QUIET_MILLIS)) {
+            // Deleted before it was done, so never reported
+            var gone = Files.writeString(dir.resolve("gone.fits"), "gone");
+            Files.delete(gone);
+            var kept = Files.writeString(dir.resolve("kept.fits"), "kept");
+            assertEquals(List.of("kept.fits"), names(pollFor(watcher, 1)));
+            assertEquals(Set.of("kept.fits"), watcher.names());
+
+            // Deleted and written again, so reported again
+            Files.delete(kept);
+            assertTrue(watcher.poll(2 * QUIET_MILLIS).isEmpty());
+            assertTrue(watcher.names().isEmpty());
+            Files.writeString(kept, "again");
+            assertEquals(List.of("kept.fits"), names(pollFor(watcher, 1)));
+        }
+    }
+
+    /**
+     * More events than the watch service queues for a directory are reported as an overflow, after which the
+     * directory is listed again and no file is missed.
+     */
+    @Test
+    void overflow() throws Exception {
+        try (var watcher = new DirectoryWatcher(dir, QUIET_MILLIS)) {
+            var expected = new HashSet<String>();
+            for (int i = 0; i < 2000; i++) {
+                var name = "frame_%04d.fits".formatted(i);
+                Files.writeString(dir.resolve(name), name);
+                expected.add(name);
+            }
+
+            var arrivals = pollFor(watcher, expected.size());
+            assertEquals(expected, new HashSet<>(names(arrivals)));
+            assertEquals(expected.size(), arrivals.size(), "each file reported once");
+            assertEquals(expected, watcher.names());
+            assertNull(watcher.failure());
+            assertFalse(watcher.isClosed());
+        }
+    }
+
+    @Test
+    void closed() throws Exception {
+        var watcher = new DirectoryWatcher(dir, QUIET_MILLIS);
+        watcher.close();
+        Files.writeString(dir.resolve("a.fits"), "a");
+        assertTrue(watcher.isClosed());
+        assertTrue(watcher.poll(2 * QUIET_MILLIS).isEmpty());
+    }
+
+    /**
+     * Polls until {@code count} files have been reported, or fails after {@link #TIMEOUT_MILLIS}.
+     */
+    private static List<DirectoryWatcher.Arrival> pollFor(DirectoryWatcher watcher, int count)
+            throws InterruptedException {
+        var arrivals = new ArrayList<DirectoryWatcher.Arrival>();
+        var deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+        while (arrivals.size() < count) {
+            assertTrue(System.nanoTime() < deadline, "only " + arrivals.size() + " of " + count + " reported");
+            arrivals.addAll(watcher.poll(QUIET_MILLIS));
+        }
+        return arrivals;
+    }
+
+    private static List<String> names(List<DirectoryWatcher.Arrival> arrivals) {
+        return arrivals.stream().map(DirectoryWatcher.Arrival::name).toList();
+    }
+}